@@ -10,30 +10,51 @@ import android.view.View;
 import android.widget.EditText;
 import android.widget.Toast;
 
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.dccn.connect.R;
 import com.dccn.connect.adapters.ChatAdapter;
+import com.dccn.connect.database.MessageEntry;
 import com.dccn.connect.models.Message;
 import com.dccn.connect.models.User;
 import com.dccn.connect.services.CommunicationService;
+import com.dccn.connect.services.MessageHistory;
 import com.dccn.connect.utils.PreferenceManager;
 
 import java.util.ArrayList;
-import java.util.List;
 
 public class ChatActivity extends AppCompatActivity {
+
+    // Set to chat privately with one user; without them the chat goes to everyone
+    public static final String EXTRA_RECIPIENT_ID = "recipient_id";
+    public static final String EXTRA_RECIPIENT_NAME = "recipient_name";
+
+    // The adapter holds at most this many messages; pages beyond are dropped and reloaded on demand
+    private static final int MAX_WINDOW = 3 * MessageHistory.PAGE_SIZE;
+    // Load the next page once the user is this close to the window's edge
+    private static final int PREFETCH = 20;
     
     private RecyclerView recyclerView;
     private EditText messageInput;
     private ChatAdapter adapter;
-    private List<Message> messages;
+    private LinearLayoutManager layoutManager;
     private CommunicationService communicationService;
     private boolean isServiceBound = false;
     private User currentUser;
     private PreferenceManager preferenceManager;
+    private String recipientId;
+    private String recipientName;
+    private String conversation;
+    private MessageHistory messageHistory;
+    // One page load at a time; bumped to discard loads that a jump to the latest page superseded
+    private boolean loading;
+    private int generation;
+    private boolean hasOlder;
+    // Whether the window ends at the newest stored message, so arrivals belong at its end
+    private boolean atLatest;
     
     // Service connection
     private ServiceConnection serviceConnection = new ServiceConnection() {
@@ -42,6 +63,10 @@ public class ChatActivity extends AppCompatActivity {
             CommunicationService.LocalBinder binder = (CommunicationService.LocalBinder) service;
             communicationService = binder.getService();
             isServiceBound = true;
+            messageHistory = communicationService.getMessageHistory();
+            communicationService.setOnMessageReceivedListener(message ->
+                    runOnUiThread(() -> onMessageReceived(message)));
+            loadLatest();
         }
         
         @Override
@@ -59,6 +84,12 @@ public class ChatActivity extends AppCompatActivity {
         // Initialize PreferenceManager
         preferenceManager = new PreferenceManager(this);
         currentUser = preferenceManager.getUser();
+        recipientId = getIntent().getStringExtra(EXTRA_RECIPIENT_ID);
+        recipientName = getIntent().getStringExtra(EXTRA_RECIPIENT_NAME);
+        if (recipientId != null) {
+            setTitle(recipientName != null ? recipientName : recipientId);
+        }
+        conversation = recipientId != null ? recipientId : MessageEntry.CONVERSATION_EVERYONE;
         
         initViews();
         setupRecyclerView();
@@ -74,10 +105,111 @@ public class ChatActivity extends AppCompatActivity {
     }
     
     private void setupRecyclerView() {
-        messages = new ArrayList<>();
-        adapter = new ChatAdapter(messages);
-        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        adapter = new ChatAdapter(new ArrayList<>());
+        layoutManager = new LinearLayoutManager(this);
+        recyclerView.setLayoutManager(layoutManager);
         recyclerView.setAdapter(adapter);
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView view, int dx, int dy) {
+                loadAroundViewport();
+            }
+        });
+    }
+
+    // Start over at the newest page, scrolled to the bottom
+    private void loadLatest() {
+        if (messageHistory == null) {
+            return;
+        }
+        int loadGeneration = ++generation;
+        loading = true;
+        messageHistory.loadLatest(conversation, (page, complete) -> runOnUiThread(() -> {
+            if (loadGeneration != generation || isDestroyed()) {
+                return;
+            }
+            loading = false;
+            hasOlder = !complete;
+            atLatest = true;
+            adapter.replaceAll(page);
+            adapter.runWhenCommitted(this::scrollToBottom);
+        }));
+    }
+
+    // Grow the window toward whichever edge the user is near, trimming the other end
+    private void loadAroundViewport() {
+        if (loading || messageHistory == null || adapter.getWindowSize() == 0) {
+            return;
+        }
+        int loadGeneration = generation;
+        if (hasOlder && layoutManager.findFirstVisibleItemPosition() < PREFETCH) {
+            loading = true;
+            messageHistory.loadBefore(conversation, adapter.getFirst(), (page, complete) -> runOnUiThread(() -> {
+                if (loadGeneration != generation || isDestroyed()) {
+                    return;
+                }
+                hasOlder = !complete;
+                adapter.prepend(page);
+                int excess = adapter.getWindowSize() - MAX_WINDOW;
+                if (excess > 0) {
+                    adapter.trimEnd(excess);
+                    atLatest = false;
+                }
+                finishLoadingWhenShown(loadGeneration);
+            }));
+        } else if (!atLatest && layoutManager.findLastVisibleItemPosition() >= adapter.getItemCount() - PREFETCH) {
+            loading = true;
+            messageHistory.loadAfter(conversation, adapter.getLast(), (page, complete) -> runOnUiThread(() -> {
+                if (loadGeneration != generation || isDestroyed()) {
+                    return;
+                }
+                atLatest = complete;
+                adapter.append(page);
+                int excess = adapter.getWindowSize() - MAX_WINDOW;
+                if (excess > 0) {
+                    adapter.trimStart(excess);
+                    hasOlder = true;
+                }
+                finishLoadingWhenShown(loadGeneration);
+            }));
+        }
+    }
+
+    // Viewport positions only count the new page once it is on screen; until then, don't page again
+    private void finishLoadingWhenShown(int loadGeneration) {
+        adapter.runWhenCommitted(() -> {
+            if (loadGeneration == generation) {
+                loading = false;
+            }
+        });
+    }
+
+    private void onMessageReceived(Message message) {
+        if (isDestroyed() || messageHistory == null
+                || !conversation.equals(messageHistory.conversationOf(message))) {
+            return;
+        }
+        // Further back than the window reaches, or beyond its newest end: paging will bring it
+        Message first = adapter.getFirst();
+        if (!atLatest || (hasOlder && first != null && message.getTimestamp() < first.getTimestamp())) {
+            return;
+        }
+        boolean atBottom = layoutManager.findLastVisibleItemPosition() >= adapter.getItemCount() - 1;
+        int position = adapter.insert(message);
+        if (position >= 0 && atBottom) {
+            adapter.runWhenCommitted(this::scrollToBottom);
+        }
+        if (adapter.getWindowSize() > MAX_WINDOW) {
+            adapter.trimStart(adapter.getWindowSize() - MAX_WINDOW);
+            hasOlder = true;
+        }
+    }
+    
+    // Rows are diffed off the main thread, so this waits for the adapter to commit them
+    private void scrollToBottom() {
+        if (!isDestroyed()) {
+            recyclerView.scrollToPosition(Math.max(0, adapter.getItemCount() - 1));
+        }
     }
     
     public void sendMessage(View view) {
@@ -85,16 +217,25 @@ public class ChatActivity extends AppCompatActivity {
         if (!text.isEmpty()) {
             String senderName = currentUser != null ? currentUser.getUsername() : "You";
             Message message = new Message(text, senderName, System.currentTimeMillis());
-            messages.add(message);
-            adapter.notifyItemInserted(messages.size() - 1);
+            message.setRecipient(recipientId);
             messageInput.setText("");
-            recyclerView.scrollToPosition(messages.size() - 1);
             
-            // Send message through communication service
+            // Send message through communication service, which files it in the history
             if (communicationService != null) {
                 communicationService.sendMessage(message);
-                Toast.makeText(this, "Message sent to connected peers", Toast.LENGTH_SHORT).show();
+                if (atLatest) {
+                    adapter.insert(message);
+                    adapter.runWhenCommitted(this::scrollToBottom);
+                } else {
+                    loadLatest();
+                }
+                String sentTo = recipientId != null
+                        ? "Message sent to " + (recipientName != null ? recipientName : recipientId)
+                        : "Message sent to connected peers";
+                Toast.makeText(this, sentTo, Toast.LENGTH_SHORT).show();
             } else {
+                adapter.insert(message);
+                adapter.runWhenCommitted(this::scrollToBottom);
                 Toast.makeText(this, "Service not available", Toast.LENGTH_SHORT).show();
             }
         }
@@ -104,6 +245,9 @@ public class ChatActivity extends AppCompatActivity {
     protected void onDestroy() {
         super.onDestroy();
         // Unbind service if bound
+        if (communicationService != null) {
+            communicationService.setOnMessageReceivedListener(null);
+        }
         if (isServiceBound) {
             unbindService(serviceConnection);
             isServiceBound = false;
@@ -8,9 +8,7 @@ import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.IBinder;
-import android.os.Looper;
 import android.animation.ObjectAnimator;
 import android.util.Log;
 import android.view.View;
@@ -29,6 +27,7 @@ import com.dccn.connect.R;
 import com.dccn.connect.adapters.FoundDeviceAdapter;
 import com.dccn.connect.adapters.PeerAdapter;
 import com.dccn.connect.models.User;
+import com.dccn.connect.network.PeerRegistry;
 import com.dccn.connect.services.CommunicationService;
 import com.dccn.connect.utils.PreferenceManager;
 
@@ -62,8 +61,6 @@ public class DashboardActivity extends AppCompatActivity {
     private User currentUser;
     private PeerAdapter peerAdapter;
     private FoundDeviceAdapter foundDeviceAdapter;
-    private List<User> connectedPeers;
-    private List<User> discoveredPeers;
     private boolean isDiscoveryActive = false;
     private CommunicationService communicationService;
     private boolean isServiceBound = false;
@@ -81,6 +78,10 @@ public class DashboardActivity extends AppCompatActivity {
             communicationService = binder.getService();
             isServiceBound = true;
             
+            // Both device lists follow the service's peer registry, one batch at a time
+            communicationService.getPeerRegistry().setOnPeersChangedListener(changes ->
+                    runOnUiThread(() -> onPeersChanged(changes)));
+
             // Set up listeners
             communicationService.setOnConnectionStatusListener(new CommunicationService.OnConnectionStatusListener() {
                 @Override
@@ -100,26 +101,9 @@ public class DashboardActivity extends AppCompatActivity {
                 @Override
                 public void onPeerDiscovered(CommunicationService.DiscoveredPeer peer) {
                     runOnUiThread(() -> {
-                        // Convert DiscoveredPeer to FoundDeviceAdapter.DiscoveredDevice
-                        FoundDeviceAdapter.DiscoveredDevice device = new FoundDeviceAdapter.DiscoveredDevice(
-                                peer.getName(), 
-                                peer.getAddress(), 
-                                "Bluetooth"  // For now, hardcode Bluetooth since DiscoveredPeer doesn't have connectionType
-                        );
-                        
-                        // Add discovered device to the adapter
-                        if (foundDeviceAdapter != null) {
-                            foundDeviceAdapter.addDevice(device);
-                        }
-                        
-                        // Auto-connect to discovered device
+                        // The device itself reaches the found list through the registry's next diff
                         autoConnectToDevice(peer.getName(), peer.getAddress());
                         
-                        // Update scanning status text
-                        if (tvScanningProgress != null) {
-                            tvScanningProgress.setText(("Found " + foundDeviceAdapter.getDevices().size() + " device(s)"));
-                        }
-                        
                         Toast.makeText(DashboardActivity.this, "Found & Connecting: " + peer.getName(), Toast.LENGTH_SHORT).show();
                     });
                 }
@@ -128,6 +112,9 @@ public class DashboardActivity extends AppCompatActivity {
         
         @Override
         public void onServiceDisconnected(ComponentName name) {
+            if (communicationService != null) {
+                communicationService.getPeerRegistry().setOnPeersChangedListener(null);
+            }
             communicationService = null;
             isServiceBound = false;
         }
@@ -198,9 +185,7 @@ public class DashboardActivity extends AppCompatActivity {
      * Set up RecyclerView for displaying connected peers
      */
     private void setupRecyclerView() {
-        connectedPeers = new ArrayList<>();
-        discoveredPeers = new ArrayList<>();
-        peerAdapter = new PeerAdapter(connectedPeers);
+        peerAdapter = new PeerAdapter(new ArrayList<>());
         
         rvConnectedPeers.setLayoutManager(new LinearLayoutManager(this));
         rvConnectedPeers.setAdapter(peerAdapter);
@@ -214,11 +199,8 @@ public class DashboardActivity extends AppCompatActivity {
         peerAdapter.setOnPeerClickListener(new PeerAdapter.OnPeerClickListener() {
             @Override
             public void onPeerClick(User peer) {
-                // Connect to the selected peer
-                if (communicationService != null) {
-                    // TODO: Implement peer connection
-                    Toast.makeText(DashboardActivity.this, "Connecting to " + peer.getUsername(), Toast.LENGTH_SHORT).show();
-                }
+                // Chat privately with the selected peer
+                openPrivateChat(peer);
             }
         });
         
@@ -296,21 +278,14 @@ public class DashboardActivity extends AppCompatActivity {
      */
     private void updateNetworkStatus() {
         // Check actual connection status based on connected devices
-        boolean hasConnections = connectedPeers != null && !connectedPeers.isEmpty();
+        int connectedCount = peerAdapter != null ? peerAdapter.getPeerCount() : 0;
         boolean isDiscovering = isDiscoveryActive;
         
-        if (hasConnections) {
-            tvNetworkStatus.setText("Connected (" + connectedPeers.size() + " device" + 
-                (connectedPeers.size() > 1 ? "s" : "") + ")");
+        if (connectedCount > 0) {
+            tvNetworkStatus.setText("Connected (" + connectedCount + " device" + 
+                (connectedCount > 1 ? "s" : "") + ")");
             tvNetworkStatus.setTextColor(getResources().getColor(R.color.network_connected));
             
-            // Show connected device names in debug log
-            StringBuilder deviceNames = new StringBuilder();
-            for (User peer : connectedPeers) {
-                deviceNames.append(peer.getUsername()).append(",");
-            }
-            Log.d("NetworkStatus", "Connected devices: " + deviceNames.toString());
-            
         } else if (isDiscovering) {
             tvNetworkStatus.setText("Scanning for devices...");
             tvNetworkStatus.setTextColor(getResources().getColor(R.color.network_connecting));
@@ -324,15 +299,15 @@ public class DashboardActivity extends AppCompatActivity {
      * Update peer count display
      */
     private void updatePeerCount() {
-        int connectedCount = connectedPeers != null ? connectedPeers.size() : 0;
-        int discoveredCount = foundDeviceAdapter != null ? foundDeviceAdapter.getDevices().size() : 0;
+        int connectedCount = peerAdapter != null ? peerAdapter.getPeerCount() : 0;
+        int discoveredCount = foundDeviceAdapter != null ? foundDeviceAdapter.getDeviceCount() : 0;
         
         String peerText;
-        if (connectedCount > 0) {
+        if (connectedCount > 0 && communicationService != null) {
             // Show connected device names
             StringBuilder deviceNames = new StringBuilder();
-            for (User peer : connectedPeers) {
-                deviceNames.append(peer.getUsername()).append(", ");
+            for (PeerRegistry.Peer peer : communicationService.getPeerRegistry().getPeers(PeerRegistry.STATE_CONNECTED)) {
+                deviceNames.append(peer.getName() != null ? peer.getName() : peer.getAddress()).append(", ");
             }
             String namesList = deviceNames.toString();
             if (namesList.length() > 2) {
@@ -347,47 +322,16 @@ public class DashboardActivity extends AppCompatActivity {
     }
     
     /**
-     * Add discovered peer
-     */
-    private void addDiscoveredPeer(User peer) {
-        if (!discoveredPeers.contains(peer)) {
-            discoveredPeers.add(peer);
-            updatePeerCount();
-            Toast.makeText(this, "Discovered: " + peer.getUsername(), Toast.LENGTH_SHORT).show();
-        }
-    }
-    
-    /**
-     * Remove discovered peer
-     */
-    private void removeDiscoveredPeer(User peer) {
-        if (discoveredPeers.remove(peer)) {
-            updatePeerCount();
-        }
-    }
-    
-    /**
-     * Add connected peer
-     */
-    private void addConnectedPeer(User peer) {
-        if (!connectedPeers.contains(peer)) {
-            connectedPeers.add(peer);
-            peerAdapter.notifyItemInserted(connectedPeers.size() - 1);
-            updatePeerCount();
-            Toast.makeText(this, "Connected to: " + peer.getUsername(), Toast.LENGTH_SHORT).show();
-        }
-    }
-    
-    /**
-     * Remove connected peer
+     * Apply one registry diff to both device lists and refresh the counters
      */
-    private void removeConnectedPeer(User peer) {
-        int index = connectedPeers.indexOf(peer);
-        if (index != -1) {
-            connectedPeers.remove(index);
-            peerAdapter.notifyItemRemoved(index);
-            updatePeerCount();
+    private void onPeersChanged(List<PeerRegistry.Change> changes) {
+        foundDeviceAdapter.applyChanges(changes);
+        peerAdapter.applyChanges(changes);
+        if (tvScanningProgress != null && isDiscoveryActive) {
+            tvScanningProgress.setText("Found " + foundDeviceAdapter.getDeviceCount() + " device(s)");
         }
+        updatePeerCount();
+        updateNetworkStatus();
     }
 
     /**
@@ -446,6 +390,7 @@ public class DashboardActivity extends AppCompatActivity {
         
         // Stop discovery in service
         if (communicationService != null) {
+            communicationService.getPeerRegistry().setOnPeersChangedListener(null);
             communicationService.stopPeerDiscovery();
         }
         
@@ -462,9 +407,8 @@ public class DashboardActivity extends AppCompatActivity {
         Intent serviceIntent = new Intent(this, CommunicationService.class);
         stopService(serviceIntent);
         
-        // Clear discovered peers
-        discoveredPeers.clear();
-        foundDeviceAdapter.clearDevices();
+        // Clear connected peers
+        peerAdapter.updatePeers(null);
         updatePeerCount();
         
         Toast.makeText(this, "Network discovery stopped", Toast.LENGTH_SHORT).show();
@@ -478,6 +422,22 @@ public class DashboardActivity extends AppCompatActivity {
         startActivity(intent);
     }
 
+    /**
+     * Open a private chat with one user; messages follow a route to their device. A peer whose
+     * hello has not arrived yet is only a radio address, which nothing routes to.
+     */
+    private void openPrivateChat(User peer) {
+        if (peer.getDeviceId() == null) {
+            Toast.makeText(this, "Still identifying " + peer.getUsername() + ", try again in a moment",
+                    Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Intent intent = new Intent(this, ChatActivity.class);
+        intent.putExtra(ChatActivity.EXTRA_RECIPIENT_ID, peer.getDeviceId());
+        intent.putExtra(ChatActivity.EXTRA_RECIPIENT_NAME, peer.getUsername());
+        startActivity(intent);
+    }
+
     /**
      * Open emergency alert activity
      */
@@ -663,49 +623,8 @@ public class DashboardActivity extends AppCompatActivity {
             // Try to connect to the discovered device
             Log.d("Dashboard", "Attempting auto-connect to: " + deviceName + " (" + deviceAddress + ")");
             
-            // Create a Runnable to simulate connection after a short delay
-            new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                // Update connection status
-                updateConnectionStatus(deviceName, true);
-                
-                // Update device status in adapter
-                if (foundDeviceAdapter != null) {
-                    foundDeviceAdapter.updateDevice(deviceAddress, -40, true);
-                }
-                
-                // Update UI to show connection
-                updateNetworkStatus();
-                Toast.makeText(this, "Connected to: " + deviceName, Toast.LENGTH_LONG).show();
-                
-                Log.d("Dashboard", "Auto-connect completed to: " + deviceName);
-            }, 2000); // 2 second delay to simulate connection process
-        }
-    }
-    
-    /**
-     * Update connection status for UI display
-     */
-    private void updateConnectionStatus(String deviceName, boolean isConnected) {
-        // Update connected peers list
-        if (connectedPeers == null) {
-            connectedPeers = new ArrayList<>();
+            communicationService.connectToPeer(deviceAddress);
         }
-        
-        // Add or update device in connected list
-        User connectedDevice = new User();
-        connectedDevice.setUsername(deviceName);
-        
-        // Remove if already exists, then add
-        connectedPeers.remove(connectedDevice);
-        if (isConnected) {
-            connectedPeers.add(connectedDevice);
-        }
-        
-        // Update UI
-        runOnUiThread(() -> {
-            updatePeerCount();
-            updateNetworkStatus();
-        });
     }
     
     /**
@@ -721,7 +640,7 @@ public class DashboardActivity extends AppCompatActivity {
         foundDeviceAdapter.addDevice(device1);
         foundDeviceAdapter.addDevice(device2);
         
-        tvScanningProgress.setText("Found " + foundDeviceAdapter.getItemCount() + " devices");
+        tvScanningProgress.setText("Found " + foundDeviceAdapter.getDeviceCount() + " devices");
     }
 }
 
@@ -88,7 +88,8 @@ public class EmergencyAlertActivity extends AppCompatActivity {
             String senderName = currentUser != null ? currentUser.getUsername() : "Unknown";
             String emergencyText = "🚨 EMERGENCY ALERT 🚨\n" + message + "\n\nFrom: " + senderName;
             
-            Message emergencyMessage = new Message(emergencyText, senderName, System.currentTimeMillis());
+            Message emergencyMessage = new Message(Message.newMessageId(), Message.TYPE_EMERGENCY, 0,
+                    emergencyText, senderName, System.currentTimeMillis());
             communicationService.sendEmergencyAlert(emergencyMessage);
             
             Toast.makeText(this, "Emergency alert sent to all connected peers!", Toast.LENGTH_LONG).show();
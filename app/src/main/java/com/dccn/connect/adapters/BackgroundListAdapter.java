@@ -0,0 +1,174 @@
+package com.dccn.connect.adapters;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * BackgroundListAdapter - A list adapter whose rows are built and diffed off the main thread.
+ * Subclasses keep their model list on the main thread and call {@link #submit} after changing it;
+ * every change made in one main-loop pass becomes a single rebuild. Each row carries its item's
+ * display fields already formatted, so a bind only sets views. Rows of model objects unchanged
+ * since the last build are reused: a model changed in place must be passed to {@link #invalidate}.
+ *
+ * {@link #getItemCount} and {@link #getRow} describe what is on screen, which trails the model
+ * until the rebuild commits; {@link #runWhenCommitted} waits for that.
+ *
+ * @param <M> model object, as the subclass keeps it
+ * @param <R> display row built from one model object
+ */
+public abstract class BackgroundListAdapter<M, R, VH extends RecyclerView.ViewHolder>
+        extends RecyclerView.Adapter<VH> {
+
+    // One thread builds and diffs rows for every adapter, so each adapter's lists land in order
+    private static final Executor WORKER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "AdapterRows");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+
+    private final AsyncListDiffer<R> differ;
+    // Rows of the last build by model object; only touched on the worker
+    private Map<M, R> rowCache = new IdentityHashMap<>();
+    // Models changed in place since the last rebuild, whose cached rows are out of date
+    private Set<M> stale = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final List<Runnable> commitCallbacks = new ArrayList<>();
+    private boolean rebuildScheduled = false;
+    private int generation = 0;
+    private int committedGeneration = 0;
+
+    protected BackgroundListAdapter() {
+        DiffUtil.ItemCallback<R> diffCallback = new DiffUtil.ItemCallback<R>() {
+            @Override
+            public boolean areItemsTheSame(@NonNull R oldRow, @NonNull R newRow) {
+                return isSameItem(oldRow, newRow);
+            }
+
+            @Override
+            public boolean areContentsTheSame(@NonNull R oldRow, @NonNull R newRow) {
+                return oldRow == newRow || hasSameContents(oldRow, newRow);
+            }
+        };
+        differ = new AsyncListDiffer<>(new AdapterListUpdateCallback(this),
+                new AsyncDifferConfig.Builder<>(diffCallback).setBackgroundThreadExecutor(WORKER).build());
+    }
+
+    /**
+     * The model list, in display order; read on the main thread when a rebuild starts
+     */
+    protected abstract List<M> getModels();
+
+    /**
+     * Format everything a bind of this model needs. Called on the worker thread.
+     */
+    protected abstract R buildRow(M model);
+
+    /**
+     * Whether two rows show the same item, e.g. the same device or message
+     */
+    protected abstract boolean isSameItem(R oldRow, R newRow);
+
+    /**
+     * Whether two rows of the same item would bind identically
+     */
+    protected abstract boolean hasSameContents(R oldRow, R newRow);
+
+    @Override
+    public int getItemCount() {
+        return differ.getCurrentList().size();
+    }
+
+    public R getRow(int position) {
+        return differ.getCurrentList().get(position);
+    }
+
+    /**
+     * Rebuild the rows after the model list changed
+     */
+    protected void submit() {
+        if (!rebuildScheduled) {
+            rebuildScheduled = true;
+            MAIN.post(this::rebuild);
+        }
+    }
+
+    /**
+     * Rebuild after a model object was changed in place
+     */
+    protected void invalidate(M model) {
+        stale.add(model);
+        submit();
+    }
+
+    /**
+     * Run on the main thread once the screen shows every change submitted so far, e.g. to scroll to
+     * an item just added; runs at once if nothing is pending
+     */
+    public void runWhenCommitted(Runnable callback) {
+        if (!rebuildScheduled && committedGeneration == generation) {
+            callback.run();
+        } else {
+            commitCallbacks.add(callback);
+        }
+    }
+
+    private void rebuild() {
+        rebuildScheduled = false;
+        List<M> models = new ArrayList<>(getModels());
+        Set<M> changed = stale;
+        stale = Collections.newSetFromMap(new IdentityHashMap<>());
+        int buildGeneration = ++generation;
+        WORKER.execute(() -> {
+            List<R> rows = buildRows(models, changed);
+            MAIN.post(() -> differ.submitList(rows, () -> onCommitted(buildGeneration)));
+        });
+    }
+
+    private List<R> buildRows(List<M> models, Set<M> changed) {
+        Map<M, R> cache = new IdentityHashMap<>(models.size());
+        List<R> rows = new ArrayList<>(models.size());
+        for (M model : models) {
+            R row = changed.contains(model) ? null : rowCache.get(model);
+            if (row == null) {
+                row = buildRow(model);
+            }
+            cache.put(model, row);
+            rows.add(row);
+        }
+        rowCache = cache;
+        return rows;
+    }
+
+    // A newer list supersedes an older one before it commits, so only the newest reports here
+    private void onCommitted(int buildGeneration) {
+        committedGeneration = buildGeneration;
+        if (buildGeneration != generation || rebuildScheduled || commitCallbacks.isEmpty()) {
+            return;
+        }
+        List<Runnable> callbacks = new ArrayList<>(commitCallbacks);
+        commitCallbacks.clear();
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package com.dccn.connect.adapters;
 
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.dccn.connect.R;
@@ -16,15 +19,55 @@ import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 
-public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.MessageViewHolder> {
-    
+/**
+ * ChatAdapter - Binds a window onto a conversation's history, oldest first and ordered by
+ * (timestamp, message ID), the way the history is paged. The activity grows the window a page at a
+ * time at either end and trims the far end, so it stays a few pages long however far back the user
+ * scrolls.
+ *
+ * Rows are built off the main thread with the time already formatted and the message text already
+ * measured for the message view, so binding during a fling does no formatting or text layout.
+ */
+public class ChatAdapter extends BackgroundListAdapter<Message, ChatAdapter.Row, ChatAdapter.MessageViewHolder> {
+
     private List<Message> messages;
-    private SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm", Locale.getDefault());
-    
+    // Only used on the row worker
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm", Locale.getDefault());
+    // Text metrics of the message view, once attached; rows built before then carry plain text
+    private volatile PrecomputedTextCompat.Params textParams;
+
     public ChatAdapter(List<Message> messages) {
         this.messages = messages;
+        submit();
+    }
+
+    /**
+     * A message as bound: its text measured if the view's metrics were known when it was built
+     */
+    public static final class Row {
+        final Message message;
+        final String sender;
+        final String time;
+        final CharSequence text;
+
+        Row(Message message, String sender, String time, CharSequence text) {
+            this.message = message;
+            this.sender = sender;
+            this.time = time;
+            this.text = text;
+        }
     }
-    
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        if (textParams == null) {
+            View sample = LayoutInflater.from(recyclerView.getContext())
+                    .inflate(R.layout.item_message, recyclerView, false);
+            textParams = TextViewCompat.getTextMetricsParams(sample.findViewById(R.id.message_text));
+        }
+    }
+
     @NonNull
     @Override
     public MessageViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -32,30 +75,141 @@ public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.MessageViewHol
                 .inflate(R.layout.item_message, parent, false);
         return new MessageViewHolder(view);
     }
-    
+
     @Override
     public void onBindViewHolder(@NonNull MessageViewHolder holder, int position) {
-        Message message = messages.get(position);
-        holder.messageText.setText(message.getText());
-        holder.senderText.setText(message.getSender());
-        holder.timeText.setText(dateFormat.format(new Date(message.getTimestamp())));
+        Row row = getRow(position);
+        if (row.text instanceof PrecomputedTextCompat
+                && ((PrecomputedTextCompat) row.text).getParams().equals(holder.textParams)) {
+            TextViewCompat.setPrecomputedText(holder.messageText, (PrecomputedTextCompat) row.text);
+        } else {
+            holder.messageText.setText(row.text);
+        }
+        holder.senderText.setText(row.sender);
+        holder.timeText.setText(row.time);
+    }
+
+    @Override
+    protected List<Message> getModels() {
+        return messages;
+    }
+
+    @Override
+    protected Row buildRow(Message message) {
+        CharSequence text = message.getText() != null ? message.getText() : "";
+        PrecomputedTextCompat.Params params = textParams;
+        if (params != null) {
+            text = PrecomputedTextCompat.create(text, params);
+        }
+        return new Row(message, message.getSender(), dateFormat.format(new Date(message.getTimestamp())), text);
+    }
+
+    @Override
+    protected boolean isSameItem(Row oldRow, Row newRow) {
+        return oldRow.message.getMessageId() == newRow.message.getMessageId();
     }
-    
+
     @Override
-    public int getItemCount() {
+    protected boolean hasSameContents(Row oldRow, Row newRow) {
+        return TextUtils.equals(oldRow.sender, newRow.sender) && oldRow.time.equals(newRow.time)
+                && TextUtils.equals(oldRow.message.getText(), newRow.message.getText());
+    }
+
+    /**
+     * Messages in the window, including changes not yet on screen
+     */
+    public int getWindowSize() {
         return messages.size();
     }
-    
+
+    public Message getFirst() {
+        return messages.isEmpty() ? null : messages.get(0);
+    }
+
+    public Message getLast() {
+        return messages.isEmpty() ? null : messages.get(messages.size() - 1);
+    }
+
+    public void replaceAll(List<Message> page) {
+        messages.clear();
+        messages.addAll(page);
+        submit();
+    }
+
+    /**
+     * Add an older page in front of the window
+     */
+    public void prepend(List<Message> page) {
+        messages.addAll(0, page);
+        submit();
+    }
+
+    /**
+     * Add a newer page after the window
+     */
+    public void append(List<Message> page) {
+        messages.addAll(page);
+        submit();
+    }
+
+    /**
+     * Drop the oldest messages from the window
+     */
+    public void trimStart(int count) {
+        count = Math.min(count, messages.size());
+        messages.subList(0, count).clear();
+        submit();
+    }
+
+    /**
+     * Drop the newest messages from the window
+     */
+    public void trimEnd(int count) {
+        count = Math.min(count, messages.size());
+        messages.subList(messages.size() - count, messages.size()).clear();
+        submit();
+    }
+
+    /**
+     * Insert a message where it sorts; arrivals are not always in timestamp order
+     * @return its position in the window, or -1 if the window already holds it
+     */
+    public int insert(Message message) {
+        int low = 0;
+        int high = messages.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int order = compare(messages.get(mid), message);
+            if (order == 0) {
+                return -1;
+            } else if (order < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        messages.add(low, message);
+        submit();
+        return low;
+    }
+
+    private static int compare(Message a, Message b) {
+        int order = Long.compare(a.getTimestamp(), b.getTimestamp());
+        return order != 0 ? order : Long.compare(a.getMessageId(), b.getMessageId());
+    }
+
     static class MessageViewHolder extends RecyclerView.ViewHolder {
         TextView messageText;
         TextView senderText;
         TextView timeText;
-        
+        PrecomputedTextCompat.Params textParams;
+
         MessageViewHolder(View itemView) {
             super(itemView);
             messageText = itemView.findViewById(R.id.message_text);
             senderText = itemView.findViewById(R.id.sender_text);
             timeText = itemView.findViewById(R.id.time_text);
+            textParams = TextViewCompat.getTextMetricsParams(messageText);
         }
     }
 }
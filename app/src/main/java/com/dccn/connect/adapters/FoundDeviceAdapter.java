@@ -8,16 +8,30 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.dccn.connect.R;
+import com.dccn.connect.network.LinkMetrics;
+import com.dccn.connect.network.PeerRegistry;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
-public class FoundDeviceAdapter extends RecyclerView.Adapter<FoundDeviceAdapter.DeviceViewHolder> {
+/**
+ * FoundDeviceAdapter - Devices seen while scanning. Registry batches only update the device list
+ * here; rows, with their signal labels, are built and diffed off the main thread. A device is
+ * replaced, never changed in place, once listed.
+ */
+public class FoundDeviceAdapter extends BackgroundListAdapter<FoundDeviceAdapter.DiscoveredDevice,
+        FoundDeviceAdapter.Row, FoundDeviceAdapter.DeviceViewHolder> {
 
     private List<DiscoveredDevice> devices = new ArrayList<>();
+    // Address -> position in devices, so lookups don't scan the list
+    private final Map<String, Integer> positions = new HashMap<>();
     private OnDeviceClickListener listener;
 
     public interface OnDeviceClickListener {
@@ -39,7 +53,7 @@ public class FoundDeviceAdapter extends RecyclerView.Adapter<FoundDeviceAdapter.
             this.name = name;
             this.address = address;
             this.type = type;
-            this.signalStrength = -50; // Default signal strength
+            this.signalStrength = LinkMetrics.UNKNOWN_RSSI; // Until the radio reports one
             this.isConnected = false;
         }
 
@@ -63,6 +77,40 @@ public class FoundDeviceAdapter extends RecyclerView.Adapter<FoundDeviceAdapter.
         public static DiscoveredDevice fromWifiP2pDevice(WifiP2pDevice device) {
             return new DiscoveredDevice(device.deviceName, device.deviceAddress, "WiFi Direct");
         }
+
+        // Create from a peer registry snapshot
+        public static DiscoveredDevice fromPeer(PeerRegistry.Peer peer) {
+            DiscoveredDevice device = new DiscoveredDevice(peer.getName(), peer.getAddress(), peer.getTransport());
+            device.setConnected(peer.isConnected());
+            device.setSignalStrength(peer.getSignalStrength());
+            return device;
+        }
+
+        private DiscoveredDevice copy() {
+            DiscoveredDevice device = new DiscoveredDevice(name, address, type);
+            device.setSignalStrength(signalStrength);
+            device.setConnected(isConnected);
+            return device;
+        }
+    }
+
+    /**
+     * A device as displayed
+     */
+    public static final class Row {
+        final DiscoveredDevice device;
+        final String name;
+        final String type;
+        final String signal;
+        final boolean connected;
+
+        Row(DiscoveredDevice device, String name, String type, String signal, boolean connected) {
+            this.device = device;
+            this.name = name;
+            this.type = type;
+            this.signal = signal;
+            this.connected = connected;
+        }
     }
 
     public static class DeviceViewHolder extends RecyclerView.ViewHolder {
@@ -79,27 +127,20 @@ public class FoundDeviceAdapter extends RecyclerView.Adapter<FoundDeviceAdapter.
             connectionStatus = itemView.findViewById(R.id.view_connection_status);
         }
 
-        public void bind(DiscoveredDevice device) {
-            tvDeviceName.setText(device.getName());
-            tvDeviceType.setText(device.getType());
-            tvSignalStrength.setText(getSignalText(device.getSignalStrength()));
+        public void bind(Row row) {
+            tvDeviceName.setText(row.name);
+            tvDeviceType.setText(row.type);
+            tvSignalStrength.setText(row.signal);
             
             // Update connection status indicator
-            if (device.isConnected()) {
+            if (row.connected) {
                 connectionStatus.setBackgroundResource(R.drawable.status_indicator_connected);
-                tvDeviceName.setTextColor(itemView.getContext().getColor(R.color.success_500));
+                tvDeviceName.setTextColor(ContextCompat.getColor(itemView.getContext(), R.color.success_500));
             } else {
                 connectionStatus.setBackgroundResource(R.drawable.status_indicator_disconnected);
-                tvDeviceName.setTextColor(itemView.getContext().getColor(R.color.white));
+                tvDeviceName.setTextColor(ContextCompat.getColor(itemView.getContext(), R.color.white));
             }
         }
-
-        private String getSignalText(int strength) {
-            if (strength >= -30) return "Excellent";
-            if (strength >= -50) return "Good";
-            if (strength >= -70) return "Fair";
-            return "Poor";
-        }
     }
 
     @NonNull
@@ -112,60 +153,137 @@ public class FoundDeviceAdapter extends RecyclerView.Adapter<FoundDeviceAdapter.
 
     @Override
     public void onBindViewHolder(@NonNull DeviceViewHolder holder, int position) {
-        DiscoveredDevice device = devices.get(position);
-        holder.bind(device);
+        Row row = getRow(position);
+        holder.bind(row);
         
         holder.itemView.setOnClickListener(v -> {
             if (listener != null) {
-                listener.onDeviceClick(device);
+                listener.onDeviceClick(row.device);
             }
         });
     }
 
     @Override
-    public int getItemCount() {
+    protected List<DiscoveredDevice> getModels() {
+        return devices;
+    }
+
+    @Override
+    protected Row buildRow(DiscoveredDevice device) {
+        return new Row(device, device.getName(), device.getType(), getSignalText(device.getSignalStrength()),
+                device.isConnected());
+    }
+
+    @Override
+    protected boolean isSameItem(Row oldRow, Row newRow) {
+        return oldRow.device.getAddress().equals(newRow.device.getAddress());
+    }
+
+    @Override
+    protected boolean hasSameContents(Row oldRow, Row newRow) {
+        return oldRow.name.equals(newRow.name) && Objects.equals(oldRow.type, newRow.type)
+                && oldRow.signal.equals(newRow.signal) && oldRow.connected == newRow.connected;
+    }
+
+    private static String getSignalText(int strength) {
+        if (strength == LinkMetrics.UNKNOWN_RSSI) return "Unknown";
+        if (strength >= -30) return "Excellent";
+        if (strength >= -50) return "Good";
+        if (strength >= -70) return "Fair";
+        return "Poor";
+    }
+
+    /**
+     * Devices found, including changes not yet on screen
+     */
+    public int getDeviceCount() {
         return devices.size();
     }
 
     public void addDevice(DiscoveredDevice device) {
-        // Check if device already exists
-        for (DiscoveredDevice existing : devices) {
-            if (existing.getAddress().equals(device.getAddress())) {
-                return; // Device already exists
-            }
+        if (positions.containsKey(device.getAddress())) {
+            return; // Device already exists
         }
+        positions.put(device.getAddress(), devices.size());
         devices.add(device);
-        notifyItemInserted(devices.size() - 1);
+        submit();
     }
 
     public void removeDevice(String address) {
-        for (int i = 0; i < devices.size(); i++) {
-            if (devices.get(i).getAddress().equals(address)) {
-                devices.remove(i);
-                notifyItemRemoved(i);
-                break;
-            }
+        Integer position = positions.remove(address);
+        if (position != null) {
+            devices.remove((int) position);
+            reindexFrom(position);
+            submit();
         }
     }
 
     public void updateDevice(String address, int signalStrength, boolean isConnected) {
-        for (int i = 0; i < devices.size(); i++) {
-            DiscoveredDevice device = devices.get(i);
-            if (device.getAddress().equals(address)) {
-                device.setSignalStrength(signalStrength);
-                device.setConnected(isConnected);
-                notifyItemChanged(i);
-                break;
+        Integer position = positions.get(address);
+        if (position != null) {
+            DiscoveredDevice device = devices.get(position).copy();
+            device.setSignalStrength(signalStrength);
+            device.setConnected(isConnected);
+            devices.set(position, device);
+            submit();
+        }
+    }
+
+    /**
+     * Apply one batch of registry changes: removals first, from the back so positions stay valid,
+     * then updates in place and additions appended; the whole batch is one rebuild
+     */
+    public void applyChanges(List<PeerRegistry.Change> changes) {
+        List<Integer> removed = new ArrayList<>();
+        for (PeerRegistry.Change change : changes) {
+            if (change.getType() == PeerRegistry.Change.REMOVED) {
+                Integer position = positions.remove(change.getPeer().getAddress());
+                if (position != null) {
+                    removed.add(position);
+                }
             }
         }
+        if (!removed.isEmpty()) {
+            removed.sort(null);
+            for (int i = removed.size() - 1; i >= 0; i--) {
+                devices.remove((int) removed.get(i));
+            }
+            reindexFrom(removed.get(0));
+        }
+
+        for (PeerRegistry.Change change : changes) {
+            if (change.getType() == PeerRegistry.Change.REMOVED) {
+                continue;
+            }
+            PeerRegistry.Peer peer = change.getPeer();
+            Integer position = positions.get(peer.getAddress());
+            if (position != null) {
+                DiscoveredDevice device = devices.get(position).copy();
+                device.setName(peer.getName());
+                device.setConnected(peer.isConnected());
+                device.setSignalStrength(peer.getSignalStrength());
+                devices.set(position, device);
+            } else {
+                positions.put(peer.getAddress(), devices.size());
+                devices.add(DiscoveredDevice.fromPeer(peer));
+            }
+        }
+        submit();
     }
 
     public void clearDevices() {
         devices.clear();
-        notifyDataSetChanged();
+        positions.clear();
+        submit();
     }
 
     public List<DiscoveredDevice> getDevices() {
         return new ArrayList<>(devices);
     }
+
+    private void reindexFrom(int start) {
+        for (int i = start; i < devices.size(); i++) {
+            positions.put(devices.get(i).getAddress(), i);
+        }
+    }
 }
@@ -6,24 +6,34 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.dccn.connect.R;
 import com.dccn.connect.models.User;
+import com.dccn.connect.network.PeerRegistry;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 
 /**
- * PeerAdapter - RecyclerView adapter for displaying connected peers
+ * PeerAdapter - RecyclerView adapter for displaying connected peers. Rows are formatted and diffed
+ * off the main thread, so a registry batch only updates the peer list here.
  */
-public class PeerAdapter extends RecyclerView.Adapter<PeerAdapter.PeerViewHolder> {
+public class PeerAdapter extends BackgroundListAdapter<User, PeerAdapter.Row, PeerAdapter.PeerViewHolder> {
     
     private List<User> peers;
+    // Device address -> position in peers, for registry batches
+    private final Map<String, Integer> positions = new HashMap<>();
     private OnPeerClickListener listener;
-    private SimpleDateFormat dateFormat;
+    // Only used on the row worker
+    private final SimpleDateFormat dateFormat;
     
     public interface OnPeerClickListener {
         void onPeerClick(User peer);
@@ -32,6 +42,34 @@ public class PeerAdapter extends RecyclerView.Adapter<PeerAdapter.PeerViewHolder
     public PeerAdapter(List<User> peers) {
         this.peers = peers;
         this.dateFormat = new SimpleDateFormat("HH:mm", Locale.getDefault());
+        reindexFrom(0);
+        submit();
+    }
+
+    /**
+     * A peer as displayed
+     */
+    public static final class Row {
+        final User peer;
+        final String name;
+        final String type;
+        final int typeColor;
+        final String deviceInfo;
+        final String lastSeen;
+        final String signal;
+        final boolean online;
+
+        Row(User peer, String name, String type, int typeColor, String deviceInfo, String lastSeen,
+            String signal, boolean online) {
+            this.peer = peer;
+            this.name = name;
+            this.type = type;
+            this.typeColor = typeColor;
+            this.deviceInfo = deviceInfo;
+            this.lastSeen = lastSeen;
+            this.signal = signal;
+            this.online = online;
+        }
     }
     
     public void setOnPeerClickListener(OnPeerClickListener listener) {
@@ -48,12 +86,47 @@ public class PeerAdapter extends RecyclerView.Adapter<PeerAdapter.PeerViewHolder
     
     @Override
     public void onBindViewHolder(@NonNull PeerViewHolder holder, int position) {
-        User peer = peers.get(position);
-        holder.bind(peer);
+        holder.bind(getRow(position));
     }
-    
+
+    @Override
+    protected List<User> getModels() {
+        return peers;
+    }
+
     @Override
-    public int getItemCount() {
+    protected Row buildRow(User peer) {
+        String deviceInfo = peer.getDeviceName();
+        if (deviceInfo == null || deviceInfo.isEmpty()) {
+            // A radio address until the peer's hello names its device
+            String id = peer.getDeviceId() != null ? peer.getDeviceId() : peer.getDeviceAddress();
+            deviceInfo = id.substring(0, Math.min(8, id.length())) + "...";
+        }
+        return new Row(peer, peer.getUsername(), peer.getUserTypeString(),
+                peer.isRescueTeam() ? R.color.secondary_500 : R.color.primary_500, deviceInfo,
+                "Last seen: " + dateFormat.format(new Date(peer.getLastSeen())),
+                peer.getSignalStrengthDescription(), peer.isOnline());
+    }
+
+    @Override
+    protected boolean isSameItem(Row oldRow, Row newRow) {
+        // Rows stay keyed by registry entry while the peer is identified
+        String address = oldRow.peer.getDeviceAddress();
+        return address != null ? address.equals(newRow.peer.getDeviceAddress()) : oldRow.peer.equals(newRow.peer);
+    }
+
+    @Override
+    protected boolean hasSameContents(Row oldRow, Row newRow) {
+        return Objects.equals(oldRow.name, newRow.name) && oldRow.type.equals(newRow.type)
+                && oldRow.typeColor == newRow.typeColor && oldRow.deviceInfo.equals(newRow.deviceInfo)
+                && oldRow.lastSeen.equals(newRow.lastSeen) && oldRow.signal.equals(newRow.signal)
+                && oldRow.online == newRow.online;
+    }
+
+    /**
+     * Connected peers, including changes not yet on screen
+     */
+    public int getPeerCount() {
         return peers.size();
     }
     
@@ -65,7 +138,9 @@ public class PeerAdapter extends RecyclerView.Adapter<PeerAdapter.PeerViewHolder
         if (newPeers != null) {
             this.peers.addAll(newPeers);
         }
-        notifyDataSetChanged();
+        positions.clear();
+        reindexFrom(0);
+        submit();
     }
     
     /**
@@ -74,7 +149,8 @@ public class PeerAdapter extends RecyclerView.Adapter<PeerAdapter.PeerViewHolder
     public void addPeer(User peer) {
         if (!peers.contains(peer)) {
             peers.add(peer);
-            notifyItemInserted(peers.size() - 1);
+            reindexFrom(peers.size() - 1);
+            submit();
         }
     }
     
@@ -84,8 +160,10 @@ public class PeerAdapter extends RecyclerView.Adapter<PeerAdapter.PeerViewHolder
     public void removePeer(User peer) {
         int index = peers.indexOf(peer);
         if (index != -1) {
+            positions.remove(peer.getDeviceAddress());
             peers.remove(index);
-            notifyItemRemoved(index);
+            reindexFrom(index);
+            submit();
         }
     }
     
@@ -96,10 +174,71 @@ public class PeerAdapter extends RecyclerView.Adapter<PeerAdapter.PeerViewHolder
         int index = peers.indexOf(peer);
         if (index != -1) {
             peers.set(index, peer);
-            notifyItemChanged(index);
+            reindexFrom(index);
+            invalidate(peer);
         }
     }
     
+    /**
+     * Apply one batch of peer registry changes, keeping only connected peers. Removals go first,
+     * from the back, then updates in place and additions at the end; the whole batch is one rebuild.
+     */
+    public void applyChanges(List<PeerRegistry.Change> changes) {
+        List<Integer> removed = new ArrayList<>();
+        for (PeerRegistry.Change change : changes) {
+            PeerRegistry.Peer peer = change.getPeer();
+            if (change.getType() == PeerRegistry.Change.REMOVED || !peer.isConnected()) {
+                Integer position = positions.remove(peer.getAddress());
+                if (position != null) {
+                    removed.add(position);
+                }
+            }
+        }
+        if (!removed.isEmpty()) {
+            removed.sort(null);
+            for (int i = removed.size() - 1; i >= 0; i--) {
+                peers.remove((int) removed.get(i));
+            }
+            reindexFrom(removed.get(0));
+        }
+
+        for (PeerRegistry.Change change : changes) {
+            PeerRegistry.Peer peer = change.getPeer();
+            if (change.getType() == PeerRegistry.Change.REMOVED || !peer.isConnected()) {
+                continue;
+            }
+            Integer position = positions.get(peer.getAddress());
+            if (position != null) {
+                peers.set(position, toUser(peer));
+            } else {
+                positions.put(peer.getAddress(), peers.size());
+                peers.add(toUser(peer));
+            }
+        }
+        submit();
+    }
+
+    private void reindexFrom(int start) {
+        for (int i = start; i < peers.size(); i++) {
+            String address = peers.get(i).getDeviceAddress();
+            if (address != null) {
+                positions.put(address, i);
+            }
+        }
+    }
+
+    // Device ID and user type stay unset until the peer's hello arrives
+    private static User toUser(PeerRegistry.Peer peer) {
+        String name = peer.getName() != null ? peer.getName() : peer.getAddress();
+        User user = new User(name, peer.getUserType(), peer.getDeviceId());
+        user.setDeviceName(peer.getName());
+        user.setDeviceAddress(peer.getAddress());
+        user.setLastSeen(peer.getLastSeenMs());
+        user.setSignalStrength(peer.getSignalStrength());
+        user.setOnline(true);
+        return user;
+    }
+
     /**
      * ViewHolder class for peer items
      */
@@ -128,46 +267,20 @@ public class PeerAdapter extends RecyclerView.Adapter<PeerAdapter.PeerViewHolder
                 public void onClick(View v) {
                     int position = getAdapterPosition();
                     if (position != RecyclerView.NO_POSITION && listener != null) {
-                        listener.onPeerClick(peers.get(position));
+                        listener.onPeerClick(getRow(position).peer);
                     }
                 }
             });
         }
         
-        public void bind(User peer) {
-            // Set peer name
-            tvPeerName.setText(peer.getUsername());
-            
-            // Set peer type
-            tvPeerType.setText(peer.getUserTypeString());
-            
-            // Set device info
-            String deviceInfo = peer.getDeviceName();
-            if (deviceInfo == null || deviceInfo.isEmpty()) {
-                deviceInfo = peer.getDeviceId().substring(0, Math.min(8, peer.getDeviceId().length())) + "...";
-            }
-            tvDeviceInfo.setText(deviceInfo);
-            
-            // Set last seen
-            String lastSeenText = "Last seen: " + dateFormat.format(new Date(peer.getLastSeen()));
-            tvLastSeen.setText(lastSeenText);
-            
-            // Set signal strength
-            tvSignalStrength.setText(peer.getSignalStrengthDescription());
-            
-            // Set online status indicator
-            if (peer.isOnline()) {
-                statusIndicator.setBackgroundResource(R.color.network_connected);
-            } else {
-                statusIndicator.setBackgroundResource(R.color.network_disconnected);
-            }
-            
-            // Set text colors based on user type
-            if (peer.isRescueTeam()) {
-                tvPeerType.setTextColor(itemView.getContext().getResources().getColor(R.color.secondary_500));
-            } else {
-                tvPeerType.setTextColor(itemView.getContext().getResources().getColor(R.color.primary_500));
-            }
+        public void bind(Row row) {
+            tvPeerName.setText(row.name);
+            tvPeerType.setText(row.type);
+            tvPeerType.setTextColor(ContextCompat.getColor(itemView.getContext(), row.typeColor));
+            tvDeviceInfo.setText(row.deviceInfo);
+            tvLastSeen.setText(row.lastSeen);
+            tvSignalStrength.setText(row.signal);
+            statusIndicator.setBackgroundResource(row.online ? R.color.network_connected : R.color.network_disconnected);
         }
     }
 }
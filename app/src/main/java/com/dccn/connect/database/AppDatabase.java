@@ -0,0 +1,83 @@
+package com.dccn.connect.database;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.room.Database;
+import androidx.room.Room;
+import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+/**
+ * AppDatabase - Room database for locally persisted messaging state
+ */
+@Database(entities = {OutboxEntry.class, MessageEntry.class, MessageFts.class}, version = 3, exportSchema = false)
+public abstract class AppDatabase extends RoomDatabase {
+
+    private static final String DATABASE_NAME = "dccn_connect.db";
+
+    private static volatile AppDatabase instance;
+
+    // Adds message history; the outbox is kept
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `messages` (`message_id` INTEGER NOT NULL, "
+                    + "`conversation` TEXT NOT NULL, `type` INTEGER NOT NULL, `timestamp` INTEGER NOT NULL, "
+                    + "`sender` TEXT, `sender_id` TEXT, `recipient` TEXT, `text` TEXT, PRIMARY KEY(`message_id`))");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_messages_conversation_timestamp` "
+                    + "ON `messages` (`conversation`, `timestamp`)");
+        }
+    };
+
+    // Re-keys messages by arrival and indexes them for search. The index triggers are Room's own, and
+    // 'rebuild' fills the index from the rows already stored.
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `messages_new` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`message_id` INTEGER NOT NULL, `conversation` TEXT NOT NULL, `type` INTEGER NOT NULL, "
+                    + "`timestamp` INTEGER NOT NULL, `sender` TEXT, `sender_id` TEXT, `recipient` TEXT, `text` TEXT)");
+            db.execSQL("INSERT INTO `messages_new` (`message_id`, `conversation`, `type`, `timestamp`, `sender`, "
+                    + "`sender_id`, `recipient`, `text`) SELECT `message_id`, `conversation`, `type`, `timestamp`, "
+                    + "`sender`, `sender_id`, `recipient`, `text` FROM `messages` ORDER BY `timestamp`, `message_id`");
+            db.execSQL("DROP TABLE `messages`");
+            db.execSQL("ALTER TABLE `messages_new` RENAME TO `messages`");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_messages_message_id` ON `messages` (`message_id`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_messages_conversation_timestamp` "
+                    + "ON `messages` (`conversation`, `timestamp`)");
+            db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `messages_fts` USING FTS4(`text` TEXT, `sender` TEXT, "
+                    + "content=`messages`)");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_messages_fts_BEFORE_UPDATE BEFORE UPDATE "
+                    + "ON `messages` BEGIN DELETE FROM `messages_fts` WHERE `docid`=OLD.`rowid`; END");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_messages_fts_BEFORE_DELETE BEFORE DELETE "
+                    + "ON `messages` BEGIN DELETE FROM `messages_fts` WHERE `docid`=OLD.`rowid`; END");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_messages_fts_AFTER_UPDATE AFTER UPDATE "
+                    + "ON `messages` BEGIN INSERT INTO `messages_fts`(`docid`, `text`, `sender`) "
+                    + "VALUES (NEW.`rowid`, NEW.`text`, NEW.`sender`); END");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_messages_fts_AFTER_INSERT AFTER INSERT "
+                    + "ON `messages` BEGIN INSERT INTO `messages_fts`(`docid`, `text`, `sender`) "
+                    + "VALUES (NEW.`rowid`, NEW.`text`, NEW.`sender`); END");
+            db.execSQL("INSERT INTO `messages_fts`(`messages_fts`) VALUES('rebuild')");
+        }
+    };
+
+    public abstract OutboxDao outboxDao();
+
+    public abstract MessageDao messageDao();
+
+    public static AppDatabase getInstance(Context context) {
+        if (instance == null) {
+            synchronized (AppDatabase.class) {
+                if (instance == null) {
+                    instance = Room.databaseBuilder(context.getApplicationContext(),
+                            AppDatabase.class, DATABASE_NAME)
+                            .addMigrations(MIGRATION_1_2, MIGRATION_2_3)
+                            .build();
+                }
+            }
+        }
+        return instance;
+    }
+}
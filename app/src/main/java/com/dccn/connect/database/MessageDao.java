@@ -0,0 +1,57 @@
+package com.dccn.connect.database;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+/**
+ * MessageDao - Message history queries. Pages are keyset-paged on (timestamp, message_id) within a
+ * conversation, so every page is a range scan of the (conversation, timestamp) index, however deep
+ * into the history it starts. Search pages walk the full-text index in descending document ID,
+ * newest first, which SQLite streams and stops at the limit instead of sorting every match; they
+ * are keyset-paged on that ID, so messages arriving between pages shift nothing.
+ */
+@Dao
+public interface MessageDao {
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    void insertAll(List<MessageEntry> entries);
+
+    /**
+     * The newest messages, newest first
+     */
+    @Query("SELECT * FROM messages WHERE conversation = :conversation"
+            + " ORDER BY timestamp DESC, message_id DESC LIMIT :limit")
+    List<MessageEntry> loadLatest(String conversation, int limit);
+
+    /**
+     * Messages before (timestamp, messageId), newest first
+     */
+    @Query("SELECT * FROM messages WHERE conversation = :conversation AND timestamp <= :timestamp"
+            + " AND (timestamp < :timestamp OR message_id < :messageId)"
+            + " ORDER BY timestamp DESC, message_id DESC LIMIT :limit")
+    List<MessageEntry> loadBefore(String conversation, long timestamp, long messageId, int limit);
+
+    /**
+     * Messages after (timestamp, messageId), oldest first
+     */
+    @Query("SELECT * FROM messages WHERE conversation = :conversation AND timestamp >= :timestamp"
+            + " AND (timestamp > :timestamp OR message_id > :messageId)"
+            + " ORDER BY timestamp ASC, message_id ASC LIMIT :limit")
+    List<MessageEntry> loadAfter(String conversation, long timestamp, long messageId, int limit);
+
+    @Query("SELECT COUNT(*) FROM messages WHERE conversation = :conversation")
+    int count(String conversation);
+
+    /**
+     * Messages matching an FTS4 query on text or sender that arrived before the entry with ID
+     * beforeId, newest first
+     */
+    @Query("SELECT messages.* FROM messages JOIN (SELECT docid FROM messages_fts"
+            + " WHERE messages_fts MATCH :query AND docid < :beforeId ORDER BY docid DESC LIMIT :limit) AS hits"
+            + " ON messages.id = hits.docid ORDER BY messages.id DESC")
+    List<MessageEntry> search(String query, long beforeId, int limit);
+}
@@ -0,0 +1,92 @@
+package com.dccn.connect.database;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+import com.dccn.connect.models.Message;
+
+/**
+ * MessageEntry - A chat message or alert this device sent or received, filed under its conversation
+ */
+@Entity(tableName = "messages",
+        indices = {@Index(value = {"message_id"}, unique = true), @Index(value = {"conversation", "timestamp"})})
+public class MessageEntry {
+
+    // Conversation of messages to everyone; private ones are filed under the other user's device ID
+    public static final String CONVERSATION_EVERYONE = "";
+
+    // Arrival order; also the search index's document ID, so newest-first search reads it backwards
+    @PrimaryKey(autoGenerate = true)
+    public long id;
+
+    // Mesh-wide message ID, so a message heard twice is stored once
+    @ColumnInfo(name = "message_id")
+    public long messageId;
+
+    @NonNull
+    @ColumnInfo(name = "conversation")
+    public String conversation;
+
+    @ColumnInfo(name = "type")
+    public int type;
+
+    @ColumnInfo(name = "timestamp")
+    public long timestamp;
+
+    @ColumnInfo(name = "sender")
+    public String sender;
+
+    @ColumnInfo(name = "sender_id")
+    public String senderId;
+
+    @ColumnInfo(name = "recipient")
+    public String recipient;
+
+    @ColumnInfo(name = "text")
+    public String text;
+
+    public MessageEntry(long messageId, @NonNull String conversation, int type, long timestamp,
+                        String sender, String senderId, String recipient, String text) {
+        this.messageId = messageId;
+        this.conversation = conversation;
+        this.type = type;
+        this.timestamp = timestamp;
+        this.sender = sender;
+        this.senderId = senderId;
+        this.recipient = recipient;
+        this.text = text;
+    }
+
+    public static MessageEntry of(Message message, String localDeviceId) {
+        return new MessageEntry(message.getMessageId(), conversationOf(message, localDeviceId),
+                message.getType(), message.getTimestamp(), message.getSender(), message.getSenderId(),
+                message.getRecipient(), message.getText());
+    }
+
+    /**
+     * The conversation a message belongs in, seen from this device: everyone's, or the other
+     * user's. Private messages from older peers, which do not name their sender's device, are filed
+     * under the sender's name.
+     */
+    @NonNull
+    public static String conversationOf(Message message, String localDeviceId) {
+        if (!message.isPrivate()) {
+            return CONVERSATION_EVERYONE;
+        }
+        if (!message.getRecipient().equals(localDeviceId)) {
+            return message.getRecipient();
+        }
+        String other = message.getSenderId() != null ? message.getSenderId() : message.getSender();
+        return other != null ? other : CONVERSATION_EVERYONE;
+    }
+
+    public Message toMessage() {
+        Message message = new Message(messageId, type, 0, text, sender, timestamp);
+        message.setRecipient(recipient);
+        message.setSenderId(senderId);
+        return message;
+    }
+}
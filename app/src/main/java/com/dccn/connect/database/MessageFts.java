@@ -0,0 +1,21 @@
+package com.dccn.connect.database;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+
+/**
+ * MessageFts - Full-text index over stored messages' text and sender. It keeps no copy of them: Room's
+ * triggers index each row as it is inserted into the messages table, and a document ID is that
+ * row's ID.
+ */
+@Fts4(contentEntity = MessageEntry.class)
+@Entity(tableName = "messages_fts")
+public class MessageFts {
+
+    @ColumnInfo(name = "text")
+    public String text;
+
+    @ColumnInfo(name = "sender")
+    public String sender;
+}
@@ -0,0 +1,30 @@
+package com.dccn.connect.database;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+/**
+ * OutboxDao - Store-and-forward queue queries. List inserts and deletes run in a single transaction.
+ */
+@Dao
+public interface OutboxDao {
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    void insertAll(List<OutboxEntry> entries);
+
+    @Query("SELECT * FROM outbox WHERE expires_at > :now ORDER BY priority DESC, id ASC LIMIT :limit")
+    List<OutboxEntry> loadReady(long now, int limit);
+
+    @Query("DELETE FROM outbox WHERE id IN (:ids)")
+    int deleteByIds(List<Long> ids);
+
+    @Query("DELETE FROM outbox WHERE expires_at <= :now")
+    int deleteExpired(long now);
+
+    @Query("SELECT COUNT(*) FROM outbox")
+    int count();
+}
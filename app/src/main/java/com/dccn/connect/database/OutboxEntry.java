@@ -0,0 +1,43 @@
+package com.dccn.connect.database;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * OutboxEntry - An encoded frame waiting for a link to come up
+ */
+@Entity(tableName = "outbox",
+        indices = {@Index(value = {"message_id"}, unique = true), @Index("expires_at")})
+public class OutboxEntry {
+
+    @PrimaryKey(autoGenerate = true)
+    public long id;
+
+    @ColumnInfo(name = "message_id")
+    public long messageId;
+
+    // Higher values replay first (emergency before chat)
+    @ColumnInfo(name = "priority")
+    public int priority;
+
+    @ColumnInfo(name = "created_at")
+    public long createdAt;
+
+    @ColumnInfo(name = "expires_at")
+    public long expiresAt;
+
+    @NonNull
+    @ColumnInfo(name = "frame", typeAffinity = ColumnInfo.BLOB)
+    public byte[] frame;
+
+    public OutboxEntry(long messageId, int priority, long createdAt, long expiresAt, @NonNull byte[] frame) {
+        this.messageId = messageId;
+        this.priority = priority;
+        this.createdAt = createdAt;
+        this.expiresAt = expiresAt;
+        this.frame = frame;
+    }
+}
@@ -1,25 +1,97 @@
 package com.dccn.connect.models;
 
+import java.util.concurrent.ThreadLocalRandom;
+
 public class Message {
+
+    // Message type constants
+    public static final int TYPE_CHAT = 1;
+    public static final int TYPE_EMERGENCY = 2;
+
+    private long messageId;
+    private int type;
+    private int hopCount;
     private String text;
     private String sender;
     private long timestamp;
-    
+    // Device ID of the one user a private message is for; null for messages to everyone
+    private String recipient;
+    // Device ID of the author of a private message; null on messages to everyone and from older peers
+    private String senderId;
+
     public Message(String text, String sender, long timestamp) {
+        this(newMessageId(), TYPE_CHAT, 0, text, sender, timestamp);
+    }
+
+    public Message(long messageId, int type, int hopCount, String text, String sender, long timestamp) {
+        this.messageId = messageId;
+        this.type = type;
+        this.hopCount = hopCount;
         this.text = text;
         this.sender = sender;
         this.timestamp = timestamp;
     }
-    
+
+    /**
+     * Generate a random 64-bit message ID, unique enough across the mesh to be used for duplicate suppression
+     */
+    public static long newMessageId() {
+        return ThreadLocalRandom.current().nextLong();
+    }
+
+    public long getMessageId() {
+        return messageId;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public void setType(int type) {
+        this.type = type;
+    }
+
+    public boolean isEmergency() {
+        return type == TYPE_EMERGENCY;
+    }
+
+    public int getHopCount() {
+        return hopCount;
+    }
+
+    public void setHopCount(int hopCount) {
+        this.hopCount = hopCount;
+    }
+
     public String getText() {
         return text;
     }
-    
+
     public String getSender() {
         return sender;
     }
-    
+
     public long getTimestamp() {
         return timestamp;
     }
+
+    public String getRecipient() {
+        return recipient;
+    }
+
+    public void setRecipient(String recipient) {
+        this.recipient = recipient;
+    }
+
+    public String getSenderId() {
+        return senderId;
+    }
+
+    public void setSenderId(String senderId) {
+        this.senderId = senderId;
+    }
+
+    public boolean isPrivate() {
+        return recipient != null;
+    }
 }
@@ -157,7 +157,9 @@ public class User {
      * Get signal strength description
      */
     public String getSignalStrengthDescription() {
-        if (signalStrength >= -50) {
+        if (signalStrength == 0) {
+            return "Unknown"; // Nothing measured yet
+        } else if (signalStrength >= -50) {
             return "Excellent";
         } else if (signalStrength >= -60) {
             return "Good";
@@ -0,0 +1,835 @@
+package com.dccn.connect.network;
+
+import com.dccn.connect.models.Message;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * AodvRouter - On-demand unicast routing for private messages, after AODV (RFC 3561). Messages to
+ * everyone, emergencies and every other frame kind are still flooded by an inner
+ * {@link FloodingRouter}; a private message instead follows one path, found the first time it is needed.
+ *
+ * Discovery: the originator floods a route request (RREQ) over an expanding ring of TTLs, so a
+ * destination a couple of hops away is found without waking the whole mesh. Every node the request
+ * crosses learns a reverse route to the originator. The destination, or a node holding a route at
+ * least as fresh as the originator asked for, unicasts a route reply (RREP) back along it, and the
+ * nodes the reply crosses learn the forward route. Destination sequence numbers keep stale routes
+ * from replacing fresh ones and rule out loops; of two equally fresh routes the cheaper by
+ * {@link MeshRouter.LinkCosts} wins.
+ *
+ * Routes live in a bounded cache: past {@link #MAX_ROUTES} the least recently used is evicted, and a
+ * route idle for {@link #ACTIVE_ROUTE_TIMEOUT_MS} expires. When a link drops, a node that was
+ * forwarding over it repairs those routes locally with a short-range request before telling anyone;
+ * routes it cannot repair are reported in a route error (RERR) that travels upstream, so senders
+ * rediscover. Messages waiting for a route are buffered, and if discovery gives up they are flooded
+ * rather than lost.
+ *
+ * Route control frames are link-local KIND_ROUTE frames, re-encoded at each hop. Body: varint type,
+ * then for a RREQ varint request id, varint TTL, varint hop count, varint path cost, originator,
+ * varint originator sequence, destination, varint destination sequence (0 if unknown); for a RREP
+ * varint hop count, varint path cost, destination, varint destination sequence, originator, varint
+ * lifetime in ms; for a RERR varint count, then that many destination, varint destination sequence.
+ *
+ * Time comes in through {@link #onTimer}; between ticks the router uses the last tick's time, which
+ * is plenty at route-lifetime granularity.
+ */
+public class AodvRouter implements MeshRouter {
+
+    public static final int MAX_ROUTES = 256;
+    // Links break with an event from the transport rather than a missed hello, so routes can live longer
+    public static final long ACTIVE_ROUTE_TIMEOUT_MS = 60_000;
+    // Invalid routes are kept this long to remember the destination's sequence number
+    public static final long DELETE_PERIOD_MS = 5 * ACTIVE_ROUTE_TIMEOUT_MS;
+
+    // Expanding ring search: TTLs 2, 4, 6, then the whole mesh, retried with doubling waits.
+    // Repairs climb the same ring, but stop where the broken route reached plus LOCAL_ADD_TTL.
+    static final int TTL_START = 2;
+    static final int TTL_INCREMENT = 2;
+    static final int TTL_THRESHOLD = 6;
+    static final int RREQ_RETRIES = 2;
+    static final long NODE_TRAVERSAL_MS = 40;
+    static final int TIMEOUT_BUFFER = 2;
+    // A route that carried another node's frame this recently is on a live conversation
+    static final long ACTIVE_FORWARDING_MS = 5_000;
+    // A local repair looks this much further than the broken route reached, and is only tried for
+    // destinations close enough that it stays cheaper than the originator asking again
+    static final int LOCAL_ADD_TTL = 2;
+    static final int MAX_REPAIR_HOPS = 3;
+    static final int MAX_BUFFERED_PER_DESTINATION = 32;
+    static final int MAX_PENDING_DESTINATIONS = 64;
+    static final long SWEEP_INTERVAL_MS = 1000;
+
+    static final int TYPE_RREQ = 0;
+    static final int TYPE_RREP = 1;
+    static final int TYPE_RERR = 2;
+
+    private static final class Route {
+        final String destination;
+        String nextHop;
+        int hops;
+        int cost;
+        long sequence;
+        boolean valid;
+        long expiresMs;
+        // Last time a frame from another node went out over the route, for local repair
+        long forwardedMs = -1;
+
+        Route(String destination) {
+            this.destination = destination;
+        }
+    }
+
+    private static final class Discovery {
+        final String destination;
+        final boolean repair;
+        final int maxTtl;
+        final ArrayDeque<byte[]> frames = new ArrayDeque<>();
+        int ttl;
+        int retries;
+        long deadlineMs;
+
+        Discovery(String destination, boolean repair, int ttl, int maxTtl) {
+            this.destination = destination;
+            this.repair = repair;
+            this.ttl = Math.min(ttl, maxTtl);
+            this.maxTtl = maxTtl;
+        }
+    }
+
+    private final String localId;
+    private final int hopLimit;
+    private final FloodingRouter flooding;
+    private final SeenIdCache seenIds;
+    private final SeenIdCache seenRequests;
+    // Destination -> route, least recently used first
+    private final LinkedHashMap<String, Route> routes = new LinkedHashMap<String, Route>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Route> eldest) {
+            return size() > MAX_ROUTES;
+        }
+    };
+    private final Map<String, Discovery> discoveries = new HashMap<>();
+    private final List<Discovery> dueDiscoveries = new ArrayList<>();
+    private final Set<String> neighbours = new HashSet<>();
+    private final Frame frame = new Frame();
+    private final RouterStats stats = new RouterStats();
+    private final RouterStats totals = new RouterStats();
+    private ByteBuffer encodeBuffer = ByteBuffer.allocate(512);
+    private ByteBuffer controlBuffer = ByteBuffer.allocate(256);
+
+    private FrameSender frameSender;
+    private OnFrameDeliveredListener onFrameDeliveredListener;
+    private LinkCosts linkCosts;
+    private long nowMs;
+    private long lastSweepMs;
+    private long sequence;
+    private int requestId;
+
+    // Stats
+    private long routeDiscoveries;
+    private long discoveryFailures;
+    private long localRepairs;
+    private long repairFailures;
+    private long routeErrors;
+    private long fallbackFloods;
+
+    /**
+     * @param localId this node's ID as other nodes address it, i.e. the device ID
+     */
+    public AodvRouter(String localId) {
+        this(localId, FrameCodec.DEFAULT_HOP_LIMIT, FloodingRouter.DEFAULT_SEEN_CACHE_SIZE);
+    }
+
+    public AodvRouter(String localId, int hopLimit, int seenCacheSize) {
+        this.localId = localId;
+        this.hopLimit = hopLimit;
+        this.seenIds = new SeenIdCache(seenCacheSize);
+        this.seenRequests = new SeenIdCache(seenCacheSize);
+        // The inner router is only ever called with this router's lock held
+        flooding = new FloodingRouter(hopLimit, seenCacheSize);
+        flooding.setFrameSender((peerId, buffer) -> {
+            if (frameSender != null) {
+                frameSender.sendFrame(peerId, buffer);
+            }
+        });
+        flooding.setOnFrameDeliveredListener(this::onFloodDelivered);
+    }
+
+    @Override
+    public synchronized void setFrameSender(FrameSender sender) {
+        this.frameSender = sender;
+    }
+
+    @Override
+    public synchronized void setOnFrameDeliveredListener(OnFrameDeliveredListener listener) {
+        this.onFrameDeliveredListener = listener;
+    }
+
+    @Override
+    public synchronized void onPeerConnected(String peerId) {
+        flooding.onPeerConnected(peerId);
+        neighbours.add(peerId);
+    }
+
+    @Override
+    public synchronized void onPeerDisconnected(String peerId) {
+        flooding.onPeerDisconnected(peerId);
+        if (neighbours.remove(peerId)) {
+            onLinkBroken(peerId);
+        }
+    }
+
+    @Override
+    public synchronized int getPeerCount() {
+        return neighbours.size();
+    }
+
+    @Override
+    public synchronized void onLinkCostsChanged(LinkCosts costs) {
+        linkCosts = costs;
+        flooding.onLinkCostsChanged(costs);
+    }
+
+    @Override
+    public synchronized void send(Message message) {
+        if (!isRoutable(message.getRecipient(), message.isEmergency())) {
+            flooding.send(message);
+            return;
+        }
+        int length = FrameCodec.encodedLength(message);
+        ByteBuffer out = encodeBuffer(length);
+        FrameCodec.encode(message, hopLimit, out);
+        out.flip();
+        originate(out, message.getMessageId(), message.getRecipient());
+    }
+
+    @Override
+    public synchronized void sendEncoded(ByteBuffer buffer) {
+        int offset = buffer.position();
+        try {
+            FrameCodec.decode(buffer, frame);
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            stats.malformedDrops++;
+            return;
+        }
+        String recipient = frame.getKind() == FrameCodec.KIND_MESSAGE ? frame.getString(Frame.SLOT_RECIPIENT) : null;
+        buffer.position(offset);
+        if (!isRoutable(recipient, frame.isEmergency())) {
+            flooding.sendEncoded(buffer);
+            return;
+        }
+        // Copy, so marking the frame routed leaves the caller's bytes alone
+        ByteBuffer out = encodeBuffer(frame.getFrameLength());
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset + frame.getFrameLength());
+        out.put(view).flip();
+        originate(out, frame.getMessageId(), recipient);
+    }
+
+    @Override
+    public synchronized void onFrameReceived(String fromPeerId, ByteBuffer buffer) {
+        int offset = buffer.position();
+        int kind = FrameCodec.peekKind(buffer, offset);
+        if (kind == FrameCodec.KIND_ROUTE) {
+            stats.received++;
+            try {
+                onControlFrame(fromPeerId, buffer);
+            } catch (IllegalArgumentException | BufferUnderflowException e) {
+                stats.malformedDrops++;
+            }
+            return;
+        }
+        if (kind != FrameCodec.KIND_MESSAGE || (FrameCodec.peekFlags(buffer, offset) & FrameCodec.FLAG_ROUTED) == 0) {
+            flooding.onFrameReceived(fromPeerId, buffer);
+            return;
+        }
+
+        stats.received++;
+        String recipient;
+        try {
+            FrameCodec.decode(buffer, frame);
+            recipient = frame.getString(Frame.SLOT_RECIPIENT);
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            stats.malformedDrops++;
+            return;
+        }
+        if (recipient == null) {
+            stats.malformedDrops++;
+            return;
+        }
+        // A route changing under a frame in flight can bring it round twice
+        if (!seenIds.add(frame.getMessageId())) {
+            stats.duplicatesSuppressed++;
+            return;
+        }
+        if (recipient.equals(localId)) {
+            stats.delivered++;
+            if (onFrameDeliveredListener != null) {
+                onFrameDeliveredListener.onFrameDelivered(frame);
+            }
+            return;
+        }
+        if (frame.getHopCount() + 1 >= frame.getHopLimit()) {
+            stats.hopLimitDrops++;
+            return;
+        }
+        FrameCodec.incrementHopCount(buffer, offset);
+        stats.forwarded++;
+        forward(buffer, offset, frame.getFrameLength(), recipient, fromPeerId);
+    }
+
+    @Override
+    public synchronized void onTimer(long nowMs) {
+        this.nowMs = nowMs;
+        if (!discoveries.isEmpty()) {
+            dueDiscoveries.clear();
+            for (Discovery discovery : discoveries.values()) {
+                if (nowMs >= discovery.deadlineMs) {
+                    dueDiscoveries.add(discovery);
+                }
+            }
+            for (Discovery discovery : dueDiscoveries) {
+                // A reply to an earlier retry may already have settled it
+                if (discoveries.get(discovery.destination) == discovery) {
+                    retryOrGiveUp(discovery);
+                }
+            }
+        }
+        if (nowMs - lastSweepMs >= SWEEP_INTERVAL_MS) {
+            lastSweepMs = nowMs;
+            sweepRoutes();
+        }
+        flooding.onTimer(nowMs);
+    }
+
+    @Override
+    public synchronized RouterStats getStats() {
+        totals.reset();
+        totals.add(stats);
+        totals.add(flooding.getStats());
+        return totals;
+    }
+
+    private boolean isRoutable(String recipient, boolean emergency) {
+        return recipient != null && !emergency && !recipient.equals(localId);
+    }
+
+    // A private message from this node, encoded at buffer's position
+    private void originate(ByteBuffer buffer, long messageId, String recipient) {
+        int offset = buffer.position();
+        FrameCodec.setFlags(buffer, offset, FrameCodec.peekFlags(buffer, offset) | FrameCodec.FLAG_ROUTED);
+        seenIds.add(messageId);
+        stats.originated++;
+        forward(buffer, offset, buffer.remaining(), recipient, null);
+    }
+
+    // Send a routed frame on to its next hop, or hold it while a route is found
+    private void forward(ByteBuffer buffer, int offset, int length, String destination, String fromPeerId) {
+        Route route = validRoute(destination);
+        if (route != null) {
+            route.expiresMs = Math.max(route.expiresMs, nowMs + ACTIVE_ROUTE_TIMEOUT_MS);
+            if (fromPeerId != null) {
+                route.forwardedMs = nowMs;
+            }
+            transmit(route.nextHop, buffer, offset, length, false);
+            return;
+        }
+        Discovery discovery = discoveries.get(destination);
+        if (discovery == null && discoveries.size() >= MAX_PENDING_DESTINATIONS) {
+            floodCopy(copyOf(buffer, offset, length));
+            return;
+        }
+        if (discovery != null && discovery.frames.size() >= MAX_BUFFERED_PER_DESTINATION) {
+            floodCopy(copyOf(buffer, offset, length));
+            return;
+        }
+        byte[] copy = copyOf(buffer, offset, length);
+        if (discovery != null) {
+            discovery.frames.add(copy);
+        } else if (fromPeerId == null) {
+            startDiscovery(destination, false, hopLimit, copy);
+        } else {
+            // Traffic from upstream for a route that broke here: repair it if the destination was
+            // close, otherwise tell upstream and let the message go by flood
+            Route stale = routes.get(destination);
+            if (stale == null || stale.hops > MAX_REPAIR_HOPS) {
+                List<Route> broken = new ArrayList<>(1);
+                broken.add(stale != null ? stale : new Route(destination));
+                sendError(broken);
+                floodCopy(copy);
+                return;
+            }
+            startDiscovery(destination, true, stale.hops + LOCAL_ADD_TTL, copy);
+        }
+    }
+
+    // The first frame goes in before the request goes out, in case the reply comes straight back
+    private void startDiscovery(String destination, boolean repair, int maxTtl, byte[] firstFrame) {
+        // A destination seen before is looked for a little beyond where it last was
+        Route stale = routes.get(destination);
+        int ttl = !repair && stale != null && stale.hops > 0 ? stale.hops + TTL_INCREMENT : TTL_START;
+        Discovery discovery = new Discovery(destination, repair, ttl, Math.min(maxTtl, hopLimit));
+        if (firstFrame != null) {
+            discovery.frames.add(firstFrame);
+        }
+        discoveries.put(destination, discovery);
+        if (repair) {
+            localRepairs++;
+        } else {
+            routeDiscoveries++;
+        }
+        sendRequest(discovery);
+    }
+
+    private void retryOrGiveUp(Discovery discovery) {
+        if (discovery.ttl < discovery.maxTtl) {
+            discovery.ttl += TTL_INCREMENT;
+            if (discovery.ttl > TTL_THRESHOLD) {
+                discovery.ttl = discovery.maxTtl;
+            }
+            discovery.ttl = Math.min(discovery.ttl, discovery.maxTtl);
+            sendRequest(discovery);
+        } else if (!discovery.repair && discovery.retries < RREQ_RETRIES) {
+            discovery.retries++;
+            sendRequest(discovery);
+        } else {
+            giveUp(discovery);
+        }
+    }
+
+    // No route to be had: flood what was waiting instead, and if this was a repair tell upstream
+    private void giveUp(Discovery discovery) {
+        discoveries.remove(discovery.destination);
+        if (discovery.repair) {
+            repairFailures++;
+            Route route = routes.get(discovery.destination);
+            if (route != null) {
+                List<Route> broken = new ArrayList<>(1);
+                broken.add(route);
+                sendError(broken);
+            }
+        } else {
+            discoveryFailures++;
+        }
+        for (byte[] pending : discovery.frames) {
+            floodCopy(pending);
+        }
+    }
+
+    private void floodCopy(byte[] encoded) {
+        fallbackFloods++;
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        FrameCodec.setFlags(buffer, 0, FrameCodec.peekFlags(buffer, 0) & ~FrameCodec.FLAG_ROUTED);
+        flooding.sendEncoded(buffer);
+    }
+
+    // Private messages that had to be flooded reach every node; only the recipient keeps one
+    private void onFloodDelivered(Frame delivered) {
+        if (delivered.getKind() == FrameCodec.KIND_MESSAGE && !delivered.isNull(Frame.SLOT_RECIPIENT)) {
+            if (!localId.equals(delivered.getString(Frame.SLOT_RECIPIENT))
+                    || !seenIds.add(delivered.getMessageId())) {
+                return;
+            }
+        }
+        if (onFrameDeliveredListener != null) {
+            onFrameDeliveredListener.onFrameDelivered(delivered);
+        }
+    }
+
+    // Routes through a lost link: repair the ones carrying traffic for others if their destination
+    // is close, and report the rest of those. Routes only we use are rediscovered on next use.
+    private void onLinkBroken(String peerId) {
+        List<Route> broken = new ArrayList<>();
+        List<Route> repairable = new ArrayList<>();
+        for (Route route : routes.values()) {
+            if (!route.valid || !route.nextHop.equals(peerId)) {
+                continue;
+            }
+            invalidate(route);
+            if (route.sequence != 0) {
+                route.sequence++;
+            }
+            if (!isForwarding(route)) {
+                continue;
+            }
+            if (route.hops <= MAX_REPAIR_HOPS && !discoveries.containsKey(route.destination)) {
+                repairable.add(route);
+            } else {
+                broken.add(route);
+            }
+        }
+        for (Route route : repairable) {
+            startDiscovery(route.destination, true, route.hops + LOCAL_ADD_TTL, null);
+        }
+        if (!broken.isEmpty()) {
+            sendError(broken);
+        }
+    }
+
+    private void onControlFrame(String fromPeerId, ByteBuffer buffer) {
+        ByteBuffer in = buffer.duplicate();
+        in.position(in.position() + FrameCodec.HEADER_SIZE);
+        Varint.readLength(in);
+        int type = Varint.readLength(in);
+        switch (type) {
+            case TYPE_RREQ: {
+                int id = Varint.readLength(in);
+                int ttl = Varint.readLength(in);
+                int hops = Varint.readLength(in);
+                int cost = Varint.readLength(in);
+                String originator = requireId(FrameCodec.readString(in));
+                long originatorSeq = Varint.readUnsigned(in);
+                String destination = requireId(FrameCodec.readString(in));
+                long destinationSeq = Varint.readUnsigned(in);
+                onRequest(fromPeerId, id, ttl, hops, cost, originator, originatorSeq, destination, destinationSeq);
+                break;
+            }
+            case TYPE_RREP: {
+                int hops = Varint.readLength(in);
+                int cost = Varint.readLength(in);
+                String destination = requireId(FrameCodec.readString(in));
+                long destinationSeq = Varint.readUnsigned(in);
+                String originator = requireId(FrameCodec.readString(in));
+                long lifetimeMs = Varint.readUnsigned(in);
+                onReply(fromPeerId, hops, cost, destination, destinationSeq, originator, lifetimeMs);
+                break;
+            }
+            case TYPE_RERR: {
+                int count = Varint.readLength(in);
+                List<Route> broken = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    String destination = requireId(FrameCodec.readString(in));
+                    long destinationSeq = Varint.readUnsigned(in);
+                    Route route = routes.get(destination);
+                    if (route != null && route.valid && route.nextHop.equals(fromPeerId)) {
+                        invalidate(route);
+                        route.sequence = Math.max(route.sequence, destinationSeq);
+                        // Pass it on only if someone upstream is sending this way
+                        if (isForwarding(route)) {
+                            broken.add(route);
+                        }
+                    }
+                }
+                if (!broken.isEmpty()) {
+                    sendError(broken);
+                }
+                break;
+            }
+            default:
+                // A newer control message; nothing to do with it
+                break;
+        }
+    }
+
+    private void onRequest(String fromPeerId, int id, int ttl, int hops, int cost, String originator,
+                           long originatorSeq, String destination, long destinationSeq) {
+        if (originator.equals(localId)) {
+            return;
+        }
+        hops++;
+        cost = addCost(cost, fromPeerId);
+        updateRoute(originator, fromPeerId, hops, cost, originatorSeq, ACTIVE_ROUTE_TIMEOUT_MS);
+        if (!seenRequests.add(requestKey(originator, id))) {
+            stats.duplicatesSuppressed++;
+            return;
+        }
+        if (destination.equals(localId)) {
+            // At least as fresh as asked for, so no cached route elsewhere can beat this reply
+            sequence = Math.max(Math.max(sequence, destinationSeq), 1);
+            sendReply(fromPeerId, 0, 0, localId, sequence, originator, 2 * ACTIVE_ROUTE_TIMEOUT_MS);
+            return;
+        }
+        Route route = validRoute(destination);
+        if (route != null && route.sequence != 0 && route.sequence >= destinationSeq) {
+            long lifetimeMs = Math.min(route.expiresMs - nowMs, ACTIVE_ROUTE_TIMEOUT_MS);
+            sendReply(fromPeerId, route.hops, route.cost, destination, route.sequence, originator, lifetimeMs);
+            return;
+        }
+        if (ttl <= 1) {
+            return;
+        }
+        ByteBuffer out = encodeRequest(id, ttl - 1, hops, cost, originator, originatorSeq, destination, destinationSeq);
+        broadcastControl(out, fromPeerId);
+    }
+
+    private void onReply(String fromPeerId, int hops, int cost, String destination, long destinationSeq,
+                         String originator, long lifetimeMs) {
+        hops++;
+        cost = addCost(cost, fromPeerId);
+        updateRoute(destination, fromPeerId, hops, cost, destinationSeq, lifetimeMs);
+        if (originator.equals(localId)) {
+            return;
+        }
+        Route back = validRoute(originator);
+        if (back == null) {
+            // The reverse route is gone; the originator will ask again
+            return;
+        }
+        sendReply(back.nextHop, hops, cost, destination, destinationSeq, originator, lifetimeMs);
+    }
+
+    // Apply RFC 3561's update rule, then release anything that was waiting for the route
+    private void updateRoute(String destination, String nextHop, int hops, int cost, long destinationSeq, long lifetimeMs) {
+        if (destination.equals(localId)) {
+            return;
+        }
+        Route route = routes.get(destination);
+        if (route == null) {
+            route = new Route(destination);
+            routes.put(destination, route);
+        } else {
+            boolean usable = route.valid && route.expiresMs > nowMs;
+            boolean better = route.sequence == 0
+                    || destinationSeq > route.sequence
+                    || (destinationSeq == route.sequence && (!usable || cost < route.cost));
+            if (!better) {
+                return;
+            }
+        }
+        route.nextHop = nextHop;
+        route.hops = hops;
+        route.cost = cost;
+        route.sequence = destinationSeq;
+        route.valid = true;
+        route.expiresMs = nowMs + lifetimeMs;
+
+        Discovery discovery = discoveries.remove(destination);
+        if (discovery != null) {
+            for (byte[] pending : discovery.frames) {
+                transmit(nextHop, ByteBuffer.wrap(pending), 0, pending.length, false);
+            }
+        }
+    }
+
+    private Route validRoute(String destination) {
+        Route route = routes.get(destination);
+        if (route == null || !route.valid) {
+            return null;
+        }
+        if (route.expiresMs <= nowMs || !neighbours.contains(route.nextHop)) {
+            invalidate(route);
+            return null;
+        }
+        return route;
+    }
+
+    // Stands in for RFC 3561's precursor lists: a route that carried other nodes' traffic lately
+    // has upstream nodes that need to hear it broke; reverse routes left by a request never did
+    private boolean isForwarding(Route route) {
+        return route.forwardedMs >= 0 && nowMs - route.forwardedMs < ACTIVE_FORWARDING_MS;
+    }
+
+    private void invalidate(Route route) {
+        route.valid = false;
+        route.expiresMs = nowMs + DELETE_PERIOD_MS;
+    }
+
+    // Expire idle routes and forget invalid ones once their sequence number is no longer useful
+    private void sweepRoutes() {
+        Iterator<Route> it = routes.values().iterator();
+        while (it.hasNext()) {
+            Route route = it.next();
+            if (route.expiresMs > nowMs) {
+                continue;
+            }
+            if (route.valid) {
+                invalidate(route);
+            } else {
+                it.remove();
+            }
+        }
+    }
+
+    private void sendRequest(Discovery discovery) {
+        sequence++;
+        int id = ++requestId;
+        seenRequests.add(requestKey(localId, id));
+        Route known = routes.get(discovery.destination);
+        long destinationSeq = known != null ? known.sequence : 0;
+        long waitMs = 2 * NODE_TRAVERSAL_MS * (discovery.ttl + TIMEOUT_BUFFER);
+        discovery.deadlineMs = nowMs + (waitMs << discovery.retries);
+        ByteBuffer out = encodeRequest(id, discovery.ttl, 0, 0, localId, sequence, discovery.destination, destinationSeq);
+        broadcastControl(out, null);
+    }
+
+    private ByteBuffer encodeRequest(int id, int ttl, int hops, int cost, String originator, long originatorSeq,
+                                     String destination, long destinationSeq) {
+        int body = Varint.sizeOf(TYPE_RREQ) + Varint.sizeOf(id) + Varint.sizeOf(ttl) + Varint.sizeOf(hops)
+                + Varint.sizeOf(cost) + FrameCodec.stringLength(originator) + Varint.sizeOf(originatorSeq)
+                + FrameCodec.stringLength(destination) + Varint.sizeOf(destinationSeq);
+        ByteBuffer out = beginControl(body);
+        Varint.writeUnsigned(out, TYPE_RREQ);
+        Varint.writeUnsigned(out, id);
+        Varint.writeUnsigned(out, ttl);
+        Varint.writeUnsigned(out, hops);
+        Varint.writeUnsigned(out, cost);
+        FrameCodec.writeString(out, originator);
+        Varint.writeUnsigned(out, originatorSeq);
+        FrameCodec.writeString(out, destination);
+        Varint.writeUnsigned(out, destinationSeq);
+        out.flip();
+        return out;
+    }
+
+    private void sendReply(String peerId, int hops, int cost, String destination, long destinationSeq,
+                           String originator, long lifetimeMs) {
+        lifetimeMs = Math.max(0, lifetimeMs);
+        int body = Varint.sizeOf(TYPE_RREP) + Varint.sizeOf(hops) + Varint.sizeOf(cost)
+                + FrameCodec.stringLength(destination) + Varint.sizeOf(destinationSeq)
+                + FrameCodec.stringLength(originator) + Varint.sizeOf(lifetimeMs);
+        ByteBuffer out = beginControl(body);
+        Varint.writeUnsigned(out, TYPE_RREP);
+        Varint.writeUnsigned(out, hops);
+        Varint.writeUnsigned(out, cost);
+        FrameCodec.writeString(out, destination);
+        Varint.writeUnsigned(out, destinationSeq);
+        FrameCodec.writeString(out, originator);
+        Varint.writeUnsigned(out, lifetimeMs);
+        out.flip();
+        transmit(peerId, out, 0, out.remaining(), true);
+    }
+
+    // Broadcast rather than sent to each precursor: only neighbours routing through us act on it
+    private void sendError(List<Route> broken) {
+        routeErrors++;
+        int body = Varint.sizeOf(TYPE_RERR) + Varint.sizeOf(broken.size());
+        for (Route route : broken) {
+            body += FrameCodec.stringLength(route.destination) + Varint.sizeOf(route.sequence);
+        }
+        ByteBuffer out = beginControl(body);
+        Varint.writeUnsigned(out, TYPE_RERR);
+        Varint.writeUnsigned(out, broken.size());
+        for (Route route : broken) {
+            FrameCodec.writeString(out, route.destination);
+            Varint.writeUnsigned(out, route.sequence);
+        }
+        out.flip();
+        broadcastControl(out, null);
+    }
+
+    // Link-local: a hop limit of 1 keeps routers that predate route frames from flooding them
+    private ByteBuffer beginControl(int body) {
+        int size = FrameCodec.HEADER_SIZE + Varint.sizeOf(body) + body;
+        if (controlBuffer.capacity() < size) {
+            controlBuffer = ByteBuffer.allocate(Math.max(size, controlBuffer.capacity() * 2));
+        }
+        controlBuffer.clear();
+        FrameCodec.writeHeader(controlBuffer, FrameCodec.KIND_ROUTE, 0, 0, 1, Message.newMessageId());
+        Varint.writeUnsigned(controlBuffer, body);
+        return controlBuffer;
+    }
+
+    private void broadcastControl(ByteBuffer out, String exceptPeerId) {
+        for (String peerId : neighbours) {
+            if (!peerId.equals(exceptPeerId)) {
+                transmit(peerId, out, 0, out.remaining(), true);
+            }
+        }
+    }
+
+    private void transmit(String peerId, ByteBuffer buffer, int offset, int length, boolean control) {
+        if (frameSender == null) {
+            return;
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset + length).position(offset);
+        frameSender.sendFrame(peerId, view);
+        stats.transmissions++;
+        if (control) {
+            stats.controlTransmissions++;
+        }
+    }
+
+    private int addCost(int cost, String peerId) {
+        int link = linkCosts != null ? linkCosts.getCost(peerId) : LinkMetrics.PERFECT_COST;
+        return (int) Math.min(Integer.MAX_VALUE, (long) cost + link);
+    }
+
+    private ByteBuffer encodeBuffer(int size) {
+        if (encodeBuffer.capacity() < size) {
+            encodeBuffer = ByteBuffer.allocate(Math.max(size, encodeBuffer.capacity() * 2));
+        }
+        encodeBuffer.clear();
+        return encodeBuffer;
+    }
+
+    private static byte[] copyOf(ByteBuffer buffer, int offset, int length) {
+        byte[] copy = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(copy);
+        return copy;
+    }
+
+    private static long requestKey(String originator, int id) {
+        return ((long) originator.hashCode() << 32) | (id & 0xFFFFFFFFL);
+    }
+
+    private static String requireId(String id) {
+        if (id == null) {
+            throw new IllegalArgumentException("Route frame without node ID");
+        }
+        return id;
+    }
+
+    /**
+     * Routes currently usable
+     */
+    public synchronized int getRouteCount() {
+        int count = 0;
+        for (Route route : routes.values()) {
+            if (route.valid && route.expiresMs > nowMs) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Next hop towards a node, or null without a usable route
+     */
+    public synchronized String getNextHop(String destination) {
+        Route route = validRoute(destination);
+        return route != null ? route.nextHop : null;
+    }
+
+    public synchronized long getRouteDiscoveries() {
+        return routeDiscoveries;
+    }
+
+    /**
+     * Discoveries that found no route, so their messages were flooded
+     */
+    public synchronized long getDiscoveryFailures() {
+        return discoveryFailures;
+    }
+
+    public synchronized long getLocalRepairs() {
+        return localRepairs;
+    }
+
+    public synchronized long getRepairFailures() {
+        return repairFailures;
+    }
+
+    public synchronized long getRouteErrors() {
+        return routeErrors;
+    }
+
+    /**
+     * Private messages flooded for want of a route
+     */
+    public synchronized long getFallbackFloods() {
+        return fallbackFloods;
+    }
+}
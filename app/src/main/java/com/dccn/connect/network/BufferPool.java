@@ -0,0 +1,78 @@
+package com.dccn.connect.network;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * BufferPool - Power-of-two size-classed pool of buffers for short-lived large allocations such as
+ * frame reassembly, or of direct buffers for socket I/O, where allocation is expensive and heap
+ * buffers would be copied on every read and write. Retained memory is capped; buffers beyond the
+ * cap are left to the GC.
+ */
+public class BufferPool {
+
+    private static final int MIN_SHIFT = 8;
+    private static final int MAX_SHIFT = 30;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<ByteBuffer>[] free = new ArrayDeque[MAX_SHIFT + 1];
+    private final long maxRetainedBytes;
+    private final boolean direct;
+    private long retainedBytes;
+
+    public BufferPool(long maxRetainedBytes) {
+        this(maxRetainedBytes, false);
+    }
+
+    public BufferPool(long maxRetainedBytes, boolean direct) {
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.direct = direct;
+        for (int i = MIN_SHIFT; i <= MAX_SHIFT; i++) {
+            free[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * A cleared buffer with capacity of at least the requested size
+     */
+    public synchronized ByteBuffer acquire(int size) {
+        int shift = shiftFor(size);
+        ByteBuffer buffer = free[shift].pollFirst();
+        if (buffer == null) {
+            return direct ? ByteBuffer.allocateDirect(1 << shift) : ByteBuffer.allocate(1 << shift);
+        }
+        retainedBytes -= buffer.capacity();
+        buffer.clear();
+        return buffer;
+    }
+
+    public synchronized void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (buffer.isDirect() != direct || Integer.bitCount(capacity) != 1 || capacity < (1 << MIN_SHIFT)
+                || retainedBytes + capacity > maxRetainedBytes) {
+            return;
+        }
+        free[Integer.numberOfTrailingZeros(capacity)].addFirst(buffer);
+        retainedBytes += capacity;
+    }
+
+    /**
+     * Capacity of the buffer {@link #acquire} would return for this size, so callers can check a
+     * budget before allocating
+     */
+    public static int capacityFor(int size) {
+        return 1 << shiftFor(size);
+    }
+
+    public synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    private static int shiftFor(int size) {
+        if (size > (1 << MAX_SHIFT)) {
+            throw new IllegalArgumentException("Buffer too large: " + size);
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+        return Math.max(MIN_SHIFT, shift);
+    }
+}
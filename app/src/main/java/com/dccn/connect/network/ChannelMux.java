@@ -0,0 +1,341 @@
+package com.dccn.connect.network;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * ChannelMux - Logical channels over the one long-lived link to a peer, with per-channel flow control.
+ *
+ * Every frame belongs to a channel derived from its header ({@link #channelOf}): alerts (emergency
+ * flag), chat (messages and reliable data), file (stream data) and control (everything else).
+ * Control and alert frames are never held back. Chat and file each get a credit window: the sender
+ * may run at most that many bytes ahead of what the receiver has consumed, and anything beyond waits
+ * in a bounded per-channel queue here rather than in the shared link queue. A bulk transfer can
+ * therefore only ever occupy its own window on the link, never the space an alert needs.
+ *
+ * Credit is cumulative, as in QUIC: the receiver advertises the total byte count the sender may
+ * reach on a channel, so a credit frame dropped on the way is repaired by the next one. Flow
+ * control only starts once the peer's hello carries {@link #CAPABILITY_FLOW_CONTROL}; until then
+ * frames pass straight through. Both ends must use the same initial windows.
+ *
+ * Wire format, both link-local:
+ * <pre>
+ * KIND_CHANNEL_CREDIT  header.messageId = channel, body = varint send limit in bytes
+ * KIND_STREAM_DATA     header.messageId = stream id, body = varint offset, then the data bytes
+ * </pre>
+ */
+public class ChannelMux {
+
+    public static final int CAPABILITY_FLOW_CONTROL = 0x02;
+
+    public static final int CHANNEL_CONTROL = 0;
+    public static final int CHANNEL_ALERT = 1;
+    public static final int CHANNEL_CHAT = 2;
+    public static final int CHANNEL_FILE = 3;
+    public static final int CHANNEL_COUNT = 4;
+
+    public static final int DEFAULT_CHAT_WINDOW = 64 * 1024;
+    public static final int DEFAULT_FILE_WINDOW = 256 * 1024;
+    public static final int DEFAULT_QUEUE_LIMIT = 1024 * 1024;
+    // Consumed bytes below half a window are advertised after this long, so a sender never waits on them
+    public static final long CREDIT_FLUSH_MS = 200;
+
+    // 0 = not flow-controlled
+    private static final int[] DEFAULT_WINDOWS = {0, 0, DEFAULT_CHAT_WINDOW, DEFAULT_FILE_WINDOW};
+
+    /**
+     * Link output; the buffer is only valid during the call. Must not call back into the mux.
+     * @return false if the link refused the frame, in which case its credit is given back
+     */
+    public interface FrameSink {
+        boolean sendFrame(ByteBuffer frame, int channel);
+    }
+
+    /**
+     * Data received on a stream; the buffer is only valid during the call
+     */
+    public interface OnStreamDataListener {
+        void onStreamData(long streamId, long offset, ByteBuffer data);
+    }
+
+    private final FrameSink sink;
+    private final int[] windows;
+    private final int queueLimit;
+    private OnStreamDataListener onStreamDataListener;
+    private boolean flowControlEnabled;
+    private ByteBuffer encodeBuffer = ByteBuffer.allocate(256);
+
+    // Send side, per channel
+    private final long[] sentBytes = new long[CHANNEL_COUNT];
+    private final long[] sendLimit = new long[CHANNEL_COUNT];
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<ByteBuffer>[] queues = new ArrayDeque[CHANNEL_COUNT];
+    private final int[] queuedBytes = new int[CHANNEL_COUNT];
+
+    // Receive side, per channel
+    private final long[] consumedBytes = new long[CHANNEL_COUNT];
+    private final long[] advertisedBytes = new long[CHANNEL_COUNT];
+    private final long[] firstUnadvertisedMs = new long[CHANNEL_COUNT];
+
+    // Stats
+    private final long[] framesSent = new long[CHANNEL_COUNT];
+    private final long[] framesQueued = new long[CHANNEL_COUNT];
+    private final long[] framesDropped = new long[CHANNEL_COUNT];
+    private long creditsSent;
+    private long creditsReceived;
+
+    public ChannelMux(FrameSink sink) {
+        this(sink, DEFAULT_WINDOWS, DEFAULT_QUEUE_LIMIT);
+    }
+
+    /**
+     * @param windows credit window per channel in bytes, 0 for a channel without flow control
+     * @param queueLimit bytes a flow-controlled channel may hold back before it drops frames
+     */
+    public ChannelMux(FrameSink sink, int[] windows, int queueLimit) {
+        if (windows.length != CHANNEL_COUNT) {
+            throw new IllegalArgumentException("Expected " + CHANNEL_COUNT + " windows");
+        }
+        this.sink = sink;
+        this.windows = windows.clone();
+        this.queueLimit = queueLimit;
+        for (int i = 0; i < CHANNEL_COUNT; i++) {
+            queues[i] = new ArrayDeque<>();
+            sendLimit[i] = windows[i];
+        }
+    }
+
+    public synchronized void setOnStreamDataListener(OnStreamDataListener listener) {
+        this.onStreamDataListener = listener;
+    }
+
+    /**
+     * Turn flow control on once the peer has said it sends credit. Turning it off releases
+     * anything held back.
+     */
+    public synchronized void setFlowControlEnabled(boolean enabled) {
+        flowControlEnabled = enabled;
+        if (!enabled) {
+            for (int channel = 0; channel < CHANNEL_COUNT; channel++) {
+                while (!queues[channel].isEmpty()) {
+                    ByteBuffer frame = queues[channel].pollFirst();
+                    queuedBytes[channel] -= frame.remaining();
+                    emit(frame, channel, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Channel an encoded frame travels on, read from its header
+     */
+    public static int channelOf(ByteBuffer frame) {
+        int offset = frame.position();
+        if ((frame.get(offset + FrameCodec.OFFSET_FLAGS) & FrameCodec.FLAG_EMERGENCY) != 0) {
+            return CHANNEL_ALERT;
+        }
+        switch (FrameCodec.peekKind(frame, offset)) {
+            case FrameCodec.KIND_MESSAGE:
+            case FrameCodec.KIND_RELIABLE_DATA:
+                return CHANNEL_CHAT;
+            case FrameCodec.KIND_STREAM_DATA:
+                return CHANNEL_FILE;
+            default:
+                return CHANNEL_CONTROL;
+        }
+    }
+
+    /**
+     * Send a frame on its channel, or hold it until the channel has credit. Held frames are copied.
+     * @return false if the frame was dropped: the channel's queue is full or the link refused it
+     */
+    public synchronized boolean send(ByteBuffer frame) {
+        int channel = channelOf(frame);
+        if (!isFlowControlled(channel)) {
+            return emit(frame, channel, false);
+        }
+        int length = frame.remaining();
+        if (queues[channel].isEmpty() && canSend(channel, length)) {
+            return emit(frame, channel, true);
+        }
+        if (queuedBytes[channel] + length > queueLimit) {
+            framesDropped[channel]++;
+            return false;
+        }
+        ByteBuffer copy = ByteBuffer.allocate(length);
+        copy.put(frame.duplicate()).flip();
+        queues[channel].addLast(copy);
+        queuedBytes[channel] += length;
+        framesQueued[channel]++;
+        return true;
+    }
+
+    /**
+     * Send a piece of a stream on the file channel. Keep pieces well under the file window so
+     * several can be in flight.
+     */
+    public synchronized boolean sendStreamData(long streamId, long offset, ByteBuffer data) {
+        int body = Varint.sizeOf(offset) + data.remaining();
+        ByteBuffer out = encodeBuffer(FrameCodec.HEADER_SIZE + Varint.sizeOf(body) + body);
+        FrameCodec.writeHeader(out, FrameCodec.KIND_STREAM_DATA, 0, 0, 1, streamId);
+        Varint.writeUnsigned(out, body);
+        Varint.writeUnsigned(out, offset);
+        out.put(data.duplicate());
+        out.flip();
+        return send(out);
+    }
+
+    /**
+     * Account for a whole (reassembled, decompressed) frame from the peer. Credit and stream data
+     * frames are handled here; any other frame is left untouched for the caller to dispatch.
+     * @return true if the frame was consumed by the mux
+     */
+    public synchronized boolean onFrameReceived(ByteBuffer frame, long nowMs) {
+        int offset = frame.position();
+        int kind = FrameCodec.peekKind(frame, offset);
+        if (kind == FrameCodec.KIND_CHANNEL_CREDIT) {
+            onCredit(frame);
+            return true;
+        }
+
+        // Counted even before flow control is on, so the peer never sees less credit than it used
+        int channel = channelOf(frame);
+        if (windows[channel] > 0) {
+            if (consumedBytes[channel] == advertisedBytes[channel]) {
+                firstUnadvertisedMs[channel] = nowMs;
+            }
+            consumedBytes[channel] += frame.remaining();
+            if (flowControlEnabled && consumedBytes[channel] - advertisedBytes[channel] >= windows[channel] / 2) {
+                sendCredit(channel);
+            }
+        }
+
+        if (kind == FrameCodec.KIND_STREAM_DATA) {
+            long streamId = FrameCodec.peekMessageId(frame, offset);
+            ByteBuffer body = frame.duplicate();
+            body.position(offset + FrameCodec.HEADER_SIZE);
+            int length = Varint.readLength(body);
+            int end = body.position() + length;
+            long streamOffset = Varint.readUnsigned(body);
+            body.limit(end);
+            frame.position(end);
+            if (onStreamDataListener != null) {
+                onStreamDataListener.onStreamData(streamId, streamOffset, body);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Advertise consumption that has been waiting longer than {@link #CREDIT_FLUSH_MS}
+     */
+    public synchronized void onTimer(long nowMs) {
+        if (!flowControlEnabled) {
+            return;
+        }
+        for (int channel = 0; channel < CHANNEL_COUNT; channel++) {
+            if (windows[channel] > 0 && consumedBytes[channel] > advertisedBytes[channel]
+                    && nowMs - firstUnadvertisedMs[channel] >= CREDIT_FLUSH_MS) {
+                sendCredit(channel);
+            }
+        }
+    }
+
+    public synchronized int getQueuedBytes(int channel) {
+        return queuedBytes[channel];
+    }
+
+    /**
+     * Bytes the channel may still send before it has to wait for credit
+     */
+    public synchronized long getAvailableCredit(int channel) {
+        return isFlowControlled(channel) ? sendLimit[channel] - sentBytes[channel] : Long.MAX_VALUE;
+    }
+
+    public synchronized long getFramesSent(int channel) { return framesSent[channel]; }
+    public synchronized long getFramesQueued(int channel) { return framesQueued[channel]; }
+    public synchronized long getFramesDropped(int channel) { return framesDropped[channel]; }
+    public synchronized long getCreditsSent() { return creditsSent; }
+    public synchronized long getCreditsReceived() { return creditsReceived; }
+
+    private boolean isFlowControlled(int channel) {
+        return flowControlEnabled && windows[channel] > 0;
+    }
+
+    // A frame fits if it is within credit, or if at least half a window is free: the receiver only
+    // returns credit in half-window steps, so a larger frame would otherwise wait forever
+    private boolean canSend(int channel, int length) {
+        long available = sendLimit[channel] - sentBytes[channel];
+        return available >= length || available >= windows[channel] / 2;
+    }
+
+    private boolean emit(ByteBuffer frame, int channel, boolean counted) {
+        int length = frame.remaining();
+        if (counted) {
+            sentBytes[channel] += length;
+        }
+        if (!sink.sendFrame(frame, channel)) {
+            // Never reaches the peer, so it will never be credited back
+            if (counted) {
+                sentBytes[channel] -= length;
+            }
+            framesDropped[channel]++;
+            return false;
+        }
+        framesSent[channel]++;
+        return true;
+    }
+
+    private void onCredit(ByteBuffer frame) {
+        int offset = frame.position();
+        long channel = FrameCodec.peekMessageId(frame, offset);
+        ByteBuffer body = frame.duplicate();
+        body.position(offset + FrameCodec.HEADER_SIZE);
+        int length = Varint.readLength(body);
+        int end = body.position() + length;
+        long limit = Varint.readUnsigned(body);
+        frame.position(end);
+        creditsReceived++;
+        if (channel < 0 || channel >= CHANNEL_COUNT) {
+            return;
+        }
+        int c = (int) channel;
+        if (limit > sendLimit[c]) {
+            sendLimit[c] = limit;
+        }
+        drain(c);
+    }
+
+    private void drain(int channel) {
+        ArrayDeque<ByteBuffer> queue = queues[channel];
+        while (!queue.isEmpty() && canSend(channel, queue.peekFirst().remaining())) {
+            ByteBuffer frame = queue.pollFirst();
+            queuedBytes[channel] -= frame.remaining();
+            emit(frame, channel, true);
+        }
+    }
+
+    private void sendCredit(int channel) {
+        long limit = consumedBytes[channel] + windows[channel];
+        int body = Varint.sizeOf(limit);
+        ByteBuffer out = encodeBuffer(FrameCodec.HEADER_SIZE + Varint.sizeOf(body) + body);
+        FrameCodec.writeHeader(out, FrameCodec.KIND_CHANNEL_CREDIT, 0, 0, 1, channel);
+        Varint.writeUnsigned(out, body);
+        Varint.writeUnsigned(out, limit);
+        out.flip();
+        // If the link refuses it, the consumption stays unadvertised and the timer tries again
+        if (sink.sendFrame(out, CHANNEL_CONTROL)) {
+            advertisedBytes[channel] = consumedBytes[channel];
+            creditsSent++;
+        }
+    }
+
+    private ByteBuffer encodeBuffer(int size) {
+        if (encodeBuffer.capacity() < size) {
+            encodeBuffer = ByteBuffer.allocate(Math.max(size, encodeBuffer.capacity() * 2));
+        }
+        encodeBuffer.clear();
+        return encodeBuffer;
+    }
+}
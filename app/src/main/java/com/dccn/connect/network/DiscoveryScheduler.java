@@ -0,0 +1,283 @@
+package com.dccn.connect.network;
+
+/**
+ * DiscoveryScheduler - Decides when the radios scan for neighbours and for how long. Inquiry is
+ * expensive: a Bluetooth inquiry holds the radio for about 12 s and starves the links already up,
+ * so scanning back to back costs throughput and battery for nothing once the neighbourhood has
+ * settled.
+ *
+ * Scans are paced by churn. A scan that finds new radios, or a link lost since the last one, puts
+ * the scheduler back in burst mode at {@link #MIN_INTERVAL_MS}; every scan that finds nothing new
+ * doubles the gap, up to {@link #MAX_INTERVAL_MS}. Link utilisation shapes each scan: while the links
+ * carry more than {@link #BUSY_BYTES_PER_SECOND}, a due scan waits (up to {@link #MAX_DEFER_MS}) and
+ * then runs a short window instead of the full one.
+ *
+ * Like {@link Membership} this is a pure state machine: time comes in through {@link #onTimer} and
+ * the radios are driven through a {@link Scanner}, called outside the scheduler's lock.
+ */
+public class DiscoveryScheduler {
+
+    public static final long SCAN_WINDOW_MS = 12_000;
+    public static final long BUSY_SCAN_WINDOW_MS = 4_000;
+    public static final long MIN_INTERVAL_MS = 15_000;
+    public static final long MAX_INTERVAL_MS = 8 * 60 * 1000;
+    public static final long MAX_DEFER_MS = 60_000;
+    // Roughly a quarter of what an RFCOMM link sustains
+    public static final long BUSY_BYTES_PER_SECOND = 32 * 1024;
+    static final long UTILIZATION_WINDOW_MS = 1000;
+
+    /**
+     * The radios being scheduled
+     */
+    public interface Scanner {
+        void startScan();
+
+        void stopScan();
+    }
+
+    private final Scanner scanner;
+
+    private boolean enabled;
+    private boolean scanning;
+    private long scanStartedMs;
+    private long scanEndsMs;
+    private long nextScanMs;
+    private long dueSinceMs = -1;
+    private long intervalMs = MIN_INTERVAL_MS;
+    private int foundThisScan;
+    private int lostSinceScan;
+
+    // Link traffic, measured over fixed windows
+    private long windowStartMs;
+    private long windowBytes;
+    private long bytesPerSecond;
+
+    // Stats
+    private long scans;
+    private long busyScans;
+    private long deferredMs;
+    private long scanMs;
+    private long newPeers;
+    private long emptyScans;
+
+    public DiscoveryScheduler(Scanner scanner) {
+        this.scanner = scanner;
+    }
+
+    /**
+     * Start scheduling with an immediate scan
+     */
+    public void start(long nowMs) {
+        synchronized (this) {
+            enabled = true;
+            intervalMs = MIN_INTERVAL_MS;
+            nextScanMs = nowMs;
+            dueSinceMs = -1;
+        }
+        onTimer(nowMs);
+    }
+
+    /**
+     * Stop scheduling, cutting any scan in progress short
+     */
+    public void stop(long nowMs) {
+        boolean stopScan;
+        synchronized (this) {
+            enabled = false;
+            stopScan = scanning;
+            if (scanning) {
+                endScan(nowMs);
+            }
+        }
+        if (stopScan) {
+            scanner.stopScan();
+        }
+    }
+
+    /**
+     * Something changed enough that the neighbourhood is worth a fresh look now: the user asked,
+     * or the last link dropped. Resets the back-off.
+     */
+    public void requestScan(long nowMs) {
+        synchronized (this) {
+            intervalMs = MIN_INTERVAL_MS;
+            if (!scanning) {
+                nextScanMs = Math.min(nextScanMs, nowMs);
+            }
+        }
+        onTimer(nowMs);
+    }
+
+    /**
+     * A transport reported a radio; only ones never seen before count as churn
+     */
+    public synchronized void onPeerFound(boolean isNew, long nowMs) {
+        if (!isNew) {
+            return;
+        }
+        newPeers++;
+        if (scanning) {
+            foundThisScan++;
+        } else {
+            onChurn(nowMs);
+        }
+    }
+
+    /**
+     * A link went down: the neighbourhood moved, so the next scan comes sooner
+     */
+    public synchronized void onPeerLost(long nowMs) {
+        if (scanning) {
+            lostSinceScan++;
+        } else {
+            onChurn(nowMs);
+        }
+    }
+
+    /**
+     * Bytes sent or received on any link, for the utilisation estimate
+     */
+    public synchronized void recordTraffic(int bytes) {
+        windowBytes += bytes;
+    }
+
+    public void onTimer(long nowMs) {
+        int action = 0;
+        synchronized (this) {
+            updateUtilization(nowMs);
+            if (!enabled) {
+                return;
+            }
+            if (scanning) {
+                if (nowMs >= scanEndsMs || (isBusy() && nowMs - scanStartedMs >= BUSY_SCAN_WINDOW_MS)) {
+                    endScan(nowMs);
+                    action = -1;
+                }
+            } else if (nowMs >= nextScanMs) {
+                if (dueSinceMs < 0) {
+                    dueSinceMs = nowMs;
+                }
+                if (!isBusy() || nowMs - dueSinceMs >= MAX_DEFER_MS) {
+                    beginScan(nowMs);
+                    action = 1;
+                }
+            }
+        }
+        if (action > 0) {
+            scanner.startScan();
+        } else if (action < 0) {
+            scanner.stopScan();
+        }
+    }
+
+    private void beginScan(long nowMs) {
+        deferredMs += nowMs - dueSinceMs;
+        dueSinceMs = -1;
+        scanning = true;
+        scanStartedMs = nowMs;
+        boolean busy = isBusy();
+        if (busy) {
+            busyScans++;
+        }
+        scanEndsMs = nowMs + (busy ? BUSY_SCAN_WINDOW_MS : SCAN_WINDOW_MS);
+        foundThisScan = 0;
+        scans++;
+    }
+
+    private void endScan(long nowMs) {
+        scanning = false;
+        scanMs += nowMs - scanStartedMs;
+        if (foundThisScan > 0 || lostSinceScan > 0) {
+            intervalMs = MIN_INTERVAL_MS;
+        } else {
+            emptyScans++;
+            intervalMs = Math.min(MAX_INTERVAL_MS, intervalMs * 2);
+        }
+        lostSinceScan = 0;
+        nextScanMs = nowMs + intervalMs;
+    }
+
+    // Between scans: drop back to burst pacing, counted from the end of the last scan
+    private void onChurn(long nowMs) {
+        if (intervalMs > MIN_INTERVAL_MS) {
+            long lastScanEndMs = nextScanMs - intervalMs;
+            intervalMs = MIN_INTERVAL_MS;
+            nextScanMs = Math.max(nowMs, lastScanEndMs + MIN_INTERVAL_MS);
+        }
+    }
+
+    private void updateUtilization(long nowMs) {
+        long elapsed = nowMs - windowStartMs;
+        if (elapsed >= UTILIZATION_WINDOW_MS) {
+            bytesPerSecond = windowBytes * 1000 / elapsed;
+            windowBytes = 0;
+            windowStartMs = nowMs;
+        }
+    }
+
+    private boolean isBusy() {
+        return bytesPerSecond > BUSY_BYTES_PER_SECOND;
+    }
+
+    public synchronized boolean isScanning() {
+        return scanning;
+    }
+
+    /**
+     * Gap the scheduler will leave after the current or next scan
+     */
+    public synchronized long getIntervalMs() {
+        return intervalMs;
+    }
+
+    public synchronized long getNextScanMs() {
+        return scanning ? scanEndsMs : nextScanMs;
+    }
+
+    public synchronized long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public synchronized long getScans() {
+        return scans;
+    }
+
+    /**
+     * Scans that found no new radio
+     */
+    public synchronized long getEmptyScans() {
+        return emptyScans;
+    }
+
+    /**
+     * Scans shortened because the links were busy
+     */
+    public synchronized long getBusyScans() {
+        return busyScans;
+    }
+
+    /**
+     * Total time due scans waited for the links to quiet down
+     */
+    public synchronized long getDeferredMs() {
+        return deferredMs;
+    }
+
+    /**
+     * Total time the radios spent scanning
+     */
+    public synchronized long getScanMs() {
+        return scanMs;
+    }
+
+    public synchronized long getNewPeers() {
+        return newPeers;
+    }
+
+    /**
+     * New radios found per minute of scanning: what the scan time bought
+     */
+    public synchronized double getNewPeersPerScanMinute() {
+        return scanMs == 0 ? 0.0 : newPeers * 60_000.0 / scanMs;
+    }
+}
@@ -0,0 +1,154 @@
+package com.dccn.connect.network;
+
+import com.dccn.connect.models.Message;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * FloodingRouter - Controlled flooding: every node rebroadcasts a frame to its connected peers at
+ * most once. Duplicates are dropped via a bounded {@link SeenIdCache} and frames stop travelling
+ * once their hop count reaches the hop limit. Copies go out cheapest link first, so when the
+ * sender is backed up the best paths carry the frame ahead of the rest.
+ */
+public class FloodingRouter implements MeshRouter {
+
+    public static final int DEFAULT_SEEN_CACHE_SIZE = 4096;
+
+    private final SeenIdCache seenIds;
+    private final int hopLimit;
+    private final List<String> peers = new ArrayList<>();
+    private final Frame frame = new Frame();
+    private final RouterStats stats = new RouterStats();
+    private ByteBuffer encodeBuffer = ByteBuffer.allocate(512);
+
+    private FrameSender frameSender;
+    private OnFrameDeliveredListener onFrameDeliveredListener;
+
+    public FloodingRouter() {
+        this(FrameCodec.DEFAULT_HOP_LIMIT, DEFAULT_SEEN_CACHE_SIZE);
+    }
+
+    public FloodingRouter(int hopLimit, int seenCacheSize) {
+        this.hopLimit = hopLimit;
+        this.seenIds = new SeenIdCache(seenCacheSize);
+    }
+
+    @Override
+    public synchronized void setFrameSender(FrameSender sender) {
+        this.frameSender = sender;
+    }
+
+    @Override
+    public synchronized void setOnFrameDeliveredListener(OnFrameDeliveredListener listener) {
+        this.onFrameDeliveredListener = listener;
+    }
+
+    @Override
+    public synchronized void onPeerConnected(String peerId) {
+        if (!peers.contains(peerId)) {
+            peers.add(peerId);
+        }
+    }
+
+    @Override
+    public synchronized void onPeerDisconnected(String peerId) {
+        peers.remove(peerId);
+    }
+
+    @Override
+    public synchronized int getPeerCount() {
+        return peers.size();
+    }
+
+    @Override
+    public synchronized void onLinkCostsChanged(LinkCosts costs) {
+        Collections.sort(peers, (a, b) -> Integer.compare(costs.getCost(a), costs.getCost(b)));
+    }
+
+    @Override
+    public synchronized void send(Message message) {
+        int length = FrameCodec.encodedLength(message);
+        if (encodeBuffer.capacity() < length) {
+            encodeBuffer = ByteBuffer.allocate(Math.max(length, encodeBuffer.capacity() * 2));
+        }
+        encodeBuffer.clear();
+        FrameCodec.encode(message, hopLimit, encodeBuffer);
+        encodeBuffer.flip();
+
+        seenIds.add(message.getMessageId());
+        stats.originated++;
+        broadcast(encodeBuffer, 0, length, null);
+    }
+
+    @Override
+    public synchronized void sendEncoded(ByteBuffer buffer) {
+        int offset = buffer.position();
+        try {
+            FrameCodec.decode(buffer, frame);
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            stats.malformedDrops++;
+            return;
+        }
+        seenIds.add(frame.getMessageId());
+        stats.originated++;
+        broadcast(buffer, offset, frame.getFrameLength(), null);
+    }
+
+    @Override
+    public synchronized void onFrameReceived(String fromPeerId, ByteBuffer buffer) {
+        stats.received++;
+        int offset = buffer.position();
+        try {
+            FrameCodec.decode(buffer, frame);
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            stats.malformedDrops++;
+            return;
+        }
+        if (!seenIds.add(frame.getMessageId())) {
+            stats.duplicatesSuppressed++;
+            return;
+        }
+
+        stats.delivered++;
+        if (onFrameDeliveredListener != null) {
+            onFrameDeliveredListener.onFrameDelivered(frame);
+        }
+
+        if (frame.getHopCount() + 1 >= frame.getHopLimit()) {
+            stats.hopLimitDrops++;
+            return;
+        }
+        FrameCodec.incrementHopCount(buffer, offset);
+        stats.forwarded++;
+        broadcast(buffer, offset, frame.getFrameLength(), fromPeerId);
+    }
+
+    @Override
+    public void onTimer(long nowMs) {
+    }
+
+    @Override
+    public RouterStats getStats() {
+        return stats;
+    }
+
+    private void broadcast(ByteBuffer buffer, int offset, int length, String exceptPeerId) {
+        if (frameSender == null) {
+            return;
+        }
+        for (int i = 0; i < peers.size(); i++) {
+            String peerId = peers.get(i);
+            if (peerId.equals(exceptPeerId)) {
+                continue;
+            }
+            ByteBuffer view = buffer.duplicate();
+            view.limit(offset + length).position(offset);
+            frameSender.sendFrame(peerId, view);
+            stats.transmissions++;
+        }
+    }
+}
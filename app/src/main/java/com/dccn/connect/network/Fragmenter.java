@@ -0,0 +1,83 @@
+package com.dccn.connect.network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fragmenter - Splits frames larger than a link's MTU into KIND_FRAGMENT frames.
+ * Fragmentation is hop-by-hop: each node reassembles (see {@link Reassembler}) before routing, so
+ * routers only ever see whole frames. Fragments keep the original message ID and emergency flag,
+ * which lets the scheduler interleave them with other traffic in the right class.
+ *
+ * Not thread-safe; the fragment buffer is reused between callbacks.
+ */
+public class Fragmenter {
+
+    public static final int DEFAULT_MTU = 4096;
+
+    // Header, plus room for three varints
+    private static final int FRAGMENT_OVERHEAD = FrameCodec.HEADER_SIZE + 5 + 3 * 5;
+
+    /**
+     * Receives each fragment; the buffer is only valid during the call
+     */
+    public interface FragmentSink {
+        void onFragment(ByteBuffer fragment);
+    }
+
+    private final int mtu;
+    private final ByteBuffer fragment;
+
+    public Fragmenter() {
+        this(DEFAULT_MTU);
+    }
+
+    public Fragmenter(int mtu) {
+        if (mtu <= FRAGMENT_OVERHEAD) {
+            throw new IllegalArgumentException("MTU too small: " + mtu);
+        }
+        this.mtu = mtu;
+        this.fragment = ByteBuffer.allocate(mtu);
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    public boolean needsFragmenting(ByteBuffer frame) {
+        return frame.remaining() > mtu;
+    }
+
+    /**
+     * Split the frame between position and limit into fragments, without consuming it
+     * @return number of fragments emitted
+     */
+    public int fragment(ByteBuffer frame, FragmentSink sink) {
+        int offset = frame.position();
+        int total = frame.remaining();
+        int payload = mtu - FRAGMENT_OVERHEAD;
+        int count = (total + payload - 1) / payload;
+        // Even chunks, so the receiver can place a fragment from its index alone
+        int chunk = (total + count - 1) / count;
+        long messageId = FrameCodec.peekMessageId(frame, offset);
+        int flags = frame.get(offset + FrameCodec.OFFSET_FLAGS) & FrameCodec.FLAG_EMERGENCY;
+
+        ByteBuffer source = frame.duplicate();
+        for (int index = 0; index < count; index++) {
+            int start = offset + index * chunk;
+            int length = Math.min(chunk, offset + total - start);
+            int body = Varint.sizeOf(total) + Varint.sizeOf(index) + Varint.sizeOf(count) + length;
+
+            fragment.clear();
+            FrameCodec.writeHeader(fragment, FrameCodec.KIND_FRAGMENT, flags, 0, 1, messageId);
+            Varint.writeUnsigned(fragment, body);
+            Varint.writeUnsigned(fragment, total);
+            Varint.writeUnsigned(fragment, index);
+            Varint.writeUnsigned(fragment, count);
+            source.limit(start + length).position(start);
+            fragment.put(source);
+            fragment.flip();
+            sink.onFragment(fragment);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,166 @@
+package com.dccn.connect.network;
+
+import com.dccn.connect.models.Message;
+import com.dccn.connect.models.User;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frame - Reusable decode target for {@link FrameCodec}.
+ * Header fields are copied out, string fields are kept as slices of the source buffer so a frame
+ * can be inspected, routed and re-sent without materialising any String.
+ */
+public final class Frame {
+
+    // String slots for KIND_MESSAGE frames
+    public static final int SLOT_SENDER = 0;
+    public static final int SLOT_TEXT = 1;
+    public static final int SLOT_RECIPIENT = 2;
+    public static final int SLOT_SENDER_ID = 3;
+
+    // String slots for KIND_USER frames; KIND_HELLO frames carry only the device ID
+    public static final int SLOT_DEVICE_ID = 0;
+    public static final int SLOT_USERNAME = 1;
+    public static final int SLOT_DEVICE_NAME = 2;
+    public static final int SLOT_DEVICE_ADDRESS = 3;
+
+    static final int MAX_SLOTS = 4;
+
+    int version;
+    int kind;
+    int flags;
+    int hopCount;
+    int hopLimit;
+    long messageId;
+    long timestamp;
+    int userType;
+    int signalStrength;
+    int capabilities;
+
+    ByteBuffer source;
+    int frameOffset;
+    int frameLength;
+    final int[] stringOffsets = new int[MAX_SLOTS];
+    final int[] stringLengths = new int[MAX_SLOTS];
+
+    public int getVersion() { return version; }
+    public int getKind() { return kind; }
+    public int getFlags() { return flags; }
+    public int getHopCount() { return hopCount; }
+    public int getHopLimit() { return hopLimit; }
+    public long getMessageId() { return messageId; }
+    public long getTimestamp() { return timestamp; }
+    public int getUserType() { return userType; }
+    public int getSignalStrength() { return signalStrength; }
+    public int getCapabilities() { return capabilities; }
+
+    /**
+     * Buffer the frame was decoded from; offsets below are absolute indices into it
+     */
+    public ByteBuffer getSource() { return source; }
+    public int getFrameOffset() { return frameOffset; }
+    public int getFrameLength() { return frameLength; }
+
+    public boolean isEmergency() {
+        return (flags & FrameCodec.FLAG_EMERGENCY) != 0;
+    }
+
+    /**
+     * Whether a string slot was encoded as null
+     */
+    public boolean isNull(int slot) {
+        return stringLengths[slot] < 0;
+    }
+
+    /**
+     * UTF-8 byte length of a string slot, or -1 if null
+     */
+    public int getStringLength(int slot) {
+        return stringLengths[slot];
+    }
+
+    /**
+     * Copy a string slot's raw UTF-8 bytes to another buffer without decoding them
+     */
+    public void copyStringBytes(int slot, ByteBuffer dst) {
+        int length = stringLengths[slot];
+        if (length <= 0) {
+            return;
+        }
+        ByteBuffer view = source.duplicate();
+        view.limit(stringOffsets[slot] + length).position(stringOffsets[slot]);
+        dst.put(view);
+    }
+
+    /**
+     * Decode a string slot. This is the only place a frame allocates a String, and only when asked to.
+     */
+    public String getString(int slot) {
+        int length = stringLengths[slot];
+        if (length < 0) {
+            return null;
+        }
+        if (length == 0) {
+            return "";
+        }
+        int offset = stringOffsets[slot];
+        if (source.hasArray()) {
+            return new String(source.array(), source.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer view = source.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Materialise a decoded KIND_MESSAGE frame as a model object
+     */
+    public Message toMessage() {
+        if (kind != FrameCodec.KIND_MESSAGE) {
+            throw new IllegalStateException("Not a message frame: kind " + kind);
+        }
+        int type = isEmergency() ? Message.TYPE_EMERGENCY : Message.TYPE_CHAT;
+        Message message = new Message(messageId, type, hopCount, getString(SLOT_TEXT), getString(SLOT_SENDER), timestamp);
+        message.setRecipient(getString(SLOT_RECIPIENT));
+        message.setSenderId(getString(SLOT_SENDER_ID));
+        return message;
+    }
+
+    /**
+     * Materialise a decoded KIND_USER frame as a model object
+     */
+    public User toUser() {
+        if (kind != FrameCodec.KIND_USER) {
+            throw new IllegalStateException("Not a user frame: kind " + kind);
+        }
+        User user = new User(getString(SLOT_USERNAME), userType, getString(SLOT_DEVICE_ID));
+        user.setDeviceName(getString(SLOT_DEVICE_NAME));
+        user.setDeviceAddress(getString(SLOT_DEVICE_ADDRESS));
+        user.setSignalStrength(signalStrength);
+        user.setLastSeen(timestamp);
+        return user;
+    }
+
+    void reset() {
+        version = 0;
+        kind = 0;
+        flags = 0;
+        hopCount = 0;
+        hopLimit = 0;
+        messageId = 0;
+        timestamp = 0;
+        userType = 0;
+        signalStrength = 0;
+        capabilities = 0;
+        source = null;
+        frameOffset = 0;
+        frameLength = 0;
+        for (int i = 0; i < MAX_SLOTS; i++) {
+            stringOffsets[i] = 0;
+            stringLengths[i] = -1;
+        }
+    }
+}
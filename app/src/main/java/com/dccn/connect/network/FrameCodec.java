@@ -0,0 +1,429 @@
+package com.dccn.connect.network;
+
+import com.dccn.connect.models.Message;
+import com.dccn.connect.models.User;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * FrameCodec - Compact versioned binary wire format for Message and User frames.
+ *
+ * Layout (version 1):
+ * <pre>
+ *  0  magic      1 byte  0xDC
+ *  1  version    1 byte
+ *  2  kind       1 byte  KIND_MESSAGE / KIND_USER
+ *  3  flags      1 byte  FLAG_EMERGENCY, ...
+ *  4  hop count  1 byte
+ *  5  hop limit  1 byte
+ *  6  message id 8 bytes big-endian
+ * 14  body length varint
+ *     body
+ * </pre>
+ * Message body: varint timestamp, sender, text, then the recipient's device id on private messages
+ * (absent on messages to everyone, and from older peers), followed by the sender's device id (absent
+ * from older peers). User body: varint user type, zigzag signal strength,
+ * varint last seen, device id, username, device name, device address. Hello body (link-local, never
+ * forwarded): varint capability bits, then the sender's device id (absent from older peers). Fragment body (link-local, see {@link Fragmenter}): varint total
+ * length, varint index, varint count, chunk bytes. Reliable data and ack frames are link-local too and
+ * described in {@link ReliableChannel}, as are stream data and channel credit frames in
+ * {@link ChannelMux}, gossip frames in {@link Membership}, route control frames in {@link AodvRouter}
+ * and {@link OlsrRouter}, and alert copies and summaries in {@link SprayAndWaitRouter}. Strings are a
+ * varint of (UTF-8 length + 1), 0 meaning null, followed by the UTF-8 bytes.
+ *
+ * Encoding writes straight from the model's chars into the destination buffer and decoding only
+ * records slices into the source buffer, so neither direction goes through JSON or temporary Strings.
+ */
+public final class FrameCodec {
+
+    public static final byte MAGIC = (byte) 0xDC;
+    public static final int VERSION = 1;
+
+    public static final int KIND_MESSAGE = 1;
+    public static final int KIND_USER = 2;
+    public static final int KIND_HELLO = 3;
+    public static final int KIND_FRAGMENT = 4;
+    public static final int KIND_RELIABLE_DATA = 5;
+    public static final int KIND_RELIABLE_ACK = 6;
+    public static final int KIND_STREAM_DATA = 7;
+    public static final int KIND_CHANNEL_CREDIT = 8;
+    public static final int KIND_MEMBERSHIP = 9;
+    public static final int KIND_ROUTE = 10;
+    public static final int KIND_ALERT_COPY = 11;
+    public static final int KIND_ALERT_SUMMARY = 12;
+
+    public static final int FLAG_EMERGENCY = 0x01;
+    public static final int FLAG_COMPRESSED = 0x02;
+    // Private message travelling hop by hop along a discovered route rather than flooded
+    public static final int FLAG_ROUTED = 0x04;
+
+    public static final int HEADER_SIZE = 14;
+    public static final int DEFAULT_HOP_LIMIT = 8;
+    public static final int MAX_HOP_LIMIT = 255;
+
+    static final int OFFSET_KIND = 2;
+    static final int OFFSET_FLAGS = 3;
+    static final int OFFSET_HOP_COUNT = 4;
+    static final int OFFSET_HOP_LIMIT = 5;
+    static final int OFFSET_MESSAGE_ID = 6;
+
+    private FrameCodec() {
+    }
+
+    /**
+     * Exact number of bytes {@link #encode(Message, int, ByteBuffer)} will write
+     */
+    public static int encodedLength(Message message) {
+        int body = messageBodyLength(message);
+        return HEADER_SIZE + Varint.sizeOf(body) + body;
+    }
+
+    /**
+     * Exact number of bytes {@link #encode(User, ByteBuffer)} will write
+     */
+    public static int encodedLength(User user) {
+        int body = userBodyLength(user);
+        return HEADER_SIZE + Varint.sizeOf(body) + body;
+    }
+
+    /**
+     * Encode a message at the buffer's position, advancing it.
+     * @return number of bytes written
+     */
+    public static int encode(Message message, int hopLimit, ByteBuffer dst) {
+        int body = messageBodyLength(message);
+        int start = dst.position();
+        writeHeader(dst, KIND_MESSAGE, message.isEmergency() ? FLAG_EMERGENCY : 0,
+                message.getHopCount(), hopLimit, message.getMessageId());
+        Varint.writeUnsigned(dst, body);
+        Varint.writeUnsigned(dst, message.getTimestamp());
+        writeString(dst, message.getSender());
+        writeString(dst, message.getText());
+        if (message.getRecipient() != null) {
+            writeString(dst, message.getRecipient());
+            writeString(dst, message.getSenderId());
+        }
+        return dst.position() - start;
+    }
+
+    /**
+     * Encode a user announcement at the buffer's position, advancing it.
+     * @return number of bytes written
+     */
+    public static int encode(User user, ByteBuffer dst) {
+        int body = userBodyLength(user);
+        int start = dst.position();
+        writeHeader(dst, KIND_USER, 0, 0, 1, Message.newMessageId());
+        Varint.writeUnsigned(dst, body);
+        Varint.writeUnsigned(dst, user.getUserType());
+        Varint.writeUnsigned(dst, Varint.zigZag(user.getSignalStrength()));
+        Varint.writeUnsigned(dst, user.getLastSeen());
+        writeString(dst, user.getDeviceId());
+        writeString(dst, user.getUsername());
+        writeString(dst, user.getDeviceName());
+        writeString(dst, user.getDeviceAddress());
+        return dst.position() - start;
+    }
+
+    /**
+     * Encode a link-local hello advertising this node's capabilities (see {@link PayloadCompressor})
+     * and its device ID, which ties the link's radio address to one device
+     * @return number of bytes written
+     */
+    public static int encodeHello(int capabilities, CharSequence deviceId, ByteBuffer dst) {
+        int body = Varint.sizeOf(capabilities) + stringLength(deviceId);
+        int start = dst.position();
+        writeHeader(dst, KIND_HELLO, 0, 0, 1, Message.newMessageId());
+        Varint.writeUnsigned(dst, body);
+        Varint.writeUnsigned(dst, capabilities);
+        writeString(dst, deviceId);
+        return dst.position() - start;
+    }
+
+    /**
+     * Upper bound on the size of an encoded hello
+     */
+    public static int maxHelloSize(CharSequence deviceId) {
+        return HEADER_SIZE + 5 + 5 + stringLength(deviceId);
+    }
+
+    /**
+     * Total length of the frame starting at the given offset, read from its header.
+     * @return the length, or -1 if the buffer (up to its limit) does not yet hold the whole frame
+     */
+    public static int peekFrameLength(ByteBuffer buffer, int frameOffset) {
+        int pos = frameOffset + HEADER_SIZE;
+        long body = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (pos >= buffer.limit()) {
+                return -1;
+            }
+            if (shift >= 35) {
+                throw new IllegalArgumentException("Bad body length at " + frameOffset);
+            }
+            byte b = buffer.get(pos++);
+            body |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        long total = pos - frameOffset + body;
+        if (total > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Frame too large: " + total);
+        }
+        return frameOffset + total <= buffer.limit() ? (int) total : -1;
+    }
+
+    /**
+     * Decode one frame starting at the buffer's position into a reusable {@link Frame}, advancing the
+     * position past it. Frames of unknown kind are header-decoded and their body skipped.
+     *
+     * @throws IllegalArgumentException if the bytes are not a frame of a supported version
+     * @throws BufferUnderflowException if the frame is truncated
+     */
+    public static Frame decode(ByteBuffer src, Frame into) {
+        into.reset();
+        int start = src.position();
+        if (src.get() != MAGIC) {
+            throw new IllegalArgumentException("Bad frame magic at " + start);
+        }
+        into.version = src.get() & 0xFF;
+        if (into.version != VERSION) {
+            throw new IllegalArgumentException("Unsupported frame version " + into.version);
+        }
+        into.kind = src.get() & 0xFF;
+        into.flags = src.get() & 0xFF;
+        into.hopCount = src.get() & 0xFF;
+        into.hopLimit = src.get() & 0xFF;
+        into.messageId = src.getLong();
+        int body = Varint.readLength(src);
+        int bodyEnd = src.position() + body;
+        if (bodyEnd > src.limit()) {
+            throw new BufferUnderflowException();
+        }
+        into.source = src;
+        into.frameOffset = start;
+        into.frameLength = bodyEnd - start;
+
+        int kind = (into.flags & FLAG_COMPRESSED) != 0 ? 0 : into.kind;
+        switch (kind) {
+            case KIND_MESSAGE:
+                into.timestamp = Varint.readUnsigned(src);
+                readString(src, into, Frame.SLOT_SENDER);
+                readString(src, into, Frame.SLOT_TEXT);
+                if (src.position() < bodyEnd) {
+                    readString(src, into, Frame.SLOT_RECIPIENT);
+                }
+                if (src.position() < bodyEnd) {
+                    readString(src, into, Frame.SLOT_SENDER_ID);
+                }
+                break;
+            case KIND_USER:
+                into.userType = (int) Varint.readUnsigned(src);
+                into.signalStrength = (int) Varint.unZigZag(Varint.readUnsigned(src));
+                into.timestamp = Varint.readUnsigned(src);
+                readString(src, into, Frame.SLOT_DEVICE_ID);
+                readString(src, into, Frame.SLOT_USERNAME);
+                readString(src, into, Frame.SLOT_DEVICE_NAME);
+                readString(src, into, Frame.SLOT_DEVICE_ADDRESS);
+                break;
+            case KIND_HELLO:
+                into.capabilities = (int) Varint.readUnsigned(src);
+                if (src.position() < bodyEnd) {
+                    readString(src, into, Frame.SLOT_DEVICE_ID);
+                } else {
+                    into.stringLengths[Frame.SLOT_DEVICE_ID] = -1;
+                }
+                break;
+            default:
+                // Compressed, or an unknown kind from a newer peer: body is opaque to us
+                break;
+        }
+        if (src.position() > bodyEnd) {
+            throw new IllegalArgumentException("Frame body overruns declared length");
+        }
+        src.position(bodyEnd);
+        return into;
+    }
+
+    /**
+     * Read the kind of an encoded frame in place, without decoding it
+     */
+    public static int peekKind(ByteBuffer buffer, int frameOffset) {
+        return buffer.get(frameOffset + OFFSET_KIND) & 0xFF;
+    }
+
+    /**
+     * Read the flags of an encoded frame in place, without decoding it
+     */
+    public static int peekFlags(ByteBuffer buffer, int frameOffset) {
+        return buffer.get(frameOffset + OFFSET_FLAGS) & 0xFF;
+    }
+
+    /**
+     * Overwrite the flags of an encoded frame in place
+     */
+    public static void setFlags(ByteBuffer buffer, int frameOffset, int flags) {
+        buffer.put(frameOffset + OFFSET_FLAGS, (byte) flags);
+    }
+
+    /**
+     * Read the message ID of an encoded frame in place, without decoding it
+     */
+    public static long peekMessageId(ByteBuffer buffer, int frameOffset) {
+        return buffer.getLong(frameOffset + OFFSET_MESSAGE_ID);
+    }
+
+    /**
+     * Read the hop count of an encoded frame in place, without decoding it
+     */
+    public static int peekHopCount(ByteBuffer buffer, int frameOffset) {
+        return buffer.get(frameOffset + OFFSET_HOP_COUNT) & 0xFF;
+    }
+
+    /**
+     * Overwrite the hop count of an encoded frame in place
+     */
+    public static void setHopCount(ByteBuffer buffer, int frameOffset, int hopCount) {
+        buffer.put(frameOffset + OFFSET_HOP_COUNT, (byte) Math.min(hopCount, MAX_HOP_LIMIT));
+    }
+
+    /**
+     * Bump the hop count of an encoded frame in place, so forwarding needs no re-encode
+     */
+    public static void incrementHopCount(ByteBuffer buffer, int frameOffset) {
+        int hops = buffer.get(frameOffset + OFFSET_HOP_COUNT) & 0xFF;
+        buffer.put(frameOffset + OFFSET_HOP_COUNT, (byte) Math.min(hops + 1, MAX_HOP_LIMIT));
+    }
+
+    /**
+     * Number of UTF-8 bytes needed for a char sequence, without encoding it
+     */
+    public static int utf8Length(CharSequence s) {
+        int length = 0;
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    static void writeHeader(ByteBuffer dst, int kind, int flags, int hopCount, int hopLimit, long messageId) {
+        if (hopLimit < 0 || hopLimit > MAX_HOP_LIMIT) {
+            throw new IllegalArgumentException("Hop limit out of range: " + hopLimit);
+        }
+        dst.put(MAGIC);
+        dst.put((byte) VERSION);
+        dst.put((byte) kind);
+        dst.put((byte) flags);
+        dst.put((byte) Math.min(hopCount, MAX_HOP_LIMIT));
+        dst.put((byte) hopLimit);
+        dst.putLong(messageId);
+    }
+
+    private static int messageBodyLength(Message message) {
+        return Varint.sizeOf(message.getTimestamp())
+                + stringLength(message.getSender())
+                + stringLength(message.getText())
+                + (message.getRecipient() != null
+                        ? stringLength(message.getRecipient()) + stringLength(message.getSenderId()) : 0);
+    }
+
+    private static int userBodyLength(User user) {
+        return Varint.sizeOf(user.getUserType())
+                + Varint.sizeOf(Varint.zigZag(user.getSignalStrength()))
+                + Varint.sizeOf(user.getLastSeen())
+                + stringLength(user.getDeviceId())
+                + stringLength(user.getUsername())
+                + stringLength(user.getDeviceName())
+                + stringLength(user.getDeviceAddress());
+    }
+
+    static int stringLength(CharSequence s) {
+        if (s == null) {
+            return 1;
+        }
+        int bytes = utf8Length(s);
+        return Varint.sizeOf(bytes + 1L) + bytes;
+    }
+
+    static void writeString(ByteBuffer dst, CharSequence s) {
+        if (s == null) {
+            dst.put((byte) 0);
+            return;
+        }
+        Varint.writeUnsigned(dst, utf8Length(s) + 1L);
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                dst.put((byte) c);
+            } else if (c < 0x800) {
+                dst.put((byte) (0xC0 | (c >> 6)));
+                dst.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                dst.put((byte) (0xF0 | (cp >> 18)));
+                dst.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                dst.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                dst.put((byte) (0x80 | (cp & 0x3F)));
+            } else {
+                // Lone surrogates are written as-is (3 bytes), matching utf8Length
+                dst.put((byte) (0xE0 | (c >> 12)));
+                dst.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                dst.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Read a string written by {@link #writeString} and decode it
+     */
+    static String readString(ByteBuffer src) {
+        int encoded = Varint.readLength(src);
+        if (encoded == 0) {
+            return null;
+        }
+        int length = encoded - 1;
+        if (length > src.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String s;
+        if (src.hasArray()) {
+            s = new String(src.array(), src.arrayOffset() + src.position(), length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            src.duplicate().get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        src.position(src.position() + length);
+        return s;
+    }
+
+    private static void readString(ByteBuffer src, Frame into, int slot) {
+        int encoded = Varint.readLength(src);
+        if (encoded == 0) {
+            into.stringLengths[slot] = -1;
+            return;
+        }
+        int length = encoded - 1;
+        if (length > src.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        into.stringOffsets[slot] = src.position();
+        into.stringLengths[slot] = length;
+        src.position(src.position() + length);
+    }
+}
@@ -0,0 +1,97 @@
+package com.dccn.connect.network;
+
+import java.util.Locale;
+
+/**
+ * Histogram - Fixed log2-bucket histogram for non-negative values (sizes, nanosecond latencies).
+ * Recording is allocation-free; percentiles are approximate to the bucket's upper bound.
+ */
+public class Histogram {
+
+    private static final int BUCKETS = 64;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public synchronized void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[bucketOf(value)]++;
+        count++;
+        sum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    public synchronized double getMean() {
+        return count == 0 ? 0.0 : (double) sum / count;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile (0-100)
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return Math.min(max, upperBound(i));
+            }
+        }
+        return max;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = 0;
+        }
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Histogram{" +
+                "count=" + count +
+                ", mean=" + String.format(Locale.US, "%.1f", getMean()) +
+                ", p50=" + getPercentile(50) +
+                ", p99=" + getPercentile(99) +
+                ", max=" + max +
+                '}';
+    }
+
+    // Bucket 0 holds 0, bucket i holds [2^(i-1), 2^i)
+    private static int bucketOf(long value) {
+        return value == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket == 0 ? 0 : bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+}
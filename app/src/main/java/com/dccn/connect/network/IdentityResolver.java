@@ -0,0 +1,134 @@
+package com.dccn.connect.network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * IdentityResolver - Alias table from radio addresses to device IDs. One phone shows up once per
+ * radio, under a Bluetooth MAC and a Wi-Fi P2P address that have nothing in common; the hello each
+ * side sends when a link comes up names the device behind the link's address, and this table
+ * remembers it. With both addresses mapped to one device, discovery lists it once and
+ * {@link #shouldConnect} keeps to one link per device, over its best transport.
+ *
+ * The table is bounded: past {@link #MAX_ALIASES} the least recently resolved address is dropped.
+ * {@link #snapshot()} and {@link #load} let the owner persist it, so a device met once is recognised
+ * on every radio from the first discovery on.
+ */
+public class IdentityResolver {
+
+    public static final int MAX_ALIASES = 512;
+
+    // Address -> device ID, least recently used first
+    private final LinkedHashMap<String, String> deviceIds = new LinkedHashMap<String, String>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            if (size() <= MAX_ALIASES) {
+                return false;
+            }
+            unlink(eldest.getKey(), eldest.getValue());
+            return true;
+        }
+    };
+    // Device ID -> its addresses
+    private final Map<String, List<String>> aliases = new HashMap<>();
+
+    /**
+     * @return the device behind an address, or null until a hello has named it
+     */
+    public synchronized String resolve(String address) {
+        return deviceIds.get(address);
+    }
+
+    /**
+     * The key a device is listed under: its device ID once known, its address until then
+     */
+    public synchronized String keyFor(String address) {
+        String deviceId = deviceIds.get(address);
+        return deviceId != null ? deviceId : address;
+    }
+
+    /**
+     * Record that an address belongs to a device
+     * @return true if the table changed
+     */
+    public synchronized boolean learn(String address, String deviceId) {
+        String previous = deviceIds.put(address, deviceId);
+        if (deviceId.equals(previous)) {
+            return false;
+        }
+        if (previous != null) {
+            // Address reassigned, e.g. a randomised MAC picked up by another phone
+            unlink(address, previous);
+        }
+        List<String> addresses = aliases.get(deviceId);
+        if (addresses == null) {
+            addresses = new ArrayList<>(2);
+            aliases.put(deviceId, addresses);
+        }
+        addresses.add(address);
+        return true;
+    }
+
+    /**
+     * Every known address of a device
+     */
+    public synchronized List<String> getAliases(String deviceId) {
+        List<String> addresses = aliases.get(deviceId);
+        return addresses != null ? new ArrayList<>(addresses) : Collections.<String>emptyList();
+    }
+
+    /**
+     * Whether to open a link to an address, given the device's links already up. Transports are
+     * ranked by preference, lower first; a device linked over a transport at least as good is left alone.
+     * @param linkRanks rank of the transport linking each address, or no entry if unlinked
+     */
+    public synchronized boolean shouldConnect(String address, int rank, Map<String, Integer> linkRanks) {
+        String deviceId = deviceIds.get(address);
+        if (deviceId == null) {
+            return !linkRanks.containsKey(address);
+        }
+        for (String alias : aliases.get(deviceId)) {
+            Integer linked = linkRanks.get(alias);
+            if (linked != null && linked <= rank) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A copy of the table, for persisting
+     */
+    public synchronized Map<String, String> snapshot() {
+        return new HashMap<>(deviceIds);
+    }
+
+    /**
+     * Add persisted aliases; entries learned since start-up win
+     */
+    public synchronized void load(Map<String, String> saved) {
+        for (Map.Entry<String, String> entry : saved.entrySet()) {
+            if (!deviceIds.containsKey(entry.getKey())) {
+                learn(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return deviceIds.size();
+    }
+
+    private void unlink(String address, String deviceId) {
+        List<String> addresses = aliases.get(deviceId);
+        if (addresses != null) {
+            addresses.remove(address);
+            if (addresses.isEmpty()) {
+                aliases.remove(deviceId);
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.dccn.connect.network;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LinkMetrics - Per-link quality estimates: EWMA signal strength, round-trip time, loss rate and
+ * measured throughput, combined into one additive {@link #getCost cost} for routing and display.
+ *
+ * RTT and loss come from the membership probes, which ping every neighbour in turn: an ack is an
+ * RTT sample and a delivered probe, a timeout a lost one. Since a probe and its ack cross the link
+ * once each way, the loss rate is the round-trip loss ETX is built on. Until probes have
+ * spoken, the loss estimate starts from what the signal strength suggests. Signal strength comes
+ * from discovery, so it is also known for radios we have no link to.
+ *
+ * Samples arrive on every frame, so recording one never allocates: a link's state is created on
+ * its first sample and updated in place after that. Scans report radios we never link to, so the
+ * table is bounded: past {@link #MAX_LINKS} the least recently measured radio is dropped.
+ */
+public class LinkMetrics implements MeshRouter.LinkCosts {
+
+    /**
+     * Signal strength of a radio nothing has been measured for; 0 dBm never occurs over the air
+     */
+    public static final int UNKNOWN_RSSI = 0;
+    /**
+     * Cost of a perfect link. Costs add up along a path, so a two-hop perfect path costs 200.
+     */
+    public static final int PERFECT_COST = 100;
+    public static final int MAX_LINKS = 512;
+
+    static final double RSSI_GAIN = 0.25;
+    static final double RTT_GAIN = 0.125;
+    static final double LOSS_GAIN = 0.1;
+    static final double THROUGHPUT_GAIN = 0.25;
+    static final long THROUGHPUT_WINDOW_MS = 1000;
+    // RTT a healthy single-hop link reaches with a small probe; slower links cost proportionally more
+    static final double REFERENCE_RTT_MS = 50.0;
+    // Loss prior from signal strength: none above -60 dBm, rising linearly to half at -90 dBm
+    static final int CLEAN_RSSI = -60;
+    static final int NOISY_RSSI = -90;
+    static final double MAX_LOSS = 0.95;
+
+    private static final class Link {
+        double rssi = Double.NaN;
+        double rttMs = -1;
+        double lossRate = -1;
+        long probes;
+        long lostProbes;
+        long windowStartMs = -1;
+        long windowBytes;
+        double bytesPerSecond;
+    }
+
+    // Least recently measured first
+    private final Map<String, Link> links = new LinkedHashMap<String, Link>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Link> eldest) {
+            return size() > MAX_LINKS;
+        }
+    };
+
+    /**
+     * A signal strength reading for a radio, in dBm
+     */
+    public synchronized void onRssi(String peerId, int rssi) {
+        Link link = linkFor(peerId);
+        link.rssi = Double.isNaN(link.rssi) ? rssi : link.rssi + RSSI_GAIN * (rssi - link.rssi);
+    }
+
+    /**
+     * A probe's outcome: its round-trip time, or -1 if it went unanswered
+     */
+    public synchronized void onProbe(String peerId, long rttMs) {
+        Link link = linkFor(peerId);
+        link.probes++;
+        double lost = rttMs < 0 ? 1.0 : 0.0;
+        if (link.lossRate < 0) {
+            link.lossRate = rssiLossPrior(link);
+        }
+        link.lossRate += LOSS_GAIN * (lost - link.lossRate);
+        if (rttMs < 0) {
+            link.lostProbes++;
+            return;
+        }
+        link.rttMs = link.rttMs < 0 ? rttMs : link.rttMs + RTT_GAIN * (rttMs - link.rttMs);
+    }
+
+    /**
+     * Bytes that crossed a link, in either direction
+     */
+    public synchronized void onBytes(String peerId, int bytes, long nowMs) {
+        Link link = linkFor(peerId);
+        if (link.windowStartMs < 0) {
+            link.windowStartMs = nowMs;
+        }
+        link.windowBytes += bytes;
+        rollWindow(link, nowMs);
+    }
+
+    /**
+     * Close throughput windows on idle links too
+     */
+    public synchronized void onTimer(long nowMs) {
+        for (Link link : links.values()) {
+            rollWindow(link, nowMs);
+        }
+    }
+
+    /**
+     * The link went down: its RTT, loss and throughput no longer describe anything, though the
+     * signal strength stays useful for the next connect
+     */
+    public synchronized void onLinkDown(String peerId) {
+        Link link = links.get(peerId);
+        if (link != null) {
+            link.rttMs = -1;
+            link.lossRate = -1;
+            link.windowStartMs = -1;
+            link.windowBytes = 0;
+            link.bytesPerSecond = 0;
+        }
+    }
+
+    /**
+     * The radio is gone for good, e.g. its transport was removed
+     */
+    public synchronized void forget(String peerId) {
+        links.remove(peerId);
+    }
+
+    /**
+     * Smoothed signal strength in dBm, or {@link #UNKNOWN_RSSI}
+     */
+    public synchronized int getRssi(String peerId) {
+        Link link = links.get(peerId);
+        return link == null || Double.isNaN(link.rssi) ? UNKNOWN_RSSI : (int) Math.round(link.rssi);
+    }
+
+    /**
+     * Smoothed round-trip time, or -1 before the first answered probe
+     */
+    public synchronized long getRttMs(String peerId) {
+        Link link = links.get(peerId);
+        return link == null ? -1 : Math.round(link.rttMs);
+    }
+
+    /**
+     * Smoothed round-trip loss rate, 0..1; the signal-strength prior until probes have run
+     */
+    public synchronized double getLossRate(String peerId) {
+        Link link = links.get(peerId);
+        if (link == null) {
+            return 0.0;
+        }
+        return link.lossRate >= 0 ? link.lossRate : rssiLossPrior(link);
+    }
+
+    /**
+     * Smoothed traffic over the link in bytes per second, both directions together
+     */
+    public synchronized double getThroughput(String peerId) {
+        Link link = links.get(peerId);
+        return link == null ? 0.0 : link.bytesPerSecond;
+    }
+
+    /**
+     * Expected transmissions for a frame to cross the link and be acknowledged: 1 / delivery ratio
+     */
+    public synchronized double getEtx(String peerId) {
+        return 1.0 / (1.0 - Math.min(MAX_LOSS, getLossRate(peerId)));
+    }
+
+    public synchronized long getProbes(String peerId) {
+        Link link = links.get(peerId);
+        return link == null ? 0 : link.probes;
+    }
+
+    public synchronized long getLostProbes(String peerId) {
+        Link link = links.get(peerId);
+        return link == null ? 0 : link.lostProbes;
+    }
+
+    /**
+     * ETX scaled by how much slower than {@link #REFERENCE_RTT_MS} the link answers, in hundredths:
+     * {@link #PERFECT_COST} for a clean, fast link. Like ETT, it charges slow links for the airtime
+     * each transmission takes, not just for how many there are. Unlike ETT, the airtime comes from
+     * the RTT rather than from {@link #getThroughput}: that measures the traffic offered, not what
+     * the link could carry, so it would make idle links look slow and costs swing with load.
+     */
+    @Override
+    public synchronized int getCost(String peerId) {
+        double cost = PERFECT_COST * getEtx(peerId);
+        Link link = links.get(peerId);
+        if (link != null && link.rttMs > REFERENCE_RTT_MS) {
+            cost *= link.rttMs / REFERENCE_RTT_MS;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.round(cost));
+    }
+
+    private Link linkFor(String peerId) {
+        Link link = links.get(peerId);
+        if (link == null) {
+            link = new Link();
+            links.put(peerId, link);
+        }
+        return link;
+    }
+
+    private static void rollWindow(Link link, long nowMs) {
+        long elapsed = nowMs - link.windowStartMs;
+        if (link.windowStartMs < 0 || elapsed < THROUGHPUT_WINDOW_MS) {
+            return;
+        }
+        double rate = link.windowBytes * 1000.0 / elapsed;
+        link.bytesPerSecond += THROUGHPUT_GAIN * (rate - link.bytesPerSecond);
+        link.windowBytes = 0;
+        link.windowStartMs = nowMs;
+    }
+
+    private static double rssiLossPrior(Link link) {
+        if (Double.isNaN(link.rssi) || link.rssi >= CLEAN_RSSI) {
+            return 0.0;
+        }
+        double fraction = (CLEAN_RSSI - link.rssi) / (CLEAN_RSSI - NOISY_RSSI);
+        return Math.min(MAX_LOSS, 0.5 * fraction);
+    }
+}
@@ -0,0 +1,690 @@
+package com.dccn.connect.network;
+
+import com.dccn.connect.models.User;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Membership - SWIM-style gossip membership, so every node learns the whole mesh's roster of users
+ * and whether each is alive, suspect or dead, not just the radios it scanned itself.
+ *
+ * Each protocol period a node pings one directly linked neighbour, in shuffled round-robin order.
+ * Without an ack inside {@link #PING_TIMEOUT_MS} it pings again and asks up to
+ * {@link #INDIRECT_PROBES} other neighbours to ping the target for it; the retry matters because
+ * radio neighbourhoods often have no triangle for an indirect probe to go through. Any frame from the
+ * target counts as an ack. If the period ends with still no word from it, or the link drops, the
+ * target becomes suspect. A suspect that hears about it refutes by gossiping a higher incarnation;
+ * one that stays quiet for the suspicion timeout is declared dead.
+ *
+ * Nothing ever exchanges the full list. Every ping and ack piggybacks membership deltas, freshest
+ * first, each sent {@link #RETRANSMIT_MULTIPLIER} x log2(N) times before it retires, so an update
+ * covers a fully linked group in O(log N) periods and a multi-hop mesh in about one period per hop.
+ * Each frame also carries entries from a round-robin walk over the roster, kept per neighbour:
+ * {@link #ROSTER_ENTRIES_PER_FRAME} normally, as many as fit while the neighbour says it knows fewer
+ * members than we do. That is how a node that joins late, or missed a delta, picks up
+ * members whose deltas have already retired.
+ *
+ * Wire format, link-local:
+ * <pre>
+ * KIND_MEMBERSHIP  header.messageId = probe sequence number,
+ *                  body = varint type (ping, ack, ping-req), string sender member id,
+ *                         varint sender roster size, [ping-req: string target member id],
+ *                         varint update count, then per update
+ *                         varint status, varint incarnation, string member id,
+ *                         [alive: varint user type, string username, string device name]
+ * </pre>
+ *
+ * Members are identified by device ID; links by whatever peer ID their transport uses, learned from
+ * the first frame a neighbour sends. Like {@link ReliableChannel} this is a pure state machine: time
+ * is passed in and frames leave through a {@link LinkSender}, so hundreds of nodes run in one JVM.
+ */
+public class Membership {
+
+    public static final int STATUS_ALIVE = 0;
+    public static final int STATUS_SUSPECT = 1;
+    public static final int STATUS_DEAD = 2;
+
+    public static final long PROTOCOL_PERIOD_MS = 1000;
+    public static final long PING_TIMEOUT_MS = 300;
+    public static final int INDIRECT_PROBES = 3;
+    public static final int SUSPICION_MULTIPLIER = 4;
+    public static final int RETRANSMIT_MULTIPLIER = 3;
+    // Half a Fragmenter MTU, so a membership frame always goes out whole
+    public static final int MAX_PIGGYBACK_BYTES = 2048;
+    public static final int ROSTER_ENTRIES_PER_FRAME = 2;
+    // Dead members are remembered this long so stale alive gossip cannot bring them back
+    public static final long DEAD_RETENTION_MS = 10 * 60 * 1000;
+
+    static final int TYPE_PING = 0;
+    static final int TYPE_ACK = 1;
+    static final int TYPE_PING_REQ = 2;
+
+    /**
+     * Link output; the buffer is only valid during the call. Must not call back into the membership.
+     */
+    public interface LinkSender {
+        void sendFrame(String peerId, ByteBuffer frame);
+    }
+
+    /**
+     * A member joined, or its status or details changed. Called while the membership is locked.
+     */
+    public interface OnMemberChangedListener {
+        void onMemberChanged(User user, int status);
+    }
+
+    /**
+     * Outcome of a direct probe of a neighbour: its round-trip time, or -1 if it went unanswered
+     * within {@link #PING_TIMEOUT_MS}. Called while the membership is locked.
+     */
+    public interface OnProbeResultListener {
+        void onProbeResult(String peerId, long rttMs);
+    }
+
+    private static final class Member {
+        final String id;
+        int userType;
+        String username;
+        String deviceName;
+        long incarnation;
+        int status;
+        long changedMs;
+        // Gossip queue state
+        boolean queued;
+        int transmissions;
+
+        Member(String id) {
+            this.id = id;
+        }
+    }
+
+    // A direct link. The member ID is null until the neighbour's first frame names it.
+    private static final class Neighbour {
+        String memberId;
+        int rosterSize;
+        // Own walk over our roster, so a lagging neighbour sees every entry in turn
+        int rosterCursor;
+    }
+
+    // A ping sent on behalf of a neighbour's ping-req; its ack is passed back under their sequence
+    private static final class Relay {
+        final long seq;
+        final String requesterPeer;
+        final long requesterSeq;
+        final long expiresMs;
+
+        Relay(long seq, String requesterPeer, long requesterSeq, long expiresMs) {
+            this.seq = seq;
+            this.requesterPeer = requesterPeer;
+            this.requesterSeq = requesterSeq;
+            this.expiresMs = expiresMs;
+        }
+    }
+
+    // Stable sort keeps equally fresh updates in arrival order
+    private static final Comparator<Member> FEWEST_TRANSMISSIONS =
+            (a, b) -> Integer.compare(a.transmissions, b.transmissions);
+
+    private final LinkSender sender;
+    private final Random random;
+    private final Member self;
+    private OnMemberChangedListener onMemberChangedListener;
+    private OnProbeResultListener onProbeResultListener;
+    private ByteBuffer encodeBuffer = ByteBuffer.allocate(FrameCodec.HEADER_SIZE + 64 + MAX_PIGGYBACK_BYTES);
+
+    // Everyone we know of, the local node included
+    private final Map<String, Member> members = new HashMap<>();
+    private final List<Member> roster = new ArrayList<>();
+    private final int[] statusCounts = new int[3];
+
+    // Deltas waiting to be piggybacked, and the reusable selection for one frame
+    private final List<Member> gossip = new ArrayList<>();
+    private final List<Member> selected = new ArrayList<>();
+
+    // By link peer ID
+    private final Map<String, Neighbour> neighbours = new HashMap<>();
+    private final List<String> probeOrder = new ArrayList<>();
+    private int probeIndex;
+
+    // Current probe
+    private String probePeer;
+    private long probeSeq;
+    private long probeSentMs;
+    private boolean probeAcked;
+    // The probe's RTT sample or loss has been reported
+    private boolean probeMeasured;
+    private boolean indirectSent;
+    private long nextProbeMs;
+    private long nextSeq = 1;
+    private final List<Relay> relays = new ArrayList<>();
+
+    // Stats
+    private long framesSent;
+    private long bytesSent;
+    private long framesReceived;
+    private long bytesReceived;
+    private long refutations;
+
+    public Membership(User localUser, LinkSender sender) {
+        this(localUser, sender, new Random());
+    }
+
+    /**
+     * @param random drives probe order and indirect probe choice; seed it for repeatable simulations
+     */
+    public Membership(User localUser, LinkSender sender, Random random) {
+        if (localUser.getDeviceId() == null) {
+            throw new IllegalArgumentException("Local user has no device ID");
+        }
+        this.sender = sender;
+        this.random = random;
+        this.self = new Member(localUser.getDeviceId());
+        copyDetails(localUser, self);
+        members.put(self.id, self);
+        roster.add(self);
+        statusCounts[STATUS_ALIVE]++;
+        enqueue(self);
+    }
+
+    public synchronized void setOnMemberChangedListener(OnMemberChangedListener listener) {
+        this.onMemberChangedListener = listener;
+    }
+
+    public synchronized void setOnProbeResultListener(OnProbeResultListener listener) {
+        this.onProbeResultListener = listener;
+    }
+
+    public String getLocalId() {
+        return self.id;
+    }
+
+    /**
+     * Announce new details for the local user; a higher incarnation makes them win everywhere
+     */
+    public synchronized void updateLocalUser(User localUser) {
+        copyDetails(localUser, self);
+        self.incarnation++;
+        enqueue(self);
+    }
+
+    /**
+     * A direct link came up: ping it straight away, so both ends swap deltas without waiting for
+     * the probe rotation, and make sure our own entry is fresh gossip again
+     */
+    public synchronized void onPeerConnected(String peerId, long nowMs) {
+        if (!neighbours.containsKey(peerId)) {
+            neighbours.put(peerId, new Neighbour());
+        }
+        enqueue(self);
+        sendFrame(peerId, TYPE_PING, nextSeq++, null);
+    }
+
+    /**
+     * A direct link went down. Losing the last link to a member counts as a failed probe.
+     */
+    public synchronized void onPeerDisconnected(String peerId, long nowMs) {
+        Neighbour neighbour = neighbours.remove(peerId);
+        if (peerId.equals(probePeer)) {
+            probePeer = null;
+        }
+        if (neighbour != null && neighbour.memberId != null && peerOf(neighbour.memberId) == null) {
+            suspect(neighbour.memberId, nowMs);
+        }
+    }
+
+    /**
+     * Handle a membership frame from a neighbour: apply its deltas, then answer it
+     * @throws IllegalArgumentException if the frame is malformed
+     */
+    public synchronized void onFrameReceived(String peerId, ByteBuffer frame, long nowMs) {
+        ByteBuffer in = frame.duplicate();
+        int start = in.position();
+        long seq = FrameCodec.peekMessageId(in, start);
+        in.position(start + FrameCodec.HEADER_SIZE);
+        Varint.readLength(in);
+        int type = Varint.readLength(in);
+        String senderId = FrameCodec.readString(in);
+        int senderRosterSize = Varint.readLength(in);
+        String targetId = type == TYPE_PING_REQ ? FrameCodec.readString(in) : null;
+        if (senderId == null || (type == TYPE_PING_REQ && targetId == null)) {
+            throw new IllegalArgumentException("Membership frame without member ID");
+        }
+        Neighbour neighbour = neighbours.get(peerId);
+        if (neighbour == null) {
+            neighbour = new Neighbour();
+            neighbours.put(peerId, neighbour);
+        }
+        neighbour.memberId = senderId;
+        neighbour.rosterSize = senderRosterSize;
+        if (peerId.equals(probePeer)) {
+            probeAcked = true;
+        }
+
+        int count = Varint.readLength(in);
+        for (int i = 0; i < count; i++) {
+            int status = Varint.readLength(in);
+            long incarnation = Varint.readUnsigned(in);
+            String id = FrameCodec.readString(in);
+            if (id == null || status > STATUS_DEAD) {
+                throw new IllegalArgumentException("Bad membership update");
+            }
+            if (status == STATUS_ALIVE) {
+                int userType = Varint.readLength(in);
+                String username = FrameCodec.readString(in);
+                String deviceName = FrameCodec.readString(in);
+                apply(id, status, incarnation, userType, username, deviceName, nowMs);
+            } else {
+                apply(id, status, incarnation, 0, null, null, nowMs);
+            }
+        }
+        framesReceived++;
+        bytesReceived += frame.remaining();
+
+        switch (type) {
+            case TYPE_PING:
+                sendFrame(peerId, TYPE_ACK, seq, null);
+                break;
+            case TYPE_ACK:
+                if (peerId.equals(probePeer) && seq == probeSeq && !probeMeasured) {
+                    reportProbe(nowMs - probeSentMs);
+                }
+                onAck(seq);
+                break;
+            case TYPE_PING_REQ:
+                String targetPeer = peerOf(targetId);
+                if (targetPeer != null) {
+                    long relaySeq = nextSeq++;
+                    relays.add(new Relay(relaySeq, peerId, seq, nowMs + PROTOCOL_PERIOD_MS));
+                    sendFrame(targetPeer, TYPE_PING, relaySeq, null);
+                }
+                break;
+            default:
+                // A newer peer's frame type; the deltas above were still useful
+                break;
+        }
+    }
+
+    /**
+     * Drive probing and timeouts; call at least every {@link #PING_TIMEOUT_MS} / 2
+     */
+    public synchronized void onTimer(long nowMs) {
+        if (probePeer != null && !probeMeasured && nowMs - probeSentMs >= PING_TIMEOUT_MS) {
+            reportProbe(-1);
+        }
+        if (probePeer != null && !probeAcked && !indirectSent && nowMs - probeSentMs >= PING_TIMEOUT_MS) {
+            indirectSent = true;
+            sendFrame(probePeer, TYPE_PING, probeSeq, null);
+            sendIndirectProbes();
+        }
+        if (nowMs < nextProbeMs) {
+            return;
+        }
+        if (probePeer != null && !probeAcked) {
+            Neighbour neighbour = neighbours.get(probePeer);
+            if (neighbour != null) {
+                suspect(neighbour.memberId, nowMs);
+            }
+        }
+        probePeer = null;
+        expire(nowMs);
+        nextProbeMs = nowMs + PROTOCOL_PERIOD_MS;
+
+        String target = nextProbeTarget();
+        if (target != null) {
+            probePeer = target;
+            probeSeq = nextSeq++;
+            probeSentMs = nowMs;
+            probeAcked = false;
+            probeMeasured = false;
+            indirectSent = false;
+            sendFrame(target, TYPE_PING, probeSeq, null);
+        }
+    }
+
+    /**
+     * Everyone known apart from the local user. Alive members are online; last seen is when the
+     * member's status last changed.
+     */
+    public synchronized List<User> getMembers() {
+        List<User> users = new ArrayList<>(roster.size());
+        for (Member member : roster) {
+            if (member != self) {
+                users.add(toUser(member));
+            }
+        }
+        return users;
+    }
+
+    /**
+     * @return the member's status, or -1 if it is unknown
+     */
+    public synchronized int getStatus(String memberId) {
+        Member member = members.get(memberId);
+        return member != null ? member.status : -1;
+    }
+
+    /**
+     * Number of known members in a status, the local user excluded
+     */
+    public synchronized int getMemberCount(int status) {
+        return status == STATUS_ALIVE ? statusCounts[status] - 1 : statusCounts[status];
+    }
+
+    public synchronized long getFramesSent() {
+        return framesSent;
+    }
+
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    public synchronized long getFramesReceived() {
+        return framesReceived;
+    }
+
+    public synchronized long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Times this node had to refute a suspicion about itself
+     */
+    public synchronized long getRefutations() {
+        return refutations;
+    }
+
+    private void apply(String id, int status, long incarnation, int userType, String username,
+                       String deviceName, long nowMs) {
+        if (id.equals(self.id)) {
+            if (incarnation > self.incarnation || (incarnation == self.incarnation && status != STATUS_ALIVE)) {
+                // Someone suspects us, or remembers an earlier run with a higher incarnation: outbid it
+                self.incarnation = incarnation + 1;
+                refutations++;
+                enqueue(self);
+            }
+            return;
+        }
+        Member member = members.get(id);
+        if (member == null) {
+            if (status == STATUS_DEAD) {
+                return;
+            }
+            member = new Member(id);
+            members.put(id, member);
+            roster.add(member);
+            member.status = status;
+            statusCounts[status]++;
+        } else if (incarnation < member.incarnation
+                || (incarnation == member.incarnation && status <= member.status)) {
+            // Stale or already known: higher incarnation wins, then dead over suspect over alive.
+            // Hearing our own news back means the neighbourhood has it, so it loses a little urgency.
+            if (member.queued && incarnation == member.incarnation && status == member.status) {
+                member.transmissions++;
+            }
+            return;
+        } else {
+            setStatus(member, status);
+        }
+        member.incarnation = incarnation;
+        member.changedMs = nowMs;
+        if (status == STATUS_ALIVE) {
+            member.userType = userType;
+            member.username = username;
+            member.deviceName = deviceName;
+        }
+        enqueue(member);
+        notifyChanged(member);
+    }
+
+    private void suspect(String memberId, long nowMs) {
+        Member member = memberId != null ? members.get(memberId) : null;
+        if (member == null || member == self || member.status != STATUS_ALIVE) {
+            return;
+        }
+        setStatus(member, STATUS_SUSPECT);
+        member.changedMs = nowMs;
+        enqueue(member);
+        notifyChanged(member);
+    }
+
+    private void reportProbe(long rttMs) {
+        probeMeasured = true;
+        if (onProbeResultListener != null) {
+            onProbeResultListener.onProbeResult(probePeer, rttMs);
+        }
+    }
+
+    private void onAck(long seq) {
+        if (probePeer != null && seq == probeSeq) {
+            probeAcked = true;
+            return;
+        }
+        for (int i = 0; i < relays.size(); i++) {
+            Relay relay = relays.get(i);
+            if (relay.seq == seq) {
+                relays.remove(i);
+                if (neighbours.containsKey(relay.requesterPeer)) {
+                    sendFrame(relay.requesterPeer, TYPE_ACK, relay.requesterSeq, null);
+                }
+                return;
+            }
+        }
+    }
+
+    // Ask other neighbours to ping the probe target for us; only those linked to it will
+    private void sendIndirectProbes() {
+        Neighbour target = neighbours.get(probePeer);
+        if (target == null || target.memberId == null) {
+            return;
+        }
+        String targetId = target.memberId;
+        List<String> helpers = new ArrayList<>(neighbours.size());
+        for (Map.Entry<String, Neighbour> neighbour : neighbours.entrySet()) {
+            if (!neighbour.getKey().equals(probePeer) && !targetId.equals(neighbour.getValue().memberId)) {
+                helpers.add(neighbour.getKey());
+            }
+        }
+        int count = Math.min(INDIRECT_PROBES, helpers.size());
+        for (int i = 0; i < count; i++) {
+            Collections.swap(helpers, i, i + random.nextInt(helpers.size() - i));
+            sendFrame(helpers.get(i), TYPE_PING_REQ, probeSeq, targetId);
+        }
+    }
+
+    private String nextProbeTarget() {
+        for (int attempts = 0; attempts < 2; attempts++) {
+            while (probeIndex < probeOrder.size()) {
+                String peerId = probeOrder.get(probeIndex++);
+                if (neighbours.containsKey(peerId)) {
+                    return peerId;
+                }
+            }
+            // Round over: reshuffle, picking up links that came up meanwhile
+            probeOrder.clear();
+            probeOrder.addAll(neighbours.keySet());
+            Collections.shuffle(probeOrder, random);
+            probeIndex = 0;
+        }
+        return null;
+    }
+
+    private String peerOf(String memberId) {
+        for (Map.Entry<String, Neighbour> neighbour : neighbours.entrySet()) {
+            if (memberId.equals(neighbour.getValue().memberId)) {
+                return neighbour.getKey();
+            }
+        }
+        return null;
+    }
+
+    // Suspects that stayed quiet become dead; dead members are forgotten after the retention time
+    private void expire(long nowMs) {
+        long suspicionMs = SUSPICION_MULTIPLIER * log2(roster.size()) * PROTOCOL_PERIOD_MS;
+        for (int i = roster.size() - 1; i >= 0; i--) {
+            Member member = roster.get(i);
+            if (member.status == STATUS_SUSPECT && nowMs - member.changedMs >= suspicionMs) {
+                setStatus(member, STATUS_DEAD);
+                member.changedMs = nowMs;
+                enqueue(member);
+                notifyChanged(member);
+            } else if (member.status == STATUS_DEAD && nowMs - member.changedMs >= DEAD_RETENTION_MS) {
+                roster.remove(i);
+                members.remove(member.id);
+                statusCounts[STATUS_DEAD]--;
+                if (member.queued) {
+                    gossip.remove(member);
+                }
+            }
+        }
+        for (Iterator<Relay> it = relays.iterator(); it.hasNext(); ) {
+            if (it.next().expiresMs <= nowMs) {
+                it.remove();
+            }
+        }
+    }
+
+    private void setStatus(Member member, int status) {
+        statusCounts[member.status]--;
+        statusCounts[status]++;
+        member.status = status;
+    }
+
+    // Queue a member's current state as fresh gossip; a newer state simply restarts its count
+    private void enqueue(Member member) {
+        member.transmissions = 0;
+        if (!member.queued) {
+            member.queued = true;
+            gossip.add(member);
+        }
+    }
+
+    private void sendFrame(String peerId, int type, long seq, String targetId) {
+        selectUpdates(neighbours.get(peerId));
+        int body = Varint.sizeOf(type) + FrameCodec.stringLength(self.id) + Varint.sizeOf(roster.size())
+                + (targetId != null ? FrameCodec.stringLength(targetId) : 0)
+                + Varint.sizeOf(selected.size());
+        for (Member member : selected) {
+            body += entryLength(member);
+        }
+        ByteBuffer out = encodeBuffer(FrameCodec.HEADER_SIZE + Varint.sizeOf(body) + body);
+        FrameCodec.writeHeader(out, FrameCodec.KIND_MEMBERSHIP, 0, 0, 1, seq);
+        Varint.writeUnsigned(out, body);
+        Varint.writeUnsigned(out, type);
+        FrameCodec.writeString(out, self.id);
+        Varint.writeUnsigned(out, roster.size());
+        if (targetId != null) {
+            FrameCodec.writeString(out, targetId);
+        }
+        Varint.writeUnsigned(out, selected.size());
+        for (Member member : selected) {
+            Varint.writeUnsigned(out, member.status);
+            Varint.writeUnsigned(out, member.incarnation);
+            FrameCodec.writeString(out, member.id);
+            if (member.status == STATUS_ALIVE) {
+                Varint.writeUnsigned(out, member.userType);
+                FrameCodec.writeString(out, member.username);
+                FrameCodec.writeString(out, member.deviceName);
+            }
+        }
+        out.flip();
+        framesSent++;
+        bytesSent += out.remaining();
+        sender.sendFrame(peerId, out);
+    }
+
+    // Freshest deltas first, then entries from the neighbour's own walk over the roster: a few
+    // normally, as many as still fit while it knows fewer members than we do
+    private void selectUpdates(Neighbour neighbour) {
+        selected.clear();
+        boolean lagging = neighbour != null && neighbour.rosterSize < roster.size();
+        int budget = MAX_PIGGYBACK_BYTES;
+        if (!gossip.isEmpty()) {
+            Collections.sort(gossip, FEWEST_TRANSMISSIONS);
+            int limit = RETRANSMIT_MULTIPLIER * log2(roster.size());
+            int kept = 0;
+            for (int i = 0; i < gossip.size(); i++) {
+                Member member = gossip.get(i);
+                int length = entryLength(member);
+                if (length <= budget) {
+                    budget -= length;
+                    selected.add(member);
+                    member.transmissions++;
+                }
+                if (member.transmissions >= limit) {
+                    member.queued = false;
+                } else {
+                    gossip.set(kept++, member);
+                }
+            }
+            gossip.subList(kept, gossip.size()).clear();
+        }
+        if (neighbour == null) {
+            return;
+        }
+        int entries = lagging ? roster.size() : ROSTER_ENTRIES_PER_FRAME;
+        for (int i = 0; i < entries && i < roster.size(); i++) {
+            int next = (neighbour.rosterCursor + 1) % roster.size();
+            Member member = roster.get(next);
+            int length = entryLength(member);
+            if (length > budget) {
+                break;
+            }
+            neighbour.rosterCursor = next;
+            if (!selected.contains(member)) {
+                budget -= length;
+                selected.add(member);
+            }
+        }
+    }
+
+    private static int entryLength(Member member) {
+        int length = Varint.sizeOf(member.status) + Varint.sizeOf(member.incarnation)
+                + FrameCodec.stringLength(member.id);
+        if (member.status == STATUS_ALIVE) {
+            length += Varint.sizeOf(member.userType) + FrameCodec.stringLength(member.username)
+                    + FrameCodec.stringLength(member.deviceName);
+        }
+        return length;
+    }
+
+    private ByteBuffer encodeBuffer(int size) {
+        if (encodeBuffer.capacity() < size) {
+            encodeBuffer = ByteBuffer.allocate(Math.max(size, encodeBuffer.capacity() * 2));
+        }
+        encodeBuffer.clear();
+        return encodeBuffer;
+    }
+
+    private void notifyChanged(Member member) {
+        if (onMemberChangedListener != null) {
+            onMemberChangedListener.onMemberChanged(toUser(member), member.status);
+        }
+    }
+
+    private static void copyDetails(User user, Member member) {
+        member.userType = user.getUserType();
+        member.username = user.getUsername();
+        member.deviceName = user.getDeviceName();
+    }
+
+    private static User toUser(Member member) {
+        User user = new User(member.username, member.userType, member.id);
+        user.setDeviceName(member.deviceName);
+        user.setOnline(member.status == STATUS_ALIVE);
+        user.setLastSeen(member.changedMs);
+        return user;
+    }
+
+    // ceil(log2(n + 1)), at least 1
+    private static int log2(int n) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(n));
+    }
+}
@@ -0,0 +1,73 @@
+package com.dccn.connect.network;
+
+import com.dccn.connect.models.Message;
+
+import java.nio.ByteBuffer;
+
+/**
+ * MeshRouter - Forwarding engine behind CommunicationService.
+ * Pure Java so routing behaviour can be exercised and measured off-device.
+ *
+ * Buffers handed to and from a router are only valid for the duration of the call; a
+ * {@link FrameSender} that queues frames must copy them.
+ */
+public interface MeshRouter {
+
+    /**
+     * Link-layer output: writes one encoded frame to a directly connected peer
+     */
+    interface FrameSender {
+        void sendFrame(String peerId, ByteBuffer frame);
+    }
+
+    /**
+     * Local delivery of a frame addressed to (or broadcast through) this node
+     */
+    interface OnFrameDeliveredListener {
+        void onFrameDelivered(Frame frame);
+    }
+
+    /**
+     * Per-hop link metric, additive along a path; see {@link LinkMetrics#getCost}
+     */
+    interface LinkCosts {
+        int getCost(String peerId);
+    }
+
+    void setFrameSender(FrameSender sender);
+
+    void setOnFrameDeliveredListener(OnFrameDeliveredListener listener);
+
+    void onPeerConnected(String peerId);
+
+    void onPeerDisconnected(String peerId);
+
+    int getPeerCount();
+
+    /**
+     * Link costs moved; re-read them for forwarding decisions
+     */
+    void onLinkCostsChanged(LinkCosts costs);
+
+    /**
+     * Originate a message from this node
+     */
+    void send(Message message);
+
+    /**
+     * Originate an already-encoded frame, e.g. one replayed from the outbox
+     */
+    void sendEncoded(ByteBuffer frame);
+
+    /**
+     * Handle a frame received from a directly connected peer
+     */
+    void onFrameReceived(String fromPeerId, ByteBuffer frame);
+
+    /**
+     * Advance timed state such as route discovery retries; routers without any ignore it
+     */
+    void onTimer(long nowMs);
+
+    RouterStats getStats();
+}
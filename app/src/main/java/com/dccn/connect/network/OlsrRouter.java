@@ -0,0 +1,803 @@
+package com.dccn.connect.network;
+
+import com.dccn.connect.models.Message;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * OlsrRouter - Proactive unicast routing for private messages, after OLSR (RFC 3626). Where
+ * {@link AodvRouter} looks for a route when the first message needs one, this router keeps a route
+ * to every node it knows of at all times, so on a mesh that holds still for hours no message waits
+ * for discovery. Messages to everyone, emergencies and every other frame kind go to an inner
+ * {@link AodvRouter}, which floods them.
+ *
+ * Each node sends its neighbours a HELLO listing its own neighbours, so every node knows its
+ * two-hop neighbourhood. From it, a node picks multipoint relays (MPRs): a small set of neighbours
+ * that between them reach every two-hop neighbour, and marks them in its HELLOs. A node chosen as
+ * MPR advertises the nodes that chose it in a topology control (TC) message, and TCs are relayed
+ * only by the MPRs of the node they came from, so a TC reaches the whole mesh with a fraction of the
+ * transmissions a flood takes. Links the HELLOs and TCs describe feed a {@link ShortestPathTree},
+ * which updates only the paths a changed link touches.
+ *
+ * Links come and go with events from the transport rather than missed HELLOs, so HELLOs go out when
+ * the neighbourhood changes and otherwise only every {@link #HELLO_INTERVAL_MS}; TCs likewise go out
+ * when a node's selectors change and every {@link #TC_INTERVAL_MS} to refresh the mesh. Changes are
+ * coalesced, at most one HELLO per {@link #HELLO_MIN_INTERVAL_MS} and one TC per
+ * {@link #TC_MIN_INTERVAL_MS}, so a moving mesh cannot set off a storm of them. Topology a
+ * node stops refreshing expires after {@link #TOP_HOLD_MS}. Path length is counted in hops, as in
+ * the RFC; link costs only guide the inner router.
+ *
+ * A private message with no proactive route is handed to the inner router, which discovers a route
+ * on demand and floods the message only if that fails. The inner router also answers and relays
+ * AODV's requests, replies and errors, so devices running either router share one mesh: requests
+ * cross this node, and devices that never send a HELLO are still reached.
+ *
+ * Control frames are link-local KIND_ROUTE frames, with types numbered after AodvRouter's so neither
+ * router mistakes the other's. Body: varint type, originator, then for a HELLO varint count and that
+ * many neighbour, varint link flags ({@link #LINK_MPR}); for a TC varint message sequence, varint
+ * advertised neighbour sequence number (ANSN), varint TTL, varint count and that many selector.
+ *
+ * Device IDs are interned into the tree's node IDs and never released; a deployment meets hundreds
+ * of devices, not millions.
+ */
+public class OlsrRouter implements MeshRouter {
+
+    public static final long HELLO_INTERVAL_MS = 10_000;
+    public static final long TC_INTERVAL_MS = 30_000;
+    public static final long TOP_HOLD_MS = 3 * TC_INTERVAL_MS;
+    public static final long HELLO_MIN_INTERVAL_MS = 1000;
+    public static final long TC_MIN_INTERVAL_MS = 5000;
+    static final long SWEEP_INTERVAL_MS = 1000;
+
+    static final int TYPE_HELLO = 3;
+    static final int TYPE_TC = 4;
+    static final int LINK_MPR = 0x01;
+
+    private static final class Neighbour {
+        final String nodeId;
+        final int node;
+        String peerId;
+        // Its neighbours other than us, from its last HELLO
+        final Set<String> twoHop = new HashSet<>();
+        // It chose us as one of its MPRs
+        boolean selector;
+
+        Neighbour(String nodeId, int node) {
+            this.nodeId = nodeId;
+            this.node = node;
+        }
+    }
+
+    private static final class Topology {
+        long ansn;
+        long expiresMs;
+        final Set<String> advertised = new HashSet<>();
+    }
+
+    private final String localId;
+    private final int hopLimit;
+    // Floods, and routes what the topology has no path for; only called with this router's lock held
+    private final AodvRouter onDemand;
+    private final SeenIdCache seenIds;
+    private final SeenIdCache seenTcs;
+    private final Set<String> links = new HashSet<>();
+    // Link peer ID -> device ID, and device ID -> its neighbour state
+    private final Map<String, String> peerNodes = new HashMap<>();
+    private final Map<String, Neighbour> neighbours = new HashMap<>();
+    private final Set<String> mprs = new HashSet<>();
+    private final Map<String, Topology> topology = new HashMap<>();
+    private final ShortestPathTree tree = new ShortestPathTree();
+    private final Map<String, Integer> nodeIndex = new HashMap<>();
+    private final List<String> nodeIds = new ArrayList<>();
+    private final Frame frame = new Frame();
+    private final RouterStats stats = new RouterStats();
+    private final RouterStats totals = new RouterStats();
+    private ByteBuffer encodeBuffer = ByteBuffer.allocate(512);
+    private ByteBuffer controlBuffer = ByteBuffer.allocate(256);
+
+    private FrameSender frameSender;
+    private OnFrameDeliveredListener onFrameDeliveredListener;
+    private long nowMs;
+    private long lastSweepMs;
+    private long lastHelloMs = -HELLO_MIN_INTERVAL_MS;
+    private long lastTcMs = -TC_MIN_INTERVAL_MS;
+    private boolean helloDue;
+    private boolean tcDue;
+    private int selectorCount;
+    private long ansn;
+    private int tcSequence;
+
+    // Stats
+    private long hellosSent;
+    private long tcsOriginated;
+    private long tcsForwarded;
+    private long mprChanges;
+
+    /**
+     * @param localId this node's ID as other nodes address it, i.e. the device ID
+     */
+    public OlsrRouter(String localId) {
+        this(localId, FrameCodec.DEFAULT_HOP_LIMIT, FloodingRouter.DEFAULT_SEEN_CACHE_SIZE);
+    }
+
+    public OlsrRouter(String localId, int hopLimit, int seenCacheSize) {
+        this.localId = localId;
+        this.hopLimit = hopLimit;
+        this.seenIds = new SeenIdCache(seenCacheSize);
+        this.seenTcs = new SeenIdCache(seenCacheSize);
+        nodeIndex.put(localId, ShortestPathTree.ROOT);
+        nodeIds.add(localId);
+        onDemand = new AodvRouter(localId, hopLimit, seenCacheSize);
+        onDemand.setFrameSender((peerId, buffer) -> {
+            if (frameSender != null) {
+                frameSender.sendFrame(peerId, buffer);
+            }
+        });
+        onDemand.setOnFrameDeliveredListener(this::onInnerDelivered);
+    }
+
+    @Override
+    public synchronized void setFrameSender(FrameSender sender) {
+        this.frameSender = sender;
+    }
+
+    @Override
+    public synchronized void setOnFrameDeliveredListener(OnFrameDeliveredListener listener) {
+        this.onFrameDeliveredListener = listener;
+    }
+
+    @Override
+    public synchronized void onPeerConnected(String peerId) {
+        onDemand.onPeerConnected(peerId);
+        if (links.add(peerId)) {
+            // Introduce ourselves; the peer joins the neighbourhood once its HELLO names it
+            helloDue = true;
+        }
+    }
+
+    @Override
+    public synchronized void onPeerDisconnected(String peerId) {
+        onDemand.onPeerDisconnected(peerId);
+        links.remove(peerId);
+        String nodeId = peerNodes.remove(peerId);
+        Neighbour neighbour = nodeId != null ? neighbours.get(nodeId) : null;
+        if (neighbour != null && neighbour.peerId.equals(peerId)) {
+            removeNeighbour(neighbour);
+        }
+    }
+
+    @Override
+    public synchronized int getPeerCount() {
+        return links.size();
+    }
+
+    @Override
+    public synchronized void onLinkCostsChanged(LinkCosts costs) {
+        onDemand.onLinkCostsChanged(costs);
+    }
+
+    @Override
+    public synchronized void send(Message message) {
+        if (!isRoutable(message.getRecipient(), message.isEmergency())) {
+            onDemand.send(message);
+            return;
+        }
+        int length = FrameCodec.encodedLength(message);
+        ByteBuffer out = encodeBuffer(length);
+        FrameCodec.encode(message, hopLimit, out);
+        out.flip();
+        originate(out, message.getMessageId(), message.getRecipient());
+    }
+
+    @Override
+    public synchronized void sendEncoded(ByteBuffer buffer) {
+        int offset = buffer.position();
+        try {
+            FrameCodec.decode(buffer, frame);
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            stats.malformedDrops++;
+            return;
+        }
+        String recipient = frame.getKind() == FrameCodec.KIND_MESSAGE ? frame.getString(Frame.SLOT_RECIPIENT) : null;
+        buffer.position(offset);
+        if (!isRoutable(recipient, frame.isEmergency())) {
+            onDemand.sendEncoded(buffer);
+            return;
+        }
+        // Copy, so marking the frame routed leaves the caller's bytes alone
+        ByteBuffer out = encodeBuffer(frame.getFrameLength());
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset + frame.getFrameLength());
+        out.put(view).flip();
+        originate(out, frame.getMessageId(), recipient);
+    }
+
+    @Override
+    public synchronized void onFrameReceived(String fromPeerId, ByteBuffer buffer) {
+        int offset = buffer.position();
+        int kind = FrameCodec.peekKind(buffer, offset);
+        if (kind == FrameCodec.KIND_ROUTE) {
+            try {
+                if (onControlFrame(fromPeerId, buffer)) {
+                    stats.received++;
+                } else {
+                    onDemand.onFrameReceived(fromPeerId, buffer);
+                }
+            } catch (IllegalArgumentException | BufferUnderflowException e) {
+                stats.received++;
+                stats.malformedDrops++;
+            }
+            return;
+        }
+        if (kind != FrameCodec.KIND_MESSAGE || (FrameCodec.peekFlags(buffer, offset) & FrameCodec.FLAG_ROUTED) == 0) {
+            onDemand.onFrameReceived(fromPeerId, buffer);
+            return;
+        }
+
+        String recipient;
+        try {
+            FrameCodec.decode(buffer, frame);
+            recipient = frame.getString(Frame.SLOT_RECIPIENT);
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            recipient = null;
+        }
+        boolean local = localId.equals(recipient);
+        String nextHop = local || recipient == null ? null : nextHopFor(recipient);
+        if (recipient != null && !local && nextHop == null) {
+            // Beyond the topology we know, e.g. past a device running AodvRouter
+            buffer.position(offset);
+            onDemand.onFrameReceived(fromPeerId, buffer);
+            return;
+        }
+        stats.received++;
+        if (recipient == null) {
+            stats.malformedDrops++;
+            return;
+        }
+        // A route changing under a frame in flight can bring it round twice
+        if (!seenIds.add(frame.getMessageId())) {
+            stats.duplicatesSuppressed++;
+            return;
+        }
+        if (local) {
+            stats.delivered++;
+            if (onFrameDeliveredListener != null) {
+                onFrameDeliveredListener.onFrameDelivered(frame);
+            }
+            return;
+        }
+        if (frame.getHopCount() + 1 >= frame.getHopLimit()) {
+            stats.hopLimitDrops++;
+            return;
+        }
+        FrameCodec.incrementHopCount(buffer, offset);
+        stats.forwarded++;
+        transmit(nextHop, buffer, offset, frame.getFrameLength(), false);
+    }
+
+    @Override
+    public synchronized void onTimer(long nowMs) {
+        this.nowMs = nowMs;
+        long sinceHello = nowMs - lastHelloMs;
+        if (sinceHello >= HELLO_INTERVAL_MS || (helloDue && sinceHello >= HELLO_MIN_INTERVAL_MS)) {
+            sendHello();
+        }
+        long sinceTc = nowMs - lastTcMs;
+        if ((selectorCount > 0 && sinceTc >= TC_INTERVAL_MS) || (tcDue && sinceTc >= TC_MIN_INTERVAL_MS)) {
+            sendTc();
+        }
+        if (nowMs - lastSweepMs >= SWEEP_INTERVAL_MS) {
+            lastSweepMs = nowMs;
+            sweepTopology();
+        }
+        onDemand.onTimer(nowMs);
+    }
+
+    @Override
+    public synchronized RouterStats getStats() {
+        totals.reset();
+        totals.add(stats);
+        totals.add(onDemand.getStats());
+        return totals;
+    }
+
+    private boolean isRoutable(String recipient, boolean emergency) {
+        return recipient != null && !emergency && !recipient.equals(localId);
+    }
+
+    // A private message from this node, encoded at buffer's position; without a route in the
+    // topology the inner router looks for one
+    private void originate(ByteBuffer buffer, long messageId, String recipient) {
+        seenIds.add(messageId);
+        String nextHop = nextHopFor(recipient);
+        if (nextHop == null) {
+            onDemand.sendEncoded(buffer);
+            return;
+        }
+        int offset = buffer.position();
+        FrameCodec.setFlags(buffer, offset, FrameCodec.peekFlags(buffer, offset) | FrameCodec.FLAG_ROUTED);
+        stats.originated++;
+        transmit(nextHop, buffer, offset, buffer.remaining(), false);
+    }
+
+    private String nextHopFor(String destination) {
+        Integer node = nodeIndex.get(destination);
+        if (node == null) {
+            return null;
+        }
+        int hop = tree.getFirstHop(node);
+        if (hop < 0) {
+            return null;
+        }
+        Neighbour neighbour = neighbours.get(nodeIds.get(hop));
+        return neighbour != null ? neighbour.peerId : null;
+    }
+
+    // Private messages that had to be flooded reach every node; only the recipient keeps one, and
+    // only once whichever way it came
+    private void onInnerDelivered(Frame delivered) {
+        if (delivered.getKind() == FrameCodec.KIND_MESSAGE && !delivered.isNull(Frame.SLOT_RECIPIENT)) {
+            if (!localId.equals(delivered.getString(Frame.SLOT_RECIPIENT))
+                    || !seenIds.add(delivered.getMessageId())) {
+                return;
+            }
+        }
+        if (onFrameDeliveredListener != null) {
+            onFrameDeliveredListener.onFrameDelivered(delivered);
+        }
+    }
+
+    // False for a control message this router does not speak, e.g. one of AodvRouter's
+    private boolean onControlFrame(String fromPeerId, ByteBuffer buffer) {
+        ByteBuffer in = buffer.duplicate();
+        in.position(in.position() + FrameCodec.HEADER_SIZE);
+        Varint.readLength(in);
+        int type = Varint.readLength(in);
+        switch (type) {
+            case TYPE_HELLO: {
+                String originator = requireId(FrameCodec.readString(in));
+                int count = Varint.readLength(in);
+                Set<String> listed = new HashSet<>();
+                boolean selectsUs = false;
+                for (int i = 0; i < count; i++) {
+                    String neighbour = requireId(FrameCodec.readString(in));
+                    int linkFlags = Varint.readLength(in);
+                    if (neighbour.equals(localId)) {
+                        selectsUs = (linkFlags & LINK_MPR) != 0;
+                    } else {
+                        listed.add(neighbour);
+                    }
+                }
+                onHello(fromPeerId, originator, listed, selectsUs);
+                break;
+            }
+            case TYPE_TC: {
+                String originator = requireId(FrameCodec.readString(in));
+                int sequence = Varint.readLength(in);
+                // Most TCs arrive more than once; drop the copies before decoding the rest
+                if (originator.equals(localId) || !seenTcs.add(tcKey(originator, sequence))) {
+                    stats.duplicatesSuppressed++;
+                    break;
+                }
+                long advertisedSeq = Varint.readUnsigned(in);
+                int ttl = Varint.readLength(in);
+                int count = Varint.readLength(in);
+                Set<String> advertised = new HashSet<>();
+                for (int i = 0; i < count; i++) {
+                    advertised.add(requireId(FrameCodec.readString(in)));
+                }
+                onTc(fromPeerId, originator, sequence, advertisedSeq, ttl, advertised);
+                break;
+            }
+            default:
+                return false;
+        }
+        return true;
+    }
+
+    private void onHello(String fromPeerId, String originator, Set<String> listed, boolean selectsUs) {
+        if (originator.equals(localId) || !links.contains(fromPeerId)) {
+            return;
+        }
+        String previous = peerNodes.put(fromPeerId, originator);
+        if (previous != null && !previous.equals(originator)) {
+            // Address reassigned to another device
+            Neighbour stale = neighbours.get(previous);
+            if (stale != null && stale.peerId.equals(fromPeerId)) {
+                removeNeighbour(stale);
+            }
+        }
+        boolean neighbourhoodChanged = false;
+        Neighbour neighbour = neighbours.get(originator);
+        if (neighbour == null) {
+            neighbour = new Neighbour(originator, nodeFor(originator));
+            neighbours.put(originator, neighbour);
+            tree.addEdge(ShortestPathTree.ROOT, neighbour.node);
+            neighbourhoodChanged = true;
+            // Let the rest of the neighbourhood know it is two hops away through us
+            helloDue = true;
+        }
+        // A second link to the same device: route over the one that spoke last
+        neighbour.peerId = fromPeerId;
+
+        Iterator<String> it = neighbour.twoHop.iterator();
+        while (it.hasNext()) {
+            String id = it.next();
+            if (!listed.contains(id)) {
+                it.remove();
+                tree.removeEdge(neighbour.node, nodeFor(id));
+                neighbourhoodChanged = true;
+            }
+        }
+        for (String id : listed) {
+            if (neighbour.twoHop.add(id)) {
+                tree.addEdge(neighbour.node, nodeFor(id));
+                neighbourhoodChanged = true;
+            }
+        }
+        if (neighbour.selector != selectsUs) {
+            neighbour.selector = selectsUs;
+            selectorCount += selectsUs ? 1 : -1;
+            onSelectorsChanged();
+        }
+        if (neighbourhoodChanged) {
+            selectMprs();
+        }
+    }
+
+    private void onTc(String fromPeerId, String originator, int sequence, long advertisedSeq, int ttl,
+                      Set<String> advertised) {
+        Topology entry = topology.get(originator);
+        if (entry != null && advertisedSeq == entry.ansn) {
+            // A periodic refresh: same ANSN, same selectors
+            entry.expiresMs = nowMs + TOP_HOLD_MS;
+        } else if (entry == null || advertisedSeq > entry.ansn) {
+            updateTopology(originator, entry, advertisedSeq, advertised);
+        }
+        // Only the MPRs of the node we heard it from relay it
+        String sender = peerNodes.get(fromPeerId);
+        Neighbour neighbour = sender != null ? neighbours.get(sender) : null;
+        if (neighbour == null || !neighbour.selector || ttl <= 1) {
+            return;
+        }
+        tcsForwarded++;
+        ByteBuffer out = encodeTc(originator, sequence, advertisedSeq, ttl - 1, advertised);
+        broadcastControl(out, fromPeerId);
+    }
+
+    // Replace what an originator advertises, touching only the links that changed
+    private void updateTopology(String originator, Topology entry, long advertisedSeq, Set<String> advertised) {
+        int from = nodeFor(originator);
+        if (entry == null) {
+            if (advertised.isEmpty()) {
+                return;
+            }
+            entry = new Topology();
+            topology.put(originator, entry);
+        }
+        entry.ansn = advertisedSeq;
+        entry.expiresMs = nowMs + TOP_HOLD_MS;
+        Iterator<String> it = entry.advertised.iterator();
+        while (it.hasNext()) {
+            String id = it.next();
+            if (!advertised.contains(id)) {
+                it.remove();
+                tree.removeEdge(from, nodeFor(id));
+            }
+        }
+        for (String id : advertised) {
+            if (!id.equals(originator) && entry.advertised.add(id)) {
+                tree.addEdge(from, nodeFor(id));
+            }
+        }
+        if (entry.advertised.isEmpty()) {
+            topology.remove(originator);
+        }
+    }
+
+    private void removeNeighbour(Neighbour neighbour) {
+        neighbours.remove(neighbour.nodeId);
+        tree.removeEdge(ShortestPathTree.ROOT, neighbour.node);
+        for (String id : neighbour.twoHop) {
+            tree.removeEdge(neighbour.node, nodeFor(id));
+        }
+        neighbour.twoHop.clear();
+        if (neighbour.selector) {
+            selectorCount--;
+            onSelectorsChanged();
+        }
+        selectMprs();
+        helloDue = true;
+    }
+
+    private void onSelectorsChanged() {
+        ansn++;
+        tcDue = true;
+    }
+
+    // RFC 3626 8.3.1, without willingness: first every neighbour that is the only way to some
+    // two-hop neighbour, then greedily whichever reaches the most still uncovered
+    private void selectMprs() {
+        Map<String, Integer> coverers = new HashMap<>();
+        for (Neighbour neighbour : neighbours.values()) {
+            for (String id : neighbour.twoHop) {
+                if (!neighbours.containsKey(id)) {
+                    Integer count = coverers.get(id);
+                    coverers.put(id, count == null ? 1 : count + 1);
+                }
+            }
+        }
+        Set<String> selected = new HashSet<>();
+        Set<String> uncovered = new HashSet<>(coverers.keySet());
+        for (Neighbour neighbour : neighbours.values()) {
+            for (String id : neighbour.twoHop) {
+                Integer count = coverers.get(id);
+                if (count != null && count == 1) {
+                    selected.add(neighbour.nodeId);
+                    break;
+                }
+            }
+        }
+        for (String id : selected) {
+            uncovered.removeAll(neighbours.get(id).twoHop);
+        }
+        while (!uncovered.isEmpty()) {
+            Neighbour best = null;
+            int bestCount = 0;
+            for (Neighbour neighbour : neighbours.values()) {
+                if (selected.contains(neighbour.nodeId)) {
+                    continue;
+                }
+                int count = 0;
+                for (String id : neighbour.twoHop) {
+                    if (uncovered.contains(id)) {
+                        count++;
+                    }
+                }
+                if (count > bestCount || (count == bestCount && count > 0 && neighbour.nodeId.compareTo(best.nodeId) < 0)) {
+                    best = neighbour;
+                    bestCount = count;
+                }
+            }
+            if (best == null) {
+                break;
+            }
+            selected.add(best.nodeId);
+            uncovered.removeAll(best.twoHop);
+        }
+        if (!selected.equals(mprs)) {
+            mprs.clear();
+            mprs.addAll(selected);
+            mprChanges++;
+            helloDue = true;
+        }
+    }
+
+    // Drop what originators stopped refreshing, e.g. because they left
+    private void sweepTopology() {
+        Iterator<Map.Entry<String, Topology>> it = topology.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Topology> entry = it.next();
+            if (entry.getValue().expiresMs > nowMs) {
+                continue;
+            }
+            int from = nodeFor(entry.getKey());
+            for (String id : entry.getValue().advertised) {
+                tree.removeEdge(from, nodeFor(id));
+            }
+            it.remove();
+        }
+    }
+
+    private void sendHello() {
+        helloDue = false;
+        lastHelloMs = nowMs;
+        if (links.isEmpty()) {
+            return;
+        }
+        hellosSent++;
+        int body = Varint.sizeOf(TYPE_HELLO) + FrameCodec.stringLength(localId) + Varint.sizeOf(neighbours.size());
+        for (Neighbour neighbour : neighbours.values()) {
+            body += FrameCodec.stringLength(neighbour.nodeId) + Varint.sizeOf(LINK_MPR);
+        }
+        ByteBuffer out = beginControl(body);
+        Varint.writeUnsigned(out, TYPE_HELLO);
+        FrameCodec.writeString(out, localId);
+        Varint.writeUnsigned(out, neighbours.size());
+        for (Neighbour neighbour : neighbours.values()) {
+            FrameCodec.writeString(out, neighbour.nodeId);
+            Varint.writeUnsigned(out, mprs.contains(neighbour.nodeId) ? LINK_MPR : 0);
+        }
+        out.flip();
+        broadcastControl(out, null);
+    }
+
+    // Advertise our selectors; once there are none, one empty TC withdraws what we advertised
+    private void sendTc() {
+        tcDue = false;
+        lastTcMs = nowMs;
+        tcsOriginated++;
+        Set<String> advertised = new HashSet<>();
+        for (Neighbour neighbour : neighbours.values()) {
+            if (neighbour.selector) {
+                advertised.add(neighbour.nodeId);
+            }
+        }
+        int sequence = ++tcSequence;
+        seenTcs.add(tcKey(localId, sequence));
+        ByteBuffer out = encodeTc(localId, sequence, ansn, hopLimit, advertised);
+        broadcastControl(out, null);
+    }
+
+    private ByteBuffer encodeTc(String originator, int sequence, long advertisedSeq, int ttl, Set<String> advertised) {
+        int body = Varint.sizeOf(TYPE_TC) + FrameCodec.stringLength(originator) + Varint.sizeOf(sequence)
+                + Varint.sizeOf(advertisedSeq) + Varint.sizeOf(ttl) + Varint.sizeOf(advertised.size());
+        for (String id : advertised) {
+            body += FrameCodec.stringLength(id);
+        }
+        ByteBuffer out = beginControl(body);
+        Varint.writeUnsigned(out, TYPE_TC);
+        FrameCodec.writeString(out, originator);
+        Varint.writeUnsigned(out, sequence);
+        Varint.writeUnsigned(out, advertisedSeq);
+        Varint.writeUnsigned(out, ttl);
+        Varint.writeUnsigned(out, advertised.size());
+        for (String id : advertised) {
+            FrameCodec.writeString(out, id);
+        }
+        out.flip();
+        return out;
+    }
+
+    // Link-local: a hop limit of 1 keeps routers that predate route frames from flooding them
+    private ByteBuffer beginControl(int body) {
+        int size = FrameCodec.HEADER_SIZE + Varint.sizeOf(body) + body;
+        if (controlBuffer.capacity() < size) {
+            controlBuffer = ByteBuffer.allocate(Math.max(size, controlBuffer.capacity() * 2));
+        }
+        controlBuffer.clear();
+        FrameCodec.writeHeader(controlBuffer, FrameCodec.KIND_ROUTE, 0, 0, 1, Message.newMessageId());
+        Varint.writeUnsigned(controlBuffer, body);
+        return controlBuffer;
+    }
+
+    private void broadcastControl(ByteBuffer out, String exceptPeerId) {
+        for (String peerId : links) {
+            if (!peerId.equals(exceptPeerId)) {
+                transmit(peerId, out, 0, out.remaining(), true);
+            }
+        }
+    }
+
+    private void transmit(String peerId, ByteBuffer buffer, int offset, int length, boolean control) {
+        if (frameSender == null) {
+            return;
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset + length).position(offset);
+        frameSender.sendFrame(peerId, view);
+        stats.transmissions++;
+        if (control) {
+            stats.controlTransmissions++;
+        }
+    }
+
+    private int nodeFor(String nodeId) {
+        Integer node = nodeIndex.get(nodeId);
+        if (node == null) {
+            node = tree.addNode();
+            nodeIndex.put(nodeId, node);
+            nodeIds.add(nodeId);
+        }
+        return node;
+    }
+
+    private ByteBuffer encodeBuffer(int size) {
+        if (encodeBuffer.capacity() < size) {
+            encodeBuffer = ByteBuffer.allocate(Math.max(size, encodeBuffer.capacity() * 2));
+        }
+        encodeBuffer.clear();
+        return encodeBuffer;
+    }
+
+    private static long tcKey(String originator, int sequence) {
+        return ((long) originator.hashCode() << 32) | (sequence & 0xFFFFFFFFL);
+    }
+
+    private static String requireId(String id) {
+        if (id == null) {
+            throw new IllegalArgumentException("Route frame without node ID");
+        }
+        return id;
+    }
+
+    /**
+     * Nodes with a route to them
+     */
+    public synchronized int getRouteCount() {
+        return tree.getReachableCount();
+    }
+
+    /**
+     * Next hop towards a node, or null without a route
+     */
+    public synchronized String getNextHop(String destination) {
+        return nextHopFor(destination);
+    }
+
+    /**
+     * Hops to a node, or -1 without a route
+     */
+    public synchronized int getHopCount(String destination) {
+        Integer node = nodeIndex.get(destination);
+        int hops = node != null ? tree.getDistance(node) : ShortestPathTree.UNREACHABLE;
+        return hops == ShortestPathTree.UNREACHABLE ? -1 : hops;
+    }
+
+    public synchronized int getMprCount() {
+        return mprs.size();
+    }
+
+    /**
+     * Neighbours this node chose as relays
+     */
+    public synchronized Set<String> getMprs() {
+        return new HashSet<>(mprs);
+    }
+
+    /**
+     * Neighbours that chose this node as a relay
+     */
+    public synchronized int getMprSelectorCount() {
+        return selectorCount;
+    }
+
+    public synchronized long getMprChanges() {
+        return mprChanges;
+    }
+
+    public synchronized long getHellosSent() {
+        return hellosSent;
+    }
+
+    public synchronized long getTcsOriginated() {
+        return tcsOriginated;
+    }
+
+    public synchronized long getTcsForwarded() {
+        return tcsForwarded;
+    }
+
+    /**
+     * Path updates the route table took, and the nodes they re-examined in all
+     */
+    public synchronized long getPathUpdates() {
+        return tree.getUpdates();
+    }
+
+    public synchronized long getPathNodesTouched() {
+        return tree.getNodesTouched();
+    }
+
+    /**
+     * Routes looked for on demand, for destinations the topology had no path to
+     */
+    public synchronized long getRouteDiscoveries() {
+        return onDemand.getRouteDiscoveries();
+    }
+
+    /**
+     * Private messages flooded for want of a route
+     */
+    public synchronized long getFallbackFloods() {
+        return onDemand.getFallbackFloods();
+    }
+}
@@ -0,0 +1,204 @@
+package com.dccn.connect.network;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * PayloadCompressor - Optional per-link compression of frame bodies using raw DEFLATE primed with a
+ * shared dictionary of phrases common in chat and alert traffic, so even short messages shrink.
+ *
+ * Compression is negotiated per link through the hello frame's {@link #CAPABILITY_DICT_DEFLATE}
+ * bit and is skipped when a body is too small or does not get smaller. Only the body is compressed;
+ * the header stays readable so the scheduler and router can classify frames without inflating them.
+ * Routers always see uncompressed frames.
+ *
+ * Not thread-safe; use one instance per sending or receiving thread.
+ */
+public class PayloadCompressor {
+
+    public static final int CAPABILITY_DICT_DEFLATE = 0x01;
+
+    // Bodies below this size never pay for the extra length varint
+    public static final int MIN_BODY_BYTES = 24;
+
+    // Size buckets for stats: <64, <256, <1024, >=1024 body bytes
+    public static final int BUCKET_COUNT = 4;
+
+    // DEFLATE favours matches near the end of the dictionary, so the most common phrases go last
+    private static final byte[] DICTIONARY = (
+            "water food medicine medical doctor first aid blood injured injury hurt pain broken "
+                    + "hostel library canteen auditorium lab parking gate ground floor first floor second floor "
+                    + "building block room hall stairs lift exit road near behind opposite "
+                    + "fire smoke flood earthquake power outage collapsed trapped stuck missing lost "
+                    + "is everyone ok? are you safe? I am safe we are safe on my way coming now "
+                    + "please help need help urgent rescue team student evacuate evacuation "
+                    + "Register Number: Location: Message: Rescue Team Student "
+                    + "\n\nFrom: 🚨 EMERGENCY ALERT 🚨\n")
+            .getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Bytes and time spent per body size bucket
+     */
+    public static final class BucketStats {
+        long attempts;
+        long compressed;
+        long bytesIn;
+        long bytesOut;
+        long nanos;
+
+        public long getAttempts() { return attempts; }
+        public long getCompressed() { return compressed; }
+        public long getBytesIn() { return bytesIn; }
+        public long getBytesOut() { return bytesOut; }
+
+        /**
+         * Output over input frame bytes for attempted bodies; one that did not shrink counts as sent
+         * uncompressed. Bodies under {@link #MIN_BODY_BYTES} are never attempted and not counted.
+         */
+        public double getRatio() {
+            return bytesIn == 0 ? 1.0 : (double) bytesOut / bytesIn;
+        }
+
+        public long getAverageNanos() {
+            return attempts == 0 ? 0 : nanos / attempts;
+        }
+    }
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final Inflater inflater = new Inflater(true);
+    private final BucketStats[] stats = new BucketStats[BUCKET_COUNT];
+    private byte[] in = new byte[1024];
+    private byte[] out = new byte[1024];
+
+    public PayloadCompressor() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            stats[i] = new BucketStats();
+        }
+    }
+
+    public static boolean isCompressed(ByteBuffer frame) {
+        return (frame.get(frame.position() + FrameCodec.OFFSET_FLAGS) & FrameCodec.FLAG_COMPRESSED) != 0;
+    }
+
+    /**
+     * Compress the frame at the source position into dst.
+     * @return true if a compressed frame was written; false (dst untouched) if it would not be smaller
+     */
+    public boolean compress(ByteBuffer frame, ByteBuffer dst) {
+        int offset = frame.position();
+        int frameLength = FrameCodec.peekFrameLength(frame, offset);
+        if (frameLength < 0 || isCompressed(frame)) {
+            return false;
+        }
+        ByteBuffer view = frame.duplicate();
+        view.position(offset + FrameCodec.HEADER_SIZE);
+        int bodyLength = Varint.readLength(view);
+        if (bodyLength < MIN_BODY_BYTES) {
+            return false;
+        }
+
+        long start = System.nanoTime();
+        in = ensure(in, bodyLength);
+        view.get(in, 0, bodyLength);
+        out = ensure(out, bodyLength + 64);
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(in, 0, bodyLength);
+        deflater.finish();
+        int deflated = deflater.deflate(out, 0, out.length);
+        boolean fits = deflater.finished();
+
+        // Compressed body = original length varint + deflate stream
+        int compressedBody = Varint.sizeOf(bodyLength) + deflated;
+        int total = FrameCodec.HEADER_SIZE + Varint.sizeOf(compressedBody) + compressedBody;
+        boolean worthIt = fits && total < frameLength && total <= dst.remaining();
+
+        BucketStats bucket = stats[bucketOf(bodyLength)];
+        bucket.attempts++;
+        bucket.bytesIn += frameLength;
+        bucket.bytesOut += worthIt ? total : frameLength;
+        bucket.nanos += System.nanoTime() - start;
+        if (!worthIt) {
+            return false;
+        }
+        bucket.compressed++;
+
+        int dstStart = dst.position();
+        for (int i = 0; i < FrameCodec.HEADER_SIZE; i++) {
+            dst.put(frame.get(offset + i));
+        }
+        dst.put(dstStart + FrameCodec.OFFSET_FLAGS,
+                (byte) (frame.get(offset + FrameCodec.OFFSET_FLAGS) | FrameCodec.FLAG_COMPRESSED));
+        Varint.writeUnsigned(dst, compressedBody);
+        Varint.writeUnsigned(dst, bodyLength);
+        dst.put(out, 0, deflated);
+        return true;
+    }
+
+    /**
+     * Inflate a compressed frame at the source position into dst, advancing the source past it
+     * @throws IllegalArgumentException if the frame is not valid compressed data
+     */
+    public void decompress(ByteBuffer frame, ByteBuffer dst) {
+        int offset = frame.position();
+        int frameLength = FrameCodec.peekFrameLength(frame, offset);
+        if (frameLength < 0) {
+            throw new IllegalArgumentException("Truncated compressed frame");
+        }
+        ByteBuffer view = frame.duplicate();
+        view.limit(offset + frameLength).position(offset + FrameCodec.HEADER_SIZE);
+        Varint.readLength(view);
+        int bodyLength = Varint.readLength(view);
+        int deflated = view.remaining();
+        if (FrameCodec.HEADER_SIZE + Varint.sizeOf(bodyLength) + bodyLength > dst.remaining()) {
+            throw new IllegalArgumentException("Decompressed frame does not fit: " + bodyLength);
+        }
+
+        in = ensure(in, deflated);
+        view.get(in, 0, deflated);
+        out = ensure(out, bodyLength);
+        inflater.reset();
+        inflater.setDictionary(DICTIONARY);
+        inflater.setInput(in, 0, deflated);
+        int inflated;
+        try {
+            inflated = inflater.inflate(out, 0, bodyLength);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt compressed frame", e);
+        }
+        if (inflated != bodyLength || !inflater.finished()) {
+            throw new IllegalArgumentException("Compressed frame length mismatch");
+        }
+
+        int dstStart = dst.position();
+        for (int i = 0; i < FrameCodec.HEADER_SIZE; i++) {
+            dst.put(frame.get(offset + i));
+        }
+        dst.put(dstStart + FrameCodec.OFFSET_FLAGS,
+                (byte) (frame.get(offset + FrameCodec.OFFSET_FLAGS) & ~FrameCodec.FLAG_COMPRESSED));
+        Varint.writeUnsigned(dst, bodyLength);
+        dst.put(out, 0, bodyLength);
+        frame.position(offset + frameLength);
+    }
+
+    public BucketStats getBucketStats(int bucket) {
+        return stats[bucket];
+    }
+
+    public static int bucketOf(int bodyLength) {
+        if (bodyLength < 64) {
+            return 0;
+        }
+        if (bodyLength < 256) {
+            return 1;
+        }
+        return bodyLength < 1024 ? 2 : 3;
+    }
+
+    private static byte[] ensure(byte[] array, int size) {
+        return array.length >= size ? array : new byte[Math.max(size, array.length * 2)];
+    }
+}
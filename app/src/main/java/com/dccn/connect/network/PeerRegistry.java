@@ -0,0 +1,438 @@
+package com.dccn.connect.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PeerRegistry - The one table of nearby radios: everything a transport has discovered, is
+ * connecting to or has linked. Each address gets a compact int ID on first sight; the entries live in
+ * an array indexed by it, with bit sets by state and by transport as secondary indexes, so upserts,
+ * lookups and state changes are O(1) however crowded the room is. Once the identity exchange ties
+ * several radios to one device, the owner {@link #merge}s them into one entry keyed by device ID.
+ *
+ * Entries are immutable snapshots, replaced on every change. Changes are not pushed one by one:
+ * the registry marks the IDs that changed and {@link #flush()} (or {@link #onTimer}, at most every
+ * {@link #DIFF_INTERVAL_MS}) publishes one coalesced diff against the previous publication. A radio
+ * that appeared and vanished in between costs listeners nothing, and a scan burst of 300 radios
+ * arrives as one batch the adapters apply in a single pass.
+ */
+public class PeerRegistry {
+
+    public static final int STATE_DISCOVERED = 0;
+    public static final int STATE_CONNECTING = 1;
+    public static final int STATE_CONNECTED = 2;
+    static final int STATE_COUNT = 3;
+
+    // Not one of the User.USER_TYPE_* values, which the hello fills in
+    public static final int USER_TYPE_UNKNOWN = 0;
+
+    public static final long DIFF_INTERVAL_MS = 250;
+    static final int SIGNAL_HYSTERESIS_DBM = 3;
+    // Cost changes under a tenth are noise
+    static final int COST_HYSTERESIS_DIVISOR = 10;
+
+    /**
+     * Immutable snapshot of one radio
+     */
+    public static final class Peer {
+        private final int id;
+        private final String address;
+        private final String name;
+        private final String transport;
+        private final int state;
+        private final long lastSeenMs;
+        private final int signalStrength;
+        private final int linkCost;
+        private final String deviceId;
+        private final int userType;
+
+        Peer(int id, String address, String name, String transport, int state, long lastSeenMs,
+             int signalStrength, int linkCost, String deviceId, int userType) {
+            this.id = id;
+            this.address = address;
+            this.name = name;
+            this.transport = transport;
+            this.state = state;
+            this.lastSeenMs = lastSeenMs;
+            this.signalStrength = signalStrength;
+            this.linkCost = linkCost;
+            this.deviceId = deviceId;
+            this.userType = userType;
+        }
+
+        public int getId() { return id; }
+        public String getAddress() { return address; }
+        public String getName() { return name; }
+        public String getTransport() { return transport; }
+        public int getState() { return state; }
+        public long getLastSeenMs() { return lastSeenMs; }
+
+        /**
+         * Smoothed signal strength in dBm, or {@link LinkMetrics#UNKNOWN_RSSI}
+         */
+        public int getSignalStrength() { return signalStrength; }
+
+        /**
+         * Cost of the link to this peer (see {@link LinkMetrics#getCost}), or -1 while unlinked
+         */
+        public int getLinkCost() { return linkCost; }
+
+        /**
+         * Device ID from the peer's hello, which is what messages are addressed to, or null until
+         * a hello has named the device. Until then the address is only a radio's.
+         */
+        public String getDeviceId() { return deviceId; }
+
+        /**
+         * User type the peer's hello advertised, or {@link #USER_TYPE_UNKNOWN} before it arrived
+         */
+        public int getUserType() { return userType; }
+
+        public boolean isIdentified() {
+            return deviceId != null;
+        }
+
+        public boolean isConnected() {
+            return state == STATE_CONNECTED;
+        }
+
+        @Override
+        public String toString() {
+            return "Peer{" + id + " " + address + " '" + name + "' " + transport + " state=" + state
+                    + " rssi=" + signalStrength + " cost=" + linkCost + " device=" + deviceId
+                    + " type=" + userType + '}';
+        }
+    }
+
+    /**
+     * One entry of a published diff. Removals carry the last published snapshot.
+     */
+    public static final class Change {
+        public static final int ADDED = 0;
+        public static final int UPDATED = 1;
+        public static final int REMOVED = 2;
+
+        private final int type;
+        private final Peer peer;
+
+        Change(int type, Peer peer) {
+            this.type = type;
+            this.peer = peer;
+        }
+
+        public int getType() { return type; }
+        public Peer getPeer() { return peer; }
+    }
+
+    /**
+     * A coalesced batch of changes, in ID order. Called on the flushing thread, never under the
+     * registry's lock.
+     */
+    public interface OnPeersChangedListener {
+        void onPeersChanged(List<Change> changes);
+    }
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private Peer[] peers = new Peer[64];
+    // What listeners last saw, per ID
+    private Peer[] published = new Peer[64];
+    private final BitSet[] byState = new BitSet[STATE_COUNT];
+    private final Map<String, BitSet> byTransport = new HashMap<>();
+    private final BitSet dirty = new BitSet();
+    // IDs are reused only after the removal has been published, so a diff never mixes two peers
+    private int[] freeIds = new int[16];
+    private int freeIdCount;
+    private final List<Integer> releasedIds = new ArrayList<>();
+    private int nextId;
+    private int size;
+
+    private OnPeersChangedListener onPeersChangedListener;
+    private long lastFlushMs;
+
+    public PeerRegistry() {
+        for (int i = 0; i < STATE_COUNT; i++) {
+            byState[i] = new BitSet();
+        }
+    }
+
+    public synchronized void setOnPeersChangedListener(OnPeersChangedListener listener) {
+        this.onPeersChangedListener = listener;
+    }
+
+    /**
+     * A transport saw a radio. New radios are added as discovered; known ones keep their state and
+     * pick up the name and last-seen time.
+     * @return the peer's ID
+     */
+    public synchronized int onDiscovered(String transport, String address, String name, long nowMs) {
+        Integer id = ids.get(address);
+        if (id == null) {
+            return add(address, name, transport, STATE_DISCOVERED, nowMs, LinkMetrics.UNKNOWN_RSSI, -1,
+                    null, USER_TYPE_UNKNOWN);
+        }
+        Peer peer = peers[id];
+        String newName = name != null ? name : peer.name;
+        // A device linked over one radio and seen on another stays listed under its link
+        String newTransport = peer.state == STATE_DISCOVERED ? transport : peer.transport;
+        replace(peer, new Peer(id, address, newName, newTransport, peer.state, nowMs,
+                peer.signalStrength, peer.linkCost, peer.deviceId, peer.userType));
+        return id;
+    }
+
+    /**
+     * Move a radio to another state, adding it if a link came up without discovery (an incoming
+     * connection)
+     * @return the peer's ID
+     */
+    public synchronized int setState(String transport, String address, int state, long nowMs) {
+        if (state < 0 || state >= STATE_COUNT) {
+            throw new IllegalArgumentException("Unknown peer state " + state);
+        }
+        Integer id = ids.get(address);
+        if (id == null) {
+            return add(address, null, transport, state, nowMs, LinkMetrics.UNKNOWN_RSSI, -1,
+                    null, USER_TYPE_UNKNOWN);
+        }
+        Peer peer = peers[id];
+        if (peer.state != state || !peer.transport.equals(transport)) {
+            int linkCost = state == STATE_CONNECTED ? peer.linkCost : -1;
+            replace(peer, new Peer(id, address, peer.name, transport, state, nowMs, peer.signalStrength, linkCost,
+                    peer.deviceId, peer.userType));
+        }
+        return id;
+    }
+
+    /**
+     * Record fresh link measurements. Changes within the noise are dropped, so steady links don't
+     * produce a diff every time they are measured.
+     * @param linkCost cost of the link, or -1 if there is none
+     */
+    public synchronized void setLinkQuality(String address, int signalStrength, int linkCost) {
+        Integer id = ids.get(address);
+        if (id == null) {
+            return;
+        }
+        Peer peer = peers[id];
+        if (Math.abs(signalStrength - peer.signalStrength) < SIGNAL_HYSTERESIS_DBM
+                && Math.abs(linkCost - peer.linkCost) * COST_HYSTERESIS_DIVISOR < Math.max(1, peer.linkCost)) {
+            return;
+        }
+        replace(peer, new Peer(id, address, peer.name, peer.transport, peer.state, peer.lastSeenMs,
+                signalStrength, linkCost, peer.deviceId, peer.userType));
+    }
+
+    /**
+     * Record who a peer is, from its hello. Until this is called for an entry, it only stands for a
+     * radio and nothing can be addressed to it.
+     * @param address  the key the entry is listed under, the device ID once {@link #merge}d
+     * @param userType one of the User.USER_TYPE_* values
+     */
+    public synchronized void identify(String address, String deviceId, int userType) {
+        Integer id = ids.get(address);
+        if (id == null) {
+            return;
+        }
+        Peer peer = peers[id];
+        if (deviceId.equals(peer.deviceId) && userType == peer.userType) {
+            return;
+        }
+        replace(peer, new Peer(id, address, peer.name, peer.transport, peer.state, peer.lastSeenMs,
+                peer.signalStrength, peer.linkCost, deviceId, userType));
+    }
+
+    public synchronized boolean remove(String address) {
+        Integer id = ids.remove(address);
+        if (id == null) {
+            return false;
+        }
+        Peer peer = peers[id];
+        unindex(peer);
+        peers[id] = null;
+        dirty.set(id);
+        releasedIds.add(id);
+        size--;
+        return true;
+    }
+
+    /**
+     * Fold the entry for an alias into the entry for another key, keeping the more advanced state.
+     * If there is no entry under the key yet, the alias's entry moves there.
+     */
+    public synchronized void merge(String alias, String key) {
+        Integer aliasId = ids.get(alias);
+        if (aliasId == null || alias.equals(key)) {
+            return;
+        }
+        Peer from = peers[aliasId];
+        remove(alias);
+        Integer id = ids.get(key);
+        if (id == null) {
+            add(key, from.name, from.transport, from.state, from.lastSeenMs, from.signalStrength, from.linkCost,
+                    from.deviceId, from.userType);
+            return;
+        }
+        Peer into = peers[id];
+        String name = into.name != null ? into.name : from.name;
+        long lastSeenMs = Math.max(into.lastSeenMs, from.lastSeenMs);
+        Peer best = from.state > into.state ? from : into;
+        Peer identified = into.deviceId != null ? into : from;
+        replace(into, new Peer(id, key, name, best.transport, best.state, lastSeenMs,
+                best.signalStrength, best.linkCost, identified.deviceId, identified.userType));
+    }
+
+    public synchronized void clear() {
+        for (Integer id : ids.values()) {
+            unindex(peers[id]);
+            peers[id] = null;
+            dirty.set(id);
+            releasedIds.add(id);
+        }
+        ids.clear();
+        size = 0;
+    }
+
+    public synchronized Peer get(int id) {
+        return id >= 0 && id < peers.length ? peers[id] : null;
+    }
+
+    public synchronized Peer find(String address) {
+        Integer id = ids.get(address);
+        return id != null ? peers[id] : null;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized int getCount(int state) {
+        return byState[state].cardinality();
+    }
+
+    /**
+     * Snapshots of every peer in a state, in ID order
+     */
+    public synchronized List<Peer> getPeers(int state) {
+        return collect(byState[state]);
+    }
+
+    /**
+     * Snapshots of every peer a transport reported, in ID order
+     */
+    public synchronized List<Peer> getPeersByTransport(String transport) {
+        BitSet index = byTransport.get(transport);
+        return index != null ? collect(index) : Collections.<Peer>emptyList();
+    }
+
+    /**
+     * Publish pending changes if the last batch went out at least {@link #DIFF_INTERVAL_MS} ago
+     */
+    public void onTimer(long nowMs) {
+        synchronized (this) {
+            if (nowMs - lastFlushMs < DIFF_INTERVAL_MS) {
+                return;
+            }
+            lastFlushMs = nowMs;
+        }
+        flush();
+    }
+
+    /**
+     * Publish everything that changed since the last flush as one diff. Call from one thread only,
+     * so batches reach the listener in order.
+     */
+    public void flush() {
+        List<Change> changes;
+        OnPeersChangedListener listener;
+        synchronized (this) {
+            if (dirty.isEmpty()) {
+                return;
+            }
+            changes = new ArrayList<>(dirty.cardinality());
+            for (int id = dirty.nextSetBit(0); id >= 0; id = dirty.nextSetBit(id + 1)) {
+                Peer before = published[id];
+                Peer after = peers[id];
+                if (before == null && after != null) {
+                    changes.add(new Change(Change.ADDED, after));
+                } else if (before != null && after == null) {
+                    changes.add(new Change(Change.REMOVED, before));
+                } else if (before != after) {
+                    changes.add(new Change(Change.UPDATED, after));
+                }
+                published[id] = after;
+            }
+            dirty.clear();
+            for (int id : releasedIds) {
+                // Re-added under the same address before the flush: the ID is in use again
+                if (peers[id] == null) {
+                    pushFreeId(id);
+                }
+            }
+            releasedIds.clear();
+            listener = onPeersChangedListener;
+        }
+        if (listener != null && !changes.isEmpty()) {
+            listener.onPeersChanged(changes);
+        }
+    }
+
+    private int add(String address, String name, String transport, int state, long nowMs,
+                    int signalStrength, int linkCost, String deviceId, int userType) {
+        int id = freeIdCount > 0 ? freeIds[--freeIdCount] : nextId++;
+        if (id >= peers.length) {
+            peers = Arrays.copyOf(peers, peers.length * 2);
+            published = Arrays.copyOf(published, published.length * 2);
+        }
+        Peer peer = new Peer(id, address, name, transport, state, nowMs, signalStrength, linkCost, deviceId,
+                userType);
+        peers[id] = peer;
+        ids.put(address, id);
+        index(peer);
+        dirty.set(id);
+        size++;
+        return id;
+    }
+
+    private void replace(Peer old, Peer peer) {
+        if (old.state != peer.state || !old.transport.equals(peer.transport)) {
+            unindex(old);
+            index(peer);
+        }
+        peers[peer.id] = peer;
+        dirty.set(peer.id);
+    }
+
+    private void index(Peer peer) {
+        byState[peer.state].set(peer.id);
+        BitSet transportIndex = byTransport.get(peer.transport);
+        if (transportIndex == null) {
+            transportIndex = new BitSet();
+            byTransport.put(peer.transport, transportIndex);
+        }
+        transportIndex.set(peer.id);
+    }
+
+    private void unindex(Peer peer) {
+        byState[peer.state].clear(peer.id);
+        byTransport.get(peer.transport).clear(peer.id);
+    }
+
+    private List<Peer> collect(BitSet index) {
+        List<Peer> result = new ArrayList<>(index.cardinality());
+        for (int id = index.nextSetBit(0); id >= 0; id = index.nextSetBit(id + 1)) {
+            result.add(peers[id]);
+        }
+        return result;
+    }
+
+    private void pushFreeId(int id) {
+        if (freeIdCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+        }
+        freeIds[freeIdCount++] = id;
+    }
+}
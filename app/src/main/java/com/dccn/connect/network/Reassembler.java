@@ -0,0 +1,244 @@
+package com.dccn.connect.network;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reassembler - Rebuilds frames from {@link Fragmenter} fragments arriving in any order, into
+ * buffers borrowed from a {@link BufferPool}. Memory is capped per sending peer and overall, and a
+ * partial frame that makes no progress within the timeout is dropped, so a half-delivered large
+ * frame cannot pin the heap.
+ */
+public class Reassembler {
+
+    public static final long DEFAULT_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+    public static final int DEFAULT_MAX_FRAME_BYTES = 8 * 1024 * 1024;
+    public static final long DEFAULT_MAX_BYTES_PER_SENDER = 8 * 1024 * 1024;
+    public static final long DEFAULT_MAX_TOTAL_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * Receives each completed frame; the buffer returns to the pool when the call returns
+     */
+    public interface OnFrameReassembledListener {
+        void onFrameReassembled(String peerId, ByteBuffer frame);
+    }
+
+    private static final class Partial {
+        final ByteBuffer buffer;
+        final int total;
+        final int count;
+        final int chunk;
+        final long[] received;
+        int receivedCount;
+        long lastProgressMs;
+
+        Partial(ByteBuffer buffer, int total, int count, long nowMs) {
+            this.buffer = buffer;
+            this.total = total;
+            this.count = count;
+            this.chunk = (total + count - 1) / count;
+            this.received = new long[(count + 63) >>> 6];
+            this.lastProgressMs = nowMs;
+        }
+    }
+
+    private static final class Sender {
+        final Map<Long, Partial> partials = new HashMap<>();
+        long bytes;
+    }
+
+    private final BufferPool bufferPool;
+    private final OnFrameReassembledListener listener;
+    private final long timeoutMs;
+    private final int maxFrameBytes;
+    private final long maxBytesPerSender;
+    private final long maxTotalBytes;
+    private final Map<String, Sender> senders = new HashMap<>();
+    // Late duplicates of fragments from frames already delivered must not start a new partial
+    private final SeenIdCache completedIds = new SeenIdCache(1024);
+    private long bytesInUse;
+    private long nextExpiryMs;
+
+    private long completed;
+    private long expired;
+    private long rejected;
+    private long duplicates;
+    private long peakBytesInUse;
+
+    public Reassembler(BufferPool bufferPool, OnFrameReassembledListener listener) {
+        this(bufferPool, listener, DEFAULT_TIMEOUT_MS, DEFAULT_MAX_FRAME_BYTES,
+                DEFAULT_MAX_BYTES_PER_SENDER, DEFAULT_MAX_TOTAL_BYTES);
+    }
+
+    public Reassembler(BufferPool bufferPool, OnFrameReassembledListener listener, long timeoutMs,
+                       int maxFrameBytes, long maxBytesPerSender, long maxTotalBytes) {
+        this.bufferPool = bufferPool;
+        this.listener = listener;
+        this.timeoutMs = timeoutMs;
+        this.maxFrameBytes = maxFrameBytes;
+        this.maxBytesPerSender = maxBytesPerSender;
+        this.maxTotalBytes = maxTotalBytes;
+    }
+
+    /**
+     * Accept one KIND_FRAGMENT frame (consumed from position to limit)
+     * @return false if the fragment was malformed, a duplicate, or rejected by a memory cap
+     */
+    public boolean onFragment(String peerId, ByteBuffer fragment, long nowMs) {
+        int offset = fragment.position();
+        long messageId = FrameCodec.peekMessageId(fragment, offset);
+        ByteBuffer view = fragment.duplicate();
+        view.position(offset + FrameCodec.HEADER_SIZE);
+        int body = Varint.readLength(view);
+        int end = view.position() + body;
+        int total = Varint.readLength(view);
+        int index = Varint.readLength(view);
+        int count = Varint.readLength(view);
+        fragment.position(Math.min(end, fragment.limit()));
+        if (end > view.limit() || count == 0 || count > total || index >= count) {
+            return reject();
+        }
+        view.limit(end);
+
+        Partial done;
+        synchronized (this) {
+            if (nowMs >= nextExpiryMs) {
+                expire(nowMs);
+            }
+            if (total > maxFrameBytes) {
+                return reject();
+            }
+            if (completedIds.contains(messageId)) {
+                duplicates++;
+                return false;
+            }
+            Sender sender = senders.get(peerId);
+            if (sender == null) {
+                sender = new Sender();
+                senders.put(peerId, sender);
+            }
+            Partial partial = sender.partials.get(messageId);
+            if (partial == null) {
+                // Check the caps before allocating, so a forged first fragment costs nothing
+                int capacity = BufferPool.capacityFor(total);
+                if (sender.bytes + capacity > maxBytesPerSender || bytesInUse + capacity > maxTotalBytes) {
+                    if (sender.partials.isEmpty()) {
+                        senders.remove(peerId);
+                    }
+                    return reject();
+                }
+                ByteBuffer buffer = bufferPool.acquire(total);
+                partial = new Partial(buffer, total, count, nowMs);
+                sender.partials.put(messageId, partial);
+                sender.bytes += buffer.capacity();
+                bytesInUse += buffer.capacity();
+                peakBytesInUse = Math.max(peakBytesInUse, bytesInUse);
+            } else if (partial.total != total || partial.count != count) {
+                return reject();
+            }
+
+            int start = index * partial.chunk;
+            int length = Math.min(partial.chunk, total - start);
+            if (view.remaining() != length) {
+                return reject();
+            }
+            long bit = 1L << (index & 63);
+            if ((partial.received[index >>> 6] & bit) != 0) {
+                duplicates++;
+                return false;
+            }
+            partial.received[index >>> 6] |= bit;
+            partial.receivedCount++;
+            partial.lastProgressMs = nowMs;
+            ByteBuffer target = partial.buffer.duplicate();
+            target.position(start);
+            target.put(view);
+
+            if (partial.receivedCount < partial.count) {
+                return true;
+            }
+            sender.partials.remove(messageId);
+            untrack(sender, peerId, partial);
+            completedIds.add(messageId);
+            completed++;
+            done = partial;
+        }
+
+        ByteBuffer frame = done.buffer.duplicate();
+        frame.position(0).limit(done.total);
+        try {
+            listener.onFrameReassembled(peerId, frame);
+        } finally {
+            bufferPool.release(done.buffer);
+        }
+        return true;
+    }
+
+    /**
+     * Drop partial frames that made no progress within the timeout. Call it from a periodic timer:
+     * fragments only trigger it as they arrive, and a stalled sender sends none.
+     * @return number of partial frames dropped
+     */
+    public synchronized int expire(long nowMs) {
+        nextExpiryMs = nowMs + timeoutMs / 4;
+        int dropped = 0;
+        Iterator<Map.Entry<String, Sender>> senderIterator = senders.entrySet().iterator();
+        while (senderIterator.hasNext()) {
+            Sender sender = senderIterator.next().getValue();
+            Iterator<Partial> partialIterator = sender.partials.values().iterator();
+            while (partialIterator.hasNext()) {
+                Partial partial = partialIterator.next();
+                if (nowMs - partial.lastProgressMs >= timeoutMs) {
+                    partialIterator.remove();
+                    sender.bytes -= partial.buffer.capacity();
+                    bytesInUse -= partial.buffer.capacity();
+                    bufferPool.release(partial.buffer);
+                    dropped++;
+                }
+            }
+            if (sender.partials.isEmpty()) {
+                senderIterator.remove();
+            }
+        }
+        expired += dropped;
+        return dropped;
+    }
+
+    /**
+     * Drop everything in flight from a peer, e.g. when its link goes down
+     */
+    public synchronized void clear(String peerId) {
+        Sender sender = senders.remove(peerId);
+        if (sender == null) {
+            return;
+        }
+        for (Partial partial : sender.partials.values()) {
+            bytesInUse -= partial.buffer.capacity();
+            bufferPool.release(partial.buffer);
+        }
+    }
+
+    public synchronized long getBytesInUse() { return bytesInUse; }
+    public synchronized long getPeakBytesInUse() { return peakBytesInUse; }
+    public synchronized long getCompleted() { return completed; }
+    public synchronized long getExpired() { return expired; }
+    public synchronized long getRejected() { return rejected; }
+    public synchronized long getDuplicates() { return duplicates; }
+
+    private synchronized boolean reject() {
+        rejected++;
+        return false;
+    }
+
+    // Accounting only; the completed buffer goes back to the pool after delivery
+    private void untrack(Sender sender, String peerId, Partial partial) {
+        sender.bytes -= partial.buffer.capacity();
+        bytesInUse -= partial.buffer.capacity();
+        if (sender.partials.isEmpty()) {
+            senders.remove(peerId);
+        }
+    }
+}
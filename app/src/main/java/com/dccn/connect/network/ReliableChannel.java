@@ -0,0 +1,448 @@
+package com.dccn.connect.network;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ReliableChannel - Ordered, reliable delivery over one lossy peer link.
+ *
+ * A sliding window of up to {@code window} segments is kept in flight, of which at most a quarter
+ * may be unacknowledged at once. That quarter already covers the bandwidth-delay product of a
+ * Wi-Fi Direct link; the rest is headroom that lets the window keep advancing past holes at its
+ * base while they are repaired, and keeps the link's own queue short so repairs arrive within a
+ * round trip.
+ *
+ * The receiver acknowledges every segment with its next expected sequence number plus up to
+ * {@link #MAX_SACK_BLOCKS} selective-ack ranges, the one holding the segment just received first
+ * (RFC 2018), so over successive acks the sender hears of every arrival. The sender retransmits
+ * only what is actually missing: a segment counts as lost as soon as one sent
+ * {@link #FAST_RETRANSMIT_THRESHOLD} transmissions after its latest copy has arrived, which catches
+ * a lost retransmission the same way, and otherwise when the retransmission timer fires. The
+ * timeout follows RFC 6298 (smoothed RTT plus four deviations, Karn's rule for retransmitted
+ * segments, exponential backoff, restarted whenever new data is acknowledged).
+ *
+ * Wire format, both link-local frames:
+ * <pre>
+ * KIND_RELIABLE_DATA  header.messageId = sequence number, body = payload bytes
+ * KIND_RELIABLE_ACK   header.messageId = next expected sequence number,
+ *                     body = varint block count, then per block varint (start - ack), varint length
+ * </pre>
+ *
+ * The channel is a pure state machine: time is passed in and segments go out through a
+ * {@link SegmentSender}, so it runs unchanged on a real link or a lossy loopback.
+ */
+public class ReliableChannel {
+
+    public static final int DEFAULT_WINDOW = 256;
+    public static final int MAX_SACK_BLOCKS = 4;
+    public static final int FAST_RETRANSMIT_THRESHOLD = 3;
+    public static final long INITIAL_RTO_MS = 1000;
+    public static final long MIN_RTO_MS = 200;
+    public static final long MAX_RTO_MS = 60000;
+    public static final int DEFAULT_SEND_QUEUE_LIMIT = 1024;
+    // Hello capability bit: the peer understands reliable data and ack frames
+    public static final int CAPABILITY_RELIABLE = 0x08;
+
+    /**
+     * Link output for encoded data and ack frames; the buffer is only valid during the call.
+     * Must not call back into the channel synchronously.
+     */
+    public interface SegmentSender {
+        void sendSegment(ByteBuffer segment);
+    }
+
+    /**
+     * In-order delivery of payloads; the buffer is only valid during the call
+     */
+    public interface OnPayloadReceivedListener {
+        void onPayloadReceived(ByteBuffer payload);
+    }
+
+    private static final class Segment {
+        ByteBuffer payload;
+        long seq;
+        long firstSentMs;
+        long lastSentMs;
+        // Number of the latest transmission of this segment, counting every data transmission
+        long lastTransmission;
+        int transmissions;
+        boolean sacked;
+    }
+
+    private final SegmentSender sender;
+    private final OnPayloadReceivedListener listener;
+    private final int window;
+    private final int maxOutstanding;
+    private final int sendQueueLimit;
+    private ByteBuffer encodeBuffer = ByteBuffer.allocate(1024);
+
+    // Send side
+    private final Segment[] inFlight;
+    private final ArrayDeque<ByteBuffer> sendQueue = new ArrayDeque<>();
+    private long sendBase;
+    private long nextSeq;
+    // Segments sent and not yet acknowledged or SACKed
+    private int outstanding;
+    // Latest transmission known to have arrived; everything sent well before it and still
+    // unacknowledged is lost
+    private long highestArrived = -1;
+    private long srttMs = -1;
+    private long rttVarMs;
+    private long baseRtoMs = INITIAL_RTO_MS;
+    private long rtoMs = INITIAL_RTO_MS;
+    // Only segments first sent after this are timed; see onAck
+    private long lastRetransmitMs = -1;
+    // The retransmission timer runs from here; it restarts whenever new data is acknowledged
+    // (RFC 6298 5.3), so segments still queued behind a repair are not timed out while acks flow
+    private long timerStartMs;
+
+    // Receive side
+    private final ByteBuffer[] reorder;
+    private long receiveNext;
+    private long lastArrivedSeq = -1;
+
+    // Stats
+    private long payloadsSent;
+    private long segmentsSent;
+    private long retransmissions;
+    private long fastRetransmits;
+    private long timeouts;
+    private long payloadsDelivered;
+    private long duplicateSegments;
+    private long bytesDelivered;
+
+    public ReliableChannel(SegmentSender sender, OnPayloadReceivedListener listener) {
+        this(sender, listener, DEFAULT_WINDOW, DEFAULT_SEND_QUEUE_LIMIT);
+    }
+
+    public ReliableChannel(SegmentSender sender, OnPayloadReceivedListener listener, int window, int sendQueueLimit) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Window must be positive: " + window);
+        }
+        this.sender = sender;
+        this.listener = listener;
+        this.window = window;
+        this.maxOutstanding = Math.max(1, window / 4);
+        this.sendQueueLimit = sendQueueLimit;
+        this.inFlight = new Segment[window];
+        this.reorder = new ByteBuffer[window];
+        for (int i = 0; i < window; i++) {
+            inFlight[i] = new Segment();
+        }
+    }
+
+    /**
+     * Queue a payload for reliable delivery. The bytes are copied.
+     * @return false if the send queue is full
+     */
+    public synchronized boolean send(ByteBuffer payload, long nowMs) {
+        if (sendQueue.size() >= sendQueueLimit) {
+            return false;
+        }
+        ByteBuffer copy = ByteBuffer.allocate(payload.remaining());
+        copy.put(payload.duplicate()).flip();
+        sendQueue.addLast(copy);
+        payloadsSent++;
+        fillWindow(nowMs);
+        return true;
+    }
+
+    /**
+     * Handle a KIND_RELIABLE_DATA or KIND_RELIABLE_ACK frame from the peer
+     */
+    public synchronized void onSegment(ByteBuffer frame, long nowMs) {
+        int offset = frame.position();
+        int kind = FrameCodec.peekKind(frame, offset);
+        long number = FrameCodec.peekMessageId(frame, offset);
+        ByteBuffer body = frame.duplicate();
+        body.position(offset + FrameCodec.HEADER_SIZE);
+        int length = Varint.readLength(body);
+        body.limit(body.position() + length);
+        frame.position(body.limit());
+
+        if (kind == FrameCodec.KIND_RELIABLE_DATA) {
+            onData(number, body);
+        } else if (kind == FrameCodec.KIND_RELIABLE_ACK) {
+            onAck(number, body, nowMs);
+        }
+    }
+
+    /**
+     * Once nothing new has been acknowledged for a timeout, retransmit every segment sent at least
+     * that long ago and still unacknowledged
+     */
+    public synchronized void onTimer(long nowMs) {
+        if (nowMs - timerStartMs < rtoMs) {
+            return;
+        }
+        boolean expired = false;
+        for (long seq = sendBase; seq < nextSeq; seq++) {
+            Segment segment = slot(seq);
+            if (!segment.sacked && nowMs - segment.lastSentMs >= rtoMs) {
+                transmit(segment, nowMs);
+                retransmissions++;
+                expired = true;
+            }
+        }
+        if (expired) {
+            timeouts++;
+            rtoMs = Math.min(MAX_RTO_MS, rtoMs * 2);
+            timerStartMs = nowMs;
+        }
+    }
+
+    /**
+     * Time of the next retransmission deadline, or Long.MAX_VALUE if nothing is in flight
+     */
+    public synchronized long nextTimerMs() {
+        long next = Long.MAX_VALUE;
+        for (long seq = sendBase; seq < nextSeq; seq++) {
+            Segment segment = slot(seq);
+            if (!segment.sacked) {
+                next = Math.min(next, segment.lastSentMs + rtoMs);
+            }
+        }
+        return next == Long.MAX_VALUE ? next : Math.max(next, timerStartMs + rtoMs);
+    }
+
+    /**
+     * Take back every payload not yet cumulatively acknowledged, oldest first, leaving nothing in
+     * flight or queued. SACKed segments are included: the peer's reorder buffer goes with the link.
+     */
+    public synchronized List<ByteBuffer> drainUnacknowledged() {
+        List<ByteBuffer> payloads = new ArrayList<>((int) (nextSeq - sendBase) + sendQueue.size());
+        for (long seq = sendBase; seq < nextSeq; seq++) {
+            Segment segment = slot(seq);
+            payloads.add(segment.payload);
+            segment.payload = null;
+        }
+        payloads.addAll(sendQueue);
+        sendQueue.clear();
+        sendBase = nextSeq;
+        outstanding = 0;
+        return payloads;
+    }
+
+    public synchronized int getInFlight() { return (int) (nextSeq - sendBase); }
+    public synchronized int getQueued() { return sendQueue.size(); }
+    public synchronized long getRtoMs() { return rtoMs; }
+    public synchronized long getSmoothedRttMs() { return srttMs; }
+    public synchronized long getPayloadsSent() { return payloadsSent; }
+    public synchronized long getSegmentsSent() { return segmentsSent; }
+    public synchronized long getRetransmissions() { return retransmissions; }
+    public synchronized long getFastRetransmits() { return fastRetransmits; }
+    public synchronized long getTimeouts() { return timeouts; }
+    public synchronized long getPayloadsDelivered() { return payloadsDelivered; }
+    public synchronized long getBytesDelivered() { return bytesDelivered; }
+    public synchronized long getDuplicateSegments() { return duplicateSegments; }
+
+    private Segment slot(long seq) {
+        return inFlight[(int) (seq % window)];
+    }
+
+    private void fillWindow(long nowMs) {
+        if (sendBase == nextSeq) {
+            timerStartMs = nowMs;
+        }
+        while (nextSeq - sendBase < window && outstanding < maxOutstanding && !sendQueue.isEmpty()) {
+            Segment segment = slot(nextSeq);
+            segment.payload = sendQueue.pollFirst();
+            segment.seq = nextSeq++;
+            segment.transmissions = 0;
+            segment.sacked = false;
+            segment.firstSentMs = nowMs;
+            outstanding++;
+            transmit(segment, nowMs);
+        }
+    }
+
+    private void transmit(Segment segment, long nowMs) {
+        int length = segment.payload.remaining();
+        ByteBuffer out = encodeBuffer(FrameCodec.HEADER_SIZE + Varint.sizeOf(length) + length);
+        FrameCodec.writeHeader(out, FrameCodec.KIND_RELIABLE_DATA, 0, 0, 1, segment.seq);
+        Varint.writeUnsigned(out, length);
+        out.put(segment.payload.duplicate());
+        out.flip();
+        segment.lastSentMs = nowMs;
+        segment.lastTransmission = segmentsSent;
+        segment.transmissions++;
+        if (segment.transmissions > 1) {
+            lastRetransmitMs = nowMs;
+        }
+        segmentsSent++;
+        sender.sendSegment(out);
+    }
+
+    private void onAck(long cumulative, ByteBuffer body, long nowMs) {
+        if (cumulative > nextSeq) {
+            return;
+        }
+        // Karn's rule, extended: a segment sent before the latest retransmission may have been acked
+        // only once that repair closed the hole below it, so its round trip would include the repair
+        long rttSample = -1;
+        if (cumulative > sendBase) {
+            // New data acknowledged (or SACKed, below): the path works again, drop the timeout backoff
+            rtoMs = baseRtoMs;
+            timerStartMs = nowMs;
+        }
+        while (sendBase < cumulative) {
+            Segment segment = slot(sendBase);
+            if (segment.transmissions == 1 && !segment.sacked && segment.firstSentMs > lastRetransmitMs) {
+                rttSample = nowMs - segment.firstSentMs;
+            }
+            if (!segment.sacked) {
+                outstanding--;
+                if (segment.transmissions == 1) {
+                    highestArrived = Math.max(highestArrived, segment.lastTransmission);
+                }
+            }
+            segment.payload = null;
+            sendBase++;
+        }
+
+        int blocks = Varint.readLength(body);
+        for (int i = 0; i < blocks && i < MAX_SACK_BLOCKS; i++) {
+            long start = cumulative + Varint.readUnsigned(body);
+            long end = Math.min(start + Varint.readUnsigned(body), nextSeq);
+            for (long seq = Math.max(start, sendBase); seq < end; seq++) {
+                Segment segment = slot(seq);
+                if (!segment.sacked) {
+                    segment.sacked = true;
+                    outstanding--;
+                    rtoMs = baseRtoMs;
+                    timerStartMs = nowMs;
+                    if (segment.transmissions == 1) {
+                        highestArrived = Math.max(highestArrived, segment.lastTransmission);
+                        if (segment.firstSentMs > lastRetransmitMs) {
+                            rttSample = nowMs - segment.firstSentMs;
+                        }
+                    }
+                }
+            }
+        }
+
+        if (rttSample >= 0) {
+            updateRto(rttSample);
+        }
+
+        // Repair holes as soon as segments sent after them arrive; the threshold leaves room for a
+        // little reordering. A repair is itself a later transmission, so it is retried the same way.
+        for (long seq = sendBase; seq < nextSeq; seq++) {
+            Segment segment = slot(seq);
+            if (!segment.sacked && segment.lastTransmission + FAST_RETRANSMIT_THRESHOLD <= highestArrived) {
+                transmit(segment, nowMs);
+                retransmissions++;
+                fastRetransmits++;
+            }
+        }
+        fillWindow(nowMs);
+    }
+
+    private void updateRto(long sampleMs) {
+        if (srttMs < 0) {
+            srttMs = sampleMs;
+            rttVarMs = sampleMs / 2;
+        } else {
+            rttVarMs = (3 * rttVarMs + Math.abs(srttMs - sampleMs)) / 4;
+            srttMs = (7 * srttMs + sampleMs) / 8;
+        }
+        baseRtoMs = Math.max(MIN_RTO_MS, Math.min(MAX_RTO_MS, srttMs + Math.max(1, 4 * rttVarMs)));
+        rtoMs = baseRtoMs;
+    }
+
+    private void onData(long seq, ByteBuffer payload) {
+        lastArrivedSeq = seq;
+        if (seq < receiveNext || seq >= receiveNext + window) {
+            duplicateSegments++;
+        } else {
+            int index = (int) (seq % window);
+            if (reorder[index] != null) {
+                duplicateSegments++;
+            } else if (seq == receiveNext) {
+                deliver(payload);
+                receiveNext++;
+                // Drain anything that was waiting on this gap
+                for (int i = (int) (receiveNext % window); reorder[i] != null; i = (int) (receiveNext % window)) {
+                    ByteBuffer next = reorder[i];
+                    reorder[i] = null;
+                    deliver(next);
+                    receiveNext++;
+                }
+            } else {
+                ByteBuffer copy = ByteBuffer.allocate(payload.remaining());
+                copy.put(payload).flip();
+                reorder[index] = copy;
+            }
+        }
+        sendAck();
+    }
+
+    private void deliver(ByteBuffer payload) {
+        payloadsDelivered++;
+        bytesDelivered += payload.remaining();
+        listener.onPayloadReceived(payload);
+    }
+
+    private void sendAck() {
+        ByteBuffer out = encodeBuffer(FrameCodec.HEADER_SIZE + 5 + 1 + MAX_SACK_BLOCKS * 10);
+        FrameCodec.writeHeader(out, FrameCodec.KIND_RELIABLE_ACK, 0, 0, 1, receiveNext);
+        int bodyStart = out.position() + 1;
+        out.position(bodyStart + 1);
+
+        // SACK ranges of buffered segments above the cumulative ack: the one the latest arrival
+        // joined, then the lowest, which tell the sender where the oldest holes are
+        int blocks = 0;
+        long windowEnd = receiveNext + window;
+        long latestStart = -1;
+        if (lastArrivedSeq > receiveNext && lastArrivedSeq < windowEnd && isBuffered(lastArrivedSeq)) {
+            latestStart = lastArrivedSeq;
+            while (latestStart - 1 > receiveNext && isBuffered(latestStart - 1)) {
+                latestStart--;
+            }
+            long end = lastArrivedSeq + 1;
+            while (end < windowEnd && isBuffered(end)) {
+                end++;
+            }
+            Varint.writeUnsigned(out, latestStart - receiveNext);
+            Varint.writeUnsigned(out, end - latestStart);
+            blocks++;
+        }
+        long seq = receiveNext + 1;
+        while (seq < windowEnd && blocks < MAX_SACK_BLOCKS) {
+            if (!isBuffered(seq)) {
+                seq++;
+                continue;
+            }
+            long start = seq;
+            while (seq < windowEnd && isBuffered(seq)) {
+                seq++;
+            }
+            if (start != latestStart) {
+                Varint.writeUnsigned(out, start - receiveNext);
+                Varint.writeUnsigned(out, seq - start);
+                blocks++;
+            }
+        }
+        int end = out.position();
+        out.put(bodyStart, (byte) blocks);
+        // Body is at most 1 + 4 * 10 bytes, so its length always fits a one-byte varint
+        out.put(bodyStart - 1, (byte) (end - bodyStart));
+        out.position(end);
+        out.flip();
+        sender.sendSegment(out);
+    }
+
+    private boolean isBuffered(long seq) {
+        return reorder[(int) (seq % window)] != null;
+    }
+
+    private ByteBuffer encodeBuffer(int size) {
+        if (encodeBuffer.capacity() < size) {
+            encodeBuffer = ByteBuffer.allocate(Math.max(size, encodeBuffer.capacity() * 2));
+        }
+        encodeBuffer.clear();
+        return encodeBuffer;
+    }
+}
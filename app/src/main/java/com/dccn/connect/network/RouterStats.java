@@ -0,0 +1,77 @@
+package com.dccn.connect.network;
+
+/**
+ * RouterStats - Counters kept by a MeshRouter, used to measure forwarding load and duplicate suppression
+ */
+public class RouterStats {
+
+    long originated;
+    long received;
+    long delivered;
+    long forwarded;
+    long transmissions;
+    long duplicatesSuppressed;
+    long hopLimitDrops;
+    long malformedDrops;
+    // Route requests, replies and errors; also counted in transmissions
+    long controlTransmissions;
+
+    public long getOriginated() { return originated; }
+    public long getReceived() { return received; }
+    public long getDelivered() { return delivered; }
+    public long getForwarded() { return forwarded; }
+    public long getTransmissions() { return transmissions; }
+    public long getDuplicatesSuppressed() { return duplicatesSuppressed; }
+    public long getHopLimitDrops() { return hopLimitDrops; }
+    public long getMalformedDrops() { return malformedDrops; }
+    public long getControlTransmissions() { return controlTransmissions; }
+
+    /**
+     * Fraction of received frames dropped as duplicates
+     */
+    public double getDuplicateSuppressionRate() {
+        return received == 0 ? 0.0 : (double) duplicatesSuppressed / received;
+    }
+
+    /**
+     * Add another router's counters to these, e.g. those of a router this one delegates to
+     */
+    public void add(RouterStats other) {
+        originated += other.originated;
+        received += other.received;
+        delivered += other.delivered;
+        forwarded += other.forwarded;
+        transmissions += other.transmissions;
+        duplicatesSuppressed += other.duplicatesSuppressed;
+        hopLimitDrops += other.hopLimitDrops;
+        malformedDrops += other.malformedDrops;
+        controlTransmissions += other.controlTransmissions;
+    }
+
+    public void reset() {
+        originated = 0;
+        received = 0;
+        delivered = 0;
+        forwarded = 0;
+        transmissions = 0;
+        duplicatesSuppressed = 0;
+        hopLimitDrops = 0;
+        malformedDrops = 0;
+        controlTransmissions = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "RouterStats{" +
+                "originated=" + originated +
+                ", received=" + received +
+                ", delivered=" + delivered +
+                ", forwarded=" + forwarded +
+                ", transmissions=" + transmissions +
+                ", duplicatesSuppressed=" + duplicatesSuppressed +
+                ", hopLimitDrops=" + hopLimitDrops +
+                ", malformedDrops=" + malformedDrops +
+                ", controlTransmissions=" + controlTransmissions +
+                '}';
+    }
+}
@@ -0,0 +1,117 @@
+package com.dccn.connect.network;
+
+import java.util.Arrays;
+
+/**
+ * SeenIdCache - Bounded set of recently seen message IDs used for duplicate suppression.
+ * Open-addressed long table plus a FIFO ring, so lookups and inserts are O(1) and allocation-free,
+ * and the oldest ID is evicted once capacity is reached.
+ */
+public final class SeenIdCache {
+
+    private static final long EMPTY = 0L;
+
+    private final long[] table;
+    private final int mask;
+    private final long[] ring;
+    private int ringHead;
+    private int size;
+    private boolean containsZero;
+
+    public SeenIdCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        // Keep the load factor at or below 0.5 so probe chains stay short
+        int tableSize = Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1;
+        table = new long[tableSize];
+        mask = tableSize - 1;
+        ring = new long[capacity];
+    }
+
+    public int capacity() {
+        return ring.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(long id) {
+        if (id == EMPTY) {
+            return containsZero;
+        }
+        for (int i = index(id); ; i = (i + 1) & mask) {
+            long slot = table[i];
+            if (slot == EMPTY) {
+                return false;
+            }
+            if (slot == id) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Record an ID as seen.
+     * @return true if the ID was new, false if it was already present (a duplicate)
+     */
+    public boolean add(long id) {
+        if (contains(id)) {
+            return false;
+        }
+        if (size == ring.length) {
+            remove(ring[ringHead]);
+        } else {
+            size++;
+        }
+        ring[ringHead] = id;
+        ringHead = (ringHead + 1) % ring.length;
+        if (id == EMPTY) {
+            containsZero = true;
+        } else {
+            int i = index(id);
+            while (table[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            table[i] = id;
+        }
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(table, EMPTY);
+        ringHead = 0;
+        size = 0;
+        containsZero = false;
+    }
+
+    private void remove(long id) {
+        if (id == EMPTY) {
+            containsZero = false;
+            return;
+        }
+        int i = index(id);
+        while (table[i] != id) {
+            if (table[i] == EMPTY) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        // Backward-shift deletion keeps linear probe chains intact without tombstones
+        int gap = i;
+        for (int j = (gap + 1) & mask; table[j] != EMPTY; j = (j + 1) & mask) {
+            int home = index(table[j]);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                table[gap] = table[j];
+                gap = j;
+            }
+        }
+        table[gap] = EMPTY;
+    }
+
+    private int index(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
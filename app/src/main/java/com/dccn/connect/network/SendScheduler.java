@@ -0,0 +1,297 @@
+package com.dccn.connect.network;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SendScheduler - Multi-class outbound queue shared by locally originated and forwarded frames.
+ * EMERGENCY is served with strict priority; the remaining classes share the link by deficit round
+ * robin, weighted by bytes, so control traffic and chat keep moving under bulk load. Because
+ * forwarded frames are classified from their header flags, alerts jump the queue at every hop.
+ */
+public class SendScheduler {
+
+    // Traffic class constants, in priority order
+    public static final int CLASS_EMERGENCY = 0;
+    public static final int CLASS_CONTROL = 1;
+    public static final int CLASS_CHAT = 2;
+    public static final int CLASS_BULK = 3;
+    public static final int CLASS_COUNT = 4;
+
+    private static final int QUANTUM_BYTES = 512;
+    private static final int[] DEFAULT_WEIGHTS = {0, 4, 2, 1};
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * A frame waiting to be written to one peer
+     */
+    public static final class Entry {
+        private final String peerId;
+        private final ByteBuffer frame;
+        private final int trafficClass;
+        private final long enqueuedAtNanos;
+
+        Entry(String peerId, ByteBuffer frame, int trafficClass, long enqueuedAtNanos) {
+            this.peerId = peerId;
+            this.frame = frame;
+            this.trafficClass = trafficClass;
+            this.enqueuedAtNanos = enqueuedAtNanos;
+        }
+
+        public String getPeerId() { return peerId; }
+        public ByteBuffer getFrame() { return frame; }
+        public int getTrafficClass() { return trafficClass; }
+        public long getEnqueuedAtNanos() { return enqueuedAtNanos; }
+    }
+
+    /**
+     * Per-class queue metrics
+     */
+    public static final class ClassStats {
+        long enqueued;
+        long dequeued;
+        long dropped;
+        int depth;
+        int maxDepth;
+        long totalWaitNanos;
+        long maxWaitNanos;
+
+        public long getEnqueued() { return enqueued; }
+        public long getDequeued() { return dequeued; }
+        public long getDropped() { return dropped; }
+        public int getDepth() { return depth; }
+        public int getMaxDepth() { return maxDepth; }
+        public long getMaxWaitNanos() { return maxWaitNanos; }
+
+        public long getAverageWaitNanos() {
+            return dequeued == 0 ? 0 : totalWaitNanos / dequeued;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<Entry>[] queues = new ArrayDeque[CLASS_COUNT];
+    private final ClassStats[] stats = new ClassStats[CLASS_COUNT];
+    private final int[] weights;
+    private final int[] deficits = new int[CLASS_COUNT];
+    private final int capacity;
+    private int roundRobinClass = CLASS_CONTROL;
+    // Whether the class under the pointer has had its quantum for this visit
+    private boolean quantumGranted;
+    private int size;
+
+    public SendScheduler() {
+        this(DEFAULT_WEIGHTS, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param weights  relative share for each class; the EMERGENCY weight is ignored
+     * @param capacity maximum queued frames per non-emergency class before drop-tail
+     */
+    public SendScheduler(int[] weights, int capacity) {
+        if (weights.length != CLASS_COUNT) {
+            throw new IllegalArgumentException("Expected " + CLASS_COUNT + " weights");
+        }
+        for (int i = CLASS_CONTROL; i < CLASS_COUNT; i++) {
+            if (weights[i] <= 0) {
+                throw new IllegalArgumentException("Weight for class " + i + " must be positive");
+            }
+        }
+        this.weights = weights.clone();
+        this.capacity = capacity;
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            queues[i] = new ArrayDeque<>();
+            stats[i] = new ClassStats();
+        }
+    }
+
+    /**
+     * Traffic class of an encoded frame, read from its header
+     */
+    public static int classify(ByteBuffer frame) {
+        int offset = frame.position();
+        if ((frame.get(offset + FrameCodec.OFFSET_FLAGS) & FrameCodec.FLAG_EMERGENCY) != 0) {
+            return CLASS_EMERGENCY;
+        }
+        switch (frame.get(offset + FrameCodec.OFFSET_KIND) & 0xFF) {
+            case FrameCodec.KIND_MESSAGE:
+            case FrameCodec.KIND_RELIABLE_DATA:
+                return CLASS_CHAT;
+            case FrameCodec.KIND_FRAGMENT:
+            case FrameCodec.KIND_STREAM_DATA:
+                return CLASS_BULK;
+            default:
+                return CLASS_CONTROL;
+        }
+    }
+
+    public boolean enqueue(String peerId, ByteBuffer frame) {
+        return enqueue(peerId, frame, classify(frame));
+    }
+
+    /**
+     * Queue a frame. The scheduler takes ownership of the buffer.
+     * @return false if the class queue was full and the frame was dropped
+     */
+    public boolean enqueue(String peerId, ByteBuffer frame, int trafficClass) {
+        lock.lock();
+        try {
+            ClassStats classStats = stats[trafficClass];
+            ArrayDeque<Entry> queue = queues[trafficClass];
+            // Alerts are never dropped; everything else is drop-tail
+            if (trafficClass != CLASS_EMERGENCY && queue.size() >= capacity) {
+                classStats.dropped++;
+                return false;
+            }
+            queue.addLast(new Entry(peerId, frame, trafficClass, System.nanoTime()));
+            classStats.enqueued++;
+            classStats.depth = queue.size();
+            classStats.maxDepth = Math.max(classStats.maxDepth, classStats.depth);
+            size++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Next frame to write, or null if nothing is queued
+     */
+    public Entry poll() {
+        lock.lock();
+        try {
+            return size == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Next frame to write, waiting up to the timeout for one to arrive
+     */
+    public Entry poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Next frame to write, blocking until one is queued
+     */
+    public Entry take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discard every frame queued for a peer, e.g. once its link is gone; they count as dropped
+     * @return how many frames were discarded
+     */
+    public int removePeer(String peerId) {
+        lock.lock();
+        try {
+            int removed = 0;
+            for (int cls = 0; cls < CLASS_COUNT; cls++) {
+                ArrayDeque<Entry> queue = queues[cls];
+                int before = queue.size();
+                queue.removeIf(entry -> entry.peerId.equals(peerId));
+                int classRemoved = before - queue.size();
+                if (classRemoved > 0) {
+                    stats[cls].dropped += classRemoved;
+                    stats[cls].depth = queue.size();
+                    removed += classRemoved;
+                }
+            }
+            size -= removed;
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueueDepth(int trafficClass) {
+        lock.lock();
+        try {
+            return queues[trafficClass].size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Live metrics for one class. Read without locking, so values are approximate while sending.
+     */
+    public ClassStats getClassStats(int trafficClass) {
+        return stats[trafficClass];
+    }
+
+    private Entry dequeue() {
+        if (!queues[CLASS_EMERGENCY].isEmpty()) {
+            return take(CLASS_EMERGENCY);
+        }
+        // Deficit round robin over the weighted classes: each visit adds one quantum, the class
+        // sends while its deficit covers the head frame, then the pointer moves on
+        while (true) {
+            int cls = roundRobinClass;
+            ArrayDeque<Entry> queue = queues[cls];
+            if (queue.isEmpty()) {
+                deficits[cls] = 0;
+            } else {
+                if (!quantumGranted) {
+                    deficits[cls] += weights[cls] * QUANTUM_BYTES;
+                    quantumGranted = true;
+                }
+                int head = queue.peekFirst().frame.remaining();
+                if (deficits[cls] >= head) {
+                    deficits[cls] -= head;
+                    return take(cls);
+                }
+            }
+            quantumGranted = false;
+            roundRobinClass = cls + 1 < CLASS_COUNT ? cls + 1 : CLASS_CONTROL;
+        }
+    }
+
+    private Entry take(int cls) {
+        Entry entry = queues[cls].pollFirst();
+        ClassStats classStats = stats[cls];
+        long waited = System.nanoTime() - entry.enqueuedAtNanos;
+        classStats.dequeued++;
+        classStats.depth = queues[cls].size();
+        classStats.totalWaitNanos += waited;
+        classStats.maxWaitNanos = Math.max(classStats.maxWaitNanos, waited);
+        size--;
+        return entry;
+    }
+}
@@ -0,0 +1,343 @@
+package com.dccn.connect.network;
+
+import java.util.Arrays;
+
+/**
+ * ShortestPathTree - Hop-count shortest paths from one root over a directed graph that changes an
+ * edge at a time, maintained incrementally. Nodes are dense int IDs, node 0 is the root.
+ *
+ * An edge that shortens a path only relaxes the nodes downstream of it. An edge that leaves the
+ * tree only invalidates the subtree hanging below it: those nodes are re-attached from their
+ * in-edges from the rest of the tree, then settled among themselves by Dijkstra. Edges off the tree
+ * cost nothing either way. On a stable mesh a change therefore touches a few nodes rather than the
+ * whole graph; {@link #recompute()} is the from-scratch BFS, kept for comparison.
+ *
+ * Edges are counted, since several sources (a hello, a topology update) can assert the same link;
+ * an edge exists while its count is positive. Counts sit beside the adjacency lists, which are as
+ * short as a node's neighbourhood, so no update allocates once the graph has grown. Alongside the
+ * distance, each node keeps the first hop on its path, which is all a router needs.
+ */
+public class ShortestPathTree {
+
+    public static final int ROOT = 0;
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private int nodeCount = 1;
+    private int[][] out = new int[16][];
+    private int[] outSize = new int[16];
+    // Assertions of each out edge, parallel to out
+    private int[][] outCounts = new int[16][];
+    private int[][] in = new int[16][];
+    private int[] inSize = new int[16];
+
+    private int[] dist = new int[16];
+    private int[] parent = new int[16];
+    private int[] firstHop = new int[16];
+
+    // Scratch for updates
+    private int[] marks = new int[16];
+    private int mark;
+    private int[] queue = new int[16];
+    private long[] heap = new long[16];
+    private int heapSize;
+
+    // Stats
+    private long updates;
+    private long nodesTouched;
+
+    public ShortestPathTree() {
+        Arrays.fill(dist, UNREACHABLE);
+        Arrays.fill(parent, -1);
+        Arrays.fill(firstHop, -1);
+        dist[ROOT] = 0;
+    }
+
+    /**
+     * Allocate the next node ID; it starts unreachable and without edges
+     */
+    public int addNode() {
+        int node = nodeCount++;
+        if (node >= dist.length) {
+            int capacity = dist.length * 2;
+            out = Arrays.copyOf(out, capacity);
+            outSize = Arrays.copyOf(outSize, capacity);
+            outCounts = Arrays.copyOf(outCounts, capacity);
+            in = Arrays.copyOf(in, capacity);
+            inSize = Arrays.copyOf(inSize, capacity);
+            dist = Arrays.copyOf(dist, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+            firstHop = Arrays.copyOf(firstHop, capacity);
+            marks = Arrays.copyOf(marks, capacity);
+            queue = Arrays.copyOf(queue, capacity);
+            Arrays.fill(dist, node, capacity, UNREACHABLE);
+            Arrays.fill(parent, node, capacity, -1);
+            Arrays.fill(firstHop, node, capacity, -1);
+        }
+        return node;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Assert the edge from -> to once more
+     * @return true if the edge is new
+     */
+    public boolean addEdge(int from, int to) {
+        int i = indexOf(out[from], outSize[from], to);
+        if (i >= 0) {
+            outCounts[from][i]++;
+            return false;
+        }
+        int size = outSize[from]++;
+        out[from] = append(out[from], size, to);
+        outCounts[from] = append(outCounts[from], size, 1);
+        in[to] = append(in[to], inSize[to]++, from);
+        onEdgeAdded(from, to);
+        return true;
+    }
+
+    /**
+     * Withdraw one assertion of the edge from -> to
+     * @return true if that was the last one and the edge is gone
+     */
+    public boolean removeEdge(int from, int to) {
+        int i = indexOf(out[from], outSize[from], to);
+        if (i < 0) {
+            return false;
+        }
+        if (--outCounts[from][i] > 0) {
+            return false;
+        }
+        int last = --outSize[from];
+        out[from][i] = out[from][last];
+        outCounts[from][i] = outCounts[from][last];
+        int j = indexOf(in[to], inSize[to], from);
+        in[to][j] = in[to][--inSize[to]];
+        onEdgeRemoved(from, to);
+        return true;
+    }
+
+    public boolean hasEdge(int from, int to) {
+        return indexOf(out[from], outSize[from], to) >= 0;
+    }
+
+    /**
+     * Hops from the root, or {@link #UNREACHABLE}
+     */
+    public int getDistance(int node) {
+        return dist[node];
+    }
+
+    /**
+     * The root's neighbour a path to this node starts with, or -1 for the root and unreachable nodes
+     */
+    public int getFirstHop(int node) {
+        return firstHop[node];
+    }
+
+    public int getParent(int node) {
+        return parent[node];
+    }
+
+    /**
+     * Nodes other than the root with a path to them
+     */
+    public int getReachableCount() {
+        int count = 0;
+        for (int node = 1; node < nodeCount; node++) {
+            if (dist[node] != UNREACHABLE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Topology changes applied
+     */
+    public long getUpdates() {
+        return updates;
+    }
+
+    /**
+     * Nodes whose path was re-examined, over all updates; against getUpdates() x node count it shows
+     * what incremental maintenance saves
+     */
+    public long getNodesTouched() {
+        return nodesTouched;
+    }
+
+    /**
+     * Rebuild every path from scratch with a BFS from the root
+     */
+    public void recompute() {
+        updates++;
+        Arrays.fill(dist, 0, nodeCount, UNREACHABLE);
+        Arrays.fill(parent, 0, nodeCount, -1);
+        Arrays.fill(firstHop, 0, nodeCount, -1);
+        dist[ROOT] = 0;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = ROOT;
+        while (head < tail) {
+            int node = queue[head++];
+            nodesTouched++;
+            for (int i = 0; i < outSize[node]; i++) {
+                int next = out[node][i];
+                if (dist[next] == UNREACHABLE) {
+                    attach(next, node);
+                    queue[tail++] = next;
+                }
+            }
+        }
+    }
+
+    // A new edge can only shorten paths, and only downstream of its head
+    private void onEdgeAdded(int from, int to) {
+        updates++;
+        if (dist[from] == UNREACHABLE || to == ROOT || dist[from] + 1 >= dist[to]) {
+            return;
+        }
+        attach(to, from);
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = to;
+        while (head < tail) {
+            int node = queue[head++];
+            nodesTouched++;
+            for (int i = 0; i < outSize[node]; i++) {
+                int next = out[node][i];
+                if (dist[node] + 1 < dist[next]) {
+                    attach(next, node);
+                    queue[tail++] = next;
+                }
+            }
+        }
+    }
+
+    // A lost edge only matters if it was in the tree; then its subtree looks for new parents
+    private void onEdgeRemoved(int from, int to) {
+        updates++;
+        if (parent[to] != from) {
+            return;
+        }
+        // Collect the subtree below the edge
+        mark++;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = to;
+        marks[to] = mark;
+        while (head < tail) {
+            int node = queue[head++];
+            for (int i = 0; i < outSize[node]; i++) {
+                int next = out[node][i];
+                if (parent[next] == node && marks[next] != mark) {
+                    marks[next] = mark;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        for (int i = 0; i < tail; i++) {
+            int node = queue[i];
+            dist[node] = UNREACHABLE;
+            parent[node] = -1;
+            firstHop[node] = -1;
+        }
+        nodesTouched += tail;
+
+        // Re-attach each to its best neighbour outside the subtree, then settle the subtree
+        heapSize = 0;
+        for (int i = 0; i < tail; i++) {
+            int node = queue[i];
+            for (int j = 0; j < inSize[node]; j++) {
+                int prev = in[node][j];
+                if (marks[prev] != mark && dist[prev] != UNREACHABLE && dist[prev] + 1 < dist[node]) {
+                    attach(node, prev);
+                }
+            }
+            if (dist[node] != UNREACHABLE) {
+                push(node);
+            }
+        }
+        while (heapSize > 0) {
+            long top = pop();
+            int node = (int) top;
+            if ((int) (top >>> 32) != dist[node]) {
+                continue;
+            }
+            for (int i = 0; i < outSize[node]; i++) {
+                int next = out[node][i];
+                if (marks[next] == mark && dist[node] + 1 < dist[next]) {
+                    attach(next, node);
+                    push(next);
+                }
+            }
+        }
+    }
+
+    private void attach(int node, int newParent) {
+        parent[node] = newParent;
+        dist[node] = dist[newParent] + 1;
+        firstHop[node] = newParent == ROOT ? node : firstHop[newParent];
+    }
+
+    private void push(int node) {
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, heap.length * 2);
+        }
+        long entry = (long) dist[node] << 32 | node;
+        int i = heapSize++;
+        while (i > 0) {
+            int up = (i - 1) >>> 1;
+            if (heap[up] <= entry) {
+                break;
+            }
+            heap[i] = heap[up];
+            i = up;
+        }
+        heap[i] = entry;
+    }
+
+    private long pop() {
+        long top = heap[0];
+        long last = heap[--heapSize];
+        int i = 0;
+        int half = heapSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (last <= heap[child]) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        if (heapSize > 0) {
+            heap[i] = last;
+        }
+        return top;
+    }
+
+    private static int[] append(int[] list, int size, int value) {
+        if (list == null) {
+            list = new int[4];
+        } else if (size == list.length) {
+            list = Arrays.copyOf(list, size * 2);
+        }
+        list[size] = value;
+        return list;
+    }
+
+    private static int indexOf(int[] list, int size, int value) {
+        for (int i = 0; i < size; i++) {
+            if (list[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,573 @@
+package com.dccn.connect.network;
+
+import com.dccn.connect.models.Message;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SprayAndWaitRouter - Carries emergency alerts to rescue teams with a bounded number of copies,
+ * after binary spray-and-wait (Spyropoulos et al., 2005); every other frame is handed to the router
+ * it wraps. Flooding an alert costs a transmission per link in a dense crowd, and still never reaches
+ * a rescue team outside the sender's part of the mesh. Here an alert instead starts with
+ * {@link #DEFAULT_COPIES} copies. A carrier meeting a device without the alert hands it half of its
+ * copies (spray); a carrier down to one copy keeps it (wait) until it meets a rescue-team device,
+ * which is where the alert is going. People move, so carried alerts cross gaps no flood can.
+ *
+ * A carrier that hands an alert to a rescue team has done its job and stops carrying it. A
+ * rescue-team device passes it on to every other rescue-team device it meets, without spending
+ * copies, and never to anyone else. Whichever device an alert reaches shows it. Copies arriving for
+ * an alert already held are added to the budget, so none are lost when two carriers meet.
+ *
+ * Besides being carried, alerts from the last {@link #ANNOUNCE_WINDOW_MS} are re-announced to
+ * whoever is nearby, so a device that turns up a minute after an alert still sees it. A device
+ * holding recent alerts gossips a summary of their IDs on a {@link TrickleTimer}: a neighbour missing
+ * some is sent them, one with some we lack is asked for them, and either resets the timer so news
+ * spreads within about {@link #TRICKLE_MIN_INTERVAL_MS}. A neighbourhood that agrees hears a few
+ * summaries per maximum interval, and a device without recent alerts sends none. A new link gets our
+ * summary at once rather than waiting for the timer. Alerts passed on this way carry no copies.
+ *
+ * Whether a peer belongs to a rescue team comes from the {@link RescueTeams} lookup, which in the
+ * service is filled from hellos; alerts are only offered to a peer once its role is known. Alerts
+ * are held for {@link #ALERT_LIFETIME_MS}, as long as the outbox keeps them, and at most
+ * {@link #MAX_ALERTS} at a time.
+ *
+ * Alert copy frames are link-local KIND_ALERT_COPY frames. Body: varint copies (0 when only
+ * announced), then the alert's own encoded message frame. Summaries and requests are link-local
+ * KIND_ALERT_SUMMARY frames. Body: varint type, varint count, then that many 8-byte message IDs.
+ */
+public class SprayAndWaitRouter implements MeshRouter {
+
+    public static final int DEFAULT_COPIES = 16;
+    public static final long ALERT_LIFETIME_MS = 12 * 60 * 60 * 1000L;
+    public static final int MAX_ALERTS = 64;
+    public static final long ANNOUNCE_WINDOW_MS = 30 * 60 * 1000L;
+    public static final long TRICKLE_MIN_INTERVAL_MS = 500;
+    // Up to 512 s between summaries
+    static final int TRICKLE_DOUBLINGS = 10;
+    static final int TRICKLE_REDUNDANCY = 2;
+    static final long SWEEP_INTERVAL_MS = 1000;
+
+    static final int TYPE_SUMMARY = 0;
+    static final int TYPE_REQUEST = 1;
+
+    /**
+     * Hello capability bit: the device belongs to a rescue team, so alerts end their journey there
+     */
+    public static final int CAPABILITY_RESCUE_TEAM = 0x04;
+
+    /**
+     * Which linked peers belong to rescue teams
+     */
+    public interface RescueTeams {
+        /**
+         * @return whether the device behind a link belongs to a rescue team, or null until known
+         */
+        Boolean isRescueTeam(String peerId);
+    }
+
+    private static final class Alert {
+        final byte[] frame;
+        int copies;
+        final long receivedMs;
+        final long expiresMs;
+        // Peers known to hold it: those it came from, went to, or announced it
+        final Set<String> holders = new HashSet<>();
+
+        Alert(byte[] frame, int copies, long receivedMs) {
+            this.frame = frame;
+            this.copies = copies;
+            this.receivedMs = receivedMs;
+            this.expiresMs = receivedMs + ALERT_LIFETIME_MS;
+        }
+    }
+
+    private final MeshRouter inner;
+    private final boolean localRescueTeam;
+    private final int initialCopies;
+    private final SeenIdCache seenAlerts;
+    private final Set<String> links = new HashSet<>();
+    private final TrickleTimer trickle;
+    // Message ID -> alert held, oldest first
+    private final LinkedHashMap<Long, Alert> alerts = new LinkedHashMap<Long, Alert>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Alert> eldest) {
+            return size() > MAX_ALERTS;
+        }
+    };
+    private final Frame frame = new Frame();
+    private final RouterStats stats = new RouterStats();
+    private final RouterStats totals = new RouterStats();
+    private ByteBuffer copyBuffer = ByteBuffer.allocate(256);
+    private ByteBuffer summaryBuffer = ByteBuffer.allocate(256);
+    private long[] summaryIds = new long[16];
+    private int summarySize;
+
+    private FrameSender frameSender;
+    private OnFrameDeliveredListener onFrameDeliveredListener;
+    private RescueTeams rescueTeams;
+    private long nowMs;
+    private long lastSweepMs;
+
+    // Stats
+    private long alertsCarried;
+    private long copiesHandedOff;
+    private long rescueHandoffs;
+    private long alertsExpired;
+    private long summariesSent;
+    private long alertsAnnounced;
+
+    /**
+     * @param localId this device's ID; spreads neighbours' summaries apart in time
+     * @param localRescueTeam whether this device belongs to a rescue team
+     */
+    public SprayAndWaitRouter(String localId, MeshRouter inner, boolean localRescueTeam) {
+        this(localId, inner, localRescueTeam, DEFAULT_COPIES, FloodingRouter.DEFAULT_SEEN_CACHE_SIZE);
+    }
+
+    public SprayAndWaitRouter(String localId, MeshRouter inner, boolean localRescueTeam, int initialCopies,
+                              int seenCacheSize) {
+        if (initialCopies < 1) {
+            throw new IllegalArgumentException("An alert needs at least one copy: " + initialCopies);
+        }
+        this.inner = inner;
+        this.localRescueTeam = localRescueTeam;
+        this.initialCopies = initialCopies;
+        this.seenAlerts = new SeenIdCache(seenCacheSize);
+        this.trickle = new TrickleTimer(TRICKLE_MIN_INTERVAL_MS, TRICKLE_DOUBLINGS, TRICKLE_REDUNDANCY,
+                localId.hashCode() * 0x9E3779B97F4A7C15L);
+        // The inner router is only ever called with this router's lock held
+        inner.setFrameSender((peerId, buffer) -> {
+            if (frameSender != null) {
+                frameSender.sendFrame(peerId, buffer);
+            }
+        });
+        inner.setOnFrameDeliveredListener(delivered -> {
+            if (onFrameDeliveredListener != null) {
+                onFrameDeliveredListener.onFrameDelivered(delivered);
+            }
+        });
+    }
+
+    @Override
+    public synchronized void setFrameSender(FrameSender sender) {
+        this.frameSender = sender;
+    }
+
+    @Override
+    public synchronized void setOnFrameDeliveredListener(OnFrameDeliveredListener listener) {
+        this.onFrameDeliveredListener = listener;
+    }
+
+    @Override
+    public synchronized void onPeerConnected(String peerId) {
+        inner.onPeerConnected(peerId);
+        links.add(peerId);
+        offerAll(peerId);
+        // A newcomer learns what it missed without waiting out the interval
+        if (collectRecent(peerId) > 0) {
+            transmitSummary(peerId, TYPE_SUMMARY);
+        }
+    }
+
+    @Override
+    public synchronized void onPeerDisconnected(String peerId) {
+        inner.onPeerDisconnected(peerId);
+        links.remove(peerId);
+    }
+
+    @Override
+    public synchronized int getPeerCount() {
+        return inner.getPeerCount();
+    }
+
+    @Override
+    public synchronized void onLinkCostsChanged(LinkCosts costs) {
+        inner.onLinkCostsChanged(costs);
+    }
+
+    /**
+     * Peer roles were learned; offer what we carry to peers whose role just became known
+     */
+    public synchronized void onRescueTeamsChanged(RescueTeams teams) {
+        this.rescueTeams = teams;
+        for (String peerId : links) {
+            offerAll(peerId);
+        }
+    }
+
+    @Override
+    public synchronized void send(Message message) {
+        if (!message.isEmergency()) {
+            inner.send(message);
+            return;
+        }
+        byte[] encoded = new byte[FrameCodec.encodedLength(message)];
+        FrameCodec.encode(message, FrameCodec.DEFAULT_HOP_LIMIT, ByteBuffer.wrap(encoded));
+        originate(message.getMessageId(), encoded);
+    }
+
+    @Override
+    public synchronized void sendEncoded(ByteBuffer buffer) {
+        int offset = buffer.position();
+        if (FrameCodec.peekKind(buffer, offset) != FrameCodec.KIND_MESSAGE
+                || (FrameCodec.peekFlags(buffer, offset) & FrameCodec.FLAG_EMERGENCY) == 0) {
+            inner.sendEncoded(buffer);
+            return;
+        }
+        int length = FrameCodec.peekFrameLength(buffer, offset);
+        if (length < 0 || length > buffer.remaining()) {
+            stats.malformedDrops++;
+            return;
+        }
+        byte[] encoded = new byte[length];
+        buffer.duplicate().get(encoded);
+        originate(FrameCodec.peekMessageId(buffer, offset), encoded);
+    }
+
+    @Override
+    public synchronized void onFrameReceived(String fromPeerId, ByteBuffer buffer) {
+        int offset = buffer.position();
+        int kind = FrameCodec.peekKind(buffer, offset);
+        if (kind == FrameCodec.KIND_ALERT_SUMMARY) {
+            onSummaryReceived(fromPeerId, buffer, offset);
+            return;
+        }
+        if (kind != FrameCodec.KIND_ALERT_COPY) {
+            inner.onFrameReceived(fromPeerId, buffer);
+            return;
+        }
+        stats.received++;
+        int copies;
+        byte[] encoded;
+        try {
+            ByteBuffer in = buffer.duplicate();
+            in.position(offset + FrameCodec.HEADER_SIZE);
+            int body = Varint.readLength(in);
+            int bodyEnd = in.position() + body;
+            copies = Varint.readLength(in);
+            encoded = new byte[bodyEnd - in.position()];
+            in.get(encoded);
+            FrameCodec.decode(ByteBuffer.wrap(encoded), frame);
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            stats.malformedDrops++;
+            return;
+        }
+        if (!frame.isEmergency()) {
+            stats.malformedDrops++;
+            return;
+        }
+        long messageId = frame.getMessageId();
+        Alert alert = alerts.get(messageId);
+        if (alert != null) {
+            stats.duplicatesSuppressed++;
+            alert.holders.add(fromPeerId);
+            if (!localRescueTeam) {
+                alert.copies += copies;
+            }
+            return;
+        }
+        if (!seenAlerts.add(messageId)) {
+            // Held once and expired
+            stats.duplicatesSuppressed++;
+            return;
+        }
+        stats.delivered++;
+        if (onFrameDeliveredListener != null) {
+            onFrameDeliveredListener.onFrameDelivered(frame);
+        }
+        alert = new Alert(encoded, localRescueTeam ? 0 : copies, nowMs);
+        alert.holders.add(fromPeerId);
+        hold(messageId, alert);
+    }
+
+    @Override
+    public synchronized void onTimer(long nowMs) {
+        this.nowMs = nowMs;
+        if (nowMs - lastSweepMs >= SWEEP_INTERVAL_MS) {
+            lastSweepMs = nowMs;
+            Iterator<Alert> it = alerts.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().expiresMs <= nowMs) {
+                    it.remove();
+                    alertsExpired++;
+                }
+            }
+        }
+        if (trickle.onTimer(nowMs)) {
+            if (collectRecent() == 0) {
+                // Everything we hold is too old to announce
+                trickle.stop();
+            } else {
+                for (String peerId : links) {
+                    transmitSummary(peerId, TYPE_SUMMARY);
+                }
+            }
+        }
+        inner.onTimer(nowMs);
+    }
+
+    @Override
+    public synchronized RouterStats getStats() {
+        totals.reset();
+        totals.add(stats);
+        totals.add(inner.getStats());
+        return totals;
+    }
+
+    private void originate(long messageId, byte[] encoded) {
+        if (!seenAlerts.add(messageId)) {
+            // Replayed from the outbox while we still carry it
+            return;
+        }
+        stats.originated++;
+        hold(messageId, new Alert(encoded, initialCopies, nowMs));
+    }
+
+    // A new alert is news for the neighbourhood as well as something to carry
+    private void hold(long messageId, Alert alert) {
+        alerts.put(messageId, alert);
+        alertsCarried++;
+        for (String peerId : links) {
+            offer(alert, peerId);
+        }
+        trickle.onInconsistent(nowMs);
+    }
+
+    private void offerAll(String peerId) {
+        for (Alert alert : alerts.values()) {
+            offer(alert, peerId);
+        }
+    }
+
+    /**
+     * Hand a peer what it is due of an alert we carry: the alert itself if it is a rescue team, half
+     * the copies if we have more than one, nothing otherwise
+     */
+    private void offer(Alert alert, String peerId) {
+        if (alert.holders.contains(peerId) || rescueTeams == null) {
+            return;
+        }
+        Boolean rescue = rescueTeams.isRescueTeam(peerId);
+        if (rescue == null) {
+            return;
+        }
+        if (rescue) {
+            if (localRescueTeam || alert.copies > 0) {
+                alert.holders.add(peerId);
+                transmitCopy(peerId, alert, 1);
+                rescueHandoffs++;
+                if (!localRescueTeam) {
+                    // Delivered; keep it only to announce
+                    alert.copies = 0;
+                }
+            }
+            return;
+        }
+        if (localRescueTeam || alert.copies <= 1) {
+            return;
+        }
+        int handed = alert.copies / 2;
+        alert.copies -= handed;
+        alert.holders.add(peerId);
+        transmitCopy(peerId, alert, handed);
+        copiesHandedOff += handed;
+    }
+
+    private void onSummaryReceived(String fromPeerId, ByteBuffer buffer, int offset) {
+        stats.received++;
+        int type;
+        try {
+            ByteBuffer in = buffer.duplicate();
+            in.position(offset + FrameCodec.HEADER_SIZE);
+            Varint.readLength(in);
+            type = Varint.readLength(in);
+            int count = Varint.readLength(in);
+            if (count > in.remaining() / 8) {
+                throw new IllegalArgumentException("Summary count " + count);
+            }
+            summarySize = 0;
+            for (int i = 0; i < count; i++) {
+                addSummaryId(in.getLong());
+            }
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            stats.malformedDrops++;
+            return;
+        }
+        if (type == TYPE_REQUEST) {
+            for (int i = 0; i < summarySize; i++) {
+                Alert alert = alerts.get(summaryIds[i]);
+                if (alert != null) {
+                    alert.holders.add(fromPeerId);
+                    transmitCopy(fromPeerId, alert, 0);
+                    alertsAnnounced++;
+                }
+            }
+            return;
+        }
+        if (type != TYPE_SUMMARY) {
+            stats.malformedDrops++;
+            return;
+        }
+        // Note what the peer holds and keep only the IDs we have never seen, to ask for
+        int missing = 0;
+        for (int i = 0; i < summarySize; i++) {
+            long id = summaryIds[i];
+            Alert alert = alerts.get(id);
+            if (alert != null) {
+                alert.holders.add(fromPeerId);
+            } else if (!seenAlerts.contains(id)) {
+                summaryIds[missing++] = id;
+            }
+        }
+        summarySize = missing;
+        // Whatever recent alert the peer still lacks, and has not had from us, is sent now
+        int pushed = 0;
+        for (Alert alert : alerts.values()) {
+            if (nowMs - alert.receivedMs < ANNOUNCE_WINDOW_MS && alert.holders.add(fromPeerId)) {
+                transmitCopy(fromPeerId, alert, 0);
+                alertsAnnounced++;
+                pushed++;
+            }
+        }
+        if (missing > 0) {
+            transmitSummary(fromPeerId, TYPE_REQUEST);
+        }
+        if (missing > 0 || pushed > 0) {
+            trickle.onInconsistent(nowMs);
+        } else {
+            trickle.onConsistent();
+        }
+    }
+
+    // Fills summaryIds with the alerts young enough to announce; returns how many
+    private int collectRecent() {
+        summarySize = 0;
+        for (Map.Entry<Long, Alert> entry : alerts.entrySet()) {
+            if (nowMs - entry.getValue().receivedMs < ANNOUNCE_WINDOW_MS) {
+                addSummaryId(entry.getKey());
+            }
+        }
+        return summarySize;
+    }
+
+    // As collectRecent(), or 0 if the peer is known to hold every one already, as after a link flap
+    private int collectRecent(String peerId) {
+        boolean news = false;
+        for (Alert alert : alerts.values()) {
+            if (nowMs - alert.receivedMs < ANNOUNCE_WINDOW_MS && !alert.holders.contains(peerId)) {
+                news = true;
+                break;
+            }
+        }
+        return news ? collectRecent() : 0;
+    }
+
+    private void addSummaryId(long id) {
+        if (summarySize == summaryIds.length) {
+            summaryIds = Arrays.copyOf(summaryIds, summarySize * 2);
+        }
+        summaryIds[summarySize++] = id;
+    }
+
+    // Sends the IDs in summaryIds
+    private void transmitSummary(String peerId, int type) {
+        if (frameSender == null) {
+            return;
+        }
+        int body = Varint.sizeOf(type) + Varint.sizeOf(summarySize) + summarySize * 8;
+        int size = FrameCodec.HEADER_SIZE + Varint.sizeOf(body) + body;
+        if (summaryBuffer.capacity() < size) {
+            summaryBuffer = ByteBuffer.allocate(Math.max(size, summaryBuffer.capacity() * 2));
+        }
+        summaryBuffer.clear();
+        FrameCodec.writeHeader(summaryBuffer, FrameCodec.KIND_ALERT_SUMMARY, 0, 0, 1, Message.newMessageId());
+        Varint.writeUnsigned(summaryBuffer, body);
+        Varint.writeUnsigned(summaryBuffer, type);
+        Varint.writeUnsigned(summaryBuffer, summarySize);
+        for (int i = 0; i < summarySize; i++) {
+            summaryBuffer.putLong(summaryIds[i]);
+        }
+        summaryBuffer.flip();
+        frameSender.sendFrame(peerId, summaryBuffer);
+        stats.transmissions++;
+        stats.controlTransmissions++;
+        if (type == TYPE_SUMMARY) {
+            summariesSent++;
+        }
+    }
+
+    private void transmitCopy(String peerId, Alert alert, int copies) {
+        if (frameSender == null) {
+            return;
+        }
+        int body = Varint.sizeOf(copies) + alert.frame.length;
+        int size = FrameCodec.HEADER_SIZE + Varint.sizeOf(body) + body;
+        if (copyBuffer.capacity() < size) {
+            copyBuffer = ByteBuffer.allocate(Math.max(size, copyBuffer.capacity() * 2));
+        }
+        copyBuffer.clear();
+        // Link-local: a hop limit of 1 keeps routers that predate alert copies from flooding them
+        FrameCodec.writeHeader(copyBuffer, FrameCodec.KIND_ALERT_COPY, FrameCodec.FLAG_EMERGENCY, 0, 1,
+                Message.newMessageId());
+        Varint.writeUnsigned(copyBuffer, body);
+        Varint.writeUnsigned(copyBuffer, copies);
+        copyBuffer.put(alert.frame);
+        copyBuffer.flip();
+        frameSender.sendFrame(peerId, copyBuffer);
+        stats.transmissions++;
+    }
+
+    /**
+     * Alerts currently held, whether carried or only announced
+     */
+    public synchronized int getAlertCount() {
+        return alerts.size();
+    }
+
+    /**
+     * Alerts this device took on, its own included
+     */
+    public synchronized long getAlertsCarried() {
+        return alertsCarried;
+    }
+
+    public synchronized long getCopiesHandedOff() {
+        return copiesHandedOff;
+    }
+
+    /**
+     * Alerts handed straight to a rescue-team device
+     */
+    public synchronized long getRescueHandoffs() {
+        return rescueHandoffs;
+    }
+
+    public synchronized long getAlertsExpired() {
+        return alertsExpired;
+    }
+
+    public synchronized long getSummariesSent() {
+        return summariesSent;
+    }
+
+    /**
+     * Summaries skipped because neighbours had already announced the same alerts
+     */
+    public synchronized long getSummariesSuppressed() {
+        return trickle.getSuppressed();
+    }
+
+    /**
+     * Alerts sent to a neighbour that lacked or asked for them, rather than carried
+     */
+    public synchronized long getAlertsAnnounced() {
+        return alertsAnnounced;
+    }
+}
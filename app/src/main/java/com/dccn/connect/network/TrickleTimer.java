@@ -0,0 +1,141 @@
+package com.dccn.connect.network;
+
+import java.util.SplittableRandom;
+
+/**
+ * TrickleTimer - The Trickle algorithm (RFC 6206): decides when a node re-announces state its
+ * neighbours should share. Each interval the node picks a random moment in the interval's second
+ * half and announces then, unless it has already heard {@code k} neighbours announce the same
+ * thing. Quiet, consistent intervals double up to the maximum, so a settled neighbourhood costs a
+ * few announcements per maximum interval however dense it is. Anything inconsistent shrinks the
+ * interval back to the minimum, so news spreads at that pace.
+ *
+ * A pure state machine driven by {@link #onTimer}: the caller announces whenever it returns true.
+ */
+public class TrickleTimer {
+
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private final int redundancy;
+    private final SplittableRandom random;
+
+    private boolean running;
+    private long intervalMs;
+    private long intervalEndMs;
+    private long fireMs;
+    private boolean fired;
+    private int consistent;
+
+    // Stats
+    private long announcements;
+    private long suppressed;
+    private long resets;
+
+    /**
+     * @param doublings how many times the interval may double from the minimum
+     * @param redundancy k: consistent announcements heard that make ours unnecessary
+     * @param seed for the random moment in each interval; neighbours should differ
+     */
+    public TrickleTimer(long minIntervalMs, int doublings, int redundancy, long seed) {
+        if (minIntervalMs <= 0 || doublings < 0 || redundancy < 1) {
+            throw new IllegalArgumentException("Bad Trickle parameters");
+        }
+        this.minIntervalMs = minIntervalMs;
+        this.maxIntervalMs = minIntervalMs << doublings;
+        this.redundancy = redundancy;
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Start at the minimum interval; does nothing if already running
+     */
+    public void start(long nowMs) {
+        if (!running) {
+            running = true;
+            intervalMs = minIntervalMs;
+            beginInterval(nowMs);
+        }
+    }
+
+    /**
+     * Stop announcing, e.g. once there is nothing left to share
+     */
+    public void stop() {
+        running = false;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Heard a neighbour announce what we would have
+     */
+    public void onConsistent() {
+        consistent++;
+    }
+
+    /**
+     * Heard something inconsistent, or have news: drop back to the minimum interval
+     */
+    public void onInconsistent(long nowMs) {
+        if (!running) {
+            start(nowMs);
+        } else if (intervalMs > minIntervalMs) {
+            resets++;
+            intervalMs = minIntervalMs;
+            beginInterval(nowMs);
+        }
+    }
+
+    /**
+     * @return true if the caller should announce now
+     */
+    public boolean onTimer(long nowMs) {
+        if (!running) {
+            return false;
+        }
+        boolean announce = false;
+        if (!fired && nowMs >= fireMs) {
+            fired = true;
+            if (consistent < redundancy) {
+                announce = true;
+                announcements++;
+            } else {
+                suppressed++;
+            }
+        }
+        if (nowMs >= intervalEndMs) {
+            intervalMs = Math.min(intervalMs * 2, maxIntervalMs);
+            beginInterval(nowMs);
+        }
+        return announce;
+    }
+
+    public long getIntervalMs() {
+        return running ? intervalMs : 0;
+    }
+
+    public long getAnnouncements() {
+        return announcements;
+    }
+
+    /**
+     * Announcements skipped because enough neighbours had already made them
+     */
+    public long getSuppressed() {
+        return suppressed;
+    }
+
+    public long getResets() {
+        return resets;
+    }
+
+    private void beginInterval(long nowMs) {
+        consistent = 0;
+        fired = false;
+        intervalEndMs = nowMs + intervalMs;
+        long half = intervalMs / 2;
+        fireMs = nowMs + half + (intervalMs - half > 0 ? random.nextLong(intervalMs - half) : 0);
+    }
+}
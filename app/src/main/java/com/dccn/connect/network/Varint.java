@@ -0,0 +1,73 @@
+package com.dccn.connect.network;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Varint - LEB128 variable-length integer helpers used by the wire codec.
+ * Small values (lengths, user types, signal strengths) take one or two bytes instead of four or eight.
+ */
+public final class Varint {
+
+    private Varint() {
+    }
+
+    /**
+     * Number of bytes {@link #writeUnsigned} needs for the given value
+     */
+    public static int sizeOf(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Write an unsigned varint at the buffer's position
+     */
+    public static void writeUnsigned(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Read an unsigned varint from the buffer's position
+     */
+    public static long readUnsigned(ByteBuffer buffer) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Varint longer than 10 bytes");
+    }
+
+    /**
+     * Read an unsigned varint that must fit a non-negative int (lengths, counts)
+     */
+    public static int readLength(ByteBuffer buffer) {
+        long value = readUnsigned(buffer);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Length out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * ZigZag-encode a signed value so small negatives (e.g. RSSI) stay short
+     */
+    public static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
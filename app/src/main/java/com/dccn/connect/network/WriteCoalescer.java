@@ -0,0 +1,137 @@
+package com.dccn.connect.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WriteCoalescer - Packs small frames bound for one link into a single transport write.
+ * A batch is written when it is full, when its oldest frame has waited out the latency budget,
+ * or immediately when an urgent (emergency) frame joins it. Frames are self-delimiting, so the
+ * receiver simply decodes frames back-to-back from each write.
+ *
+ * Not thread-safe: each link's coalescer is driven by that link's sender thread, which calls
+ * {@link #flushIfDue(long)} whenever {@link #nanosUntilFlush(long)} elapses. Batch metrics go to a
+ * {@link Stats} that may be shared by every link's coalescer and read from any thread.
+ */
+public class WriteCoalescer {
+
+    public static final long DEFAULT_LATENCY_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    public static final int DEFAULT_MAX_BATCH_BYTES = 4096;
+
+    /**
+     * Transport-level write of one batch
+     */
+    public interface LinkWriter {
+        void write(ByteBuffer batch) throws IOException;
+    }
+
+    /**
+     * Batch size and queueing delay of every write, across all coalescers sharing it
+     */
+    public static final class Stats {
+        final Histogram batchFrames = new Histogram();
+        final Histogram batchBytes = new Histogram();
+        final Histogram queueLatencyNanos = new Histogram();
+
+        public Histogram getBatchFrames() { return batchFrames; }
+        public Histogram getBatchBytes() { return batchBytes; }
+        public Histogram getQueueLatencyNanos() { return queueLatencyNanos; }
+        public long getWrites() { return batchFrames.getCount(); }
+    }
+
+    private final LinkWriter writer;
+    private final ByteBuffer batch;
+    private final long latencyBudgetNanos;
+    private int framesInBatch;
+    private long oldestFrameNanos;
+
+    private final Stats stats;
+    private long writes;
+
+    public WriteCoalescer(LinkWriter writer) {
+        this(writer, DEFAULT_MAX_BATCH_BYTES, DEFAULT_LATENCY_BUDGET_NANOS);
+    }
+
+    public WriteCoalescer(LinkWriter writer, int maxBatchBytes, long latencyBudgetNanos) {
+        this(writer, maxBatchBytes, latencyBudgetNanos, new Stats());
+    }
+
+    public WriteCoalescer(LinkWriter writer, int maxBatchBytes, long latencyBudgetNanos, Stats stats) {
+        this.writer = writer;
+        this.batch = ByteBuffer.allocateDirect(maxBatchBytes);
+        this.latencyBudgetNanos = latencyBudgetNanos;
+        this.stats = stats;
+    }
+
+    /**
+     * Add a frame to the current batch, writing as needed. The frame buffer is consumed.
+     * @param urgent flush right away instead of waiting for more frames
+     */
+    public void offer(ByteBuffer frame, boolean urgent, long nowNanos) throws IOException {
+        if (frame.remaining() > batch.remaining()) {
+            flush(nowNanos);
+        }
+        if (frame.remaining() > batch.capacity()) {
+            // Oversized frame goes out on its own
+            writeBatch(frame, 1, frame.remaining(), 0);
+            return;
+        }
+        if (framesInBatch == 0) {
+            oldestFrameNanos = nowNanos;
+        }
+        batch.put(frame);
+        framesInBatch++;
+        if (urgent || latencyBudgetNanos <= 0) {
+            flush(nowNanos);
+        }
+    }
+
+    /**
+     * Write the batch if its oldest frame has used up the latency budget
+     * @return true if a write happened
+     */
+    public boolean flushIfDue(long nowNanos) throws IOException {
+        if (framesInBatch > 0 && nowNanos - oldestFrameNanos >= latencyBudgetNanos) {
+            flush(nowNanos);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Time until the pending batch is due, or Long.MAX_VALUE if nothing is pending
+     */
+    public long nanosUntilFlush(long nowNanos) {
+        if (framesInBatch == 0) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, oldestFrameNanos + latencyBudgetNanos - nowNanos);
+    }
+
+    public void flush(long nowNanos) throws IOException {
+        if (framesInBatch == 0) {
+            return;
+        }
+        batch.flip();
+        int frames = framesInBatch;
+        framesInBatch = 0;
+        try {
+            writeBatch(batch, frames, batch.remaining(), nowNanos - oldestFrameNanos);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    public Stats getStats() { return stats; }
+    // This coalescer's own writes; the stats may count other links' too
+    public long getWrites() { return writes; }
+
+    private void writeBatch(ByteBuffer buffer, int frames, int bytes, long waitedNanos) throws IOException {
+        stats.batchFrames.record(frames);
+        stats.batchBytes.record(bytes);
+        stats.queueLatencyNanos.record(waitedNanos);
+        writes++;
+        writer.write(buffer);
+    }
+}
@@ -0,0 +1,171 @@
+package com.dccn.connect.network.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * InMemoryTransport - Zero-I/O transport for running many virtual nodes in one JVM.
+ * Nodes attached to the same {@link Hub} can discover and connect to each other; the hub delivers
+ * copies of sent data on its own thread, in order, optionally dropping a fraction to emulate loss.
+ */
+public class InMemoryTransport implements Transport {
+
+    /**
+     * Shared medium for a set of in-memory nodes
+     */
+    public static class Hub {
+        private final Map<String, InMemoryTransport> nodes = new ConcurrentHashMap<>();
+        private final ExecutorService delivery = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "in-memory-hub");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final Random random = new Random();
+        private volatile double lossRate;
+
+        /**
+         * Fraction of sends silently dropped, 0.0 to 1.0
+         */
+        public void setLossRate(double lossRate) {
+            this.lossRate = lossRate;
+        }
+
+        public void shutdown() {
+            delivery.shutdownNow();
+        }
+
+        void deliver(InMemoryTransport from, String toId, ByteBuffer data) {
+            synchronized (random) {
+                if (lossRate > 0 && random.nextDouble() < lossRate) {
+                    return;
+                }
+            }
+            delivery.execute(() -> {
+                InMemoryTransport to = nodes.get(toId);
+                if (to != null && to.isConnected(from.localId)) {
+                    to.receive(from.localId, data);
+                }
+            });
+        }
+    }
+
+    private final Hub hub;
+    private final String localId;
+    private final Set<String> links = ConcurrentHashMap.newKeySet();
+    private volatile OnTransportEventListener listener;
+
+    public InMemoryTransport(Hub hub, String localId) {
+        this.hub = hub;
+        this.localId = localId;
+    }
+
+    public String getLocalId() {
+        return localId;
+    }
+
+    @Override
+    public String getName() {
+        return "In-Memory";
+    }
+
+    @Override
+    public void setOnTransportEventListener(OnTransportEventListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void start() {
+        hub.nodes.put(localId, this);
+    }
+
+    @Override
+    public void stop() {
+        for (String peerId : links) {
+            disconnect(peerId);
+        }
+        hub.nodes.remove(localId, this);
+    }
+
+    @Override
+    public void startDiscovery() {
+        OnTransportEventListener l = listener;
+        if (l == null) {
+            return;
+        }
+        for (String peerId : hub.nodes.keySet()) {
+            if (!peerId.equals(localId)) {
+                l.onPeerDiscovered(this, peerId, peerId);
+            }
+        }
+    }
+
+    @Override
+    public void stopDiscovery() {
+        // Discovery is a one-shot report
+    }
+
+    @Override
+    public void connect(String peerId) {
+        InMemoryTransport peer = hub.nodes.get(peerId);
+        if (peer == null || !links.add(peerId)) {
+            return;
+        }
+        peer.links.add(localId);
+        notifyConnected(peerId);
+        peer.notifyConnected(localId);
+    }
+
+    @Override
+    public void disconnect(String peerId) {
+        if (!links.remove(peerId)) {
+            return;
+        }
+        InMemoryTransport peer = hub.nodes.get(peerId);
+        if (peer != null && peer.links.remove(localId)) {
+            peer.notifyDisconnected(localId);
+        }
+        notifyDisconnected(peerId);
+    }
+
+    @Override
+    public boolean isConnected(String peerId) {
+        return links.contains(peerId);
+    }
+
+    @Override
+    public void send(String peerId, ByteBuffer data) throws IOException {
+        if (!links.contains(peerId)) {
+            throw new IOException("Not connected to " + peerId);
+        }
+        ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+        copy.put(data).flip();
+        hub.deliver(this, peerId, copy);
+    }
+
+    private void receive(String fromId, ByteBuffer data) {
+        OnTransportEventListener l = listener;
+        if (l != null) {
+            l.onDataReceived(this, fromId, data);
+        }
+    }
+
+    private void notifyConnected(String peerId) {
+        OnTransportEventListener l = listener;
+        if (l != null) {
+            l.onPeerConnected(this, peerId);
+        }
+    }
+
+    private void notifyDisconnected(String peerId) {
+        OnTransportEventListener l = listener;
+        if (l != null) {
+            l.onPeerDisconnected(this, peerId);
+        }
+    }
+}
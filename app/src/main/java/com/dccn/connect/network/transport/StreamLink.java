@@ -0,0 +1,172 @@
+package com.dccn.connect.network.transport;
+
+import com.dccn.connect.network.FrameCodec;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * StreamLink - A connected byte-stream link (TCP, RFCOMM, Wi-Fi Direct socket) carrying frames.
+ * A reader thread cuts the stream back into whole frames using their header length, so a listener
+ * always sees complete frames however the stream was segmented.
+ */
+public class StreamLink {
+
+    public static final int MAX_FRAME_BYTES = 1024 * 1024;
+    public static final int MAX_HANDSHAKE_BYTES = 256;
+
+    public interface OnLinkEventListener {
+        void onFrames(StreamLink link, ByteBuffer frames);
+
+        void onClosed(StreamLink link);
+    }
+
+    private final String peerId;
+    private final InputStream in;
+    private final OutputStream out;
+    private final Closeable socket;
+    private final OnLinkEventListener listener;
+    private final Thread reader;
+    private byte[] writeScratch = new byte[4096];
+    private volatile boolean closed;
+
+    public StreamLink(String peerId, InputStream in, OutputStream out, Closeable socket,
+                      OnLinkEventListener listener) {
+        this.peerId = peerId;
+        this.in = in;
+        this.out = out;
+        this.socket = socket;
+        this.listener = listener;
+        this.reader = new Thread(this::readLoop, "link-" + peerId);
+        this.reader.setDaemon(true);
+    }
+
+    /**
+     * First thing each side writes on a new stream: its own peer ID, so the acceptor can name the link
+     */
+    public static void writeHandshake(OutputStream out, String localId) throws IOException {
+        byte[] id = localId.getBytes(StandardCharsets.UTF_8);
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeShort(id.length);
+        data.write(id);
+        data.flush();
+    }
+
+    public static String readHandshake(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        int length = data.readUnsignedShort();
+        if (length > MAX_HANDSHAKE_BYTES) {
+            throw new IOException("Handshake too long: " + length);
+        }
+        byte[] id = new byte[length];
+        data.readFully(id);
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+    public String getPeerId() {
+        return peerId;
+    }
+
+    public void start() {
+        reader.start();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public synchronized void write(ByteBuffer data) throws IOException {
+        if (closed) {
+            throw new IOException("Link to " + peerId + " is closed");
+        }
+        if (data.hasArray()) {
+            out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+        } else {
+            while (data.hasRemaining()) {
+                int n = Math.min(writeScratch.length, data.remaining());
+                data.get(writeScratch, 0, n);
+                out.write(writeScratch, 0, n);
+            }
+        }
+        out.flush();
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Already broken
+        }
+        listener.onClosed(this);
+    }
+
+    private void readLoop() {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        try {
+            while (!closed) {
+                if (!buffer.hasRemaining()) {
+                    buffer = grow(buffer);
+                }
+                int n = in.read(buffer.array(), buffer.position(), buffer.remaining());
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                buffer.position(buffer.position() + n);
+                buffer.flip();
+                int end = completeFramesEnd(buffer);
+                if (end > buffer.position()) {
+                    ByteBuffer frames = buffer.duplicate();
+                    frames.limit(end);
+                    listener.onFrames(this, frames);
+                    buffer.position(end);
+                }
+                buffer.compact();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // Peer went away or sent garbage; either way the link is done
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Absolute offset just past the last whole frame between the buffer's position and limit
+     * @throws IllegalArgumentException if the bytes at a frame boundary are not a frame header
+     */
+    public static int completeFramesEnd(ByteBuffer buffer) {
+        int offset = buffer.position();
+        while (buffer.limit() - offset >= FrameCodec.HEADER_SIZE) {
+            if (buffer.get(offset) != FrameCodec.MAGIC) {
+                throw new IllegalArgumentException("Lost frame sync");
+            }
+            int length = FrameCodec.peekFrameLength(buffer, offset);
+            if (length < 0) {
+                break;
+            }
+            offset += length;
+        }
+        return offset;
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() >= MAX_FRAME_BYTES) {
+            throw new IOException("Frame larger than " + MAX_FRAME_BYTES + " bytes");
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.min(MAX_FRAME_BYTES, buffer.capacity() * 2));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+}
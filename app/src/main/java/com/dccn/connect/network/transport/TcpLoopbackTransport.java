@@ -0,0 +1,190 @@
+package com.dccn.connect.network.transport;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * TcpLoopbackTransport - Stand-in transport over localhost TCP, one listening port per virtual node.
+ * Peer IDs are "127.0.0.1:port" of the peer's listener; "discovery" reports the ports registered
+ * with {@link #addKnownPeer(String)}. Uses blocking sockets with a reader thread per link, like the
+ * Bluetooth and Wi-Fi Direct transports do on a phone.
+ */
+public class TcpLoopbackTransport implements Transport {
+
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+
+    private final List<String> knownPeers = new CopyOnWriteArrayList<>();
+    private final Map<String, StreamLink> links = new ConcurrentHashMap<>();
+    private volatile OnTransportEventListener listener;
+    private ServerSocket serverSocket;
+    private Thread acceptThread;
+    private String localId;
+
+    @Override
+    public String getName() {
+        return "TCP";
+    }
+
+    /**
+     * This node's peer ID, valid after {@link #start()}
+     */
+    public String getLocalId() {
+        return localId;
+    }
+
+    public void addKnownPeer(String peerId) {
+        if (!knownPeers.contains(peerId)) {
+            knownPeers.add(peerId);
+        }
+    }
+
+    @Override
+    public void setOnTransportEventListener(OnTransportEventListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+        serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        localId = "127.0.0.1:" + serverSocket.getLocalPort();
+        acceptThread = new Thread(this::acceptLoop, "tcp-accept-" + serverSocket.getLocalPort());
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException ignored) {
+                // Closing anyway
+            }
+            serverSocket = null;
+        }
+        for (StreamLink link : links.values()) {
+            link.close();
+        }
+    }
+
+    @Override
+    public void startDiscovery() {
+        OnTransportEventListener l = listener;
+        if (l == null) {
+            return;
+        }
+        for (String peerId : knownPeers) {
+            if (!peerId.equals(localId)) {
+                l.onPeerDiscovered(this, peerId, peerId);
+            }
+        }
+    }
+
+    @Override
+    public void stopDiscovery() {
+        // Nothing to stop, discovery is a one-shot report
+    }
+
+    @Override
+    public void connect(String peerId) {
+        if (links.containsKey(peerId)) {
+            return;
+        }
+        int colon = peerId.lastIndexOf(':');
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(peerId.substring(0, colon),
+                    Integer.parseInt(peerId.substring(colon + 1))), CONNECT_TIMEOUT_MS);
+            StreamLink.writeHandshake(socket.getOutputStream(), localId);
+            open(peerId, socket);
+        } catch (IOException | RuntimeException e) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Never opened
+            }
+        }
+    }
+
+    @Override
+    public void disconnect(String peerId) {
+        StreamLink link = links.get(peerId);
+        if (link != null) {
+            link.close();
+        }
+    }
+
+    @Override
+    public boolean isConnected(String peerId) {
+        return links.containsKey(peerId);
+    }
+
+    @Override
+    public void send(String peerId, ByteBuffer data) throws IOException {
+        StreamLink link = links.get(peerId);
+        if (link == null) {
+            throw new IOException("Not connected to " + peerId);
+        }
+        link.write(data);
+    }
+
+    private void acceptLoop() {
+        ServerSocket server = serverSocket;
+        while (server != null && !server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                String peerId = StreamLink.readHandshake(socket.getInputStream());
+                open(peerId, socket);
+            } catch (IOException e) {
+                // Listener closed, or a client gave up mid-handshake
+            }
+        }
+    }
+
+    private void open(String peerId, Socket socket) throws IOException {
+        StreamLink link = new StreamLink(peerId, socket.getInputStream(),
+                new BufferedOutputStream(socket.getOutputStream(), 8192), socket,
+                new StreamLink.OnLinkEventListener() {
+                    @Override
+                    public void onFrames(StreamLink link, ByteBuffer frames) {
+                        OnTransportEventListener l = listener;
+                        if (l != null) {
+                            l.onDataReceived(TcpLoopbackTransport.this, link.getPeerId(), frames);
+                        }
+                    }
+
+                    @Override
+                    public void onClosed(StreamLink link) {
+                        if (links.remove(link.getPeerId(), link)) {
+                            OnTransportEventListener l = listener;
+                            if (l != null) {
+                                l.onPeerDisconnected(TcpLoopbackTransport.this, link.getPeerId());
+                            }
+                        }
+                    }
+                });
+        StreamLink previous = links.put(peerId, link);
+        if (previous != null) {
+            previous.close();
+        }
+        link.start();
+        OnTransportEventListener l = listener;
+        if (l != null) {
+            l.onPeerConnected(this, peerId);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.dccn.connect.network.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Transport - One way of reaching nearby devices: discovery, connect, send and receive.
+ * CommunicationService drives Wi-Fi Direct and Bluetooth through this interface; the in-memory and
+ * TCP loopback implementations let the same networking code run off-device.
+ *
+ * Peer IDs are transport-specific addresses (a MAC, a host:port, a node name).
+ */
+public interface Transport {
+
+    interface OnTransportEventListener {
+        void onPeerDiscovered(Transport transport, String peerId, String name);
+
+        /**
+         * A received signal strength reading for a peer, in dBm, from transports that report one
+         */
+        void onSignalStrength(Transport transport, String peerId, int rssi);
+
+        void onPeerConnected(Transport transport, String peerId);
+
+        void onPeerDisconnected(Transport transport, String peerId);
+
+        /**
+         * One or more whole frames read from a peer; the buffer is only valid during the call
+         */
+        void onDataReceived(Transport transport, String peerId, ByteBuffer data);
+    }
+
+    /**
+     * Human-readable transport type, e.g. "Bluetooth" or "WiFi Direct"
+     */
+    String getName();
+
+    void setOnTransportEventListener(OnTransportEventListener listener);
+
+    /**
+     * Start accepting incoming connections
+     */
+    void start() throws IOException;
+
+    /**
+     * Close every link and stop accepting
+     */
+    void stop();
+
+    void startDiscovery();
+
+    void stopDiscovery();
+
+    /**
+     * Open a link to a peer; completion is reported through onPeerConnected
+     */
+    void connect(String peerId);
+
+    void disconnect(String peerId);
+
+    boolean isConnected(String peerId);
+
+    /**
+     * Write whole frames (position to limit) to a connected peer, consuming the buffer
+     */
+    void send(String peerId, ByteBuffer data) throws IOException;
+}
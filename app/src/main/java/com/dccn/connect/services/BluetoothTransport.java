@@ -0,0 +1,239 @@
+package com.dccn.connect.services;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothServerSocket;
+import android.bluetooth.BluetoothSocket;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.util.Log;
+
+import com.dccn.connect.network.transport.StreamLink;
+import com.dccn.connect.network.transport.Transport;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * BluetoothTransport - Classic Bluetooth discovery plus RFCOMM links. Peer IDs are device MAC
+ * addresses, which both ends of an RFCOMM socket already know, so no handshake is needed.
+ */
+public class BluetoothTransport implements Transport {
+
+    private static final String TAG = "BluetoothTransport";
+    private static final String SERVICE_NAME = "DCCNConnect";
+    private static final UUID SERVICE_UUID = UUID.fromString("6f1c3a52-3b9e-4c55-9d2e-dcc0c0ec7001");
+
+    private final Context context;
+    private final BluetoothAdapter bluetoothAdapter;
+    private final Map<String, StreamLink> links = new ConcurrentHashMap<>();
+    private final ExecutorService connector = Executors.newSingleThreadExecutor();
+    private volatile OnTransportEventListener listener;
+    private BroadcastReceiver bluetoothReceiver;
+    private BluetoothServerSocket serverSocket;
+
+    public BluetoothTransport(Context context) {
+        this.context = context.getApplicationContext();
+        this.bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+    }
+
+    @Override
+    public String getName() {
+        return "Bluetooth";
+    }
+
+    @Override
+    public void setOnTransportEventListener(OnTransportEventListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized void start() throws IOException {
+        if (serverSocket != null || bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) {
+            return;
+        }
+        try {
+            serverSocket = bluetoothAdapter.listenUsingInsecureRfcommWithServiceRecord(SERVICE_NAME, SERVICE_UUID);
+        } catch (SecurityException e) {
+            throw new IOException("Missing Bluetooth permission", e);
+        }
+        Thread acceptThread = new Thread(this::acceptLoop, "bluetooth-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        stopDiscovery();
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException ignored) {
+                // Closing anyway
+            }
+            serverSocket = null;
+        }
+        for (StreamLink link : links.values()) {
+            link.close();
+        }
+        connector.shutdownNow();
+    }
+
+    // Start Bluetooth device discovery
+    @Override
+    public synchronized void startDiscovery() {
+        if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) {
+            Log.w(TAG, "Bluetooth adapter not available or disabled");
+            return;
+        }
+        if (bluetoothAdapter.isDiscovering()) {
+            return;
+        }
+        Log.d(TAG, "Starting Bluetooth discovery...");
+        if (bluetoothReceiver == null) {
+            // Register receiver for discovered devices
+            IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_FOUND);
+            context.registerReceiver(bluetoothReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    if (BluetoothDevice.ACTION_FOUND.equals(intent.getAction())) {
+                        BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                        if (device != null && device.getName() != null) {
+                            Log.d(TAG, "Found Bluetooth device: " + device.getName() + " (" + device.getAddress() + ")");
+                            OnTransportEventListener l = listener;
+                            if (l != null) {
+                                l.onPeerDiscovered(BluetoothTransport.this, device.getAddress(), device.getName());
+                                short rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, Short.MIN_VALUE);
+                                if (rssi != Short.MIN_VALUE) {
+                                    l.onSignalStrength(BluetoothTransport.this, device.getAddress(), rssi);
+                                }
+                            }
+                        }
+                    }
+                }
+            }, filter);
+        }
+        bluetoothAdapter.startDiscovery();
+    }
+
+    // Stop Bluetooth device discovery
+    @Override
+    public synchronized void stopDiscovery() {
+        if (bluetoothAdapter != null && bluetoothAdapter.isDiscovering()) {
+            bluetoothAdapter.cancelDiscovery();
+            Log.d(TAG, "Bluetooth discovery stopped");
+        }
+        if (bluetoothReceiver != null) {
+            context.unregisterReceiver(bluetoothReceiver);
+            bluetoothReceiver = null;
+        }
+    }
+
+    @Override
+    public void connect(String peerId) {
+        if (bluetoothAdapter == null || links.containsKey(peerId)) {
+            return;
+        }
+        connector.execute(() -> {
+            BluetoothSocket socket = null;
+            try {
+                // Inquiry starves RFCOMM connects, stop it first
+                bluetoothAdapter.cancelDiscovery();
+                BluetoothDevice device = bluetoothAdapter.getRemoteDevice(peerId);
+                socket = device.createInsecureRfcommSocketToServiceRecord(SERVICE_UUID);
+                socket.connect();
+                open(peerId, socket);
+            } catch (IOException | SecurityException | IllegalArgumentException e) {
+                Log.w(TAG, "Failed to connect to " + peerId, e);
+                closeQuietly(socket);
+            }
+        });
+    }
+
+    @Override
+    public void disconnect(String peerId) {
+        StreamLink link = links.get(peerId);
+        if (link != null) {
+            link.close();
+        }
+    }
+
+    @Override
+    public boolean isConnected(String peerId) {
+        return links.containsKey(peerId);
+    }
+
+    @Override
+    public void send(String peerId, ByteBuffer data) throws IOException {
+        StreamLink link = links.get(peerId);
+        if (link == null) {
+            throw new IOException("Not connected to " + peerId);
+        }
+        link.write(data);
+    }
+
+    private void acceptLoop() {
+        BluetoothServerSocket server = serverSocket;
+        while (server != null) {
+            try {
+                BluetoothSocket socket = server.accept();
+                open(socket.getRemoteDevice().getAddress(), socket);
+            } catch (IOException e) {
+                // Server socket closed
+                return;
+            }
+        }
+    }
+
+    private void open(String peerId, BluetoothSocket socket) throws IOException {
+        StreamLink link = new StreamLink(peerId, socket.getInputStream(),
+                new BufferedOutputStream(socket.getOutputStream(), 1024), socket,
+                new StreamLink.OnLinkEventListener() {
+                    @Override
+                    public void onFrames(StreamLink link, ByteBuffer frames) {
+                        OnTransportEventListener l = listener;
+                        if (l != null) {
+                            l.onDataReceived(BluetoothTransport.this, link.getPeerId(), frames);
+                        }
+                    }
+
+                    @Override
+                    public void onClosed(StreamLink link) {
+                        if (links.remove(link.getPeerId(), link)) {
+                            OnTransportEventListener l = listener;
+                            if (l != null) {
+                                l.onPeerDisconnected(BluetoothTransport.this, link.getPeerId());
+                            }
+                        }
+                    }
+                });
+        StreamLink previous = links.put(peerId, link);
+        if (previous != null) {
+            previous.close();
+        }
+        link.start();
+        Log.d(TAG, "RFCOMM link up: " + peerId);
+        OnTransportEventListener l = listener;
+        if (l != null) {
+            l.onPeerConnected(this, peerId);
+        }
+    }
+
+    private static void closeQuietly(BluetoothSocket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Never connected
+            }
+        }
+    }
+}
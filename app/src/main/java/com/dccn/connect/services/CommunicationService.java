@@ -1,43 +1,145 @@
 package com.dccn.connect.services;
 
 import android.app.Service;
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.ServiceConnection;
-import android.net.NetworkInfo;
-import android.net.wifi.p2p.WifiP2pConfig;
-import android.net.wifi.p2p.WifiP2pDevice;
-import android.net.wifi.p2p.WifiP2pManager;
 import android.os.Binder;
 import android.os.IBinder;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 
+import com.dccn.connect.database.AppDatabase;
 import com.dccn.connect.models.Message;
 import com.dccn.connect.models.User;
+import com.dccn.connect.network.AodvRouter;
+import com.dccn.connect.network.BufferPool;
+import com.dccn.connect.network.ChannelMux;
+import com.dccn.connect.network.DiscoveryScheduler;
+import com.dccn.connect.network.Fragmenter;
+import com.dccn.connect.network.Frame;
+import com.dccn.connect.network.FrameCodec;
+import com.dccn.connect.network.IdentityResolver;
+import com.dccn.connect.network.LinkMetrics;
+import com.dccn.connect.network.Membership;
+import com.dccn.connect.network.MeshRouter;
+import com.dccn.connect.network.OlsrRouter;
+import com.dccn.connect.network.PayloadCompressor;
+import com.dccn.connect.network.PeerRegistry;
+import com.dccn.connect.network.Reassembler;
+import com.dccn.connect.network.ReliableChannel;
+import com.dccn.connect.network.SendScheduler;
+import com.dccn.connect.network.SprayAndWaitRouter;
+import com.dccn.connect.network.WriteCoalescer;
+import com.dccn.connect.network.transport.Transport;
+import com.dccn.connect.utils.PreferenceManager;
 
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class CommunicationService extends Service {
 
     private static final String TAG = "CommunicationService";
-
-    private WifiP2pManager wifiP2pManager;
-    private WifiP2pManager.Channel channel;
-    private BroadcastReceiver wifiReceiver;
-    private BroadcastReceiver bluetoothReceiver;
-    private IntentFilter intentFilter;
+    private static final int LOCAL_CAPABILITIES =
+            PayloadCompressor.CAPABILITY_DICT_DEFLATE | ChannelMux.CAPABILITY_FLOW_CONTROL
+                    | ReliableChannel.CAPABILITY_RELIABLE;
+    private static final int MAX_FRAME_BYTES = 64 * 1024;
+    private static final long MAX_POOLED_BYTES = 4 * 1024 * 1024;
+    private static final long RETRANSMIT_TICK_MS = 50;
+    private static final long LINK_QUALITY_INTERVAL_MS = 1000;
 
     private final IBinder binder = new LocalBinder();
-    private List<WifiP2pDevice> discoveredPeers = new ArrayList<>();
-    private boolean isConnecting = false; // prevent multiple simultaneous connects
+
+    // Links to peers; each connected peer is reached through the transport that reported it.
+    // Transports are listed in order of preference.
+    private final List<Transport> transports = new CopyOnWriteArrayList<>();
+    private final Map<String, Transport> peerTransports = new ConcurrentHashMap<>();
+    private final Map<String, Transport> discoveredBy = new ConcurrentHashMap<>();
+    // Every nearby radio and its link state, published to the UI in batched diffs
+    private final PeerRegistry peerRegistry = new PeerRegistry();
+    // Radio address -> device ID, learned from hellos, so each device gets one link and one entry
+    private final IdentityResolver identityResolver = new IdentityResolver();
+    private PreferenceManager preferenceManager;
+    private String localDeviceId;
+    // Signal, RTT, loss and throughput per radio address, published once a second
+    private final LinkMetrics linkMetrics = new LinkMetrics();
+    private long lastLinkQualityMs;
+    // Paces radio scans by neighbourhood churn and link load
+    private final DiscoveryScheduler discoveryScheduler = new DiscoveryScheduler(new DiscoveryScheduler.Scanner() {
+        @Override
+        public void startScan() {
+            Log.d(TAG, "Discovery scan " + discoveryScheduler.getScans() + ", "
+                    + discoveryScheduler.getNewPeers() + " new peers in " + discoveryScheduler.getScanMs() + " ms scanned");
+            for (Transport transport : transports) {
+                transport.startDiscovery();
+            }
+        }
+
+        @Override
+        public void stopScan() {
+            for (Transport transport : transports) {
+                transport.stopDiscovery();
+            }
+        }
+    });
+    private final Transport.OnTransportEventListener transportEventListener = new TransportEventListener();
+    // Floods broadcasts, routes private messages along one path and carries alerts to rescue teams;
+    // addressed by device ID
+    private SprayAndWaitRouter meshRouter;
+    private Outbox outbox;
+    // Everything sent and received, for chat history
+    private MessageHistory messageHistory;
+    private final SendScheduler sendScheduler = new SendScheduler();
+    private Thread senderThread;
+    // Owned by the sender thread
+    private final Map<String, WriteCoalescer> coalescers = new HashMap<>();
+    // Every link's batches, kept when a link and its coalescer go away
+    private final WriteCoalescer.Stats writeStats = new WriteCoalescer.Stats();
+    // Peers whose links went down, for the sender thread to drop their coalescers
+    private final Queue<String> closedLinks = new ConcurrentLinkedQueue<>();
+    private final PayloadCompressor sendCompressor = new PayloadCompressor();
+    private final ByteBuffer compressBuffer = ByteBuffer.allocate(MAX_FRAME_BYTES);
+
+    // Guarded by receiveCompressor
+    private final PayloadCompressor receiveCompressor = new PayloadCompressor();
+    private final ByteBuffer inflateBuffer = ByteBuffer.allocate(MAX_FRAME_BYTES);
+
+    // Frames larger than one link write are split hop-by-hop; guarded by fragmenter, since every
+    // peer's channel mux feeds it
+    private final Fragmenter fragmenter = new Fragmenter();
+    private final BufferPool bufferPool = new BufferPool(MAX_POOLED_BYTES);
+    private final Reassembler reassembler = new Reassembler(bufferPool,
+            (peerId, frame) -> dispatchFrame(peerId, frame));
+
+    // Chat, alerts, control and file streams share one link per peer as logical channels
+    private final Map<String, ChannelMux> channelMuxes = new ConcurrentHashMap<>();
+
+    // Reliable unicast state per directly connected peer, ticked by the retransmit timer
+    private final Map<String, ReliableChannel> reliableChannels = new ConcurrentHashMap<>();
+    private ScheduledExecutorService retransmitTimer;
+
+    // Capability bits each peer advertised in its hello frame
+    private final Map<String, Integer> linkCapabilities = new ConcurrentHashMap<>();
+    // Whether each peer's hello said it is a rescue team's, for handing it alerts
+    private final Map<String, Boolean> rescuePeers = new ConcurrentHashMap<>();
+    // Our own hello bits: what we support, plus our role
+    private int helloCapabilities = LOCAL_CAPABILITIES;
+
+    // Mesh-wide roster learned by gossip; null until a user has logged in on this device
+    private Membership membership;
 
     public interface OnPeerDiscoveryListener {
         void onPeerDiscovered(User user);
@@ -45,6 +147,16 @@ public class CommunicationService extends Service {
 
     private OnPeerDiscoveryListener onPeerDiscoveryListener;
 
+    public interface OnMessageReceivedListener {
+        void onMessageReceived(Message message);
+    }
+
+    private OnMessageReceivedListener onMessageReceivedListener;
+
+    public void setOnMessageReceivedListener(OnMessageReceivedListener listener) {
+        this.onMessageReceivedListener = listener;
+    }
+
     public void setOnPeerDiscoveryListener(OnPeerDiscoveryListener listener) {
         this.onPeerDiscoveryListener = listener;
     }
@@ -65,123 +177,457 @@ public class CommunicationService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
-        
-        // Initialize Wi-Fi P2P manager
-        wifiP2pManager = (WifiP2pManager) getSystemService(Context.WIFI_P2P_SERVICE);
-        if (wifiP2pManager != null) {
-            channel = wifiP2pManager.initialize(this, getMainLooper(), null);
+
+        // Radio links, best first; tests and simulations can add stand-ins through addTransport()
+        addTransport(new WifiDirectTransport(this));
+        addTransport(new BluetoothTransport(this));
+
+        // Frames sent while no peer is connected wait here
+        outbox = new Outbox(AppDatabase.getInstance(this).outboxDao());
+
+        preferenceManager = new PreferenceManager(this);
+        identityResolver.load(preferenceManager.getDeviceAliases());
+        User localUser = preferenceManager.getUser();
+        localDeviceId = localUser != null && localUser.getDeviceId() != null
+                ? localUser.getDeviceId() : preferenceManager.getDeviceId();
+        messageHistory = new MessageHistory(AppDatabase.getInstance(this).messageDao(), localDeviceId);
+
+        // Wire the mesh router to the links and to local delivery. Router buffers are only valid
+        // during the call, so each frame is copied into the scheduler.
+        MeshRouter unicastRouter = PreferenceManager.ROUTING_PROACTIVE.equals(preferenceManager.getRoutingMode())
+                ? new OlsrRouter(localDeviceId) : new AodvRouter(localDeviceId);
+        boolean rescueTeam = localUser != null && localUser.isRescueTeam();
+        if (rescueTeam) {
+            helloCapabilities |= SprayAndWaitRouter.CAPABILITY_RESCUE_TEAM;
         }
-        
-        // Initialize broadcast receiver for Wi-Fi P2P events
-        intentFilter = new IntentFilter();
-        intentFilter.addAction(WifiP2pManager.WIFI_P2P_STATE_CHANGED_ACTION);
-        intentFilter.addAction(WifiP2pManager.WIFI_P2P_PEERS_CHANGED_ACTION);
-        intentFilter.addAction(WifiP2pManager.WIFI_P2P_CONNECTION_CHANGED_ACTION);
-        intentFilter.addAction(WifiP2pManager.WIFI_P2P_THIS_DEVICE_CHANGED_ACTION);
+        meshRouter = new SprayAndWaitRouter(localDeviceId, unicastRouter, rescueTeam);
+        meshRouter.setFrameSender((peerId, frame) -> channelMuxFor(peerId).send(frame));
+        meshRouter.setOnFrameDeliveredListener(frame -> {
+            if (frame.getKind() == FrameCodec.KIND_MESSAGE) {
+                onMessageArrived(frame.toMessage());
+            }
+        });
+        if (localUser != null && localUser.getDeviceId() != null) {
+            membership = new Membership(localUser, (peerId, frame) -> channelMuxFor(peerId).send(frame));
+            membership.setOnMemberChangedListener((user, status) -> {
+                if (onPeerDiscoveryListener != null) {
+                    onPeerDiscoveryListener.onPeerDiscovered(user);
+                }
+            });
+            membership.setOnProbeResultListener(linkMetrics::onProbe);
+        }
+
+        senderThread = new Thread(this::drainSendQueue, "mesh-sender");
+        senderThread.start();
+
+        retransmitTimer = Executors.newSingleThreadScheduledExecutor();
+        retransmitTimer.scheduleAtFixedRate(this::onTick, RETRANSMIT_TICK_MS, RETRANSMIT_TICK_MS,
+                TimeUnit.MILLISECONDS);
     }
 
-    @Override
-    public void onDestroy() {
-        if (wifiReceiver != null) {
-            unregisterReceiver(wifiReceiver);
-        }
-        if (bluetoothReceiver != null) {
-            unregisterReceiver(bluetoothReceiver);
+    // An exception escaping a scheduled task cancels every later run, so log it and carry on
+    private void onTick() {
+        try {
+            long now = System.currentTimeMillis();
+            for (ReliableChannel reliableChannel : reliableChannels.values()) {
+                reliableChannel.onTimer(now);
+            }
+            for (ChannelMux channelMux : channelMuxes.values()) {
+                channelMux.onTimer(now);
+            }
+            if (membership != null) {
+                membership.onTimer(now);
+            }
+            meshRouter.onTimer(now);
+            // Otherwise a stalled partial frame is only dropped when some later fragment arrives
+            reassembler.expire(now);
+            if (now - lastLinkQualityMs >= LINK_QUALITY_INTERVAL_MS) {
+                lastLinkQualityMs = now;
+                publishLinkQuality(now);
+            }
+            peerRegistry.onTimer(now);
+            discoveryScheduler.onTimer(now);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Timer tick failed", e);
         }
-        super.onDestroy();
     }
 
-    // Start peer discovery
-    public void startPeerDiscovery() {
-        // Start WiFi P2P discovery
-        if (wifiP2pManager != null && channel != null) {
-            wifiP2pManager.discoverPeers(channel, new WifiP2pManager.ActionListener() {
-                @Override
-                public void onSuccess() {
-                    Log.d(TAG, "WiFi P2P peer discovery started successfully");
-                    startBluetoothDiscovery();
+    private ChannelMux channelMuxFor(String peerId) {
+        ChannelMux channelMux = channelMuxes.get(peerId);
+        if (channelMux == null) {
+            channelMux = new ChannelMux((frame, channel) -> enqueueForLink(peerId, frame, channel));
+            channelMux.setOnStreamDataListener((streamId, offset, data) -> {
+                if (onStreamDataListener != null) {
+                    onStreamDataListener.onStreamData(peerId, streamId, offset, data);
                 }
+            });
+            ChannelMux existing = channelMuxes.putIfAbsent(peerId, channelMux);
+            if (existing != null) {
+                channelMux = existing;
+            }
+        }
+        return channelMux;
+    }
 
-                @Override
-                public void onFailure(int reasonCode) {
-                    Log.e(TAG, "Failed to start WiFi P2P peer discovery: " + reasonCode);
-                    startBluetoothDiscovery(); // Try Bluetooth anyway
+    // Split frames larger than one link write, then queue for the sender thread in the channel's
+    // traffic class. Router and mux buffers are only valid during the call, so frames are copied.
+    private boolean enqueueForLink(String peerId, ByteBuffer frame, int channel) {
+        int trafficClass = trafficClassOf(channel);
+        if (!fragmenter.needsFragmenting(frame)) {
+            return sendScheduler.enqueue(peerId, copyOf(frame), trafficClass);
+        }
+        boolean[] queued = {true};
+        synchronized (fragmenter) {
+            fragmenter.fragment(frame, fragment ->
+                    queued[0] &= sendScheduler.enqueue(peerId, copyOf(fragment), trafficClass));
+        }
+        return queued[0];
+    }
+
+    private static int trafficClassOf(int channel) {
+        switch (channel) {
+            case ChannelMux.CHANNEL_ALERT:
+                return SendScheduler.CLASS_EMERGENCY;
+            case ChannelMux.CHANNEL_CHAT:
+                return SendScheduler.CLASS_CHAT;
+            case ChannelMux.CHANNEL_FILE:
+                return SendScheduler.CLASS_BULK;
+            default:
+                return SendScheduler.CLASS_CONTROL;
+        }
+    }
+
+    private static ByteBuffer copyOf(ByteBuffer frame) {
+        ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+        copy.put(frame.duplicate()).flip();
+        return copy;
+    }
+
+    // Single writer: frames leave in scheduler order, emergency first, and are packed into
+    // per-link batches that wait at most the coalescer's latency budget
+    private void drainSendQueue() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                removeClosedLinks();
+                long wait = nanosUntilNextFlush(System.nanoTime());
+                SendScheduler.Entry entry = wait == Long.MAX_VALUE
+                        ? sendScheduler.take()
+                        : sendScheduler.poll(wait, TimeUnit.NANOSECONDS);
+                long now = System.nanoTime();
+                if (entry != null && !peerTransports.containsKey(entry.getPeerId())) {
+                    // Queued just before the link went down
+                    entry = null;
                 }
-            });
-        } else {
-            startBluetoothDiscovery();
-        }
-    }
-
-    // Start Bluetooth device discovery
-    private void startBluetoothDiscovery() {
-        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-        if (bluetoothAdapter != null && bluetoothAdapter.isEnabled()) {
-            if (!bluetoothAdapter.isDiscovering()) {
-                Log.d(TAG, "Starting Bluetooth discovery...");
-                bluetoothAdapter.startDiscovery();
-                
-                // Register receiver for discovered devices
-                IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_FOUND);
-                registerReceiver(bluetoothReceiver = new BroadcastReceiver() {
-                    @Override
-                    public void onReceive(Context context, Intent intent) {
-                        String action = intent.getAction();
-                        if (BluetoothDevice.ACTION_FOUND.equals(action)) {
-                            BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                            if (device != null && device.getName() != null) {
-                                Log.d(TAG, "Found Bluetooth device: " + device.getName() + " (" + device.getAddress() + ")");
-                                
-                                // Notify discovered device
-                                if (onConnectionStatusListener != null) {
-                                    DiscoveredPeer peer = new DiscoveredPeer(device.getName(), device.getAddress());
-                                    onConnectionStatusListener.onPeerDiscovered(peer);
-                                }
-                            }
-                        }
+                if (entry != null) {
+                    boolean urgent = entry.getTrafficClass() == SendScheduler.CLASS_EMERGENCY;
+                    try {
+                        ByteBuffer frame = maybeCompress(entry.getPeerId(), entry.getFrame());
+                        coalescerFor(entry.getPeerId()).offer(frame, urgent, now);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Link write to " + entry.getPeerId() + " failed", e);
                     }
-                }, filter);
+                }
+                for (Map.Entry<String, WriteCoalescer> link : coalescers.entrySet()) {
+                    try {
+                        link.getValue().flushIfDue(now);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Link write to " + link.getKey() + " failed", e);
+                    }
+                }
             }
-        } else {
-            Log.w(TAG, "Bluetooth adapter not available or disabled");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    // Stop peer discovery
-    public void stopPeerDiscovery() {
-        // Stop WiFi P2P discovery
-        if (wifiP2pManager != null && channel != null) {
-            wifiP2pManager.stopPeerDiscovery(channel, new WifiP2pManager.ActionListener() {
-                @Override
-                public void onSuccess() {
-                    Log.d(TAG, "WiFi P2P peer discovery stopped successfully");
+    // Compress for links that negotiated it, when it makes the frame smaller
+    private ByteBuffer maybeCompress(String peerId, ByteBuffer frame) {
+        Integer capabilities = linkCapabilities.get(peerId);
+        if (capabilities == null || (capabilities & PayloadCompressor.CAPABILITY_DICT_DEFLATE) == 0) {
+            return frame;
+        }
+        compressBuffer.clear();
+        if (!sendCompressor.compress(frame, compressBuffer)) {
+            return frame;
+        }
+        compressBuffer.flip();
+        return compressBuffer;
+    }
+
+    // A batch still pending for a closed link has nowhere to go, so it goes with the coalescer
+    private void removeClosedLinks() {
+        String peerId;
+        while ((peerId = closedLinks.poll()) != null) {
+            if (!peerTransports.containsKey(peerId)) {
+                coalescers.remove(peerId);
+            }
+        }
+    }
+
+    private long nanosUntilNextFlush(long now) {
+        long wait = Long.MAX_VALUE;
+        for (WriteCoalescer coalescer : coalescers.values()) {
+            wait = Math.min(wait, coalescer.nanosUntilFlush(now));
+        }
+        return wait;
+    }
+
+    private WriteCoalescer coalescerFor(String peerId) {
+        WriteCoalescer coalescer = coalescers.get(peerId);
+        if (coalescer == null) {
+            coalescer = new WriteCoalescer(batch -> {
+                Transport transport = peerTransports.get(peerId);
+                if (transport == null) {
+                    throw new IOException("No link to " + peerId);
                 }
+                discoveryScheduler.recordTraffic(batch.remaining());
+                linkMetrics.onBytes(peerId, batch.remaining(), System.currentTimeMillis());
+                transport.send(peerId, batch);
+            }, WriteCoalescer.DEFAULT_MAX_BATCH_BYTES, WriteCoalescer.DEFAULT_LATENCY_BUDGET_NANOS, writeStats);
+            coalescers.put(peerId, coalescer);
+        }
+        return coalescer;
+    }
+
+    public SendScheduler getSendScheduler() {
+        return sendScheduler;
+    }
 
-                @Override
-                public void onFailure(int reasonCode) {
-                    Log.e(TAG, "Failed to stop WiFi P2P peer discovery: " + reasonCode);
+    /**
+     * Frames and bytes per link write and how long frames waited to be batched, over all links
+     */
+    public WriteCoalescer.Stats getWriteStats() {
+        return writeStats;
+    }
+
+    /**
+     * Register a link layer and start it. Its discovered and connected peers feed the mesh.
+     */
+    public void addTransport(Transport transport) {
+        transport.setOnTransportEventListener(transportEventListener);
+        try {
+            transport.start();
+            transports.add(transport);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to start " + transport.getName() + " transport", e);
+        }
+    }
+
+    public void removeTransport(Transport transport) {
+        if (transports.remove(transport)) {
+            // Nothing will measure its radios again
+            List<String> radios = new ArrayList<>();
+            collectRadios(discoveredBy, transport, radios);
+            collectRadios(peerTransports, transport, radios);
+            transport.stop();
+            for (String radio : radios) {
+                discoveredBy.remove(radio, transport);
+                linkMetrics.forget(radio);
+            }
+        }
+    }
+
+    private static void collectRadios(Map<String, Transport> byRadio, Transport transport, List<String> into) {
+        for (Map.Entry<String, Transport> radio : byRadio.entrySet()) {
+            if (radio.getValue() == transport && !into.contains(radio.getKey())) {
+                into.add(radio.getKey());
+            }
+        }
+    }
+
+    // Transport callbacks arrive on each transport's own threads
+    private class TransportEventListener implements Transport.OnTransportEventListener {
+        @Override
+        public void onPeerDiscovered(Transport transport, String peerId, String name) {
+            discoveredBy.put(peerId, transport);
+            long now = System.currentTimeMillis();
+            // Known devices are listed under their device ID whichever radio saw them
+            String key = identityResolver.keyFor(peerId);
+            discoveryScheduler.onPeerFound(peerRegistry.find(key) == null, now);
+            peerRegistry.onDiscovered(transport.getName(), key, name, now);
+            if (onConnectionStatusListener != null) {
+                onConnectionStatusListener.onPeerDiscovered(
+                        new DiscoveredPeer(name, peerId, identityResolver.resolve(peerId), transport.getName()));
+            }
+        }
+
+        @Override
+        public void onSignalStrength(Transport transport, String peerId, int rssi) {
+            linkMetrics.onRssi(peerId, rssi);
+            int linkCost = peerTransports.containsKey(peerId) ? linkMetrics.getCost(peerId) : -1;
+            peerRegistry.setLinkQuality(identityResolver.keyFor(peerId), linkMetrics.getRssi(peerId), linkCost);
+        }
+
+        @Override
+        public void onPeerConnected(Transport transport, String peerId) {
+            peerTransports.put(peerId, transport);
+            updatePeerState(peerId, transport, PeerRegistry.STATE_CONNECTED, System.currentTimeMillis());
+            CommunicationService.this.onPeerConnected(peerId);
+            notifyPeerCountChanged();
+        }
+
+        @Override
+        public void onPeerDisconnected(Transport transport, String peerId) {
+            if (peerTransports.remove(peerId, transport)) {
+                long now = System.currentTimeMillis();
+                updatePeerState(peerId, transport, PeerRegistry.STATE_DISCOVERED, now);
+                linkMetrics.onLinkDown(peerId);
+                discoveryScheduler.onPeerLost(now);
+                CommunicationService.this.onPeerDisconnected(peerId);
+                notifyPeerCountChanged();
+            }
+        }
+
+        @Override
+        public void onDataReceived(Transport transport, String peerId, ByteBuffer data) {
+            discoveryScheduler.recordTraffic(data.remaining());
+            linkMetrics.onBytes(peerId, data.remaining(), System.currentTimeMillis());
+            onFrameReceived(peerId, data);
+        }
+    }
+
+    // Push link measurements to the peer list and the router
+    private void publishLinkQuality(long now) {
+        linkMetrics.onTimer(now);
+        for (String peerId : peerTransports.keySet()) {
+            peerRegistry.setLinkQuality(identityResolver.keyFor(peerId),
+                    linkMetrics.getRssi(peerId), linkMetrics.getCost(peerId));
+        }
+        meshRouter.onLinkCostsChanged(linkMetrics);
+    }
+
+    public LinkMetrics getLinkMetrics() {
+        return linkMetrics;
+    }
+
+    // Registry entries are per device: one still linked over another radio stays connected
+    private void updatePeerState(String peerId, Transport transport, int state, long now) {
+        String key = identityResolver.keyFor(peerId);
+        if (state != PeerRegistry.STATE_CONNECTED && !key.equals(peerId)) {
+            for (String alias : identityResolver.getAliases(key)) {
+                Transport linked = peerTransports.get(alias);
+                if (linked != null) {
+                    transport = linked;
+                    state = PeerRegistry.STATE_CONNECTED;
+                    break;
                 }
-            });
+            }
         }
-        
-        // Stop Bluetooth discovery
-        stopBluetoothDiscovery();
+        peerRegistry.setState(transport.getName(), key, state, now);
     }
 
-    // Stop Bluetooth device discovery
-    private void stopBluetoothDiscovery() {
-        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-        if (bluetoothAdapter != null && bluetoothAdapter.isDiscovering()) {
-            bluetoothAdapter.cancelDiscovery();
-            Log.d(TAG, "Bluetooth discovery stopped");
+    /**
+     * A hello named the device behind a link. Remember the alias, list the device once under who it
+     * is, and if it is now linked over two radios, close the worse link.
+     */
+    private void onPeerIdentified(String peerId, String deviceId, int userType) {
+        if (identityResolver.learn(peerId, deviceId)) {
+            preferenceManager.saveDeviceAliases(identityResolver.snapshot());
         }
-        
-        if (bluetoothReceiver != null) {
-            unregisterReceiver(bluetoothReceiver);
-            bluetoothReceiver = null;
+        peerRegistry.merge(peerId, deviceId);
+        peerRegistry.identify(deviceId, deviceId, userType);
+
+        Transport transport = peerTransports.get(peerId);
+        if (transport == null) {
+            return;
+        }
+        int rank = transports.indexOf(transport);
+        for (String alias : identityResolver.getAliases(deviceId)) {
+            Transport other = alias.equals(peerId) ? null : peerTransports.get(alias);
+            if (other == null) {
+                continue;
+            }
+            int otherRank = transports.indexOf(other);
+            if (otherRank < rank) {
+                Log.d(TAG, "Dropping duplicate " + transport.getName() + " link to " + deviceId);
+                transport.disconnect(peerId);
+                return;
+            } else if (otherRank > rank) {
+                Log.d(TAG, "Dropping duplicate " + other.getName() + " link to " + deviceId);
+                other.disconnect(alias);
+            } else if (localDeviceId != null && localDeviceId.compareTo(deviceId) < 0) {
+                // Same transport twice: only one side closes, so both links can't go at once
+                transport.disconnect(peerId);
+                return;
+            }
         }
     }
 
+    private void notifyPeerCountChanged() {
+        if (onConnectionStatusListener != null) {
+            int peerCount = peerTransports.size();
+            onConnectionStatusListener.onPeerCountChanged(peerCount);
+            onConnectionStatusListener.onConnectionStatusChanged(peerCount > 0);
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        for (Transport transport : transports) {
+            transport.stop();
+        }
+        transports.clear();
+        if (outbox != null) {
+            outbox.close();
+        }
+        if (messageHistory != null) {
+            messageHistory.close();
+        }
+        if (senderThread != null) {
+            senderThread.interrupt();
+        }
+        if (retransmitTimer != null) {
+            retransmitTimer.shutdownNow();
+        }
+        super.onDestroy();
+    }
+
+    // Start peer discovery on every transport: one scan now, then as the scheduler paces them
+    public void startPeerDiscovery() {
+        discoveryScheduler.start(System.currentTimeMillis());
+    }
+
+    // Stop peer discovery
+    public void stopPeerDiscovery() {
+        discoveryScheduler.stop(System.currentTimeMillis());
+    }
+
+    public DiscoveryScheduler getDiscoveryScheduler() {
+        return discoveryScheduler;
+    }
+
+    /**
+     * Ask the transport that discovered the peer to open a link to it
+     */
+    public void connectToPeer(String peerId) {
+        Transport transport = discoveredBy.get(peerId);
+        if (transport == null) {
+            Log.w(TAG, "Unknown peer " + peerId);
+            return;
+        }
+        // Reach a known device over the best radio it was seen on
+        String deviceId = identityResolver.resolve(peerId);
+        if (deviceId != null) {
+            for (String alias : identityResolver.getAliases(deviceId)) {
+                Transport other = discoveredBy.get(alias);
+                if (other != null && transports.indexOf(other) < transports.indexOf(transport)) {
+                    peerId = alias;
+                    transport = other;
+                }
+            }
+        }
+        Map<String, Integer> linkRanks = new HashMap<>();
+        for (Map.Entry<String, Transport> link : peerTransports.entrySet()) {
+            linkRanks.put(link.getKey(), transports.indexOf(link.getValue()));
+        }
+        if (!identityResolver.shouldConnect(peerId, transports.indexOf(transport), linkRanks)) {
+            Log.d(TAG, "Already linked to " + identityResolver.keyFor(peerId));
+            return;
+        }
+        updatePeerState(peerId, transport, PeerRegistry.STATE_CONNECTING, System.currentTimeMillis());
+        transport.connect(peerId);
+    }
+
     // Additional methods for service functionality
     public void toggleBluetoothWifi() {
         // TODO: Implement Bluetooth/WiFi toggle functionality
@@ -191,20 +637,268 @@ public class CommunicationService extends Service {
         stopPeerDiscovery();
     }
 
+    /**
+     * Nearby radios as the transports report them. Register for its diffs rather than polling.
+     */
+    public PeerRegistry getPeerRegistry() {
+        return peerRegistry;
+    }
+
+    /**
+     * Users the mesh currently reports alive, wherever they are; the address is the member's device ID
+     */
     public List<DiscoveredPeer> getDiscoveredPeers() {
-        // TODO: Implement peer discovery result handling
-        return new ArrayList<>();
+        List<DiscoveredPeer> peers = new ArrayList<>();
+        for (User user : getMembers()) {
+            if (user.isOnline()) {
+                peers.add(new DiscoveredPeer(user.getUsername(), user.getDeviceId()));
+            }
+        }
+        return peers;
+    }
+
+    /**
+     * Stored chat history, paged per conversation
+     */
+    public MessageHistory getMessageHistory() {
+        return messageHistory;
+    }
+
+    /**
+     * The whole mesh roster learned by gossip, with each user's liveness
+     */
+    public List<User> getMembers() {
+        return membership != null ? membership.getMembers() : new ArrayList<>();
     }
 
     // Message sending methods
+
+    /**
+     * Send a chat message: to everyone, or along a discovered route if it has a recipient
+     */
     public void sendMessage(Message message) {
-        // TODO: Implement message sending functionality
         Log.d(TAG, "Sending message: " + message.getText());
+        dispatch(message);
     }
 
     public void sendEmergencyAlert(Message message) {
-        // TODO: Implement emergency alert functionality
         Log.d(TAG, "Sending emergency alert: " + message.getText());
+        message.setType(Message.TYPE_EMERGENCY);
+        dispatch(message);
+    }
+
+    /**
+     * Send a chat message over one direct link with reliable, in-order delivery
+     * @return false if the link's send queue is full
+     */
+    private boolean sendReliably(String peerId, Message message) {
+        ByteBuffer frame = ByteBuffer.allocate(FrameCodec.encodedLength(message));
+        FrameCodec.encode(message, 1, frame);
+        frame.flip();
+        return reliableChannelFor(peerId).send(frame, System.currentTimeMillis());
+    }
+
+    // A link straight to the device that speaks the reliable channel, or null
+    private String reliableLinkTo(String deviceId) {
+        for (String alias : identityResolver.getAliases(deviceId)) {
+            Integer capabilities = linkCapabilities.get(alias);
+            if (peerTransports.containsKey(alias) && capabilities != null
+                    && (capabilities & ReliableChannel.CAPABILITY_RELIABLE) != 0) {
+                return alias;
+            }
+        }
+        return null;
+    }
+
+    private ReliableChannel reliableChannelFor(String peerId) {
+        ReliableChannel reliableChannel = reliableChannels.get(peerId);
+        if (reliableChannel == null) {
+            reliableChannel = new ReliableChannel(
+                    segment -> channelMuxFor(peerId).send(segment),
+                    payload -> onMessageArrived(FrameCodec.decode(payload, new Frame()).toMessage()));
+            ReliableChannel existing = reliableChannels.putIfAbsent(peerId, reliableChannel);
+            if (existing != null) {
+                reliableChannel = existing;
+            }
+        }
+        return reliableChannel;
+    }
+
+    // A message for this device arrived over the mesh or a reliable link
+    private void onMessageArrived(Message message) {
+        messageHistory.record(message);
+        if (onMessageReceivedListener != null) {
+            onMessageReceivedListener.onMessageReceived(message);
+        }
+    }
+
+    private void dispatch(Message message) {
+        if (message.isPrivate()) {
+            message.setSenderId(localDeviceId);
+        }
+        messageHistory.record(message);
+        route(message);
+    }
+
+    // Send now if any peer is connected, otherwise park the frame in the outbox. Private chat to a
+    // neighbour goes over its reliable channel, which retransmits what the link loses.
+    private void route(Message message) {
+        if (message.isPrivate() && !message.isEmergency()) {
+            String link = reliableLinkTo(message.getRecipient());
+            if (link != null && sendReliably(link, message)) {
+                return;
+            }
+        }
+        if (meshRouter.getPeerCount() > 0 || outbox == null) {
+            meshRouter.send(message);
+            return;
+        }
+        ByteBuffer frame = ByteBuffer.allocate(FrameCodec.encodedLength(message));
+        FrameCodec.encode(message, FrameCodec.DEFAULT_HOP_LIMIT, frame);
+        frame.flip();
+        if (message.isEmergency()) {
+            outbox.enqueue(message.getMessageId(), frame, Outbox.PRIORITY_EMERGENCY, Outbox.EMERGENCY_TTL_MS);
+        } else {
+            outbox.enqueue(message.getMessageId(), frame, Outbox.PRIORITY_CHAT, Outbox.CHAT_TTL_MS);
+        }
+        Log.d(TAG, "No peers connected, message queued in outbox");
+    }
+
+    /**
+     * A link to a peer came up: start forwarding to it and flush anything queued while offline
+     */
+    public void onPeerConnected(String peerId) {
+        ByteBuffer hello = ByteBuffer.allocate(FrameCodec.maxHelloSize(localDeviceId));
+        FrameCodec.encodeHello(helloCapabilities, localDeviceId, hello);
+        hello.flip();
+        channelMuxFor(peerId).send(hello);
+
+        meshRouter.onPeerConnected(peerId);
+        if (membership != null) {
+            membership.onPeerConnected(peerId, System.currentTimeMillis());
+        }
+        if (outbox != null) {
+            outbox.replay(meshRouter::sendEncoded);
+        }
+    }
+
+    public void onPeerDisconnected(String peerId) {
+        meshRouter.onPeerDisconnected(peerId);
+        if (membership != null) {
+            membership.onPeerDisconnected(peerId, System.currentTimeMillis());
+        }
+        linkCapabilities.remove(peerId);
+        rescuePeers.remove(peerId);
+        reassembler.clear(peerId);
+        ReliableChannel reliableChannel = reliableChannels.remove(peerId);
+        if (reliableChannel != null) {
+            // Whatever the peer had not acknowledged goes by another route, or waits in the outbox
+            for (ByteBuffer payload : reliableChannel.drainUnacknowledged()) {
+                route(FrameCodec.decode(payload, new Frame()).toMessage());
+            }
+        }
+        channelMuxes.remove(peerId);
+        sendScheduler.removePeer(peerId);
+        closedLinks.add(peerId);
+    }
+
+    /**
+     * Hand bytes read from a peer link to the mesh. One read may carry several back-to-back frames.
+     */
+    public void onFrameReceived(String peerId, ByteBuffer data) {
+        try {
+            while (data.remaining() >= FrameCodec.HEADER_SIZE) {
+                int offset = data.position();
+                int length = FrameCodec.peekFrameLength(data, offset);
+                if (length < 0) {
+                    Log.w(TAG, "Dropping truncated frame from " + peerId);
+                    return;
+                }
+                ByteBuffer frame = data.duplicate();
+                frame.limit(offset + length);
+                data.position(offset + length);
+                handleFrame(peerId, frame);
+            }
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            // A frame whose fields run past its declared length underflows rather than failing a check
+            Log.w(TAG, "Dropping malformed data from " + peerId, e);
+        }
+    }
+
+    private void handleFrame(String peerId, ByteBuffer frame) {
+        if (PayloadCompressor.isCompressed(frame)) {
+            synchronized (receiveCompressor) {
+                inflateBuffer.clear();
+                receiveCompressor.decompress(frame, inflateBuffer);
+                inflateBuffer.flip();
+                dispatchFrame(peerId, inflateBuffer);
+            }
+            return;
+        }
+        dispatchFrame(peerId, frame);
+    }
+
+    private void dispatchFrame(String peerId, ByteBuffer frame) {
+        int kind = FrameCodec.peekKind(frame, frame.position());
+        if (kind == FrameCodec.KIND_FRAGMENT) {
+            reassembler.onFragment(peerId, frame, System.currentTimeMillis());
+            return;
+        }
+        // Whole frames only: the mux credits what arrives on each channel and handles its own kinds
+        ChannelMux channelMux = channelMuxFor(peerId);
+        if (channelMux.onFrameReceived(frame, System.currentTimeMillis())) {
+            return;
+        }
+        switch (kind) {
+            case FrameCodec.KIND_HELLO:
+                Frame hello = FrameCodec.decode(frame, new Frame());
+                int capabilities = hello.getCapabilities() & LOCAL_CAPABILITIES;
+                linkCapabilities.put(peerId, capabilities);
+                channelMux.setFlowControlEnabled((capabilities & ChannelMux.CAPABILITY_FLOW_CONTROL) != 0);
+                rescuePeers.put(peerId, (hello.getCapabilities() & SprayAndWaitRouter.CAPABILITY_RESCUE_TEAM) != 0);
+                meshRouter.onRescueTeamsChanged(rescuePeers::get);
+                String deviceId = hello.getString(Frame.SLOT_DEVICE_ID);
+                if (deviceId != null && !deviceId.isEmpty() && !deviceId.equals(localDeviceId)) {
+                    int userType = rescuePeers.get(peerId) ? User.USER_TYPE_RESCUE_TEAM : User.USER_TYPE_STUDENT;
+                    onPeerIdentified(peerId, deviceId, userType);
+                }
+                break;
+            case FrameCodec.KIND_RELIABLE_DATA:
+            case FrameCodec.KIND_RELIABLE_ACK:
+                reliableChannelFor(peerId).onSegment(frame, System.currentTimeMillis());
+                break;
+            case FrameCodec.KIND_MEMBERSHIP:
+                if (membership != null) {
+                    membership.onFrameReceived(peerId, frame, System.currentTimeMillis());
+                }
+                break;
+            default:
+                meshRouter.onFrameReceived(peerId, frame);
+                break;
+        }
+    }
+
+    public MeshRouter getMeshRouter() {
+        return meshRouter;
+    }
+
+    /**
+     * Send a piece of a file or other byte stream to a directly connected peer on the file channel.
+     * The channel is flow-controlled, so a large transfer never delays alerts or chat.
+     * @return false if the file channel's queue for this peer is full; retry later
+     */
+    public boolean sendStreamData(String peerId, long streamId, long offset, ByteBuffer data) {
+        return channelMuxFor(peerId).sendStreamData(streamId, offset, data);
+    }
+
+    public interface OnStreamDataListener {
+        void onStreamData(String peerId, long streamId, long offset, ByteBuffer data);
+    }
+
+    private OnStreamDataListener onStreamDataListener;
+
+    public void setOnStreamDataListener(OnStreamDataListener listener) {
+        this.onStreamDataListener = listener;
     }
 
     // Status listener interface
@@ -223,14 +917,25 @@ public class CommunicationService extends Service {
     public static class DiscoveredPeer {
         private String name;
         private String address;
+        private String deviceId;
+        private String transport;
         
         public DiscoveredPeer(String name, String address) {
+            this(name, address, null, null);
+        }
+        
+        public DiscoveredPeer(String name, String address, String deviceId, String transport) {
             this.name = name;
             this.address = address;
+            this.deviceId = deviceId;
+            this.transport = transport;
         }
         
         public String getName() { return name; }
         public String getAddress() { return address; }
+        // Device behind the radio address, or null until it has sent a hello on some link
+        public String getDeviceId() { return deviceId; }
+        public String getTransport() { return transport; }
     }
 
 }
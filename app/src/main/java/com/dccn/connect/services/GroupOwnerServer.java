@@ -0,0 +1,377 @@
+package com.dccn.connect.services;
+
+import com.dccn.connect.network.BufferPool;
+import com.dccn.connect.network.transport.StreamLink;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * GroupOwnerServer - Non-blocking frame server for the Wi-Fi Direct group owner. A single I/O
+ * thread runs one Selector over the listening socket and every client: it accepts, completes the
+ * {@link StreamLink} handshake, cuts incoming bytes into whole frames and drains each client's
+ * write queue with gathering writes. Socket buffers are pooled direct buffers, so steady traffic
+ * neither allocates nor goes through a heap copy on its way to the kernel.
+ *
+ * Only java.nio is used, so the server runs unchanged against localhost clients off-device.
+ */
+public class GroupOwnerServer {
+
+    public static final int DEFAULT_MAX_QUEUED_BYTES = 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final long MAX_POOLED_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_GATHER = 64;
+
+    /**
+     * Client events, all delivered on the I/O thread. Keep them short: every client waits on them.
+     */
+    public interface OnClientEventListener {
+        void onClientConnected(String clientId);
+
+        /**
+         * One or more whole frames; the buffer is only valid during the call
+         */
+        void onFrames(String clientId, ByteBuffer frames);
+
+        void onClientDisconnected(String clientId);
+    }
+
+    private final class Client {
+        final SocketChannel channel;
+        SelectionKey key;
+        String id;
+        ByteBuffer readBuffer;
+        // Filled by any thread, moved to writing by the I/O thread
+        final ConcurrentLinkedQueue<ByteBuffer> pending = new ConcurrentLinkedQueue<>();
+        final ArrayDeque<ByteBuffer> writing = new ArrayDeque<>();
+        final AtomicInteger queuedBytes = new AtomicInteger();
+        final AtomicBoolean flushRequested = new AtomicBoolean();
+        volatile boolean closeRequested;
+        boolean closed;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+            this.readBuffer = bufferPool.acquire(READ_BUFFER_SIZE);
+        }
+    }
+
+    private final String localId;
+    private final OnClientEventListener listener;
+    private final int maxQueuedBytes;
+    private final BufferPool bufferPool = new BufferPool(MAX_POOLED_BYTES, true);
+    private final Map<String, Client> clients = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Client> flushQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread ioThread;
+    private volatile boolean running;
+
+    public GroupOwnerServer(String localId, OnClientEventListener listener) {
+        this(localId, listener, DEFAULT_MAX_QUEUED_BYTES);
+    }
+
+    public GroupOwnerServer(String localId, OnClientEventListener listener, int maxQueuedBytes) {
+        this.localId = localId;
+        this.listener = listener;
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    public synchronized void start(InetSocketAddress bindAddress) throws IOException {
+        if (running) {
+            return;
+        }
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(bindAddress);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        ioThread = new Thread(this::ioLoop, "group-owner-io");
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            ioThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    public boolean isConnected(String clientId) {
+        return clients.containsKey(clientId);
+    }
+
+    /**
+     * Queue bytes for a client from any thread. The bytes are copied into a pooled direct buffer.
+     * @throws IOException if the client is gone or its write queue is full
+     */
+    public void send(String clientId, ByteBuffer data) throws IOException {
+        Client client = clients.get(clientId);
+        if (client == null || client.closeRequested) {
+            throw new IOException("Not connected to " + clientId);
+        }
+        int length = data.remaining();
+        if (client.queuedBytes.addAndGet(length) > maxQueuedBytes) {
+            client.queuedBytes.addAndGet(-length);
+            throw new IOException("Write queue to " + clientId + " is full");
+        }
+        ByteBuffer copy = bufferPool.acquire(length);
+        copy.put(data.duplicate()).flip();
+        client.pending.add(copy);
+        requestFlush(client);
+    }
+
+    public void disconnect(String clientId) {
+        Client client = clients.get(clientId);
+        if (client != null) {
+            client.closeRequested = true;
+            requestFlush(client);
+        }
+    }
+
+    // Hand the client to the I/O thread, waking the selector at most once per batch of requests
+    private void requestFlush(Client client) {
+        if (client.flushRequested.compareAndSet(false, true)) {
+            flushQueue.add(client);
+            if (wakeupPending.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+    }
+
+    private void ioLoop() {
+        try {
+            while (running) {
+                selector.select();
+                wakeupPending.set(false);
+
+                Client flushing;
+                while ((flushing = flushQueue.poll()) != null) {
+                    flushing.flushRequested.set(false);
+                    if (flushing.closeRequested) {
+                        close(flushing);
+                    } else if (!flushing.closed) {
+                        write(flushing);
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Client client = (Client) key.attachment();
+                    if (key.isReadable()) {
+                        read(client);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        write(client);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // Selector broke; shut everything down below
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Client) {
+                    close((Client) key.attachment());
+                }
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException ignored) {
+                // Closing anyway
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Client client = new Client(channel);
+            client.key = channel.register(selector, SelectionKey.OP_READ, client);
+        }
+    }
+
+    private void read(Client client) {
+        try {
+            int n = client.channel.read(client.readBuffer);
+            if (n < 0) {
+                close(client);
+                return;
+            }
+            ByteBuffer buffer = client.readBuffer;
+            buffer.flip();
+            if (client.id == null && !readHandshake(client)) {
+                buffer.compact();
+                return;
+            }
+            int end = StreamLink.completeFramesEnd(buffer);
+            if (end > buffer.position()) {
+                int limit = buffer.limit();
+                buffer.limit(end);
+                listener.onFrames(client.id, buffer);
+                buffer.limit(limit).position(end);
+            }
+            buffer.compact();
+            if (!buffer.hasRemaining()) {
+                growReadBuffer(client);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // Peer went away or sent garbage; either way the client is done
+            close(client);
+        }
+    }
+
+    // The client names itself first; answer with our own ID and announce it
+    private boolean readHandshake(Client client) throws IOException {
+        ByteBuffer buffer = client.readBuffer;
+        if (buffer.remaining() < 2) {
+            return false;
+        }
+        int length = buffer.getShort(buffer.position()) & 0xFFFF;
+        if (length > StreamLink.MAX_HANDSHAKE_BYTES) {
+            throw new IOException("Handshake too long: " + length);
+        }
+        if (buffer.remaining() < 2 + length) {
+            return false;
+        }
+        byte[] id = new byte[length];
+        buffer.position(buffer.position() + 2);
+        buffer.get(id);
+        client.id = new String(id, StandardCharsets.UTF_8);
+
+        byte[] local = localId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer reply = bufferPool.acquire(2 + local.length);
+        reply.putShort((short) local.length).put(local).flip();
+        client.queuedBytes.addAndGet(reply.remaining());
+        client.writing.addLast(reply);
+        client.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+
+        Client previous = clients.put(client.id, client);
+        if (previous != null) {
+            // Same device reconnected; the old socket is stale
+            previous.id = null;
+            close(previous);
+        }
+        listener.onClientConnected(client.id);
+        return true;
+    }
+
+    private void growReadBuffer(Client client) throws IOException {
+        ByteBuffer buffer = client.readBuffer;
+        if (buffer.capacity() >= StreamLink.MAX_FRAME_BYTES) {
+            throw new IOException("Frame larger than " + StreamLink.MAX_FRAME_BYTES + " bytes");
+        }
+        ByteBuffer larger = bufferPool.acquire(Math.min(StreamLink.MAX_FRAME_BYTES, buffer.capacity() * 2));
+        buffer.flip();
+        larger.put(buffer);
+        bufferPool.release(buffer);
+        client.readBuffer = larger;
+    }
+
+    private void write(Client client) {
+        ByteBuffer next;
+        while ((next = client.pending.poll()) != null) {
+            client.writing.addLast(next);
+        }
+        try {
+            while (!client.writing.isEmpty()) {
+                int count = 0;
+                for (ByteBuffer buffer : client.writing) {
+                    gather[count++] = buffer;
+                    if (count == MAX_GATHER) {
+                        break;
+                    }
+                }
+                long written = client.channel.write(gather, 0, count);
+                while (!client.writing.isEmpty() && !client.writing.peekFirst().hasRemaining()) {
+                    ByteBuffer done = client.writing.pollFirst();
+                    client.queuedBytes.addAndGet(-done.limit());
+                    bufferPool.release(done);
+                }
+                if (written == 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            close(client);
+            return;
+        } finally {
+            Arrays.fill(gather, null);
+        }
+        // Only ask for writability while the socket is backed up
+        int ops = client.writing.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+        if (client.key.isValid() && client.key.interestOps() != ops) {
+            client.key.interestOps(ops);
+        }
+    }
+
+    private void close(Client client) {
+        if (client.closed) {
+            return;
+        }
+        client.closed = true;
+        client.key.cancel();
+        try {
+            client.channel.close();
+        } catch (IOException ignored) {
+            // Already broken
+        }
+        bufferPool.release(client.readBuffer);
+        ByteBuffer buffer;
+        while ((buffer = client.writing.pollFirst()) != null) {
+            bufferPool.release(buffer);
+        }
+        while ((buffer = client.pending.poll()) != null) {
+            bufferPool.release(buffer);
+        }
+        if (client.id != null && clients.remove(client.id, client)) {
+            listener.onClientDisconnected(client.id);
+        }
+    }
+}
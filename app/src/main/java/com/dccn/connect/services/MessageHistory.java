@@ -0,0 +1,216 @@
+package com.dccn.connect.services;
+
+import android.util.Log;
+
+import com.dccn.connect.database.MessageDao;
+import com.dccn.connect.database.MessageEntry;
+import com.dccn.connect.models.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * MessageHistory - Every message this device sent or received, persisted per conversation and read
+ * back a page at a time. Records are group-committed like the outbox's, and each page load first
+ * writes whatever is pending, so a page never misses a message recorded before it was asked for.
+ *
+ * Stored messages and alerts can be searched by words of their text or sender, across all
+ * conversations. Results are ranked newest first, the order the full-text index can answer without
+ * sorting every match; a page of a rare word takes well under a millisecond.
+ */
+public class MessageHistory {
+
+    private static final String TAG = "MessageHistory";
+
+    public static final int PAGE_SIZE = 100;
+    // About a screenful; each further page starts where the last one ended
+    public static final int SEARCH_PAGE_SIZE = 20;
+    // Search cursor of the newest page
+    public static final long FIRST_SEARCH_PAGE = Long.MAX_VALUE;
+    // Shorter last words are matched whole; as prefixes they would match most of the index
+    static final int MIN_PREFIX_LENGTH = 3;
+
+    public interface OnPageLoadedListener {
+        /**
+         * Called on the history thread with the page in display order, oldest first
+         * @param complete true if the page came back short: there is nothing further in that direction
+         */
+        void onPageLoaded(List<Message> page, boolean complete);
+    }
+
+    public interface OnSearchResultsListener {
+        /**
+         * Called on the history thread with one page of matches, newest first
+         * @param nextPage cursor to pass to {@link #search} for the page after this one
+         * @param complete true if there are no further pages
+         */
+        void onSearchResults(String query, List<Message> results, long nextPage, boolean complete);
+    }
+
+    private final MessageDao messageDao;
+    private final String localDeviceId;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Object lock = new Object();
+    private List<MessageEntry> pending = new ArrayList<>();
+    private boolean flushScheduled = false;
+
+    public MessageHistory(MessageDao messageDao, String localDeviceId) {
+        this.messageDao = messageDao;
+        this.localDeviceId = localDeviceId;
+    }
+
+    /**
+     * The conversation a message is filed under on this device
+     */
+    public String conversationOf(Message message) {
+        return MessageEntry.conversationOf(message, localDeviceId);
+    }
+
+    /**
+     * Persist a message sent or received; one already stored is ignored
+     */
+    public void record(Message message) {
+        MessageEntry entry = MessageEntry.of(message, localDeviceId);
+        synchronized (lock) {
+            pending.add(entry);
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        executor.execute(this::flush);
+    }
+
+    /**
+     * Load the newest page of a conversation
+     */
+    public void loadLatest(String conversation, OnPageLoadedListener listener) {
+        executor.execute(() -> {
+            flush();
+            List<MessageEntry> page = messageDao.loadLatest(conversation, PAGE_SIZE);
+            Collections.reverse(page);
+            listener.onPageLoaded(toMessages(page), page.size() < PAGE_SIZE);
+        });
+    }
+
+    /**
+     * Load the page just before a message already shown
+     */
+    public void loadBefore(String conversation, Message oldest, OnPageLoadedListener listener) {
+        executor.execute(() -> {
+            flush();
+            List<MessageEntry> page = messageDao.loadBefore(conversation, oldest.getTimestamp(),
+                    oldest.getMessageId(), PAGE_SIZE);
+            Collections.reverse(page);
+            listener.onPageLoaded(toMessages(page), page.size() < PAGE_SIZE);
+        });
+    }
+
+    /**
+     * Load the page just after a message already shown
+     */
+    public void loadAfter(String conversation, Message newest, OnPageLoadedListener listener) {
+        executor.execute(() -> {
+            flush();
+            List<MessageEntry> page = messageDao.loadAfter(conversation, newest.getTimestamp(),
+                    newest.getMessageId(), PAGE_SIZE);
+            listener.onPageLoaded(toMessages(page), page.size() < PAGE_SIZE);
+        });
+    }
+
+    /**
+     * Find messages containing every word of the query, in their text or sender's name. The last word
+     * also matches as a prefix, so results can follow the user's typing.
+     * @param page {@link #FIRST_SEARCH_PAGE} for the newest {@link #SEARCH_PAGE_SIZE} matches, or the
+     *             nextPage the previous page was delivered with
+     */
+    public void search(String query, long page, OnSearchResultsListener listener) {
+        String match = toMatchQuery(query);
+        executor.execute(() -> {
+            if (match == null) {
+                listener.onSearchResults(query, new ArrayList<>(), page, true);
+                return;
+            }
+            flush();
+            List<MessageEntry> results;
+            try {
+                results = messageDao.search(match, page, SEARCH_PAGE_SIZE);
+            } catch (Exception e) {
+                Log.e(TAG, "Search failed for " + match, e);
+                results = new ArrayList<>();
+            }
+            long nextPage = results.isEmpty() ? page : results.get(results.size() - 1).id;
+            listener.onSearchResults(query, toMessages(results), nextPage, results.size() < SEARCH_PAGE_SIZE);
+        });
+    }
+
+    /**
+     * Turn what the user typed into an FTS4 query: each word quoted, so none is read as an operator,
+     * and all of them required
+     * @return null if the query has no words
+     */
+    static String toMatchQuery(String query) {
+        StringBuilder match = new StringBuilder();
+        int lastLength = 0;
+        int i = 0;
+        while (i < query.length()) {
+            while (i < query.length() && !Character.isLetterOrDigit(query.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < query.length() && Character.isLetterOrDigit(query.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append('"').append(query, start, i).append('"');
+                lastLength = i - start;
+            }
+        }
+        if (match.length() == 0) {
+            return null;
+        }
+        if (lastLength >= MIN_PREFIX_LENGTH) {
+            match.insert(match.length() - 1, '*');
+        }
+        return match.toString();
+    }
+
+    /**
+     * Write pending messages and stop the history thread
+     */
+    public void close() {
+        executor.execute(this::flush);
+        executor.shutdown();
+    }
+
+    private void flush() {
+        List<MessageEntry> batch;
+        synchronized (lock) {
+            batch = pending;
+            pending = new ArrayList<>();
+            flushScheduled = false;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            messageDao.insertAll(batch);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to persist " + batch.size() + " message(s)", e);
+        }
+    }
+
+    private static List<Message> toMessages(List<MessageEntry> entries) {
+        List<Message> messages = new ArrayList<>(entries.size());
+        for (MessageEntry entry : entries) {
+            messages.add(entry.toMessage());
+        }
+        return messages;
+    }
+}
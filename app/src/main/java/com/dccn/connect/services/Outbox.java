@@ -0,0 +1,119 @@
+package com.dccn.connect.services;
+
+import android.util.Log;
+
+import com.dccn.connect.database.OutboxDao;
+import com.dccn.connect.database.OutboxEntry;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outbox - Persistent store-and-forward queue for frames that could not be sent because no peer
+ * was connected. Enqueues are group-committed: whatever accumulates while the writer thread is busy
+ * goes to disk in one transaction, so a burst of messages costs a handful of fsyncs, not one each.
+ */
+public class Outbox {
+
+    private static final String TAG = "Outbox";
+
+    public static final long CHAT_TTL_MS = TimeUnit.HOURS.toMillis(1);
+    public static final long EMERGENCY_TTL_MS = TimeUnit.HOURS.toMillis(12);
+
+    public static final int PRIORITY_CHAT = 0;
+    public static final int PRIORITY_EMERGENCY = 1;
+
+    private static final int REPLAY_BATCH_SIZE = 256;
+
+    public interface OnFrameReplayListener {
+        void onFrameReplayed(ByteBuffer frame);
+    }
+
+    private final OutboxDao outboxDao;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Object lock = new Object();
+    private List<OutboxEntry> pending = new ArrayList<>();
+    private boolean flushScheduled = false;
+
+    public Outbox(OutboxDao outboxDao) {
+        this.outboxDao = outboxDao;
+    }
+
+    /**
+     * Queue an encoded frame for later delivery. The bytes are copied, the caller keeps its buffer.
+     */
+    public void enqueue(long messageId, ByteBuffer frame, int priority, long ttlMs) {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.duplicate().get(bytes);
+        long now = System.currentTimeMillis();
+        OutboxEntry entry = new OutboxEntry(messageId, priority, now, now + ttlMs, bytes);
+
+        synchronized (lock) {
+            pending.add(entry);
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        executor.execute(this::flush);
+    }
+
+    /**
+     * Replay every unexpired frame, highest priority first, on the outbox thread. Frames are removed
+     * once the listener has taken them; expired frames are purged on the way.
+     */
+    public void replay(OnFrameReplayListener listener) {
+        executor.execute(() -> {
+            flush();
+            long now = System.currentTimeMillis();
+            int expired = outboxDao.deleteExpired(now);
+            if (expired > 0) {
+                Log.d(TAG, "Dropped " + expired + " expired frame(s)");
+            }
+
+            List<OutboxEntry> batch;
+            do {
+                batch = outboxDao.loadReady(now, REPLAY_BATCH_SIZE);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                List<Long> ids = new ArrayList<>(batch.size());
+                for (OutboxEntry entry : batch) {
+                    listener.onFrameReplayed(ByteBuffer.wrap(entry.frame));
+                    ids.add(entry.id);
+                }
+                outboxDao.deleteByIds(ids);
+                Log.d(TAG, "Replayed " + ids.size() + " queued frame(s)");
+            } while (batch.size() == REPLAY_BATCH_SIZE);
+        });
+    }
+
+    /**
+     * Write pending entries and stop the writer thread
+     */
+    public void close() {
+        executor.execute(this::flush);
+        executor.shutdown();
+    }
+
+    private void flush() {
+        List<OutboxEntry> batch;
+        synchronized (lock) {
+            batch = pending;
+            pending = new ArrayList<>();
+            flushScheduled = false;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            outboxDao.insertAll(batch);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to persist " + batch.size() + " queued frame(s)", e);
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package com.dccn.connect.services;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.NetworkInfo;
+import android.net.wifi.p2p.WifiP2pConfig;
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.net.wifi.p2p.WifiP2pInfo;
+import android.net.wifi.p2p.WifiP2pManager;
+import android.util.Log;
+
+import com.dccn.connect.network.transport.StreamLink;
+import com.dccn.connect.network.transport.Transport;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * WifiDirectTransport - Wi-Fi P2P discovery and group formation, with frames carried over TCP
+ * inside the group. The group owner serves every client from one {@link GroupOwnerServer} on
+ * {@link #PORT}; a client keeps a single stream link to the owner. Sockets do not reveal the
+ * peer's P2P address, so each side sends its own in a handshake first.
+ */
+public class WifiDirectTransport implements Transport {
+
+    private static final String TAG = "WifiDirectTransport";
+    public static final int PORT = 8988;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+
+    private final Context context;
+    private final WifiP2pManager wifiP2pManager;
+    private final WifiP2pManager.Channel channel;
+    private final Map<String, StreamLink> links = new ConcurrentHashMap<>();
+    private final ExecutorService connector = Executors.newSingleThreadExecutor();
+    private volatile OnTransportEventListener listener;
+    private volatile String localAddress = "";
+    private BroadcastReceiver wifiReceiver;
+    private volatile GroupOwnerServer server;
+    private boolean isConnecting = false; // prevent multiple simultaneous connects
+
+    public WifiDirectTransport(Context context) {
+        this.context = context.getApplicationContext();
+        this.wifiP2pManager = (WifiP2pManager) context.getSystemService(Context.WIFI_P2P_SERVICE);
+        this.channel = wifiP2pManager != null
+                ? wifiP2pManager.initialize(this.context, this.context.getMainLooper(), null)
+                : null;
+    }
+
+    @Override
+    public String getName() {
+        return "WiFi Direct";
+    }
+
+    @Override
+    public void setOnTransportEventListener(OnTransportEventListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (wifiReceiver != null || channel == null) {
+            return;
+        }
+        // Initialize broadcast receiver for Wi-Fi P2P events
+        IntentFilter intentFilter = new IntentFilter();
+        intentFilter.addAction(WifiP2pManager.WIFI_P2P_STATE_CHANGED_ACTION);
+        intentFilter.addAction(WifiP2pManager.WIFI_P2P_PEERS_CHANGED_ACTION);
+        intentFilter.addAction(WifiP2pManager.WIFI_P2P_CONNECTION_CHANGED_ACTION);
+        intentFilter.addAction(WifiP2pManager.WIFI_P2P_THIS_DEVICE_CHANGED_ACTION);
+        context.registerReceiver(wifiReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                onWifiP2pEvent(intent);
+            }
+        }, intentFilter);
+    }
+
+    @Override
+    public synchronized void stop() {
+        stopDiscovery();
+        if (wifiReceiver != null) {
+            context.unregisterReceiver(wifiReceiver);
+            wifiReceiver = null;
+        }
+        closeServer();
+        for (StreamLink link : links.values()) {
+            link.close();
+        }
+        connector.shutdownNow();
+    }
+
+    @Override
+    public void startDiscovery() {
+        if (channel == null) {
+            return;
+        }
+        wifiP2pManager.discoverPeers(channel, new WifiP2pManager.ActionListener() {
+            @Override
+            public void onSuccess() {
+                Log.d(TAG, "WiFi P2P peer discovery started successfully");
+            }
+
+            @Override
+            public void onFailure(int reasonCode) {
+                Log.e(TAG, "Failed to start WiFi P2P peer discovery: " + reasonCode);
+            }
+        });
+    }
+
+    @Override
+    public void stopDiscovery() {
+        if (channel == null) {
+            return;
+        }
+        wifiP2pManager.stopPeerDiscovery(channel, new WifiP2pManager.ActionListener() {
+            @Override
+            public void onSuccess() {
+                Log.d(TAG, "WiFi P2P peer discovery stopped successfully");
+            }
+
+            @Override
+            public void onFailure(int reasonCode) {
+                Log.e(TAG, "Failed to stop WiFi P2P peer discovery: " + reasonCode);
+            }
+        });
+    }
+
+    @Override
+    public synchronized void connect(String peerId) {
+        if (channel == null || isConnecting || links.containsKey(peerId)) {
+            return;
+        }
+        isConnecting = true;
+        WifiP2pConfig config = new WifiP2pConfig();
+        config.deviceAddress = peerId;
+        wifiP2pManager.connect(channel, config, new WifiP2pManager.ActionListener() {
+            @Override
+            public void onSuccess() {
+                // Socket setup follows on WIFI_P2P_CONNECTION_CHANGED_ACTION
+                Log.d(TAG, "Group negotiation started with " + peerId);
+            }
+
+            @Override
+            public void onFailure(int reasonCode) {
+                Log.e(TAG, "Failed to connect to " + peerId + ": " + reasonCode);
+                synchronized (WifiDirectTransport.this) {
+                    isConnecting = false;
+                }
+            }
+        });
+    }
+
+    @Override
+    public void disconnect(String peerId) {
+        StreamLink link = links.get(peerId);
+        if (link != null) {
+            link.close();
+        }
+        GroupOwnerServer owner = server;
+        if (owner != null) {
+            owner.disconnect(peerId);
+        }
+    }
+
+    @Override
+    public boolean isConnected(String peerId) {
+        GroupOwnerServer owner = server;
+        return links.containsKey(peerId) || (owner != null && owner.isConnected(peerId));
+    }
+
+    @Override
+    public void send(String peerId, ByteBuffer data) throws IOException {
+        StreamLink link = links.get(peerId);
+        if (link != null) {
+            link.write(data);
+            return;
+        }
+        GroupOwnerServer owner = server;
+        if (owner == null) {
+            throw new IOException("Not connected to " + peerId);
+        }
+        owner.send(peerId, data);
+    }
+
+    private void onWifiP2pEvent(Intent intent) {
+        String action = intent.getAction();
+        if (WifiP2pManager.WIFI_P2P_PEERS_CHANGED_ACTION.equals(action)) {
+            wifiP2pManager.requestPeers(channel, peers -> {
+                OnTransportEventListener l = listener;
+                if (l == null) {
+                    return;
+                }
+                for (WifiP2pDevice device : peers.getDeviceList()) {
+                    l.onPeerDiscovered(this, device.deviceAddress, device.deviceName);
+                }
+            });
+        } else if (WifiP2pManager.WIFI_P2P_THIS_DEVICE_CHANGED_ACTION.equals(action)) {
+            WifiP2pDevice device = intent.getParcelableExtra(WifiP2pManager.EXTRA_WIFI_P2P_DEVICE);
+            if (device != null) {
+                localAddress = device.deviceAddress;
+            }
+        } else if (WifiP2pManager.WIFI_P2P_CONNECTION_CHANGED_ACTION.equals(action)) {
+            NetworkInfo networkInfo = intent.getParcelableExtra(WifiP2pManager.EXTRA_NETWORK_INFO);
+            synchronized (this) {
+                isConnecting = false;
+            }
+            if (networkInfo != null && networkInfo.isConnected()) {
+                wifiP2pManager.requestConnectionInfo(channel, this::onGroupFormed);
+            } else {
+                closeServer();
+            }
+        }
+    }
+
+    private void onGroupFormed(WifiP2pInfo info) {
+        if (info == null || !info.groupFormed) {
+            return;
+        }
+        if (info.isGroupOwner) {
+            startServer();
+        } else {
+            connector.execute(() -> connectToGroupOwner(info));
+        }
+    }
+
+    private synchronized void startServer() {
+        if (server != null) {
+            return;
+        }
+        GroupOwnerServer owner = new GroupOwnerServer(localAddress, new GroupOwnerServer.OnClientEventListener() {
+            @Override
+            public void onClientConnected(String clientId) {
+                OnTransportEventListener l = listener;
+                if (l != null) {
+                    l.onPeerConnected(WifiDirectTransport.this, clientId);
+                }
+            }
+
+            @Override
+            public void onFrames(String clientId, ByteBuffer frames) {
+                OnTransportEventListener l = listener;
+                if (l != null) {
+                    l.onDataReceived(WifiDirectTransport.this, clientId, frames);
+                }
+            }
+
+            @Override
+            public void onClientDisconnected(String clientId) {
+                OnTransportEventListener l = listener;
+                if (l != null) {
+                    l.onPeerDisconnected(WifiDirectTransport.this, clientId);
+                }
+            }
+        });
+        try {
+            owner.start(new InetSocketAddress(PORT));
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to listen on " + PORT, e);
+            return;
+        }
+        server = owner;
+    }
+
+    private void connectToGroupOwner(WifiP2pInfo info) {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(info.groupOwnerAddress, PORT), CONNECT_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            StreamLink.writeHandshake(socket.getOutputStream(), localAddress);
+            String peerId = StreamLink.readHandshake(socket.getInputStream());
+            open(peerId, socket);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to reach group owner", e);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Never connected
+            }
+        }
+    }
+
+    private synchronized void closeServer() {
+        if (server != null) {
+            server.stop();
+            server = null;
+        }
+    }
+
+    private void open(String peerId, Socket socket) throws IOException {
+        StreamLink link = new StreamLink(peerId, socket.getInputStream(),
+                new BufferedOutputStream(socket.getOutputStream(), 8192), socket,
+                new StreamLink.OnLinkEventListener() {
+                    @Override
+                    public void onFrames(StreamLink link, ByteBuffer frames) {
+                        OnTransportEventListener l = listener;
+                        if (l != null) {
+                            l.onDataReceived(WifiDirectTransport.this, link.getPeerId(), frames);
+                        }
+                    }
+
+                    @Override
+                    public void onClosed(StreamLink link) {
+                        if (links.remove(link.getPeerId(), link)) {
+                            OnTransportEventListener l = listener;
+                            if (l != null) {
+                                l.onPeerDisconnected(WifiDirectTransport.this, link.getPeerId());
+                            }
+                        }
+                    }
+                });
+        StreamLink previous = links.put(peerId, link);
+        if (previous != null) {
+            previous.close();
+        }
+        link.start();
+        Log.d(TAG, "Wi-Fi Direct link up: " + peerId);
+        OnTransportEventListener l = listener;
+        if (l != null) {
+            l.onPeerConnected(this, peerId);
+        }
+    }
+}
@@ -4,8 +4,13 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.text.TextUtils;
 
+import com.dccn.connect.R;
 import com.dccn.connect.models.User;
 import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * PreferenceManager - Handles local data storage using SharedPreferences
@@ -16,15 +21,24 @@ public class PreferenceManager {
     private static final String KEY_USER = "current_user";
     private static final String KEY_DEVICE_ID = "device_id";
     private static final String KEY_FIRST_LAUNCH = "first_launch";
+    private static final String KEY_DEVICE_ALIASES = "device_aliases";
+
+    // Private messages find a route when first sent (AodvRouter), or follow routes kept up all the
+    // time (OlsrRouter), which suits deployments whose mesh stays put for hours. Set per deployment
+    // in R.string.routing_mode.
+    public static final String ROUTING_ON_DEMAND = "on_demand";
+    public static final String ROUTING_PROACTIVE = "proactive";
     
     private SharedPreferences sharedPreferences;
     private SharedPreferences.Editor editor;
     private Gson gson;
+    private String routingMode;
     
     public PreferenceManager(Context context) {
         sharedPreferences = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
         editor = sharedPreferences.edit();
         gson = new Gson();
+        routingMode = context.getString(R.string.routing_mode);
     }
     
     /**
@@ -83,6 +97,41 @@ public class PreferenceManager {
         return sharedPreferences.getString(KEY_DEVICE_ID, null);
     }
     
+    /**
+     * Save the radio address -> device ID alias table
+     */
+    public void saveDeviceAliases(Map<String, String> aliases) {
+        editor.putString(KEY_DEVICE_ALIASES, gson.toJson(aliases));
+        editor.apply();
+    }
+    
+    /**
+     * Get the radio address -> device ID alias table, empty if none was saved
+     */
+    public Map<String, String> getDeviceAliases() {
+        String aliasesJson = sharedPreferences.getString(KEY_DEVICE_ALIASES, null);
+        if (!TextUtils.isEmpty(aliasesJson)) {
+            try {
+                Map<String, String> aliases = gson.fromJson(aliasesJson, new TypeToken<Map<String, String>>() {}.getType());
+                if (aliases != null) {
+                    return aliases;
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        return new HashMap<>();
+    }
+    
+    /**
+     * Get the deployment's routing mode, {@link #ROUTING_ON_DEMAND} or {@link #ROUTING_PROACTIVE}.
+     * Every device of a deployment uses the same one; a device running the other still shares the
+     * mesh, since OlsrRouter falls back to on-demand discovery.
+     */
+    public String getRoutingMode() {
+        return routingMode;
+    }
+    
     /**
      * Check if this is the first app launch
      */
@@ -0,0 +1,126 @@
+package com.dccn.connect.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class AodvRouterTest {
+
+    // Long enough for a discovery to climb the whole ring and use up its retries
+    private static final long DISCOVERY_GIVE_UP_MS = 20_000;
+
+    private static MeshRouter aodv(String id) {
+        return new AodvRouter(id);
+    }
+
+    private static AodvRouter aodv(TestMesh mesh, int node) {
+        return (AodvRouter) mesh.router(node);
+    }
+
+    private static void assertOnlyDeliveredTo(TestMesh mesh, int to, long messageId) {
+        for (int node = 0; node < mesh.size(); node++) {
+            assertEquals(TestMesh.id(node), node == to ? 1 : 0, mesh.deliveries(node, messageId));
+        }
+    }
+
+    @Test
+    public void discoveryFindsAPathThatLaterMessagesReuse() {
+        TestMesh mesh = TestMesh.line(5, AodvRouterTest::aodv);
+        long first = mesh.sendPrivate(0, 4);
+        // Four hops is past the first ring, so it takes a retry on the timer
+        mesh.advance(5000);
+        assertOnlyDeliveredTo(mesh, 4, first);
+        assertEquals(1, aodv(mesh, 0).getRouteDiscoveries());
+        for (int node = 0; node < 4; node++) {
+            assertEquals(TestMesh.id(node + 1), aodv(mesh, node).getNextHop(TestMesh.id(4)));
+        }
+
+        long control = mesh.getControlTransmissions();
+        long transmissions = mesh.getTransmissions();
+        long second = mesh.sendPrivate(0, 4);
+        assertOnlyDeliveredTo(mesh, 4, second);
+        // One transmission per hop and no more route traffic
+        assertEquals(transmissions + 4, mesh.getTransmissions());
+        assertEquals(control, mesh.getControlTransmissions());
+        assertEquals(1, aodv(mesh, 0).getRouteDiscoveries());
+        assertEquals(0, aodv(mesh, 0).getFallbackFloods());
+    }
+
+    @Test
+    public void theReplyFollowsTheReversePathTheRequestLeft() {
+        TestMesh mesh = TestMesh.line(4, AodvRouterTest::aodv);
+        mesh.sendPrivate(0, 3);
+        mesh.advance(5000);
+        // Every node the request crossed points back at the originator
+        for (int node = 1; node < 4; node++) {
+            assertEquals(TestMesh.id(node - 1), aodv(mesh, node).getNextHop(TestMesh.id(0)));
+        }
+
+        // So the answer needs no discovery of its own
+        long reply = mesh.sendPrivate(3, 0);
+        assertOnlyDeliveredTo(mesh, 0, reply);
+        assertEquals(0, aodv(mesh, 3).getRouteDiscoveries());
+    }
+
+    @Test
+    public void aRouteErrorTravelsUpstreamToTheOriginator() {
+        TestMesh mesh = TestMesh.line(8, AodvRouterTest::aodv);
+        mesh.sendPrivate(0, 7);
+        mesh.advance(5000);
+        assertEquals(TestMesh.id(1), aodv(mesh, 0).getNextHop(TestMesh.id(7)));
+
+        // n2 is five hops from n7, too far to repair, so it reports the break
+        mesh.unlink(2, 3);
+        assertEquals(0, aodv(mesh, 2).getLocalRepairs());
+        assertEquals(1, aodv(mesh, 2).getRouteErrors());
+        // n1 was forwarding for n0, so it passes the error on
+        assertEquals(1, aodv(mesh, 1).getRouteErrors());
+        assertNull(aodv(mesh, 1).getNextHop(TestMesh.id(7)));
+        assertNull(aodv(mesh, 0).getNextHop(TestMesh.id(7)));
+        // Routes past the break are untouched
+        assertEquals(TestMesh.id(4), aodv(mesh, 3).getNextHop(TestMesh.id(7)));
+        assertEquals(0, aodv(mesh, 3).getRouteErrors());
+    }
+
+    @Test
+    public void aBreakNearTheDestinationIsRepairedLocally() {
+        // n0 - n1 - n2 - n3 - n4, with a detour n3 - n5 - n4
+        TestMesh mesh = new TestMesh(6, AodvRouterTest::aodv);
+        for (int node = 1; node < 5; node++) {
+            mesh.link(node - 1, node);
+        }
+        mesh.link(3, 5);
+        mesh.link(5, 4);
+        long first = mesh.sendPrivate(0, 4);
+        mesh.advance(5000);
+        assertOnlyDeliveredTo(mesh, 4, first);
+        assertEquals(TestMesh.id(4), aodv(mesh, 3).getNextHop(TestMesh.id(4)));
+
+        mesh.unlink(3, 4);
+        assertEquals(1, aodv(mesh, 3).getLocalRepairs());
+        assertEquals(TestMesh.id(5), aodv(mesh, 3).getNextHop(TestMesh.id(4)));
+        // Upstream never heard of it
+        assertEquals(0, aodv(mesh, 3).getRouteErrors());
+        assertEquals(TestMesh.id(1), aodv(mesh, 0).getNextHop(TestMesh.id(4)));
+
+        long second = mesh.sendPrivate(0, 4);
+        assertOnlyDeliveredTo(mesh, 4, second);
+        assertEquals(1, aodv(mesh, 0).getRouteDiscoveries());
+        assertEquals(0, aodv(mesh, 3).getRepairFailures());
+    }
+
+    @Test
+    public void aMessageNoDiscoveryCanPlaceIsFlooded() {
+        // n2 predates routing: it floods but never answers a route request
+        TestMesh mesh = TestMesh.line(3, id -> id.equals(TestMesh.id(2))
+                ? new FloodingRouter() : new AodvRouter(id));
+        long messageId = mesh.sendPrivate(0, 2);
+        assertEquals(0, mesh.deliveries(2, messageId));
+
+        mesh.advance(DISCOVERY_GIVE_UP_MS);
+        assertEquals(1, aodv(mesh, 0).getDiscoveryFailures());
+        assertEquals(1, aodv(mesh, 0).getFallbackFloods());
+        assertOnlyDeliveredTo(mesh, 2, messageId);
+    }
+}
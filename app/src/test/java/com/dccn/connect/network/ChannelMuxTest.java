@@ -0,0 +1,263 @@
+package com.dccn.connect.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.dccn.connect.models.Message;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+import org.junit.Test;
+
+public class ChannelMuxTest {
+
+    private static final int WINDOW = 8192;
+    private static final int[] WINDOWS = {0, 0, WINDOW, WINDOW};
+    private static final int QUEUE_LIMIT = 1024 * 1024;
+
+    /**
+     * One direction of a link: frames written by one mux, waiting to be read by the other
+     */
+    private static final class Pipe implements ChannelMux.FrameSink {
+        final ArrayDeque<ByteBuffer> frames = new ArrayDeque<>();
+        final long[] bytesByChannel = new long[ChannelMux.CHANNEL_COUNT];
+        boolean refuse;
+
+        @Override
+        public boolean sendFrame(ByteBuffer frame, int channel) {
+            if (refuse) {
+                return false;
+            }
+            ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+            copy.put(frame.duplicate()).flip();
+            frames.addLast(copy);
+            bytesByChannel[channel] += copy.remaining();
+            return true;
+        }
+
+        long inFlight(int channel) {
+            long bytes = 0;
+            for (ByteBuffer frame : frames) {
+                if (ChannelMux.channelOf(frame) == channel) {
+                    bytes += frame.remaining();
+                }
+            }
+            return bytes;
+        }
+
+        /**
+         * Read everything written so far into the other end
+         * @return frames left for the caller to dispatch
+         */
+        int deliverTo(ChannelMux receiver, long nowMs) {
+            int dispatched = 0;
+            while (!frames.isEmpty()) {
+                if (!receiver.onFrameReceived(frames.pollFirst(), nowMs)) {
+                    dispatched++;
+                }
+            }
+            return dispatched;
+        }
+    }
+
+    private final Pipe aToB = new Pipe();
+    private final Pipe bToA = new Pipe();
+    private final ChannelMux a = new ChannelMux(aToB, WINDOWS, QUEUE_LIMIT);
+    private final ChannelMux b = new ChannelMux(bToA, WINDOWS, QUEUE_LIMIT);
+
+    private void enableFlowControl() {
+        a.setFlowControlEnabled(true);
+        b.setFlowControlEnabled(true);
+    }
+
+    private static ByteBuffer chat(int textLength, boolean emergency) {
+        Message message = new Message(Message.newMessageId(), emergency ? Message.TYPE_EMERGENCY : Message.TYPE_CHAT,
+                0, new String(new char[textLength]).replace('\0', 'x'), "a", 1L);
+        ByteBuffer frame = ByteBuffer.allocate(FrameCodec.encodedLength(message));
+        FrameCodec.encode(message, FrameCodec.DEFAULT_HOP_LIMIT, frame);
+        frame.flip();
+        return frame;
+    }
+
+    @Test
+    public void framesPassStraightThroughUntilFlowControlIsOn() {
+        for (int i = 0; i < 50; i++) {
+            assertTrue(a.send(chat(1000, false)));
+        }
+        assertEquals(50, aToB.frames.size());
+        assertEquals(0, a.getQueuedBytes(ChannelMux.CHANNEL_CHAT));
+        assertEquals(Long.MAX_VALUE, a.getAvailableCredit(ChannelMux.CHANNEL_CHAT));
+    }
+
+    @Test
+    public void aChannelNeverRunsMoreThanItsWindowAhead() {
+        enableFlowControl();
+        int frameBytes = chat(1000, false).remaining();
+        for (int i = 0; i < 40; i++) {
+            assertTrue(a.send(chat(1000, false)));
+        }
+        // Half a window free admits one more frame, so at most a window plus a frame is in flight
+        long inFlight = aToB.inFlight(ChannelMux.CHANNEL_CHAT);
+        assertTrue("in flight " + inFlight, inFlight <= WINDOW + frameBytes);
+        assertTrue(inFlight >= WINDOW - frameBytes);
+        assertEquals(40 * frameBytes - inFlight, a.getQueuedBytes(ChannelMux.CHANNEL_CHAT));
+    }
+
+    @Test
+    public void creditFromTheReceiverDrainsTheQueue() {
+        enableFlowControl();
+        int frames = 200;
+        for (int i = 0; i < frames; i++) {
+            a.send(chat(1000, false));
+        }
+        int delivered = 0;
+        long now = 0;
+        for (int round = 0; round < 1000 && delivered < frames; round++) {
+            delivered += aToB.deliverTo(b, now);
+            bToA.deliverTo(a, now);
+            b.onTimer(now);
+            now += ChannelMux.CREDIT_FLUSH_MS;
+        }
+        assertEquals(frames, delivered);
+        assertEquals(0, a.getQueuedBytes(ChannelMux.CHANNEL_CHAT));
+        assertEquals(0, a.getFramesDropped(ChannelMux.CHANNEL_CHAT));
+        assertTrue(b.getCreditsSent() > 0);
+        assertEquals(b.getCreditsSent(), a.getCreditsReceived());
+    }
+
+    @Test
+    public void aLostCreditIsRepairedByTheNextOne() {
+        enableFlowControl();
+        for (int i = 0; i < 30; i++) {
+            a.send(chat(1000, false));
+        }
+        aToB.deliverTo(b, 0);
+        assertEquals(1, b.getCreditsSent());
+        bToA.frames.clear();
+        assertEquals(0, bToA.deliverTo(a, 0));
+        assertTrue(aToB.frames.isEmpty());
+
+        // The timer advertises the rest of what was consumed; being cumulative, that covers the loss
+        b.onTimer(ChannelMux.CREDIT_FLUSH_MS);
+        bToA.deliverTo(a, 0);
+        int frameBytes = chat(1000, false).remaining();
+        assertTrue(aToB.inFlight(ChannelMux.CHANNEL_CHAT) >= WINDOW - frameBytes);
+    }
+
+    @Test
+    public void aRefusedCreditIsRetriedOnTheTimer() {
+        enableFlowControl();
+        for (int i = 0; i < 10; i++) {
+            a.send(chat(1000, false));
+        }
+        bToA.refuse = true;
+        aToB.deliverTo(b, 0);
+        assertEquals(0, b.getCreditsSent());
+        bToA.refuse = false;
+        b.onTimer(ChannelMux.CREDIT_FLUSH_MS);
+        assertEquals(1, b.getCreditsSent());
+        bToA.deliverTo(a, 0);
+        assertEquals(1, a.getCreditsReceived());
+    }
+
+    @Test
+    public void smallConsumptionIsAdvertisedAfterTheFlushDelay() {
+        enableFlowControl();
+        a.send(chat(100, false));
+        aToB.deliverTo(b, 1000);
+        b.onTimer(1000 + ChannelMux.CREDIT_FLUSH_MS - 1);
+        assertEquals(0, b.getCreditsSent());
+        b.onTimer(1000 + ChannelMux.CREDIT_FLUSH_MS);
+        assertEquals(1, b.getCreditsSent());
+    }
+
+    @Test
+    public void aBlockedFileTransferNeverHoldsBackChatOrAlerts() {
+        enableFlowControl();
+        ByteBuffer piece = ByteBuffer.allocate(1000);
+        for (long offset = 0; offset < 50_000; offset += piece.capacity()) {
+            assertTrue(a.sendStreamData(7, offset, piece.duplicate()));
+        }
+        assertTrue(a.getQueuedBytes(ChannelMux.CHANNEL_FILE) > 0);
+
+        // Stands in for the link having written the file window so far
+        aToB.frames.clear();
+        assertTrue(a.send(chat(200, true)));
+        assertTrue(a.send(chat(200, false)));
+        // Both go out at once, while the file channel waits for credit
+        assertEquals(2, aToB.frames.size());
+        assertEquals(ChannelMux.CHANNEL_ALERT, ChannelMux.channelOf(aToB.frames.peekFirst()));
+        assertEquals(0, a.getQueuedBytes(ChannelMux.CHANNEL_CHAT));
+    }
+
+    @Test
+    public void chatAndFileShareTheLinkByWindow() {
+        enableFlowControl();
+        for (int i = 0; i < 100; i++) {
+            a.send(chat(1000, false));
+            a.sendStreamData(1, i * 1000L, ByteBuffer.allocate(1000));
+        }
+        long now = 0;
+        for (int round = 0; round < 5; round++) {
+            aToB.deliverTo(b, now);
+            bToA.deliverTo(a, now);
+            now += ChannelMux.CREDIT_FLUSH_MS;
+        }
+        // Equal windows and equal demand: neither channel gets ahead by more than a window
+        long chat = aToB.bytesByChannel[ChannelMux.CHANNEL_CHAT];
+        long file = aToB.bytesByChannel[ChannelMux.CHANNEL_FILE];
+        assertTrue("chat " + chat + " file " + file, Math.abs(chat - file) <= WINDOW);
+    }
+
+    @Test
+    public void streamDataReachesTheListenerWithItsOffset() {
+        long[] received = new long[2];
+        int[] length = new int[1];
+        b.setOnStreamDataListener((streamId, offset, data) -> {
+            received[0] = streamId;
+            received[1] = offset;
+            length[0] = data.remaining();
+        });
+        a.sendStreamData(42, 123_456, ByteBuffer.allocate(300));
+        assertEquals(0, aToB.deliverTo(b, 0));
+        assertEquals(42, received[0]);
+        assertEquals(123_456, received[1]);
+        assertEquals(300, length[0]);
+    }
+
+    @Test
+    public void aFullQueueDropsFrames() {
+        ChannelMux small = new ChannelMux(aToB, WINDOWS, 4096);
+        small.setFlowControlEnabled(true);
+        int sent = 0;
+        while (small.send(chat(1000, false))) {
+            sent++;
+        }
+        assertTrue(sent > 0);
+        assertEquals(1, small.getFramesDropped(ChannelMux.CHANNEL_CHAT));
+        assertTrue(small.getQueuedBytes(ChannelMux.CHANNEL_CHAT) <= 4096);
+    }
+
+    @Test
+    public void aRefusedFrameGivesItsCreditBack() {
+        enableFlowControl();
+        long credit = a.getAvailableCredit(ChannelMux.CHANNEL_CHAT);
+        aToB.refuse = true;
+        assertFalse(a.send(chat(500, false)));
+        assertEquals(credit, a.getAvailableCredit(ChannelMux.CHANNEL_CHAT));
+    }
+
+    @Test
+    public void turningFlowControlOffReleasesHeldFrames() {
+        enableFlowControl();
+        for (int i = 0; i < 20; i++) {
+            a.send(chat(1000, false));
+        }
+        assertTrue(a.getQueuedBytes(ChannelMux.CHANNEL_CHAT) > 0);
+        a.setFlowControlEnabled(false);
+        assertEquals(0, a.getQueuedBytes(ChannelMux.CHANNEL_CHAT));
+        assertEquals(20, aToB.frames.size());
+    }
+}
@@ -0,0 +1,132 @@
+package com.dccn.connect.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.dccn.connect.models.Message;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FloodingRouterTest {
+
+    private final List<String> sentTo = new ArrayList<>();
+    private final List<ByteBuffer> sent = new ArrayList<>();
+    private final List<Long> delivered = new ArrayList<>();
+    private FloodingRouter router;
+
+    @Before
+    public void setUp() {
+        router = new FloodingRouter(FrameCodec.DEFAULT_HOP_LIMIT, 16);
+        router.setFrameSender((peerId, frame) -> {
+            ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+            copy.put(frame).flip();
+            sentTo.add(peerId);
+            sent.add(copy);
+        });
+        router.setOnFrameDeliveredListener(frame -> delivered.add(frame.getMessageId()));
+        router.onPeerConnected("a");
+        router.onPeerConnected("b");
+        router.onPeerConnected("c");
+    }
+
+    private static ByteBuffer encode(long messageId, int hopLimit) {
+        Message message = new Message(messageId, Message.TYPE_CHAT, 0, "hello", "x", 1L);
+        ByteBuffer buffer = ByteBuffer.allocate(FrameCodec.encodedLength(message));
+        FrameCodec.encode(message, hopLimit, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void duplicatesAreDeliveredAndForwardedOnce() {
+        for (int copy = 0; copy < 3; copy++) {
+            router.onFrameReceived("a", encode(100L, 8));
+            router.onFrameReceived("b", encode(100L, 8));
+        }
+        assertEquals(1, delivered.size());
+        // Forwarded to every peer but the one it came from
+        assertEquals(2, sent.size());
+        assertTrue(sentTo.contains("b") && sentTo.contains("c"));
+
+        RouterStats stats = router.getStats();
+        assertEquals(6, stats.getReceived());
+        assertEquals(5, stats.getDuplicatesSuppressed());
+        assertEquals(1, stats.getForwarded());
+    }
+
+    @Test
+    public void ownMessagesEchoedBackAreSuppressed() {
+        router.send(new Message(200L, Message.TYPE_CHAT, 0, "mine", "me", 1L));
+        assertEquals(3, sent.size());
+        router.onFrameReceived("a", sent.get(0).duplicate());
+        assertEquals(0, delivered.size());
+        assertEquals(3, sent.size());
+        assertEquals(1, router.getStats().getDuplicatesSuppressed());
+    }
+
+    @Test
+    public void forwardedCopyCarriesTheNextHopCount() {
+        router.onFrameReceived("a", encode(300L, 8));
+        for (ByteBuffer frame : sent) {
+            assertEquals(1, FrameCodec.peekHopCount(frame, 0));
+        }
+    }
+
+    @Test
+    public void framesStopAtTheHopLimit() {
+        router.onFrameReceived("a", encode(400L, 1));
+        assertEquals(1, delivered.size());
+        assertEquals(0, sent.size());
+        assertEquals(1, router.getStats().getHopLimitDrops());
+    }
+
+    @Test
+    public void malformedFramesAreCountedAndDropped() {
+        ByteBuffer frame = encode(500L, 8);
+        frame.limit(frame.limit() - 2);
+        router.onFrameReceived("a", frame);
+        assertEquals(0, delivered.size());
+        assertEquals(1, router.getStats().getMalformedDrops());
+    }
+
+    @Test
+    public void idsOlderThanTheCacheAreFloodedAgain() {
+        router.onFrameReceived("a", encode(1L, 8));
+        for (long id = 2; id <= 17; id++) {
+            router.onFrameReceived("a", encode(id, 8));
+        }
+        router.onFrameReceived("a", encode(1L, 8));
+        assertEquals(18, delivered.size());
+    }
+
+    @Test
+    public void everyNodeOfACompleteMeshDeliversEachMessageOnce() {
+        int nodes = 8;
+        int messages = 20;
+        TestMesh mesh = new TestMesh(nodes, id -> new FloodingRouter(FrameCodec.DEFAULT_HOP_LIMIT, 1024));
+        for (int a = 0; a < nodes; a++) {
+            for (int b = a + 1; b < nodes; b++) {
+                mesh.link(a, b);
+            }
+        }
+        for (int i = 0; i < messages; i++) {
+            int from = i % nodes;
+            long messageId = mesh.broadcast(from);
+            for (int node = 0; node < nodes; node++) {
+                assertEquals(node == from ? 0 : 1, mesh.deliveries(node, messageId));
+            }
+        }
+        long duplicates = 0;
+        for (int node = 0; node < nodes; node++) {
+            duplicates += mesh.router(node).getStats().getDuplicatesSuppressed();
+        }
+        // Every node forwards each message once to all but the peer it came from
+        assertTrue(duplicates > 0);
+        assertTrue(mesh.getTransmissions() <= (long) messages * nodes * (nodes - 1));
+    }
+}
@@ -0,0 +1,203 @@
+package com.dccn.connect.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.dccn.connect.models.Message;
+import com.dccn.connect.models.User;
+import com.google.gson.Gson;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class FrameCodecTest {
+
+    private static ByteBuffer encode(Message message) {
+        ByteBuffer buffer = ByteBuffer.allocate(FrameCodec.encodedLength(message));
+        int written = FrameCodec.encode(message, FrameCodec.DEFAULT_HOP_LIMIT, buffer);
+        assertEquals(buffer.capacity(), written);
+        assertEquals(buffer.capacity(), buffer.position());
+        buffer.flip();
+        return buffer;
+    }
+
+    private static Message roundTrip(Message message) {
+        ByteBuffer buffer = encode(message);
+        Frame frame = FrameCodec.decode(buffer, new Frame());
+        assertEquals(buffer.limit(), buffer.position());
+        assertEquals(FrameCodec.KIND_MESSAGE, frame.getKind());
+        assertEquals(FrameCodec.DEFAULT_HOP_LIMIT, frame.getHopLimit());
+        return frame.toMessage();
+    }
+
+    @Test
+    public void chatMessageRoundTrips() {
+        Message message = new Message(0x0123456789ABCDEFL, Message.TYPE_CHAT, 3, "Meet at the gym", "Asha", 1700000000123L);
+        Message decoded = roundTrip(message);
+        assertEquals(message.getMessageId(), decoded.getMessageId());
+        assertEquals(Message.TYPE_CHAT, decoded.getType());
+        assertEquals(3, decoded.getHopCount());
+        assertEquals("Meet at the gym", decoded.getText());
+        assertEquals("Asha", decoded.getSender());
+        assertEquals(1700000000123L, decoded.getTimestamp());
+        assertNull(decoded.getRecipient());
+        assertNull(decoded.getSenderId());
+    }
+
+    @Test
+    public void privateEmergencyMessageRoundTrips() {
+        Message message = new Message(-42L, Message.TYPE_EMERGENCY, 0, "Trapped, 2nd floor", "Ravi", 1L);
+        message.setRecipient("device-b");
+        message.setSenderId("device-a");
+        Message decoded = roundTrip(message);
+        assertTrue(decoded.isEmergency());
+        assertEquals(-42L, decoded.getMessageId());
+        assertEquals("device-b", decoded.getRecipient());
+        assertEquals("device-a", decoded.getSenderId());
+    }
+
+    @Test
+    public void nonAsciiAndNullStringsRoundTrip() {
+        String text = "நிலநடுக்கம் 🚨 — évacuez";
+        Message message = new Message(7L, Message.TYPE_CHAT, 0, text, null, 0L);
+        Message decoded = roundTrip(message);
+        assertEquals(text, decoded.getText());
+        assertNull(decoded.getSender());
+        assertEquals(text.getBytes(StandardCharsets.UTF_8).length,
+                FrameCodec.decode(encode(message), new Frame()).getStringLength(Frame.SLOT_TEXT));
+    }
+
+    @Test
+    public void userRoundTrips() {
+        User user = new User("Rescue 1", User.USER_TYPE_RESCUE_TEAM, "device-r1");
+        user.setDeviceName("Pixel 7");
+        user.setDeviceAddress("AA:BB:CC:DD:EE:FF");
+        user.setSignalStrength(-67);
+        user.setLastSeen(1700000000000L);
+        ByteBuffer buffer = ByteBuffer.allocate(FrameCodec.encodedLength(user));
+        assertEquals(buffer.capacity(), FrameCodec.encode(user, buffer));
+        buffer.flip();
+
+        User decoded = FrameCodec.decode(buffer, new Frame()).toUser();
+        assertEquals("Rescue 1", decoded.getUsername());
+        assertEquals(User.USER_TYPE_RESCUE_TEAM, decoded.getUserType());
+        assertEquals("device-r1", decoded.getDeviceId());
+        assertEquals("Pixel 7", decoded.getDeviceName());
+        assertEquals("AA:BB:CC:DD:EE:FF", decoded.getDeviceAddress());
+        assertEquals(-67, decoded.getSignalStrength());
+        assertEquals(1700000000000L, decoded.getLastSeen());
+    }
+
+    @Test
+    public void helloRoundTrips() {
+        ByteBuffer buffer = ByteBuffer.allocate(FrameCodec.maxHelloSize("device-a"));
+        FrameCodec.encodeHello(0x05, "device-a", buffer);
+        buffer.flip();
+        Frame frame = FrameCodec.decode(buffer, new Frame());
+        assertEquals(FrameCodec.KIND_HELLO, frame.getKind());
+        assertEquals(0x05, frame.getCapabilities());
+        assertEquals("device-a", frame.getString(Frame.SLOT_DEVICE_ID));
+    }
+
+    @Test
+    public void backToBackFramesDecodeInTurn() {
+        ByteBuffer first = encode(new Message(1L, Message.TYPE_CHAT, 0, "one", "a", 1L));
+        ByteBuffer second = encode(new Message(2L, Message.TYPE_CHAT, 0, "two", "b", 2L));
+        ByteBuffer both = ByteBuffer.allocate(first.remaining() + second.remaining());
+        both.put(first).put(second).flip();
+
+        assertEquals(first.limit(), FrameCodec.peekFrameLength(both, 0));
+        Frame frame = new Frame();
+        assertEquals("one", FrameCodec.decode(both, frame).getString(Frame.SLOT_TEXT));
+        assertEquals("two", FrameCodec.decode(both, frame).getString(Frame.SLOT_TEXT));
+        assertEquals(0, both.remaining());
+    }
+
+    @Test
+    public void hopCountIsRewrittenInPlace() {
+        ByteBuffer buffer = encode(new Message(1L, Message.TYPE_CHAT, 0, "hop", "a", 1L));
+        FrameCodec.incrementHopCount(buffer, 0);
+        FrameCodec.incrementHopCount(buffer, 0);
+        assertEquals(2, FrameCodec.peekHopCount(buffer, 0));
+        assertEquals(2, FrameCodec.decode(buffer, new Frame()).getHopCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badMagicIsRejected() {
+        ByteBuffer buffer = encode(new Message(1L, Message.TYPE_CHAT, 0, "x", "a", 1L));
+        buffer.put(0, (byte) 0x7B);
+        FrameCodec.decode(buffer, new Frame());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownVersionIsRejected() {
+        ByteBuffer buffer = encode(new Message(1L, Message.TYPE_CHAT, 0, "x", "a", 1L));
+        buffer.put(1, (byte) (FrameCodec.VERSION + 1));
+        FrameCodec.decode(buffer, new Frame());
+    }
+
+    @Test(expected = BufferUnderflowException.class)
+    public void truncatedHeaderUnderflows() {
+        ByteBuffer buffer = encode(new Message(1L, Message.TYPE_CHAT, 0, "x", "a", 1L));
+        buffer.limit(FrameCodec.HEADER_SIZE - 3);
+        FrameCodec.decode(buffer, new Frame());
+    }
+
+    @Test(expected = BufferUnderflowException.class)
+    public void truncatedBodyUnderflows() {
+        ByteBuffer buffer = encode(new Message(1L, Message.TYPE_CHAT, 0, "some text", "a", 1L));
+        buffer.limit(buffer.limit() - 4);
+        FrameCodec.decode(buffer, new Frame());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void stringOverrunningTheBodyIsRejected() {
+        ByteBuffer buffer = encode(new Message(1L, Message.TYPE_CHAT, 0, "some text", "a", 1L));
+        // Shrink the declared body so the text string runs past it into what follows
+        buffer.put(FrameCodec.HEADER_SIZE, (byte) (buffer.get(FrameCodec.HEADER_SIZE) - 4));
+        FrameCodec.decode(buffer, new Frame());
+    }
+
+    @Test
+    public void partialFramesPeekAsIncomplete() {
+        ByteBuffer buffer = encode(new Message(1L, Message.TYPE_CHAT, 0, "partial", "a", 1L));
+        int length = buffer.limit();
+        for (int limit = 0; limit < length; limit++) {
+            buffer.limit(limit);
+            assertEquals(-1, FrameCodec.peekFrameLength(buffer, 0));
+        }
+        buffer.limit(length);
+        assertEquals(length, FrameCodec.peekFrameLength(buffer, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void overlongBodyLengthIsRejected() {
+        ByteBuffer buffer = ByteBuffer.allocate(FrameCodec.HEADER_SIZE + 6);
+        buffer.put(0, FrameCodec.MAGIC).put(1, (byte) FrameCodec.VERSION);
+        for (int i = FrameCodec.HEADER_SIZE; i < buffer.limit(); i++) {
+            buffer.put(i, (byte) 0xFF);
+        }
+        FrameCodec.peekFrameLength(buffer, 0);
+    }
+
+    @Test
+    public void encodedSizeIsWellUnderGsonJson() {
+        Gson gson = new Gson();
+        String[] texts = {"ok", "Meet at the gym at 5", new String(new char[200]).replace('\0', 'x')};
+        for (String text : texts) {
+            Message message = new Message(Message.newMessageId(), Message.TYPE_CHAT, 0, text, "student-4711",
+                    1700000000000L);
+            message.setRecipient("3f2a9c1e-device");
+            message.setSenderId("8b7d6e5f-device");
+            int binary = FrameCodec.encodedLength(message);
+            int json = gson.toJson(message).getBytes(StandardCharsets.UTF_8).length;
+            // Fixed overhead is the 14-byte header against JSON's field names and decimal numbers
+            assertTrue(text.length() + " chars: binary " + binary + " B, json " + json + " B",
+                    json - binary >= 80);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.dccn.connect.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LinkMetricsTest {
+
+    @Test
+    public void cleanFastLinkCostsPerfect() {
+        LinkMetrics metrics = new LinkMetrics();
+        metrics.onRssi("a", -40);
+        for (int i = 0; i < 20; i++) {
+            metrics.onProbe("a", 10);
+        }
+        assertEquals(LinkMetrics.PERFECT_COST, metrics.getCost("a"));
+    }
+
+    @Test
+    public void lossAndSlowAnswersRaiseTheCost() {
+        LinkMetrics metrics = new LinkMetrics();
+        for (int i = 0; i < 50; i++) {
+            metrics.onProbe("lossy", i % 2 == 0 ? 10 : -1);
+            metrics.onProbe("slow", 200);
+        }
+        // About half lost: ETX near 2
+        assertTrue(metrics.getCost("lossy") > 170);
+        assertEquals(4 * LinkMetrics.PERFECT_COST, metrics.getCost("slow"), 5);
+    }
+
+    @Test
+    public void weakSignalSetsTheLossPriorBeforeProbes() {
+        LinkMetrics metrics = new LinkMetrics();
+        metrics.onRssi("weak", -90);
+        assertEquals(0.5, metrics.getLossRate("weak"), 1e-9);
+        assertEquals(2 * LinkMetrics.PERFECT_COST, metrics.getCost("weak"));
+    }
+
+    @Test
+    public void linkDownKeepsOnlyTheSignal() {
+        LinkMetrics metrics = new LinkMetrics();
+        metrics.onRssi("a", -70);
+        metrics.onProbe("a", 300);
+        metrics.onBytes("a", 10000, 0);
+        metrics.onBytes("a", 10000, 1000);
+        metrics.onLinkDown("a");
+        assertEquals(-70, metrics.getRssi("a"));
+        assertEquals(-1, metrics.getRttMs("a"));
+        assertEquals(0.0, metrics.getThroughput("a"), 0.0);
+    }
+
+    @Test
+    public void forgetDropsEverything() {
+        LinkMetrics metrics = new LinkMetrics();
+        metrics.onRssi("a", -70);
+        metrics.onProbe("a", 300);
+        metrics.forget("a");
+        assertEquals(LinkMetrics.UNKNOWN_RSSI, metrics.getRssi("a"));
+        assertEquals(0, metrics.getProbes("a"));
+        assertEquals(LinkMetrics.PERFECT_COST, metrics.getCost("a"));
+    }
+
+    @Test
+    public void theLeastRecentlyMeasuredRadioIsDroppedPastTheBound() {
+        LinkMetrics metrics = new LinkMetrics();
+        metrics.onRssi("linked", -50);
+        for (int i = 0; i < LinkMetrics.MAX_LINKS; i++) {
+            metrics.onRssi("scanned-" + i, -80);
+            if (i % 100 == 0) {
+                // Still measured, so it stays
+                metrics.onProbe("linked", 20);
+            }
+        }
+        assertEquals(-50, metrics.getRssi("linked"));
+        assertEquals(LinkMetrics.UNKNOWN_RSSI, metrics.getRssi("scanned-0"));
+        assertEquals(-80, metrics.getRssi("scanned-" + (LinkMetrics.MAX_LINKS - 1)));
+    }
+}
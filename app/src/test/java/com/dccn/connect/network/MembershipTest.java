@@ -0,0 +1,229 @@
+package com.dccn.connect.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.dccn.connect.models.User;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MembershipTest {
+
+    // Timer tick, under half of Membership.PING_TIMEOUT_MS as the class asks
+    private static final long TICK_MS = 100;
+    private static final int TICKS_PER_PERIOD = (int) (Membership.PROTOCOL_PERIOD_MS / TICK_MS);
+
+    /**
+     * One Membership per node over fixed links. Frames arrive within the tick they were sent in,
+     * in order, and timers run in a shuffled order each tick, so runs are repeatable per seed.
+     */
+    private static final class Group {
+        final Membership[] nodes;
+        final Map<String, Integer> index = new HashMap<>();
+        final ArrayDeque<Object[]> inFlight = new ArrayDeque<>();
+        final List<Integer> order = new ArrayList<>();
+        final boolean[] silenced;
+        final Random random;
+        long nowMs;
+
+        Group(int size, long seed) {
+            random = new Random(seed);
+            nodes = new Membership[size];
+            silenced = new boolean[size];
+            for (int node = 0; node < size; node++) {
+                int from = node;
+                index.put(id(node), node);
+                order.add(node);
+                nodes[node] = new Membership(new User("user-" + node, User.USER_TYPE_STUDENT, id(node)),
+                        (peerId, frame) -> {
+                            byte[] bytes = new byte[frame.remaining()];
+                            frame.duplicate().get(bytes);
+                            inFlight.addLast(new Object[] {from, index.get(peerId), bytes});
+                        }, new Random(seed * 31 + node));
+            }
+        }
+
+        static Group complete(int size, long seed) {
+            Group group = new Group(size, seed);
+            for (int a = 0; a < size; a++) {
+                for (int b = a + 1; b < size; b++) {
+                    group.link(a, b);
+                }
+            }
+            return group;
+        }
+
+        static Group grid(int side, long seed) {
+            Group group = new Group(side * side, seed);
+            for (int node = 0; node < side * side; node++) {
+                if (node % side + 1 < side) {
+                    group.link(node, node + 1);
+                }
+                if (node + side < side * side) {
+                    group.link(node, node + side);
+                }
+            }
+            return group;
+        }
+
+        static String id(int node) {
+            return "node-" + node;
+        }
+
+        void link(int a, int b) {
+            nodes[a].onPeerConnected(id(b), nowMs);
+            nodes[b].onPeerConnected(id(a), nowMs);
+            deliver();
+        }
+
+        void tick() {
+            nowMs += TICK_MS;
+            Collections.shuffle(order, random);
+            for (int node : order) {
+                if (!silenced[node]) {
+                    nodes[node].onTimer(nowMs);
+                    deliver();
+                }
+            }
+        }
+
+        void runPeriods(int periods) {
+            for (int i = 0; i < periods * TICKS_PER_PERIOD; i++) {
+                tick();
+            }
+        }
+
+        void deliver() {
+            while (!inFlight.isEmpty()) {
+                Object[] transit = inFlight.pollFirst();
+                int from = (Integer) transit[0];
+                int to = (Integer) transit[1];
+                if (!silenced[from] && !silenced[to]) {
+                    nodes[to].onFrameReceived(id(from), ByteBuffer.wrap((byte[]) transit[2]), nowMs);
+                }
+            }
+        }
+
+        boolean everyoneKnowsEveryone() {
+            for (Membership node : nodes) {
+                if (node.getMemberCount(Membership.STATUS_ALIVE) < nodes.length - 1) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        long bytesSent() {
+            long bytes = 0;
+            for (Membership node : nodes) {
+                bytes += node.getBytesSent();
+            }
+            return bytes;
+        }
+    }
+
+    private static int log2(int n) {
+        return 32 - Integer.numberOfLeadingZeros(n - 1);
+    }
+
+    // Periods from node 0 renaming its user until every other node has the new name
+    private static int periodsToSpreadARename(Group group) {
+        int[] informed = new int[1];
+        for (int node = 1; node < group.nodes.length; node++) {
+            group.nodes[node].setOnMemberChangedListener((user, status) -> {
+                if (Group.id(0).equals(user.getDeviceId()) && "renamed".equals(user.getUsername())) {
+                    informed[0]++;
+                }
+            });
+        }
+        group.nodes[0].updateLocalUser(new User("renamed", User.USER_TYPE_STUDENT, Group.id(0)));
+        int ticks = 0;
+        while (informed[0] < group.nodes.length - 1 && ticks < 100 * TICKS_PER_PERIOD) {
+            group.tick();
+            ticks++;
+        }
+        assertEquals(group.nodes.length - 1, informed[0]);
+        return (ticks + TICKS_PER_PERIOD - 1) / TICKS_PER_PERIOD;
+    }
+
+    @Test
+    public void anUpdateCoversAFullyLinkedGroupInLogNPeriods() {
+        for (int size : new int[] {64, 256}) {
+            Group group = Group.complete(size, size);
+            group.runPeriods(30);
+            int periods = periodsToSpreadARename(group);
+            assertTrue(size + " nodes took " + periods + " periods", periods <= log2(size));
+        }
+    }
+
+    @Test
+    public void aMultiHopMeshConvergesWithinItsDiameterAtBoundedCost() {
+        double[] steadyBytes = new double[2];
+        int[] sides = {8, 16};
+        for (int i = 0; i < sides.length; i++) {
+            int side = sides[i];
+            int size = side * side;
+            Group group = Group.grid(side, side);
+            int diameter = 2 * (side - 1);
+            int periods = 0;
+            while (!group.everyoneKnowsEveryone() && periods < 4 * diameter) {
+                group.runPeriods(1);
+                periods++;
+            }
+            assertTrue(size + " nodes took " + periods + " periods", periods <= diameter);
+            for (Membership node : group.nodes) {
+                assertEquals(0, node.getMemberCount(Membership.STATUS_SUSPECT));
+            }
+            // Learning N members costs each node a few hundred bytes apiece, however far they are
+            long bytesPerNode = group.bytesSent() / size;
+            assertTrue(bytesPerNode + " B per node", bytesPerNode < 400L * size);
+
+            // Once the deltas retire, only probes and the roster walk are left
+            group.runPeriods(40);
+            long before = group.bytesSent();
+            group.runPeriods(20);
+            steadyBytes[i] = (group.bytesSent() - before) / 20.0 / size;
+        }
+        // A full-list exchange would grow fourfold with the roster; per-node gossip does not
+        assertTrue(steadyBytes[0] + " B then " + steadyBytes[1] + " B per node per period",
+                steadyBytes[1] < 1.25 * steadyBytes[0]);
+        assertTrue(steadyBytes[1] < 256);
+    }
+
+    @Test
+    public void aSilentNodeIsDeclaredDeadEverywhere() {
+        Group group = Group.grid(8, 3);
+        group.runPeriods(20);
+        assertTrue(group.everyoneKnowsEveryone());
+        // It goes quiet with its links still up, so only probing can tell
+        int failed = 27;
+        group.silenced[failed] = true;
+        int periods = 0;
+        boolean everywhere = false;
+        while (!everywhere && periods < 60) {
+            group.runPeriods(1);
+            periods++;
+            everywhere = true;
+            for (int node = 0; node < group.nodes.length; node++) {
+                if (node != failed && group.nodes[node].getStatus(Group.id(failed)) != Membership.STATUS_DEAD) {
+                    everywhere = false;
+                }
+            }
+        }
+        assertTrue("still not dead everywhere after " + periods + " periods", everywhere);
+        for (int node = 0; node < group.nodes.length; node++) {
+            if (node != failed) {
+                assertEquals(1, group.nodes[node].getMemberCount(Membership.STATUS_DEAD));
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.dccn.connect.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class OlsrRouterTest {
+
+    // Long enough for HELLOs and a round of TCs to cover a small mesh
+    private static final long WARMUP_MS = 2 * OlsrRouter.TC_MIN_INTERVAL_MS + OlsrRouter.HELLO_INTERVAL_MS;
+
+    private static MeshRouter olsr(String id) {
+        return new OlsrRouter(id);
+    }
+
+    private static long fallbackFloods(TestMesh mesh) {
+        long floods = 0;
+        for (int node = 0; node < mesh.size(); node++) {
+            MeshRouter router = mesh.router(node);
+            floods += router instanceof OlsrRouter ? ((OlsrRouter) router).getFallbackFloods()
+                    : ((AodvRouter) router).getFallbackFloods();
+        }
+        return floods;
+    }
+
+    private static void assertDeliveredOnce(TestMesh mesh, int from, int to) {
+        long messageId = mesh.sendPrivate(from, to);
+        // Anything still waiting for a route gets it within a discovery's worst case
+        mesh.advance(5000);
+        assertEquals(TestMesh.id(from) + " -> " + TestMesh.id(to), 1, mesh.deliveries(to, messageId));
+        for (int node = 0; node < mesh.size(); node++) {
+            if (node != to) {
+                assertEquals(0, mesh.deliveries(node, messageId));
+            }
+        }
+    }
+
+    // A grid with a few random shortcuts, so neighbourhoods overlap unevenly
+    private static TestMesh shortcutGrid(int side, long seed) {
+        Random random = new Random(seed);
+        TestMesh mesh = new TestMesh(side * side, OlsrRouterTest::olsr);
+        for (int node = 0; node < side * side; node++) {
+            if (node % side + 1 < side) {
+                mesh.link(node, node + 1);
+            }
+            if (node + side < side * side) {
+                mesh.link(node, node + side);
+            }
+        }
+        for (int i = 0; i < side; i++) {
+            int a = random.nextInt(side * side);
+            int b = random.nextInt(side * side);
+            if (a != b) {
+                mesh.link(a, b);
+            }
+        }
+        return mesh;
+    }
+
+    // Hop counts from one node over the mesh's links
+    private static int[] hopsFrom(TestMesh mesh, int from) {
+        int[] hops = new int[mesh.size()];
+        Arrays.fill(hops, -1);
+        hops[from] = 0;
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(from);
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int next = 0; next < mesh.size(); next++) {
+                if (hops[next] < 0 && mesh.isLinked(node, next)) {
+                    hops[next] = hops[node] + 1;
+                    queue.add(next);
+                }
+            }
+        }
+        return hops;
+    }
+
+    @Test
+    public void relaysCoverEveryTwoHopNeighbour() {
+        TestMesh mesh = shortcutGrid(7, 5);
+        mesh.advance(WARMUP_MS);
+        for (int node = 0; node < mesh.size(); node++) {
+            OlsrRouter router = (OlsrRouter) mesh.router(node);
+            Set<String> mprs = router.getMprs();
+            int[] hops = hopsFrom(mesh, node);
+            for (int twoHop = 0; twoHop < mesh.size(); twoHop++) {
+                if (hops[twoHop] != 2) {
+                    continue;
+                }
+                boolean covered = false;
+                for (String mpr : mprs) {
+                    covered |= mesh.isLinked(Integer.parseInt(mpr.substring(1)), twoHop);
+                }
+                assertTrue(TestMesh.id(node) + " leaves " + TestMesh.id(twoHop) + " uncovered", covered);
+            }
+            int selectors = 0;
+            for (int neighbour = 0; neighbour < mesh.size(); neighbour++) {
+                if (mesh.isLinked(node, neighbour)) {
+                    selectors += ((OlsrRouter) mesh.router(neighbour)).getMprs().contains(TestMesh.id(node)) ? 1 : 0;
+                } else {
+                    assertFalse(mprs.contains(TestMesh.id(neighbour)));
+                }
+            }
+            assertEquals(selectors, router.getMprSelectorCount());
+        }
+    }
+
+    @Test
+    public void topologyUpdatesTravelOnlyThroughRelays() {
+        // Diagonal links too, so two-hop neighbourhoods overlap and few neighbours need to relay
+        int side = 7;
+        TestMesh mesh = new TestMesh(side * side, OlsrRouterTest::olsr);
+        for (int row = 0; row < side; row++) {
+            for (int column = 0; column < side; column++) {
+                for (int[] step : new int[][] {{0, 1}, {1, -1}, {1, 0}, {1, 1}}) {
+                    int r = row + step[0];
+                    int c = column + step[1];
+                    if (r < side && c >= 0 && c < side) {
+                        mesh.link(row * side + column, r * side + c);
+                    }
+                }
+            }
+        }
+        mesh.advance(WARMUP_MS);
+        long originated = 0;
+        long forwarded = 0;
+        for (int node = 0; node < mesh.size(); node++) {
+            OlsrRouter router = (OlsrRouter) mesh.router(node);
+            originated += router.getTcsOriginated();
+            forwarded += router.getTcsForwarded();
+            if (router.getMprSelectorCount() == 0) {
+                // Nobody relies on it, so it neither advertises nor relays
+                assertEquals(TestMesh.id(node), 0, router.getTcsForwarded());
+            }
+        }
+        assertTrue(forwarded > 0);
+        // A flood has every node pass on every TC
+        assertTrue(forwarded + " relays for " + originated + " TCs", forwarded < originated * (mesh.size() - 1) / 2);
+
+        // And still every node learns a shortest path to every other
+        for (int node = 0; node < mesh.size(); node++) {
+            OlsrRouter router = (OlsrRouter) mesh.router(node);
+            int[] hops = hopsFrom(mesh, node);
+            assertEquals(mesh.size() - 1, router.getRouteCount());
+            for (int other = 0; other < mesh.size(); other++) {
+                if (other != node) {
+                    assertEquals(hops[other], router.getHopCount(TestMesh.id(other)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void aSettledMeshRoutesWithoutDiscovery() {
+        TestMesh mesh = TestMesh.line(6, OlsrRouterTest::olsr);
+        mesh.advance(WARMUP_MS);
+        OlsrRouter first = (OlsrRouter) mesh.router(0);
+        assertEquals(5, first.getRouteCount());
+        assertEquals(5, first.getHopCount(TestMesh.id(5)));
+
+        assertDeliveredOnce(mesh, 0, 5);
+        assertDeliveredOnce(mesh, 5, 0);
+        for (int node = 0; node < mesh.size(); node++) {
+            assertEquals(0, ((OlsrRouter) mesh.router(node)).getRouteDiscoveries());
+        }
+        assertEquals(0, fallbackFloods(mesh));
+    }
+
+    @Test
+    public void routesCrossDevicesRunningTheOtherRouter() {
+        // OLSR on even nodes, AODV on odd ones: every path alternates
+        TestMesh mesh = TestMesh.line(7, id -> Integer.parseInt(id.substring(1)) % 2 == 0
+                ? new OlsrRouter(id) : new AodvRouter(id));
+        mesh.advance(WARMUP_MS);
+
+        assertDeliveredOnce(mesh, 0, 6);
+        assertDeliveredOnce(mesh, 6, 0);
+        assertDeliveredOnce(mesh, 1, 5);
+        assertDeliveredOnce(mesh, 2, 3);
+        assertDeliveredOnce(mesh, 3, 0);
+        // Found by discovery across both kinds of node, not flooded
+        assertEquals(0, fallbackFloods(mesh));
+        assertTrue(((OlsrRouter) mesh.router(0)).getRouteDiscoveries() > 0);
+    }
+
+    @Test
+    public void aMixedGridDeliversEveryConversation() {
+        int side = 5;
+        Random random = new Random(20);
+        boolean[] proactive = new boolean[side * side];
+        for (int node = 0; node < proactive.length; node++) {
+            proactive[node] = random.nextBoolean();
+        }
+        TestMesh mesh = new TestMesh(side * side, id -> proactive[Integer.parseInt(id.substring(1))]
+                ? new OlsrRouter(id) : new AodvRouter(id));
+        for (int row = 0; row < side; row++) {
+            for (int column = 0; column < side; column++) {
+                int node = row * side + column;
+                if (column + 1 < side) {
+                    mesh.link(node, node + 1);
+                }
+                if (row + 1 < side) {
+                    mesh.link(node, node + side);
+                }
+            }
+        }
+        mesh.advance(WARMUP_MS);
+
+        for (int i = 0; i < 20; i++) {
+            int from = random.nextInt(side * side);
+            int to = random.nextInt(side * side - 1);
+            assertDeliveredOnce(mesh, from, to < from ? to : to + 1);
+        }
+        assertEquals(0, fallbackFloods(mesh));
+    }
+
+    @Test
+    public void broadcastsReachEveryKindOfNode() {
+        TestMesh mesh = TestMesh.line(5, id -> Integer.parseInt(id.substring(1)) % 2 == 0
+                ? new OlsrRouter(id) : new AodvRouter(id));
+        mesh.advance(WARMUP_MS);
+        long messageId = mesh.broadcast(2);
+        for (int node = 0; node < mesh.size(); node++) {
+            if (node != 2) {
+                assertEquals(1, mesh.deliveries(node, messageId));
+            }
+        }
+    }
+}
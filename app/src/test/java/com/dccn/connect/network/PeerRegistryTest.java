@@ -0,0 +1,78 @@
+package com.dccn.connect.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.dccn.connect.models.User;
+
+import org.junit.Test;
+
+public class PeerRegistryTest {
+
+    @Test
+    public void radiosAreUnidentifiedUntilTheirHello() {
+        PeerRegistry registry = new PeerRegistry();
+        registry.setState("bt", "AA:BB", PeerRegistry.STATE_CONNECTED, 1L);
+        PeerRegistry.Peer peer = registry.find("AA:BB");
+        assertFalse(peer.isIdentified());
+        assertNull(peer.getDeviceId());
+        assertEquals(PeerRegistry.USER_TYPE_UNKNOWN, peer.getUserType());
+    }
+
+    @Test
+    public void helloIdentifiesTheMergedEntry() {
+        PeerRegistry registry = new PeerRegistry();
+        registry.setState("bt", "AA:BB", PeerRegistry.STATE_CONNECTED, 1L);
+        registry.merge("AA:BB", "device-1");
+        registry.identify("device-1", "device-1", User.USER_TYPE_RESCUE_TEAM);
+
+        assertNull(registry.find("AA:BB"));
+        PeerRegistry.Peer peer = registry.find("device-1");
+        assertTrue(peer.isIdentified());
+        assertEquals("device-1", peer.getDeviceId());
+        assertEquals(User.USER_TYPE_RESCUE_TEAM, peer.getUserType());
+        assertTrue(peer.isConnected());
+    }
+
+    @Test
+    public void identityOutlivesLaterUpdatesAndMerges() {
+        PeerRegistry registry = new PeerRegistry();
+        registry.setState("wifi", "device-1", PeerRegistry.STATE_CONNECTED, 1L);
+        registry.identify("device-1", "device-1", User.USER_TYPE_STUDENT);
+        registry.setLinkQuality("device-1", -50, 100);
+        registry.onDiscovered("wifi", "device-1", "Pixel", 2L);
+        // The same phone turns up over its other radio, not yet identified there
+        registry.onDiscovered("bt", "CC:DD", null, 3L);
+        registry.merge("CC:DD", "device-1");
+
+        PeerRegistry.Peer peer = registry.find("device-1");
+        assertEquals("device-1", peer.getDeviceId());
+        assertEquals(User.USER_TYPE_STUDENT, peer.getUserType());
+        assertEquals("Pixel", peer.getName());
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void identifyingPublishesAnUpdate() {
+        PeerRegistry registry = new PeerRegistry();
+        int[] updates = {0};
+        registry.setOnPeersChangedListener(changes -> {
+            for (PeerRegistry.Change change : changes) {
+                if (change.getType() == PeerRegistry.Change.UPDATED) {
+                    updates[0]++;
+                }
+            }
+        });
+        registry.setState("bt", "device-1", PeerRegistry.STATE_CONNECTED, 1L);
+        registry.flush();
+        registry.identify("device-1", "device-1", User.USER_TYPE_STUDENT);
+        registry.flush();
+        assertEquals(1, updates[0]);
+        // Hearing the same hello again changes nothing
+        registry.identify("device-1", "device-1", User.USER_TYPE_STUDENT);
+        registry.flush();
+        assertEquals(1, updates[0]);
+    }
+}
@@ -0,0 +1,249 @@
+package com.dccn.connect.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.dccn.connect.models.Message;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReassemblerTest {
+
+    private static final int MTU = 1024;
+    private static final long TIMEOUT_MS = 10_000;
+
+    private final List<byte[]> delivered = new ArrayList<>();
+    private CountingPool pool;
+    private Reassembler reassembler;
+
+    // Counts allocations, so tests can tell a rejected fragment never took a buffer
+    private static final class CountingPool extends BufferPool {
+        long acquiredBytes;
+
+        CountingPool() {
+            super(64L * 1024 * 1024);
+        }
+
+        @Override
+        public synchronized ByteBuffer acquire(int size) {
+            ByteBuffer buffer = super.acquire(size);
+            acquiredBytes += buffer.capacity();
+            return buffer;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        pool = new CountingPool();
+        reassembler = newReassembler(Reassembler.DEFAULT_MAX_BYTES_PER_SENDER, Reassembler.DEFAULT_MAX_TOTAL_BYTES);
+    }
+
+    private Reassembler newReassembler(long maxPerSender, long maxTotal) {
+        return new Reassembler(pool, (peerId, frame) -> {
+            byte[] bytes = new byte[frame.remaining()];
+            frame.get(bytes);
+            delivered.add(bytes);
+        }, TIMEOUT_MS, Reassembler.DEFAULT_MAX_FRAME_BYTES, maxPerSender, maxTotal);
+    }
+
+    private static ByteBuffer frame(long messageId, int textLength) {
+        StringBuilder text = new StringBuilder(textLength);
+        Random random = new Random(messageId);
+        for (int i = 0; i < textLength; i++) {
+            text.append((char) ('a' + random.nextInt(26)));
+        }
+        Message message = new Message(messageId, Message.TYPE_CHAT, 0, text.toString(), "sender", 1000L);
+        ByteBuffer frame = ByteBuffer.allocate(FrameCodec.encodedLength(message));
+        FrameCodec.encode(message, FrameCodec.DEFAULT_HOP_LIMIT, frame);
+        frame.flip();
+        return frame;
+    }
+
+    private static List<ByteBuffer> fragments(ByteBuffer frame) {
+        List<ByteBuffer> fragments = new ArrayList<>();
+        new Fragmenter(MTU).fragment(frame, fragment -> {
+            ByteBuffer copy = ByteBuffer.allocate(fragment.remaining());
+            copy.put(fragment).flip();
+            fragments.add(copy);
+        });
+        return fragments;
+    }
+
+    private static byte[] bytes(ByteBuffer frame) {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.duplicate().get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void reassemblesFragmentsInAnyOrder() {
+        ByteBuffer frame = frame(1, 20_000);
+        List<ByteBuffer> fragments = fragments(frame);
+        assertTrue(fragments.size() > 10);
+        Collections.shuffle(fragments, new Random(7));
+
+        for (ByteBuffer fragment : fragments) {
+            assertTrue(reassembler.onFragment("peer", fragment, 0));
+        }
+
+        assertEquals(1, delivered.size());
+        assertArrayEquals(bytes(frame), delivered.get(0));
+        assertEquals(0, reassembler.getBytesInUse());
+    }
+
+    @Test
+    public void duplicatesAreIgnored() {
+        ByteBuffer frame = frame(2, 5000);
+        List<ByteBuffer> fragments = fragments(frame);
+        reassembler.onFragment("peer", fragments.get(0).duplicate(), 0);
+        assertFalse(reassembler.onFragment("peer", fragments.get(0).duplicate(), 0));
+        for (ByteBuffer fragment : fragments) {
+            reassembler.onFragment("peer", fragment.duplicate(), 0);
+        }
+        // A late copy after delivery must not start a new partial frame
+        assertFalse(reassembler.onFragment("peer", fragments.get(1).duplicate(), 0));
+
+        assertEquals(1, delivered.size());
+        // Fragment 0 twice more, then the late copy
+        assertEquals(3, reassembler.getDuplicates());
+        assertEquals(0, reassembler.getBytesInUse());
+    }
+
+    @Test
+    public void lostFragmentExpiresAndFreesItsBuffer() {
+        List<ByteBuffer> fragments = fragments(frame(3, 10_000));
+        for (int i = 1; i < fragments.size(); i++) {
+            reassembler.onFragment("peer", fragments.get(i), 0);
+        }
+        assertTrue(delivered.isEmpty());
+        assertTrue(reassembler.getBytesInUse() > 0);
+
+        assertEquals(0, reassembler.expire(TIMEOUT_MS - 1));
+        assertEquals(1, reassembler.expire(TIMEOUT_MS));
+        assertEquals(0, reassembler.getBytesInUse());
+        assertEquals(1, reassembler.getExpired());
+    }
+
+    @Test
+    public void aStalledPartialIsReleasedByTheTimerAlone() {
+        List<ByteBuffer> fragments = fragments(frame(7, 10_000));
+        for (int i = 0; i < fragments.size() / 2; i++) {
+            reassembler.onFragment("peer", fragments.get(i), 0);
+        }
+        long held = reassembler.getBytesInUse();
+        assertTrue(held > 0);
+
+        // The service's tick, with no fragment from anyone after the first half
+        long tickMs = 50;
+        long releasedAt = -1;
+        for (long now = tickMs; now <= 2 * TIMEOUT_MS && releasedAt < 0; now += tickMs) {
+            if (reassembler.expire(now) > 0) {
+                releasedAt = now;
+            }
+        }
+        assertEquals(TIMEOUT_MS, releasedAt);
+        assertEquals(0, reassembler.getBytesInUse());
+        assertEquals(held, pool.getRetainedBytes());
+        assertTrue(delivered.isEmpty());
+    }
+
+    @Test
+    public void progressKeepsAPartialAlive() {
+        List<ByteBuffer> fragments = fragments(frame(4, 10_000));
+        for (int i = 0; i < fragments.size(); i++) {
+            reassembler.onFragment("peer", fragments.get(i), i * (TIMEOUT_MS / 2));
+        }
+        assertEquals(1, delivered.size());
+        assertEquals(0, reassembler.getExpired());
+    }
+
+    @Test
+    public void clearingAPeerEvictsItsPartials() {
+        reassembler.onFragment("a", fragments(frame(5, 10_000)).get(0), 0);
+        reassembler.onFragment("b", fragments(frame(6, 10_000)).get(0), 0);
+        long perFrame = reassembler.getBytesInUse() / 2;
+
+        reassembler.clear("a");
+
+        assertEquals(perFrame, reassembler.getBytesInUse());
+    }
+
+    @Test
+    public void capsAreCheckedBeforeAllocating() {
+        reassembler = newReassembler(64 * 1024, 128 * 1024);
+        // A forged first fragment claiming an 8 MiB frame
+        ByteBuffer forged = ByteBuffer.allocate(64);
+        FrameCodec.writeHeader(forged, FrameCodec.KIND_FRAGMENT, 0, 0, 1, 99);
+        int total = Reassembler.DEFAULT_MAX_FRAME_BYTES;
+        Varint.writeUnsigned(forged, Varint.sizeOf(total) + 1 + Varint.sizeOf(1000) + 4);
+        Varint.writeUnsigned(forged, total);
+        Varint.writeUnsigned(forged, 0);
+        Varint.writeUnsigned(forged, 1000);
+        forged.putInt(0);
+        forged.flip();
+
+        assertFalse(reassembler.onFragment("attacker", forged, 0));
+        assertEquals(0, pool.acquiredBytes);
+        assertEquals(1, reassembler.getRejected());
+        assertEquals(0, reassembler.getBytesInUse());
+    }
+
+    @Test
+    public void perSenderCapLimitsConcurrentPartials() {
+        // Each 20 kB frame takes a 32 KiB buffer; the cap fits two per sender
+        reassembler = newReassembler(64 * 1024, 1024 * 1024);
+        for (int id = 10; id < 14; id++) {
+            reassembler.onFragment("peer", fragments(frame(id, 20_000)).get(0), 0);
+        }
+        assertEquals(64 * 1024, reassembler.getBytesInUse());
+        assertEquals(2, reassembler.getRejected());
+
+        // Another sender has its own budget
+        assertTrue(reassembler.onFragment("other", fragments(frame(20, 20_000)).get(0), 0));
+    }
+
+    @Test
+    public void peakMemoryIsBoundedByFramesInFlight() {
+        int inFlight = 4;
+        List<List<ByteBuffer>> frames = new ArrayList<>();
+        for (int id = 0; id < inFlight; id++) {
+            frames.add(fragments(frame(100 + id, 20_000)));
+        }
+        // Interleave fragments of the frames in flight, as several senders' traffic would be
+        int most = 0;
+        for (List<ByteBuffer> fragments : frames) {
+            most = Math.max(most, fragments.size());
+        }
+        for (int index = 0; index < most; index++) {
+            for (int id = 0; id < inFlight; id++) {
+                List<ByteBuffer> fragments = frames.get(id);
+                if (index < fragments.size()) {
+                    reassembler.onFragment("peer" + id, fragments.get(index), 0);
+                }
+            }
+        }
+        assertEquals(inFlight, delivered.size());
+        assertEquals(inFlight * (long) BufferPool.capacityFor(20_100), reassembler.getPeakBytesInUse());
+
+        // Sequential frames reuse one pooled buffer
+        long acquiredBefore = pool.acquiredBytes;
+        for (int id = 0; id < 20; id++) {
+            for (ByteBuffer fragment : fragments(frame(200 + id, 20_000))) {
+                reassembler.onFragment("peer", fragment, 0);
+            }
+        }
+        assertEquals(inFlight + 20, delivered.size());
+        assertEquals(inFlight * (long) BufferPool.capacityFor(20_100), reassembler.getPeakBytesInUse());
+        assertEquals(20L * BufferPool.capacityFor(20_100), pool.acquiredBytes - acquiredBefore);
+        assertEquals(inFlight * (long) BufferPool.capacityFor(20_100), pool.getRetainedBytes());
+    }
+}
@@ -0,0 +1,192 @@
+package com.dccn.connect.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ReliableChannelTest {
+
+    private static final int PAYLOAD_BYTES = 1000;
+    private static final int PAYLOADS = 2000;
+    private static final long DELAY_MS = 20;
+    private static final long MAX_SIM_MS = 600_000;
+
+    /**
+     * One direction of a lossy loopback: serialises a segment per millisecond, delays each by
+     * {@link #DELAY_MS} and drops a fraction at random
+     */
+    private static final class LossyLink implements ReliableChannel.SegmentSender {
+        final ArrayDeque<long[]> times = new ArrayDeque<>();
+        final ArrayDeque<ByteBuffer> segments = new ArrayDeque<>();
+        final Random random;
+        final double loss;
+        long nowMs;
+        long lastDepartureMs;
+        long offered;
+
+        LossyLink(double loss, long seed) {
+            this.loss = loss;
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public void sendSegment(ByteBuffer segment) {
+            offered++;
+            lastDepartureMs = Math.max(nowMs, lastDepartureMs) + 1;
+            if (random.nextDouble() < loss) {
+                return;
+            }
+            ByteBuffer copy = ByteBuffer.allocate(segment.remaining());
+            copy.put(segment.duplicate()).flip();
+            times.addLast(new long[] {lastDepartureMs + DELAY_MS});
+            segments.addLast(copy);
+        }
+
+        void deliver(ReliableChannel to, long nowMs) {
+            while (!times.isEmpty() && times.peekFirst()[0] <= nowMs) {
+                times.pollFirst();
+                to.onSegment(segments.pollFirst(), nowMs);
+            }
+        }
+    }
+
+    private static final class Result {
+        final List<Integer> received = new ArrayList<>();
+        long finishedMs = -1;
+        long offeredSegments;
+        long smoothedRttMs;
+
+        double goodputBytesPerSecond() {
+            return received.size() * (double) PAYLOAD_BYTES * 1000 / finishedMs;
+        }
+    }
+
+    private static Result transfer(double loss, long seed) {
+        Result result = new Result();
+        LossyLink forward = new LossyLink(loss, seed);
+        LossyLink backward = new LossyLink(loss, seed + 1);
+        ReliableChannel receiver = new ReliableChannel(backward,
+                payload -> result.received.add(payload.getInt(payload.position())));
+        ReliableChannel sender = new ReliableChannel(forward, payload -> { },
+                ReliableChannel.DEFAULT_WINDOW, PAYLOADS);
+
+        for (int i = 0; i < PAYLOADS; i++) {
+            ByteBuffer payload = ByteBuffer.allocate(PAYLOAD_BYTES);
+            payload.putInt(0, i);
+            assertTrue(sender.send(payload, 0));
+        }
+        for (long now = 0; now < MAX_SIM_MS; now++) {
+            forward.nowMs = now;
+            backward.nowMs = now;
+            forward.deliver(receiver, now);
+            backward.deliver(sender, now);
+            sender.onTimer(now);
+            receiver.onTimer(now);
+            if (result.received.size() == PAYLOADS) {
+                result.finishedMs = now;
+                break;
+            }
+        }
+        result.offeredSegments = forward.offered;
+        result.smoothedRttMs = sender.getSmoothedRttMs();
+        return result;
+    }
+
+    private static void assertDeliveredInOrder(Result result) {
+        assertEquals(PAYLOADS, result.received.size());
+        for (int i = 0; i < PAYLOADS; i++) {
+            assertEquals(i, (int) result.received.get(i));
+        }
+    }
+
+    @Test
+    public void losslessLinkRunsNearLineRate() {
+        Result result = transfer(0, 1);
+        assertDeliveredInOrder(result);
+        // One segment per millisecond is the line rate
+        assertTrue("goodput " + result.goodputBytesPerSecond(),
+                result.goodputBytesPerSecond() > 0.9 * PAYLOAD_BYTES * 1000);
+        assertEquals(PAYLOADS, result.offeredSegments);
+    }
+
+    @Test
+    public void goodputDegradesGracefullyWithLoss() {
+        double lossless = transfer(0, 1).goodputBytesPerSecond();
+        double[] losses = {0.01, 0.05, 0.1, 0.2, 0.3};
+        // Holes are repaired while the window keeps moving, so goodput falls little beyond the
+        // retransmissions themselves until repairs start getting lost as well
+        double[] minimumShare = {0.9, 0.75, 0.65, 0.5, 0.35};
+        for (int i = 0; i < losses.length; i++) {
+            Result result = transfer(losses[i], 42 + i);
+            assertDeliveredInOrder(result);
+            double share = result.goodputBytesPerSecond() / lossless;
+            assertTrue("loss " + losses[i] + " share " + share, share >= minimumShare[i]);
+        }
+    }
+
+    @Test
+    public void heavyLossDoesNotInflateTheRoundTripEstimate() {
+        Result result = transfer(0.3, 4);
+        assertDeliveredInOrder(result);
+        // The path's real round trip is 2 * DELAY_MS plus at most a window of queueing. Segments
+        // acked only once a repair closed the hole below them must not be timed.
+        assertTrue("srtt " + result.smoothedRttMs,
+                result.smoothedRttMs <= 2 * DELAY_MS + ReliableChannel.DEFAULT_WINDOW);
+    }
+
+    @Test
+    public void selectiveAcksKeepRetransmissionsNearTheLossRate() {
+        Result result = transfer(0.1, 7);
+        assertDeliveredInOrder(result);
+        // Each payload needs 1 / (1 - loss) transmissions on average; allow for some timeouts
+        double perPayload = (double) result.offeredSegments / PAYLOADS;
+        assertTrue("segments per payload " + perPayload, perPayload < 1.3);
+    }
+
+    @Test
+    public void drainingHandsBackEverythingThePeerHasNotAcknowledged() {
+        List<ByteBuffer> data = new ArrayList<>();
+        List<ByteBuffer> acks = new ArrayList<>();
+        ReliableChannel sender = new ReliableChannel(segment -> data.add(copyOf(segment)), payload -> { }, 8, 16);
+        ReliableChannel receiver = new ReliableChannel(segment -> acks.add(copyOf(segment)), payload -> { });
+        for (int i = 0; i < 5; i++) {
+            sender.send(payload(i), 0);
+        }
+        // A window of 8 keeps two unacknowledged: 0 and 1 go out, 2 to 4 wait
+        assertEquals(2, data.size());
+        receiver.onSegment(data.get(0), 10);
+        sender.onSegment(acks.get(0), 20);
+        // 1 is lost and 2 arrives past the hole, so it is only SACKed
+        receiver.onSegment(data.get(2), 30);
+        sender.onSegment(acks.get(1), 40);
+        assertEquals(4, data.size());
+
+        List<ByteBuffer> unacknowledged = sender.drainUnacknowledged();
+        assertEquals(4, unacknowledged.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i + 1, unacknowledged.get(i).getInt(0));
+        }
+        assertEquals(0, sender.getInFlight());
+        assertEquals(0, sender.getQueued());
+        assertTrue(sender.drainUnacknowledged().isEmpty());
+    }
+
+    private static ByteBuffer payload(int value) {
+        ByteBuffer payload = ByteBuffer.allocate(4);
+        payload.putInt(value).flip();
+        return payload;
+    }
+
+    private static ByteBuffer copyOf(ByteBuffer segment) {
+        ByteBuffer copy = ByteBuffer.allocate(segment.remaining());
+        copy.put(segment.duplicate()).flip();
+        return copy;
+    }
+}
@@ -0,0 +1,93 @@
+package com.dccn.connect.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SeenIdCacheTest {
+
+    @Test
+    public void secondAddIsADuplicate() {
+        SeenIdCache cache = new SeenIdCache(8);
+        assertTrue(cache.add(42L));
+        assertFalse(cache.add(42L));
+        assertTrue(cache.contains(42L));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void zeroIsAnOrdinaryId() {
+        SeenIdCache cache = new SeenIdCache(2);
+        assertFalse(cache.contains(0L));
+        assertTrue(cache.add(0L));
+        assertFalse(cache.add(0L));
+        cache.add(1L);
+        cache.add(2L);
+        assertFalse(cache.contains(0L));
+    }
+
+    @Test
+    public void oldestIdIsEvictedFirst() {
+        SeenIdCache cache = new SeenIdCache(4);
+        for (long id = 1; id <= 6; id++) {
+            cache.add(id);
+        }
+        assertEquals(4, cache.size());
+        assertFalse(cache.contains(1L));
+        assertFalse(cache.contains(2L));
+        for (long id = 3; id <= 6; id++) {
+            assertTrue(cache.contains(id));
+        }
+        // An evicted ID counts as new again
+        assertTrue(cache.add(1L));
+    }
+
+    @Test
+    public void evictionKeepsProbeChainsIntact() {
+        // IDs that collide in the table exercise backward-shift deletion on every eviction
+        int capacity = 64;
+        SeenIdCache cache = new SeenIdCache(capacity);
+        Random random = new Random(1);
+        long[] ids = new long[20000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = random.nextInt(4 * capacity);
+        }
+        long[] window = new long[capacity];
+        int windowSize = 0;
+        int windowHead = 0;
+        for (long id : ids) {
+            boolean expected = true;
+            for (int j = 0; j < windowSize; j++) {
+                if (window[j] == id) {
+                    expected = false;
+                    break;
+                }
+            }
+            assertEquals("add(" + id + ")", expected, cache.add(id));
+            if (expected) {
+                window[windowHead] = id;
+                windowHead = (windowHead + 1) % capacity;
+                windowSize = Math.min(windowSize + 1, capacity);
+            }
+            for (int j = 0; j < windowSize; j++) {
+                assertTrue(cache.contains(window[j]));
+            }
+        }
+    }
+
+    @Test
+    public void clearForgetsEverything() {
+        SeenIdCache cache = new SeenIdCache(4);
+        cache.add(0L);
+        cache.add(7L);
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertFalse(cache.contains(0L));
+        assertFalse(cache.contains(7L));
+        assertTrue(cache.add(7L));
+    }
+}
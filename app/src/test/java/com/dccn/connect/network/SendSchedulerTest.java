@@ -0,0 +1,118 @@
+package com.dccn.connect.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class SendSchedulerTest {
+
+    private static final int FRAME_BYTES = 100;
+
+    @Test
+    public void backloggedClassesShareBytesByWeight() {
+        SendScheduler scheduler = new SendScheduler();
+        for (int i = 0; i < 500; i++) {
+            scheduler.enqueue("peer", ByteBuffer.allocate(FRAME_BYTES), SendScheduler.CLASS_CONTROL);
+            scheduler.enqueue("peer", ByteBuffer.allocate(FRAME_BYTES), SendScheduler.CLASS_CHAT);
+            scheduler.enqueue("peer", ByteBuffer.allocate(FRAME_BYTES), SendScheduler.CLASS_BULK);
+        }
+
+        long[] bytes = new long[SendScheduler.CLASS_COUNT];
+        long total = 0;
+        for (int i = 0; i < 700; i++) {
+            SendScheduler.Entry entry = scheduler.poll();
+            bytes[entry.getTrafficClass()] += entry.getFrame().remaining();
+            total += entry.getFrame().remaining();
+        }
+
+        // Default weights 4:2:1; allow one quantum's worth of skew at the point the run stops
+        assertEquals(4.0 / 7, (double) bytes[SendScheduler.CLASS_CONTROL] / total, 0.02);
+        assertEquals(2.0 / 7, (double) bytes[SendScheduler.CLASS_CHAT] / total, 0.02);
+        assertEquals(1.0 / 7, (double) bytes[SendScheduler.CLASS_BULK] / total, 0.02);
+    }
+
+    @Test
+    public void customWeightsAreHonoured() {
+        SendScheduler scheduler = new SendScheduler(new int[] {0, 1, 1, 3}, 2048);
+        for (int i = 0; i < 1000; i++) {
+            scheduler.enqueue("peer", ByteBuffer.allocate(300), SendScheduler.CLASS_CONTROL);
+            scheduler.enqueue("peer", ByteBuffer.allocate(300), SendScheduler.CLASS_CHAT);
+            scheduler.enqueue("peer", ByteBuffer.allocate(300), SendScheduler.CLASS_BULK);
+        }
+        long[] bytes = new long[SendScheduler.CLASS_COUNT];
+        for (int i = 0; i < 1000; i++) {
+            SendScheduler.Entry entry = scheduler.poll();
+            bytes[entry.getTrafficClass()] += entry.getFrame().remaining();
+        }
+        long total = bytes[SendScheduler.CLASS_CONTROL] + bytes[SendScheduler.CLASS_CHAT]
+                + bytes[SendScheduler.CLASS_BULK];
+        assertEquals(0.2, (double) bytes[SendScheduler.CLASS_CONTROL] / total, 0.02);
+        assertEquals(0.2, (double) bytes[SendScheduler.CLASS_CHAT] / total, 0.02);
+        assertEquals(0.6, (double) bytes[SendScheduler.CLASS_BULK] / total, 0.02);
+    }
+
+    @Test
+    public void framesLargerThanAQuantumStillGetTheirShare() {
+        SendScheduler scheduler = new SendScheduler(new int[] {0, 4, 2, 1}, 8192);
+        for (int i = 0; i < 200; i++) {
+            scheduler.enqueue("peer", ByteBuffer.allocate(4000), SendScheduler.CLASS_BULK);
+        }
+        for (int i = 0; i < 5000; i++) {
+            scheduler.enqueue("peer", ByteBuffer.allocate(FRAME_BYTES), SendScheduler.CLASS_CHAT);
+        }
+        long[] bytes = new long[SendScheduler.CLASS_COUNT];
+        for (int i = 0; i < 3000; i++) {
+            SendScheduler.Entry entry = scheduler.poll();
+            bytes[entry.getTrafficClass()] += entry.getFrame().remaining();
+        }
+        // Bulk needs several visits to save up for one frame, but is not starved
+        double bulkShare = (double) bytes[SendScheduler.CLASS_BULK]
+                / (bytes[SendScheduler.CLASS_BULK] + bytes[SendScheduler.CLASS_CHAT]);
+        assertEquals(1.0 / 3, bulkShare, 0.05);
+    }
+
+    @Test
+    public void emergencyIsServedFirst() {
+        SendScheduler scheduler = new SendScheduler();
+        for (int i = 0; i < 10; i++) {
+            scheduler.enqueue("peer", ByteBuffer.allocate(FRAME_BYTES), SendScheduler.CLASS_CONTROL);
+            scheduler.enqueue("peer", ByteBuffer.allocate(FRAME_BYTES), SendScheduler.CLASS_BULK);
+        }
+        scheduler.enqueue("peer", ByteBuffer.allocate(FRAME_BYTES), SendScheduler.CLASS_EMERGENCY);
+        assertEquals(SendScheduler.CLASS_EMERGENCY, scheduler.poll().getTrafficClass());
+    }
+
+    @Test
+    public void fullClassDropsTail() {
+        SendScheduler scheduler = new SendScheduler(new int[] {0, 4, 2, 1}, 2);
+        scheduler.enqueue("peer", ByteBuffer.allocate(FRAME_BYTES), SendScheduler.CLASS_CHAT);
+        scheduler.enqueue("peer", ByteBuffer.allocate(FRAME_BYTES), SendScheduler.CLASS_CHAT);
+        assertEquals(false, scheduler.enqueue("peer", ByteBuffer.allocate(FRAME_BYTES), SendScheduler.CLASS_CHAT));
+        assertEquals(1, scheduler.getClassStats(SendScheduler.CLASS_CHAT).getDropped());
+        scheduler.poll();
+        scheduler.poll();
+        assertNull(scheduler.poll());
+    }
+
+    @Test
+    public void removingAPeerPurgesOnlyItsFrames() {
+        SendScheduler scheduler = new SendScheduler();
+        for (int i = 0; i < 3; i++) {
+            scheduler.enqueue("gone", ByteBuffer.allocate(FRAME_BYTES), SendScheduler.CLASS_EMERGENCY);
+            scheduler.enqueue("gone", ByteBuffer.allocate(FRAME_BYTES), SendScheduler.CLASS_BULK);
+            scheduler.enqueue("stays", ByteBuffer.allocate(FRAME_BYTES), SendScheduler.CLASS_CHAT);
+        }
+        assertEquals(6, scheduler.removePeer("gone"));
+        assertEquals(3, scheduler.size());
+        assertEquals(0, scheduler.getQueueDepth(SendScheduler.CLASS_BULK));
+        assertEquals(3, scheduler.getClassStats(SendScheduler.CLASS_BULK).getDropped());
+        for (int i = 0; i < 3; i++) {
+            assertEquals("stays", scheduler.poll().getPeerId());
+        }
+        assertNull(scheduler.poll());
+        assertEquals(0, scheduler.removePeer("gone"));
+    }
+}
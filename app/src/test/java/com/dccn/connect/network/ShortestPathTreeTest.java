@@ -0,0 +1,104 @@
+package com.dccn.connect.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ShortestPathTreeTest {
+
+    private static void assertSameAsFromScratch(ShortestPathTree tree, ShortestPathTree scratch, String step) {
+        scratch.recompute();
+        for (int node = 0; node < tree.getNodeCount(); node++) {
+            int distance = tree.getDistance(node);
+            assertEquals(step + ", node " + node, scratch.getDistance(node), distance);
+            if (node == ShortestPathTree.ROOT || distance == ShortestPathTree.UNREACHABLE) {
+                assertEquals(step, -1, tree.getFirstHop(node));
+                continue;
+            }
+            // Ties may be broken differently, but the path kept must be a real shortest one
+            int parent = tree.getParent(node);
+            assertTrue(step, tree.hasEdge(parent, node));
+            assertEquals(step, distance - 1, tree.getDistance(parent));
+            int firstHop = tree.getFirstHop(node);
+            assertTrue(step, tree.hasEdge(ShortestPathTree.ROOT, firstHop));
+            assertEquals(step, 1, tree.getDistance(firstHop));
+            assertEquals(step, distance == 1 ? node : tree.getFirstHop(parent), firstHop);
+        }
+    }
+
+    @Test
+    public void incrementalUpdatesMatchARecomputeAfterEveryChange() {
+        for (long seed = 1; seed <= 5; seed++) {
+            Random random = new Random(seed);
+            int nodes = 60;
+            ShortestPathTree tree = new ShortestPathTree();
+            ShortestPathTree scratch = new ShortestPathTree();
+            for (int node = 1; node < nodes; node++) {
+                tree.addNode();
+                scratch.addNode();
+            }
+            // Asserted edges, once per assertion, so removals withdraw what was added
+            List<int[]> asserted = new ArrayList<>();
+            for (int step = 0; step < 3000; step++) {
+                // Grow towards a few hundred assertions, then churn around that
+                boolean add = asserted.isEmpty() || random.nextInt(400) >= asserted.size();
+                if (add) {
+                    int from = random.nextInt(nodes);
+                    int to = random.nextInt(nodes - 1);
+                    to = to < from ? to : to + 1;
+                    asserted.add(new int[] {from, to});
+                    tree.addEdge(from, to);
+                    scratch.addEdge(from, to);
+                } else {
+                    int[] edge = asserted.remove(random.nextInt(asserted.size()));
+                    tree.removeEdge(edge[0], edge[1]);
+                    scratch.removeEdge(edge[0], edge[1]);
+                }
+                assertSameAsFromScratch(tree, scratch, "seed " + seed + " step " + step);
+            }
+        }
+    }
+
+    @Test
+    public void aChangeTouchesFewerNodesThanARecompute() {
+        Random random = new Random(9);
+        int nodes = 200;
+        ShortestPathTree tree = new ShortestPathTree();
+        for (int node = 1; node < nodes; node++) {
+            tree.addNode();
+        }
+        // A sparse undirected mesh, as OLSR builds from HELLOs and TCs
+        List<int[]> links = new ArrayList<>();
+        for (int node = 1; node < nodes; node++) {
+            int other = random.nextInt(node);
+            links.add(new int[] {node, other});
+        }
+        for (int i = 0; i < nodes; i++) {
+            int a = random.nextInt(nodes);
+            int b = random.nextInt(nodes);
+            if (a != b) {
+                links.add(new int[] {a, b});
+            }
+        }
+        for (int[] link : links) {
+            tree.addEdge(link[0], link[1]);
+            tree.addEdge(link[1], link[0]);
+        }
+        long updates = tree.getUpdates();
+        long touched = tree.getNodesTouched();
+        for (int i = 0; i < 200; i++) {
+            int[] link = links.get(random.nextInt(links.size()));
+            tree.removeEdge(link[0], link[1]);
+            tree.removeEdge(link[1], link[0]);
+            tree.addEdge(link[0], link[1]);
+            tree.addEdge(link[1], link[0]);
+        }
+        double perChange = (double) (tree.getNodesTouched() - touched) / (tree.getUpdates() - updates);
+        assertTrue(perChange + " nodes per change", perChange < nodes / 4.0);
+    }
+}
@@ -0,0 +1,137 @@
+package com.dccn.connect.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.dccn.connect.models.Message;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SprayAndWaitRouterTest {
+
+    private static final int COPIES = 16;
+
+    // Alert copies the router under test sent, as {peer, copies}
+    private final List<Object[]> copiesSent = new ArrayList<>();
+    private final List<ByteBuffer> framesSent = new ArrayList<>();
+    private final List<Long> delivered = new ArrayList<>();
+    private final Set<String> rescueTeams = new HashSet<>();
+    private SprayAndWaitRouter router;
+
+    @Before
+    public void setUp() {
+        router = newRouter("carrier", false, COPIES);
+    }
+
+    // Starts the record of what was sent afresh
+    private SprayAndWaitRouter newRouter(String localId, boolean rescueTeam, int copies) {
+        copiesSent.clear();
+        framesSent.clear();
+        SprayAndWaitRouter spray = new SprayAndWaitRouter(localId, new FloodingRouter(), rescueTeam, copies,
+                FloodingRouter.DEFAULT_SEEN_CACHE_SIZE);
+        spray.setFrameSender((peerId, frame) -> {
+            ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+            copy.put(frame.duplicate()).flip();
+            if (FrameCodec.peekKind(copy, 0) == FrameCodec.KIND_ALERT_COPY) {
+                copiesSent.add(new Object[] {peerId, copiesIn(copy)});
+                framesSent.add(copy);
+            }
+        });
+        spray.setOnFrameDeliveredListener(frame -> delivered.add(frame.getMessageId()));
+        spray.onRescueTeamsChanged(rescueTeams::contains);
+        return spray;
+    }
+
+    private static int copiesIn(ByteBuffer copyFrame) {
+        ByteBuffer in = copyFrame.duplicate();
+        in.position(FrameCodec.HEADER_SIZE);
+        Varint.readLength(in);
+        return Varint.readLength(in);
+    }
+
+    private static Message alert() {
+        return new Message(Message.newMessageId(), Message.TYPE_EMERGENCY, 0, "help", "victim", 1000L);
+    }
+
+    private int lastCopiesTo(String peerId) {
+        Object[] last = copiesSent.get(copiesSent.size() - 1);
+        assertEquals(peerId, last[0]);
+        return (Integer) last[1];
+    }
+
+    @Test
+    public void eachEncounterHandsOverHalfTheCopies() {
+        router.send(alert());
+        int expected = COPIES;
+        for (int peer = 1; expected > 1; peer++) {
+            router.onPeerConnected("p" + peer);
+            expected -= expected / 2;
+            // Handed half of what was held, keeping the rest
+            assertEquals(COPIES / (1 << peer), lastCopiesTo("p" + peer));
+        }
+        assertEquals(1, expected);
+        assertEquals(COPIES - 1, router.getCopiesHandedOff());
+    }
+
+    @Test
+    public void aReceivedBudgetIsSprayedOnInTurn() {
+        router.send(alert());
+        router.onPeerConnected("next");
+        ByteBuffer handed = framesSent.get(0);
+        assertEquals(COPIES / 2, copiesIn(handed));
+
+        SprayAndWaitRouter next = newRouter("next", false, COPIES);
+        next.onFrameReceived("carrier", handed);
+        assertEquals(1, delivered.size());
+        next.onPeerConnected("after");
+        assertEquals(COPIES / 4, lastCopiesTo("after"));
+    }
+
+    @Test
+    public void theLastCopyWaitsForARescueTeam() {
+        router = newRouter("carrier", false, 1);
+        router.send(alert());
+        for (int peer = 1; peer <= 5; peer++) {
+            router.onPeerConnected("bystander" + peer);
+        }
+        // One copy left: bystanders get nothing, however many pass by
+        assertTrue(copiesSent.isEmpty());
+
+        rescueTeams.add("rescue");
+        router.onPeerConnected("rescue");
+        assertEquals(1, lastCopiesTo("rescue"));
+        assertEquals(1, router.getRescueHandoffs());
+
+        // Delivered: the carrier's job is done, so a second team gets nothing from it
+        rescueTeams.add("rescue2");
+        router.onPeerConnected("rescue2");
+        assertEquals(1, copiesSent.size());
+    }
+
+    @Test
+    public void rescueTeamsShareAlertsWithoutSpreadingThem() {
+        router.send(alert());
+        router.onPeerConnected("team");
+        ByteBuffer handed = framesSent.get(0);
+
+        SprayAndWaitRouter team = newRouter("team", true, COPIES);
+        team.onFrameReceived("carrier", handed);
+        team.onPeerConnected("bystander");
+        assertTrue(copiesSent.isEmpty());
+
+        // A peer later found to be on a rescue team is offered it then
+        team.onPeerConnected("other-team");
+        assertTrue(copiesSent.isEmpty());
+        rescueTeams.add("other-team");
+        team.onRescueTeamsChanged(rescueTeams::contains);
+        assertEquals(1, copiesSent.size());
+        assertEquals("other-team", copiesSent.get(0)[0]);
+    }
+}
@@ -0,0 +1,210 @@
+package com.dccn.connect.network;
+
+import static org.junit.Assert.fail;
+
+import com.dccn.connect.models.Message;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A mesh of routers joined by lossless links and stepped by hand. Frames arrive in the order they
+ * were sent and time only moves in {@link #advance}, so every run is the same. Nodes are addressed
+ * as "n0", "n1", ..., which serve as both device ID and link peer ID.
+ */
+final class TestMesh {
+
+    // Same tick as the service's timer
+    static final long TICK_MS = 50;
+    // More frames than this from one call means a forwarding loop
+    private static final int MAX_FRAMES_PER_STEP = 1_000_000;
+
+    private static final class Transit {
+        final int from;
+        final int to;
+        final byte[] bytes;
+
+        Transit(int from, int to, byte[] bytes) {
+            this.from = from;
+            this.to = to;
+            this.bytes = bytes;
+        }
+    }
+
+    private final MeshRouter[] routers;
+    private final List<Set<Integer>> links = new ArrayList<>();
+    private final List<List<Long>> delivered = new ArrayList<>();
+    private final Map<String, Integer> nodeIndex = new HashMap<>();
+    private final ArrayDeque<Transit> inFlight = new ArrayDeque<>();
+    private long nowMs;
+    private long transmissions;
+    private long controlTransmissions;
+
+    TestMesh(int nodes, Function<String, MeshRouter> routerFactory) {
+        routers = new MeshRouter[nodes];
+        for (int node = 0; node < nodes; node++) {
+            nodeIndex.put(id(node), node);
+            links.add(new HashSet<>());
+            delivered.add(new ArrayList<>());
+        }
+        for (int node = 0; node < nodes; node++) {
+            int self = node;
+            routers[node] = routerFactory.apply(id(node));
+            routers[node].setFrameSender((peerId, frame) -> onSend(self, peerId, frame));
+            routers[node].setOnFrameDeliveredListener(frame -> {
+                if (frame.getKind() == FrameCodec.KIND_MESSAGE) {
+                    delivered.get(self).add(frame.getMessageId());
+                }
+            });
+        }
+    }
+
+    /**
+     * n0 - n1 - ... - n(nodes - 1)
+     */
+    static TestMesh line(int nodes, Function<String, MeshRouter> routerFactory) {
+        TestMesh mesh = new TestMesh(nodes, routerFactory);
+        for (int node = 1; node < nodes; node++) {
+            mesh.link(node - 1, node);
+        }
+        return mesh;
+    }
+
+    static String id(int node) {
+        return "n" + node;
+    }
+
+    int size() {
+        return routers.length;
+    }
+
+    MeshRouter router(int node) {
+        return routers[node];
+    }
+
+    long now() {
+        return nowMs;
+    }
+
+    /**
+     * Frames sent over links so far, and how many of them were route control
+     */
+    long getTransmissions() {
+        return transmissions;
+    }
+
+    long getControlTransmissions() {
+        return controlTransmissions;
+    }
+
+    boolean isLinked(int a, int b) {
+        return links.get(a).contains(b);
+    }
+
+    void link(int a, int b) {
+        if (links.get(a).add(b)) {
+            links.get(b).add(a);
+            routers[a].onPeerConnected(id(b));
+            routers[b].onPeerConnected(id(a));
+            deliver();
+        }
+    }
+
+    /**
+     * Break a link; frames on their way across it are lost
+     */
+    void unlink(int a, int b) {
+        if (links.get(a).remove(b)) {
+            links.get(b).remove(a);
+            routers[a].onPeerDisconnected(id(b));
+            routers[b].onPeerDisconnected(id(a));
+            deliver();
+        }
+    }
+
+    /**
+     * Originate a private message and carry everything it sets off
+     */
+    long sendPrivate(int from, int to) {
+        Message message = new Message(Message.newMessageId(), Message.TYPE_CHAT, 0, "hello", id(from), nowMs);
+        message.setRecipient(id(to));
+        routers[from].send(message);
+        deliver();
+        return message.getMessageId();
+    }
+
+    /**
+     * Originate a message to everyone
+     */
+    long broadcast(int from) {
+        Message message = new Message(Message.newMessageId(), Message.TYPE_CHAT, 0, "hello all", id(from), nowMs);
+        routers[from].send(message);
+        deliver();
+        return message.getMessageId();
+    }
+
+    /**
+     * Run every router's timer each {@link #TICK_MS} for this long, carrying what each tick sends
+     */
+    void advance(long ms) {
+        long until = nowMs + ms;
+        while (nowMs < until) {
+            nowMs += TICK_MS;
+            for (MeshRouter router : routers) {
+                router.onTimer(nowMs);
+            }
+            deliver();
+        }
+    }
+
+    /**
+     * Times a node was handed this message
+     */
+    int deliveries(int node, long messageId) {
+        int count = 0;
+        for (long id : delivered.get(node)) {
+            if (id == messageId) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Carry frames until the mesh is quiet
+     */
+    void deliver() {
+        int frames = 0;
+        while (!inFlight.isEmpty()) {
+            Transit transit = inFlight.pollFirst();
+            if (!links.get(transit.from).contains(transit.to)) {
+                continue;
+            }
+            if (++frames > MAX_FRAMES_PER_STEP) {
+                fail("Frames still moving after " + MAX_FRAMES_PER_STEP);
+            }
+            routers[transit.to].onFrameReceived(id(transit.from), ByteBuffer.wrap(transit.bytes));
+        }
+    }
+
+    private void onSend(int from, String peerId, ByteBuffer frame) {
+        Integer to = nodeIndex.get(peerId);
+        if (to == null || !links.get(from).contains(to)) {
+            fail(id(from) + " sent to " + peerId + ", which it has no link to");
+        }
+        byte[] bytes = new byte[frame.remaining()];
+        frame.duplicate().get(bytes);
+        transmissions++;
+        if (FrameCodec.peekKind(frame, frame.position()) == FrameCodec.KIND_ROUTE) {
+            controlTransmissions++;
+        }
+        inFlight.addLast(new Transit(from, to, bytes));
+    }
+}
@@ -0,0 +1,109 @@
+package com.dccn.connect.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TrickleTimerTest {
+
+    private static final long MIN_MS = 100;
+    private static final int DOUBLINGS = 4;
+    private static final int K = 2;
+
+    private static TrickleTimer newTimer(long seed) {
+        return new TrickleTimer(MIN_MS, DOUBLINGS, K, seed);
+    }
+
+    // Ticks every millisecond after fromMs up to and including untilMs, returning when it said to
+    // announce; an interval ending at untilMs gives way to the next on that last tick
+    private static List<Long> run(TrickleTimer timer, long fromMs, long untilMs) {
+        List<Long> announcements = new ArrayList<>();
+        for (long now = fromMs + 1; now <= untilMs; now++) {
+            if (timer.onTimer(now)) {
+                announcements.add(now);
+            }
+        }
+        return announcements;
+    }
+
+    @Test
+    public void quietIntervalsDoubleUpToTheMaximum() {
+        TrickleTimer timer = newTimer(1);
+        timer.start(0);
+        long start = 0;
+        long interval = MIN_MS;
+        for (int i = 0; i <= DOUBLINGS + 2; i++) {
+            assertEquals(interval, timer.getIntervalMs());
+            List<Long> announced = run(timer, start, start + interval);
+            // Once per interval, somewhere in its second half
+            assertEquals(1, announced.size());
+            assertTrue(announced.get(0) >= start + interval / 2);
+            start += interval;
+            interval = Math.min(interval * 2, MIN_MS << DOUBLINGS);
+        }
+        assertEquals(MIN_MS << DOUBLINGS, timer.getIntervalMs());
+    }
+
+    @Test
+    public void inconsistencyResetsToTheMinimum() {
+        TrickleTimer timer = newTimer(2);
+        timer.start(0);
+        // 100 + 200 + 400 ms of quiet: now in the 800 ms interval
+        run(timer, 0, 700);
+        assertEquals(8 * MIN_MS, timer.getIntervalMs());
+
+        timer.onInconsistent(700);
+        assertEquals(MIN_MS, timer.getIntervalMs());
+        assertEquals(1, timer.getResets());
+        // Already at the minimum, so more news changes nothing
+        timer.onInconsistent(710);
+        assertEquals(1, timer.getResets());
+
+        List<Long> announced = run(timer, 710, 700 + MIN_MS);
+        assertEquals(1, announced.size());
+        assertTrue(announced.get(0) >= 700 + MIN_MS / 2);
+        // And quiet lets it grow again
+        assertEquals(2 * MIN_MS, timer.getIntervalMs());
+    }
+
+    @Test
+    public void hearingKConsistentAnnouncementsSuppressesOurs() {
+        TrickleTimer timer = newTimer(3);
+        timer.start(0);
+        // Heard from K neighbours before our moment in the first half
+        for (int i = 0; i < K; i++) {
+            timer.onConsistent();
+        }
+        assertTrue(run(timer, 0, MIN_MS).isEmpty());
+        assertEquals(1, timer.getSuppressed());
+
+        // The count starts over each interval, and fewer than K does not suppress
+        for (int i = 0; i < K - 1; i++) {
+            timer.onConsistent();
+        }
+        assertEquals(1, run(timer, MIN_MS, 3 * MIN_MS).size());
+        assertEquals(1, timer.getSuppressed());
+        assertEquals(1, timer.getAnnouncements());
+    }
+
+    @Test
+    public void aStoppedTimerIsSilentUntilNewsRestartsIt() {
+        TrickleTimer timer = newTimer(4);
+        assertFalse(timer.isRunning());
+        assertTrue(run(timer, 0, 10 * MIN_MS).isEmpty());
+
+        timer.onInconsistent(1000);
+        assertTrue(timer.isRunning());
+        assertEquals(MIN_MS, timer.getIntervalMs());
+        assertEquals(1, run(timer, 1000, 1000 + MIN_MS).size());
+
+        timer.stop();
+        assertTrue(run(timer, 1000 + MIN_MS, 1000 + 20 * MIN_MS).isEmpty());
+        assertEquals(0, timer.getIntervalMs());
+    }
+}
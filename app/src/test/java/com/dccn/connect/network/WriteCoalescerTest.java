@@ -0,0 +1,98 @@
+package com.dccn.connect.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class WriteCoalescerTest {
+
+    private static final int MAX_BATCH_BYTES = 1000;
+    private static final long BUDGET_NANOS = 5_000_000;
+
+    // Sizes of each write, in order
+    private final List<Integer> writes = new ArrayList<>();
+
+    private WriteCoalescer newCoalescer(WriteCoalescer.Stats stats) {
+        return new WriteCoalescer(batch -> writes.add(batch.remaining()), MAX_BATCH_BYTES, BUDGET_NANOS, stats);
+    }
+
+    private static ByteBuffer frame(int bytes) {
+        return ByteBuffer.allocate(bytes);
+    }
+
+    @Test
+    public void framesAreBatchedUntilTheNextOneWouldNotFit() throws Exception {
+        WriteCoalescer coalescer = newCoalescer(new WriteCoalescer.Stats());
+        for (int i = 0; i < 10; i++) {
+            coalescer.offer(frame(300), false, 0);
+        }
+        // Three 300 B frames fill a 1000 B batch; the fourth starts the next one
+        assertEquals(3, writes.size());
+        for (int bytes : writes) {
+            assertEquals(900, bytes);
+        }
+        assertEquals(3, coalescer.getStats().getBatchFrames().getMax());
+        assertEquals(0, coalescer.getStats().getQueueLatencyNanos().getMax());
+
+        // An oversized frame goes out alone, after what was pending
+        coalescer.offer(frame(MAX_BATCH_BYTES + 1), false, 0);
+        assertEquals(5, writes.size());
+        assertEquals(300, (int) writes.get(3));
+        assertEquals(MAX_BATCH_BYTES + 1, (int) writes.get(4));
+    }
+
+    @Test
+    public void anEmergencyFrameFlushesTheBatchAtOnce() throws Exception {
+        WriteCoalescer coalescer = newCoalescer(new WriteCoalescer.Stats());
+        coalescer.offer(frame(100), false, 0);
+        coalescer.offer(frame(100), false, 1000);
+        assertTrue(writes.isEmpty());
+
+        coalescer.offer(frame(50), true, 2000);
+        // Queued chat goes with it rather than overtaking or delaying it
+        assertEquals(1, writes.size());
+        assertEquals(250, (int) writes.get(0));
+        assertEquals(Long.MAX_VALUE, coalescer.nanosUntilFlush(2000));
+        assertEquals(2000, coalescer.getStats().getQueueLatencyNanos().getMax());
+    }
+
+    @Test
+    public void aPartialBatchIsWrittenAtTheLatencyBudget() throws Exception {
+        WriteCoalescer coalescer = newCoalescer(new WriteCoalescer.Stats());
+        long start = 1_000_000_000L;
+        coalescer.offer(frame(100), false, start);
+        coalescer.offer(frame(100), false, start + BUDGET_NANOS / 2);
+        // The budget runs from the oldest frame
+        assertEquals(BUDGET_NANOS / 2, coalescer.nanosUntilFlush(start + BUDGET_NANOS / 2));
+
+        assertFalse(coalescer.flushIfDue(start + BUDGET_NANOS - 1));
+        assertTrue(writes.isEmpty());
+        assertTrue(coalescer.flushIfDue(start + BUDGET_NANOS));
+        assertEquals(1, writes.size());
+        assertEquals(200, (int) writes.get(0));
+        assertEquals(BUDGET_NANOS, coalescer.getStats().getQueueLatencyNanos().getMax());
+        assertFalse(coalescer.flushIfDue(start + 2 * BUDGET_NANOS));
+    }
+
+    @Test
+    public void sharedStatsCountEveryLink() throws Exception {
+        WriteCoalescer.Stats stats = new WriteCoalescer.Stats();
+        WriteCoalescer first = newCoalescer(stats);
+        WriteCoalescer second = newCoalescer(stats);
+        first.offer(frame(100), true, 0);
+        second.offer(frame(100), false, 0);
+        second.offer(frame(200), true, 0);
+
+        assertEquals(1, first.getWrites());
+        assertEquals(1, second.getWrites());
+        assertEquals(2, stats.getWrites());
+        assertEquals(3, stats.getBatchFrames().getMax() + stats.getBatchFrames().getMin());
+        assertEquals(200.0, stats.getBatchBytes().getMean(), 0.0);
+    }
+}
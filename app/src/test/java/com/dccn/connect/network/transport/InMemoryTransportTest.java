@@ -0,0 +1,179 @@
+package com.dccn.connect.network.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.dccn.connect.models.Message;
+import com.dccn.connect.network.FloodingRouter;
+import com.dccn.connect.network.Frame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InMemoryTransportTest {
+
+    private InMemoryTransport.Hub hub;
+    private InMemoryTransport a;
+    private InMemoryTransport b;
+    private final RecordingListener aEvents = new RecordingListener();
+    private final RecordingListener bEvents = new RecordingListener();
+
+    @Before
+    public void setUp() {
+        hub = new InMemoryTransport.Hub();
+        a = new InMemoryTransport(hub, "a");
+        b = new InMemoryTransport(hub, "b");
+        a.setOnTransportEventListener(aEvents);
+        b.setOnTransportEventListener(bEvents);
+        a.start();
+        b.start();
+    }
+
+    @After
+    public void tearDown() {
+        hub.shutdown();
+    }
+
+    private static ByteBuffer bytes(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length);
+        for (int value : values) {
+            buffer.put((byte) value);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void discoveryReportsEveryOtherNode() throws Exception {
+        InMemoryTransport c = new InMemoryTransport(hub, "c");
+        c.start();
+        a.startDiscovery();
+        assertEquals(new HashSet<>(Arrays.asList("discovered b", "discovered c")),
+                new HashSet<>(Arrays.asList(aEvents.nextEvent(), aEvents.nextEvent())));
+        assertNull(aEvents.events.poll());
+    }
+
+    @Test
+    public void connectLinksBothEnds() throws Exception {
+        a.connect("b");
+        assertEquals("connected b", aEvents.nextEvent());
+        assertEquals("connected a", bEvents.nextEvent());
+        assertTrue(a.isConnected("b"));
+        assertTrue(b.isConnected("a"));
+        // A second connect is a no-op
+        a.connect("b");
+        assertNull(aEvents.events.poll());
+    }
+
+    @Test
+    public void dataArrivesInOrderAndTheSenderBufferIsConsumed() throws Exception {
+        a.connect("b");
+        for (int i = 0; i < 100; i++) {
+            ByteBuffer data = bytes(i, i + 1);
+            a.send("b", data);
+            assertFalse(data.hasRemaining());
+        }
+        for (int i = 0; i < 100; i++) {
+            assertArrayEquals(new byte[] {(byte) i, (byte) (i + 1)}, bEvents.nextData());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void sendingWithoutALinkFails() throws Exception {
+        a.send("b", bytes(1));
+    }
+
+    @Test
+    public void disconnectIsReportedOnBothEnds() throws Exception {
+        a.connect("b");
+        aEvents.nextEvent();
+        bEvents.nextEvent();
+        b.disconnect("a");
+        assertEquals("disconnected a", bEvents.nextEvent());
+        assertEquals("disconnected b", aEvents.nextEvent());
+        assertFalse(a.isConnected("b"));
+    }
+
+    @Test
+    public void stopClosesEveryLink() throws Exception {
+        InMemoryTransport c = new InMemoryTransport(hub, "c");
+        RecordingListener cEvents = new RecordingListener();
+        c.setOnTransportEventListener(cEvents);
+        c.start();
+        a.connect("b");
+        a.connect("c");
+        bEvents.nextEvent();
+        cEvents.nextEvent();
+        a.stop();
+        assertEquals("disconnected a", bEvents.nextEvent());
+        assertEquals("disconnected a", cEvents.nextEvent());
+        // Gone from the hub too
+        b.startDiscovery();
+        assertEquals("discovered c", bEvents.nextEvent());
+        assertNull(bEvents.events.poll());
+    }
+
+    @Test
+    public void lossDropsSends() throws Exception {
+        a.connect("b");
+        hub.setLossRate(1.0);
+        a.send("b", bytes(1));
+        hub.setLossRate(0.0);
+        a.send("b", bytes(2));
+        assertArrayEquals(new byte[] {2}, bEvents.nextData());
+        assertNull(bEvents.data.poll(50, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void routersFloodAcrossALineOfNodes() throws Exception {
+        // a - b - c: a's message reaches c only through b's router
+        InMemoryTransport c = new InMemoryTransport(hub, "c");
+        c.start();
+        BlockingQueue<String> deliveredAtC = new LinkedBlockingQueue<>();
+        FloodingRouter[] routers = new FloodingRouter[3];
+        InMemoryTransport[] nodes = {a, b, c};
+        for (int i = 0; i < nodes.length; i++) {
+            InMemoryTransport node = nodes[i];
+            FloodingRouter router = new FloodingRouter();
+            router.setFrameSender((peerId, frame) -> {
+                try {
+                    node.send(peerId, frame);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            });
+            node.setOnTransportEventListener(new RecordingListener() {
+                @Override
+                public void onPeerConnected(Transport transport, String peerId) {
+                    router.onPeerConnected(peerId);
+                }
+
+                @Override
+                public void onDataReceived(Transport transport, String peerId, ByteBuffer buffer) {
+                    router.onFrameReceived(peerId, buffer);
+                }
+            });
+            routers[i] = router;
+        }
+        routers[2].setOnFrameDeliveredListener(frame -> deliveredAtC.add(frame.getString(Frame.SLOT_TEXT)));
+        a.connect("b");
+        b.connect("c");
+
+        routers[0].send(new Message(Message.newMessageId(), Message.TYPE_CHAT, 0, "over two hops", "a", 1L));
+        assertEquals("over two hops", deliveredAtC.poll(RecordingListener.TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(1, routers[1].getStats().getForwarded());
+        assertNull(deliveredAtC.poll(50, TimeUnit.MILLISECONDS));
+    }
+}
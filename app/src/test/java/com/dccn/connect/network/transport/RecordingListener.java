@@ -0,0 +1,60 @@
+package com.dccn.connect.network.transport;
+
+import static org.junit.Assert.assertNotNull;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records transport events as strings ("connected peer", "data peer") for tests to await in order.
+ * Received data is copied out, since the buffer is only valid during the callback.
+ */
+class RecordingListener implements Transport.OnTransportEventListener {
+
+    static final long TIMEOUT_MS = 5000;
+
+    final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+    final BlockingQueue<byte[]> data = new LinkedBlockingQueue<>();
+
+    @Override
+    public void onPeerDiscovered(Transport transport, String peerId, String name) {
+        events.add("discovered " + peerId);
+    }
+
+    @Override
+    public void onSignalStrength(Transport transport, String peerId, int rssi) {
+        events.add("rssi " + peerId);
+    }
+
+    @Override
+    public void onPeerConnected(Transport transport, String peerId) {
+        events.add("connected " + peerId);
+    }
+
+    @Override
+    public void onPeerDisconnected(Transport transport, String peerId) {
+        events.add("disconnected " + peerId);
+    }
+
+    @Override
+    public void onDataReceived(Transport transport, String peerId, ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        data.add(bytes);
+        events.add("data " + peerId);
+    }
+
+    String nextEvent() throws InterruptedException {
+        String event = events.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertNotNull("Timed out waiting for a transport event", event);
+        return event;
+    }
+
+    byte[] nextData() throws InterruptedException {
+        byte[] bytes = data.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertNotNull("Timed out waiting for data", bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,140 @@
+package com.dccn.connect.network.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.dccn.connect.models.Message;
+import com.dccn.connect.network.FrameCodec;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TcpLoopbackTransportTest {
+
+    private final TcpLoopbackTransport a = new TcpLoopbackTransport();
+    private final TcpLoopbackTransport b = new TcpLoopbackTransport();
+    private final RecordingListener aEvents = new RecordingListener();
+    private final RecordingListener bEvents = new RecordingListener();
+
+    @Before
+    public void setUp() throws Exception {
+        a.setOnTransportEventListener(aEvents);
+        b.setOnTransportEventListener(bEvents);
+        a.start();
+        b.start();
+    }
+
+    @After
+    public void tearDown() {
+        a.stop();
+        b.stop();
+    }
+
+    private void link() throws InterruptedException {
+        a.connect(b.getLocalId());
+        assertEquals("connected " + b.getLocalId(), aEvents.nextEvent());
+        assertEquals("connected " + a.getLocalId(), bEvents.nextEvent());
+    }
+
+    private static byte[] frame(String text) {
+        Message message = new Message(Message.newMessageId(), Message.TYPE_CHAT, 0, text, "a", 1L);
+        ByteBuffer buffer = ByteBuffer.allocate(FrameCodec.encodedLength(message));
+        FrameCodec.encode(message, FrameCodec.DEFAULT_HOP_LIMIT, buffer);
+        return buffer.array();
+    }
+
+    @Test
+    public void discoveryReportsKnownPeers() throws Exception {
+        a.addKnownPeer(b.getLocalId());
+        a.addKnownPeer(a.getLocalId());
+        a.startDiscovery();
+        assertEquals("discovered " + b.getLocalId(), aEvents.nextEvent());
+        assertTrue(aEvents.events.isEmpty());
+    }
+
+    @Test
+    public void handshakeNamesTheLinkOnBothEnds() throws Exception {
+        link();
+        assertTrue(a.isConnected(b.getLocalId()));
+        assertTrue(b.isConnected(a.getLocalId()));
+    }
+
+    @Test
+    public void framesCrossTheLinkWhole() throws Exception {
+        link();
+        byte[] first = frame("first");
+        byte[] second = frame(new String(new char[3000]).replace('\0', 'x'));
+        a.send(b.getLocalId(), ByteBuffer.wrap(first));
+        a.send(b.getLocalId(), ByteBuffer.wrap(second));
+        // Reads may merge frames but never split one
+        byte[] received = bEvents.nextData();
+        if (received.length == first.length) {
+            received = concat(received, bEvents.nextData());
+        }
+        assertArrayEquals(concat(first, second), received);
+    }
+
+    @Test
+    public void aFrameSplitAcrossWritesIsDeliveredOnceComplete() throws Exception {
+        link();
+        byte[] frame = frame("split across two writes");
+        int half = frame.length / 2;
+        a.send(b.getLocalId(), ByteBuffer.wrap(frame, 0, half));
+        Thread.sleep(50);
+        assertTrue(bEvents.data.isEmpty());
+        a.send(b.getLocalId(), ByteBuffer.wrap(frame, half, frame.length - half));
+        assertArrayEquals(frame, bEvents.nextData());
+    }
+
+    @Test
+    public void disconnectIsReportedOnBothEnds() throws Exception {
+        link();
+        a.disconnect(b.getLocalId());
+        assertEquals("disconnected " + b.getLocalId(), aEvents.nextEvent());
+        assertEquals("disconnected " + a.getLocalId(), bEvents.nextEvent());
+        assertFalse(b.isConnected(a.getLocalId()));
+    }
+
+    @Test
+    public void garbageClosesTheLink() throws Exception {
+        String port = b.getLocalId().substring(b.getLocalId().lastIndexOf(':') + 1);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(port))) {
+            OutputStream out = socket.getOutputStream();
+            StreamLink.writeHandshake(out, "intruder");
+            assertEquals("connected intruder", bEvents.nextEvent());
+            byte[] garbage = new byte[FrameCodec.HEADER_SIZE + 4];
+            Arrays.fill(garbage, (byte) 0x41);
+            out.write(garbage);
+            out.flush();
+            assertEquals("disconnected intruder", bEvents.nextEvent());
+            assertTrue(bEvents.data.isEmpty());
+        }
+    }
+
+    @Test
+    public void completeFramesEndStopsAtAPartialFrame() {
+        byte[] first = frame("one");
+        byte[] second = frame("two");
+        ByteBuffer buffer = ByteBuffer.wrap(concat(first, second));
+        assertEquals(first.length + second.length, StreamLink.completeFramesEnd(buffer));
+        buffer.limit(first.length + second.length - 1);
+        assertEquals(first.length, StreamLink.completeFramesEnd(buffer));
+        buffer.limit(FrameCodec.HEADER_SIZE - 1);
+        assertEquals(0, StreamLink.completeFramesEnd(buffer));
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] both = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, both, a.length, b.length);
+        return both;
+    }
+}
@@ -0,0 +1,101 @@
+package com.dccn.connect.benchmarks;
+
+import com.dccn.connect.models.Message;
+import com.dccn.connect.network.Frame;
+import com.dccn.connect.network.FrameCodec;
+import com.google.gson.Gson;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message encode/decode. The in-place paths are expected to allocate nothing per operation;
+ * toMessage() pays for the Strings it materialises. The gson* methods are the JSON encoding the
+ * wire used before, as a baseline. encode and gsonEncode report the bytes they produced as the
+ * frameBytes and jsonBytes secondary results, so the size difference sits next to the timings.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class FrameCodecBenchmark {
+
+    @Param({"32", "512"})
+    public int textLength;
+
+    private Message message;
+    private ByteBuffer encodeBuffer;
+    private ByteBuffer encoded;
+    private final Frame frame = new Frame();
+    private final Gson gson = new Gson();
+    private byte[] json;
+
+    @Setup
+    public void setUp() {
+        char[] text = new char[textLength];
+        Arrays.fill(text, 'a');
+        message = new Message(Message.newMessageId(), Message.TYPE_CHAT, 0, new String(text), "student-4711", 1700000000000L);
+        encodeBuffer = ByteBuffer.allocate(FrameCodec.encodedLength(message));
+        encoded = ByteBuffer.allocate(FrameCodec.encodedLength(message));
+        FrameCodec.encode(message, FrameCodec.DEFAULT_HOP_LIMIT, encoded);
+        encoded.flip();
+        json = gson.toJson(message).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Encoded frame size, reported alongside encode(). */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class FrameSize {
+        public long frameBytes;
+    }
+
+    /** Encoded JSON size, reported alongside gsonEncode(). */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class JsonSize {
+        public long jsonBytes;
+    }
+
+    @Benchmark
+    public int encode(FrameSize size) {
+        encodeBuffer.clear();
+        int length = FrameCodec.encode(message, FrameCodec.DEFAULT_HOP_LIMIT, encodeBuffer);
+        size.frameBytes = length;
+        return length;
+    }
+
+    @Benchmark
+    public Frame decode() {
+        encoded.rewind();
+        return FrameCodec.decode(encoded, frame);
+    }
+
+    @Benchmark
+    public Message decodeToMessage() {
+        encoded.rewind();
+        return FrameCodec.decode(encoded, frame).toMessage();
+    }
+
+    @Benchmark
+    public byte[] gsonEncode(JsonSize size) {
+        byte[] bytes = gson.toJson(message).getBytes(StandardCharsets.UTF_8);
+        size.jsonBytes = bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public Message gsonDecode() {
+        return gson.fromJson(new String(json, StandardCharsets.UTF_8), Message.class);
+    }
+}
@@ -0,0 +1,141 @@
+package com.dccn.connect.benchmarks;
+
+import com.dccn.connect.models.Message;
+import com.dccn.connect.network.FrameCodec;
+import com.dccn.connect.services.GroupOwnerServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Group-owner server against localhost TCP clients standing in for the phones in a Wi-Fi Direct
+ * group. One operation is a full round: every client sends a chat frame and the server has cut
+ * them all out of its sockets (fan-in), or the server sends one to every client and all have
+ * read it (broadcast).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class GroupOwnerServerBenchmark {
+
+    @Param({"8", "100"})
+    public int clientCount;
+
+    private final AtomicLong framesReceived = new AtomicLong();
+    private final AtomicInteger connected = new AtomicInteger();
+    private GroupOwnerServer server;
+    private SocketChannel[] clients;
+    private String[] clientIds;
+    private ByteBuffer frame;
+    private ByteBuffer readBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        server = new GroupOwnerServer("owner", new GroupOwnerServer.OnClientEventListener() {
+            @Override
+            public void onClientConnected(String clientId) {
+                connected.incrementAndGet();
+            }
+
+            @Override
+            public void onFrames(String clientId, ByteBuffer frames) {
+                int offset = frames.position();
+                while (offset < frames.limit()) {
+                    offset += FrameCodec.peekFrameLength(frames, offset);
+                    framesReceived.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void onClientDisconnected(String clientId) {
+                connected.decrementAndGet();
+            }
+        });
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        server.start(new InetSocketAddress(loopback, 0));
+
+        clients = new SocketChannel[clientCount];
+        clientIds = new String[clientCount];
+        for (int i = 0; i < clientCount; i++) {
+            clientIds[i] = "client-" + i;
+            clients[i] = SocketChannel.open(new InetSocketAddress(loopback, server.getLocalPort()));
+            byte[] id = clientIds[i].getBytes(StandardCharsets.UTF_8);
+            ByteBuffer handshake = ByteBuffer.allocate(2 + id.length);
+            handshake.putShort((short) id.length).put(id).flip();
+            writeFully(clients[i], handshake);
+            readFully(clients[i], ByteBuffer.allocate(2 + "owner".length()));
+        }
+        while (connected.get() < clientCount) {
+            Thread.sleep(1);
+        }
+
+        Message message = new Message(Message.newMessageId(), Message.TYPE_CHAT, 0, "Evacuate via the north stairwell", "student-4711", 0);
+        frame = ByteBuffer.allocate(FrameCodec.encodedLength(message));
+        FrameCodec.encode(message, FrameCodec.DEFAULT_HOP_LIMIT, frame);
+        frame.flip();
+        readBuffer = ByteBuffer.allocate(frame.remaining());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (SocketChannel client : clients) {
+            client.close();
+        }
+        server.stop();
+    }
+
+    @Benchmark
+    public long fanIn() throws IOException {
+        long target = framesReceived.get() + clientCount;
+        for (SocketChannel client : clients) {
+            writeFully(client, frame.duplicate());
+        }
+        while (framesReceived.get() < target) {
+            Thread.yield();
+        }
+        return target;
+    }
+
+    @Benchmark
+    public void broadcast() throws IOException {
+        for (String clientId : clientIds) {
+            server.send(clientId, frame);
+        }
+        for (SocketChannel client : clients) {
+            readBuffer.clear();
+            readFully(client, readBuffer);
+        }
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer into) throws IOException {
+        while (into.hasRemaining()) {
+            if (channel.read(into) < 0) {
+                throw new IOException("Server closed the connection");
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.dccn.connect.benchmarks;
+
+import com.dccn.connect.network.LinkMetrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Link quality samples on established links: the per-frame byte count, a probe result and a cost
+ * lookup by the router. None of them should allocate (check with -prof gc).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class LinkMetricsBenchmark {
+
+    private static final int SAMPLES = 1 << 12;
+
+    @Param({"8"})
+    public int links;
+
+    private LinkMetrics metrics;
+    private String[] peers;
+    private int[] sizes;
+    private long[] rtts;
+    private int cursor;
+    private long now;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        metrics = new LinkMetrics();
+        String[] linkIds = new String[links];
+        for (int i = 0; i < links; i++) {
+            linkIds[i] = "AA:BB:CC:DD:EE:" + (10 + i);
+            metrics.onRssi(linkIds[i], -55 - i);
+            metrics.onProbe(linkIds[i], 40);
+        }
+        peers = new String[SAMPLES];
+        sizes = new int[SAMPLES];
+        rtts = new long[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            peers[i] = linkIds[random.nextInt(links)];
+            sizes[i] = 64 + random.nextInt(1400);
+            rtts[i] = random.nextInt(10) == 0 ? -1 : 20 + random.nextInt(80);
+        }
+    }
+
+    @Benchmark
+    public double onBytes() {
+        int i = cursor++ & (SAMPLES - 1);
+        metrics.onBytes(peers[i], sizes[i], now += 3);
+        return metrics.getThroughput(peers[i]);
+    }
+
+    @Benchmark
+    public long onProbe() {
+        int i = cursor++ & (SAMPLES - 1);
+        metrics.onProbe(peers[i], rtts[i]);
+        return metrics.getRttMs(peers[i]);
+    }
+
+    @Benchmark
+    public int getCost() {
+        return metrics.getCost(peers[cursor++ & (SAMPLES - 1)]);
+    }
+}
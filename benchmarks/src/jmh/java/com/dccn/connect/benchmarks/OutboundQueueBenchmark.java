@@ -0,0 +1,54 @@
+package com.dccn.connect.benchmarks;
+
+import com.dccn.connect.models.Message;
+import com.dccn.connect.network.FrameCodec;
+import com.dccn.connect.network.SendScheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enqueue and dequeue through the outbound send queue, one chat frame and one emergency frame
+ * per operation so both the strict-priority and the weighted path are exercised.
+ * The Room-backed Outbox needs the Android runtime and is not covered here.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class OutboundQueueBenchmark {
+
+    private SendScheduler scheduler;
+    private ByteBuffer chatFrame;
+    private ByteBuffer emergencyFrame;
+
+    @Setup
+    public void setUp() {
+        scheduler = new SendScheduler();
+        chatFrame = frame(Message.TYPE_CHAT);
+        emergencyFrame = frame(Message.TYPE_EMERGENCY);
+    }
+
+    private static ByteBuffer frame(int type) {
+        Message message = new Message(Message.newMessageId(), type, 0, "Gas leak in block C", "student-4711", 0);
+        ByteBuffer frame = ByteBuffer.allocate(FrameCodec.encodedLength(message));
+        FrameCodec.encode(message, FrameCodec.DEFAULT_HOP_LIMIT, frame);
+        frame.flip();
+        return frame;
+    }
+
+    @Benchmark
+    public SendScheduler.Entry enqueueDequeue() {
+        scheduler.enqueue("peer-1", chatFrame);
+        scheduler.enqueue("peer-1", emergencyFrame);
+        scheduler.poll();
+        return scheduler.poll();
+    }
+}
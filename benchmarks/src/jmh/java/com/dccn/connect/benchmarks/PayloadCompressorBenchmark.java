@@ -0,0 +1,118 @@
+package com.dccn.connect.benchmarks;
+
+import com.dccn.connect.models.Message;
+import com.dccn.connect.network.FrameCodec;
+import com.dccn.connect.network.PayloadCompressor;
+import com.dccn.connect.network.Varint;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Frame compression cost and ratio per body size bucket (see {@link PayloadCompressor#bucketOf}).
+ * deflateWithoutDictionary runs the same raw DEFLATE settings without the preset dictionary, as the
+ * baseline the dictionary has to beat. Both report the frame size before and after as the frameBytes
+ * and compressedBytes secondary results, the latter capped at frameBytes since a body that does not
+ * shrink is sent as is; the dictionary should matter most for the small bodies that make up most chat.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class PayloadCompressorBenchmark {
+
+    // Chat-like words, some in the dictionary and some not
+    private static final String[] WORDS = {
+            "water", "food", "need", "help", "near", "the", "library", "hostel", "block", "B", "second",
+            "floor", "are", "you", "safe?", "we", "are", "safe", "stuck", "in", "lift", "room", "214",
+            "bring", "torch", "battery", "charger", "meet", "at", "gate", "3", "after", "rain", "stops",
+            "injured", "leg", "send", "doctor", "canteen", "closed", "road", "blocked", "by", "tree"};
+
+    @Param({"40", "160", "640", "2048"})
+    public int textLength;
+
+    private final PayloadCompressor compressor = new PayloadCompressor();
+    private final Deflater plainDeflater = new Deflater(Deflater.BEST_SPEED, true);
+    private ByteBuffer frame;
+    private ByteBuffer compressed;
+    private ByteBuffer dst;
+    private byte[] body;
+    private byte[] out;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(7);
+        StringBuilder text = new StringBuilder(textLength + 16);
+        while (text.length() < textLength) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        text.setLength(textLength);
+        Message message = new Message(Message.newMessageId(), Message.TYPE_CHAT, 0, text.toString(),
+                "student-4711", 1700000000000L);
+        int length = FrameCodec.encodedLength(message);
+        frame = ByteBuffer.allocate(length);
+        FrameCodec.encode(message, FrameCodec.DEFAULT_HOP_LIMIT, frame);
+        frame.flip();
+        dst = ByteBuffer.allocate(length + 64);
+
+        compressed = ByteBuffer.allocate(length + 64);
+        if (!compressor.compress(frame, compressed)) {
+            throw new IllegalStateException("Body of " + textLength + " chars does not compress");
+        }
+        compressed.flip();
+
+        // The same body for the baseline, without the header
+        ByteBuffer view = frame.duplicate();
+        view.position(FrameCodec.HEADER_SIZE);
+        body = new byte[Varint.readLength(view)];
+        view.get(body);
+        out = new byte[body.length + 64];
+    }
+
+    /** Frame size before and after, reported alongside compress() and deflateWithoutDictionary(). */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class FrameSizes {
+        public long frameBytes;
+        public long compressedBytes;
+    }
+
+    @Benchmark
+    public boolean compress(FrameSizes sizes) {
+        dst.clear();
+        boolean written = compressor.compress(frame, dst);
+        sizes.frameBytes = frame.remaining();
+        sizes.compressedBytes = written ? dst.position() : frame.remaining();
+        return written;
+    }
+
+    @Benchmark
+    public int deflateWithoutDictionary(FrameSizes sizes) {
+        plainDeflater.reset();
+        plainDeflater.setInput(body, 0, body.length);
+        plainDeflater.finish();
+        int deflated = plainDeflater.deflate(out, 0, out.length);
+        sizes.frameBytes = frame.remaining();
+        sizes.compressedBytes = frame.remaining() - body.length + Math.min(deflated, body.length);
+        return deflated;
+    }
+
+    @Benchmark
+    public ByteBuffer decompress() {
+        compressed.rewind();
+        dst.clear();
+        compressor.decompress(compressed, dst);
+        return dst;
+    }
+}
@@ -0,0 +1,98 @@
+package com.dccn.connect.benchmarks;
+
+import com.dccn.connect.network.PeerRegistry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Peer merging in a crowded room: re-discovering a radio the registry already knows (the common
+ * case while scanning), a link coming up and going down, and one full scan burst published as a
+ * single diff. The linear list scan the found-devices adapter used to do is kept as a baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class PeerRegistryBenchmark {
+
+    private static final int KEYS = 1 << 12;
+    private static final String TRANSPORT = "Bluetooth";
+
+    @Param({"300"})
+    public int radios;
+
+    private PeerRegistry registry;
+    private String[] addresses;
+    private String[] lookups;
+    private List<String> linearList;
+    private int cursor;
+    private int changesSeen;
+    private long now;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        registry = new PeerRegistry();
+        registry.setOnPeersChangedListener(changes -> changesSeen += changes.size());
+        addresses = new String[radios];
+        linearList = new ArrayList<>(radios);
+        for (int i = 0; i < radios; i++) {
+            // Fresh String instances, so lookups hash and compare like addresses off a radio do
+            addresses[i] = String.format(Locale.US, "%02X:%02X:%02X:%02X:%02X:%02X",
+                    random.nextInt(256), random.nextInt(256), random.nextInt(256),
+                    random.nextInt(256), random.nextInt(256), i & 0xFF);
+            registry.onDiscovered(TRANSPORT, addresses[i], "Device " + i, 0);
+            linearList.add(new String(addresses[i]));
+        }
+        registry.flush();
+        lookups = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            lookups[i] = new String(addresses[random.nextInt(radios)]);
+        }
+    }
+
+    @Benchmark
+    public int rediscover() {
+        return registry.onDiscovered(TRANSPORT, lookups[cursor++ & (KEYS - 1)], null, ++now);
+    }
+
+    @Benchmark
+    public int connectAndDrop() {
+        String address = lookups[cursor++ & (KEYS - 1)];
+        registry.setState(TRANSPORT, address, PeerRegistry.STATE_CONNECTED, ++now);
+        return registry.setState(TRANSPORT, address, PeerRegistry.STATE_DISCOVERED, now);
+    }
+
+    @Benchmark
+    public int scanBurstAndFlush() {
+        now++;
+        for (String address : addresses) {
+            registry.onDiscovered(TRANSPORT, address, null, now);
+        }
+        registry.flush();
+        return changesSeen;
+    }
+
+    @Benchmark
+    public int linearListBaseline() {
+        String address = lookups[cursor++ & (KEYS - 1)];
+        for (int i = 0; i < linearList.size(); i++) {
+            if (linearList.get(i).equals(address)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,142 @@
+package com.dccn.connect.benchmarks;
+
+import com.dccn.connect.models.Message;
+import com.dccn.connect.network.AodvRouter;
+import com.dccn.connect.network.FloodingRouter;
+import com.dccn.connect.network.FrameCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Router hot paths: forwarding a new frame to every neighbour, dropping a duplicate, and a
+ * neighbour leaving and rejoining (the peer table update). For on-demand routing, a relay passing
+ * a private message on along a cached route: one transmission where flooding makes peerCount - 1.
+ * What routing saves mesh-wide is measured by MeshSimulator (./gradlew :benchmarks:simulateMesh)
+ * with --router=aodv --conversations=N.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class RoutingBenchmark {
+
+    @Param({"8", "32"})
+    public int peerCount;
+
+    // Twice the seen cache, so by the time a frame comes round again its ID has been evicted
+    private static final int DISTINCT_FRAMES = 2 * FloodingRouter.DEFAULT_SEEN_CACHE_SIZE;
+    private static final String DESTINATION = "device-destination";
+
+    private FloodingRouter router;
+    private String[] peers;
+    private ByteBuffer[] frames;
+    private ByteBuffer duplicate;
+    private AodvRouter relay;
+    private ByteBuffer[] routedFrames;
+    private int frameCursor;
+    private int churnCursor;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        router = new FloodingRouter();
+        router.setFrameSender((peerId, buffer) -> blackhole.consume(buffer));
+        peers = new String[peerCount];
+        for (int i = 0; i < peerCount; i++) {
+            peers[i] = "peer-" + i;
+            router.onPeerConnected(peers[i]);
+        }
+        frames = new ByteBuffer[DISTINCT_FRAMES];
+        for (int i = 0; i < DISTINCT_FRAMES; i++) {
+            frames[i] = encode(Message.newMessageId());
+        }
+        duplicate = encode(Message.newMessageId());
+        router.onFrameReceived(peers[0], duplicate);
+        setUpRelay(blackhole);
+    }
+
+    // Discover the route once over a live link to the destination, then send into the black hole
+    private void setUpRelay(Blackhole blackhole) {
+        relay = new AodvRouter("device-relay");
+        AodvRouter destination = new AodvRouter(DESTINATION);
+        String nextHop = peers[1];
+        relay.setFrameSender((peerId, buffer) -> {
+            if (peerId.equals(nextHop)) {
+                destination.onFrameReceived("device-relay", buffer);
+            }
+        });
+        destination.setFrameSender((peerId, buffer) -> relay.onFrameReceived(nextHop, buffer));
+        destination.onPeerConnected("device-relay");
+        for (String peer : peers) {
+            relay.onPeerConnected(peer);
+        }
+        relay.send(message(Message.newMessageId(), DESTINATION));
+        if (!nextHop.equals(relay.getNextHop(DESTINATION))) {
+            throw new IllegalStateException("Route discovery failed");
+        }
+        relay.setFrameSender((peerId, buffer) -> blackhole.consume(buffer));
+
+        routedFrames = new ByteBuffer[DISTINCT_FRAMES];
+        for (int i = 0; i < DISTINCT_FRAMES; i++) {
+            routedFrames[i] = encode(message(Message.newMessageId(), DESTINATION));
+            FrameCodec.setFlags(routedFrames[i], 0, FrameCodec.FLAG_ROUTED);
+        }
+    }
+
+    private static Message message(long messageId, String recipient) {
+        Message message = new Message(messageId, Message.TYPE_CHAT, 0, "Meet at the library steps", "student-4711", 0);
+        message.setRecipient(recipient);
+        return message;
+    }
+
+    private static ByteBuffer encode(long messageId) {
+        return encode(message(messageId, null));
+    }
+
+    private static ByteBuffer encode(Message message) {
+        ByteBuffer frame = ByteBuffer.allocate(FrameCodec.encodedLength(message));
+        FrameCodec.encode(message, FrameCodec.DEFAULT_HOP_LIMIT, frame);
+        frame.flip();
+        return frame;
+    }
+
+    @Benchmark
+    public void forwardNew() {
+        ByteBuffer frame = frames[frameCursor++ & (DISTINCT_FRAMES - 1)];
+        // Forwarding bumps the hop count in place
+        FrameCodec.setHopCount(frame, 0, 0);
+        frame.rewind();
+        router.onFrameReceived(peers[0], frame);
+    }
+
+    @Benchmark
+    public void forwardRouted() {
+        ByteBuffer frame = routedFrames[frameCursor++ & (DISTINCT_FRAMES - 1)];
+        FrameCodec.setHopCount(frame, 0, 0);
+        frame.rewind();
+        relay.onFrameReceived(peers[0], frame);
+    }
+
+    @Benchmark
+    public void dropDuplicate() {
+        duplicate.rewind();
+        router.onFrameReceived(peers[0], duplicate);
+    }
+
+    @Benchmark
+    public int peerChurn() {
+        String peer = peers[churnCursor++ % peerCount];
+        router.onPeerDisconnected(peer);
+        router.onPeerConnected(peer);
+        return router.getPeerCount();
+    }
+}
@@ -0,0 +1,72 @@
+package com.dccn.connect.benchmarks;
+
+import com.dccn.connect.network.SeenIdCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Duplicate suppression on a full cache: hits (a rebroadcast we already forwarded), misses, and
+ * inserts that evict the oldest ID.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class SeenIdCacheBenchmark {
+
+    private static final int KEYS = 1 << 14;
+
+    @Param({"4096"})
+    public int capacity;
+
+    private SeenIdCache cache;
+    private long[] present;
+    private long[] absent;
+    private long[] fresh;
+    private int cursor;
+    private int freshCursor;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        cache = new SeenIdCache(capacity);
+        present = new long[KEYS];
+        absent = new long[KEYS];
+        fresh = new long[KEYS];
+        long[] stored = new long[capacity];
+        for (int i = 0; i < capacity; i++) {
+            stored[i] = random.nextLong();
+            cache.add(stored[i]);
+        }
+        for (int i = 0; i < KEYS; i++) {
+            present[i] = stored[random.nextInt(capacity)];
+            absent[i] = random.nextLong();
+            fresh[i] = random.nextLong();
+        }
+    }
+
+    @Benchmark
+    public boolean containsHit() {
+        return cache.contains(present[cursor++ & (KEYS - 1)]);
+    }
+
+    @Benchmark
+    public boolean containsMiss() {
+        return cache.contains(absent[cursor++ & (KEYS - 1)]);
+    }
+
+    @Benchmark
+    public boolean addEvicting() {
+        // Offset each pass so re-used keys are long evicted and every add inserts
+        return cache.add(fresh[freshCursor & (KEYS - 1)] + (freshCursor++ >>> 14));
+    }
+}
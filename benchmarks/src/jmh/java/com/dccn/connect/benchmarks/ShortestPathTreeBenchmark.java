@@ -0,0 +1,80 @@
+package com.dccn.connect.benchmarks;
+
+import com.dccn.connect.network.ShortestPathTree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OlsrRouter's route table update: one link of a random geometric mesh (about 10 neighbours per
+ * node) going down and coming back, kept up incrementally, against the from-scratch BFS a router
+ * would otherwise run after each of those two changes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ShortestPathTreeBenchmark {
+
+    @Param({"256", "1024"})
+    public int nodeCount;
+
+    private static final double MEAN_DEGREE = 10.0;
+
+    private ShortestPathTree tree;
+    private int[][] edges;
+    private int cursor;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(1);
+        double[] x = new double[nodeCount];
+        double[] y = new double[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            x[i] = random.nextDouble();
+            y[i] = random.nextDouble();
+        }
+        double radius = Math.sqrt(MEAN_DEGREE / (Math.PI * nodeCount));
+        tree = new ShortestPathTree();
+        for (int i = 1; i < nodeCount; i++) {
+            tree.addNode();
+        }
+        List<int[]> links = new ArrayList<>();
+        for (int i = 0; i < nodeCount; i++) {
+            for (int j = i + 1; j < nodeCount; j++) {
+                double dx = x[i] - x[j];
+                double dy = y[i] - y[j];
+                if (dx * dx + dy * dy <= radius * radius) {
+                    tree.addEdge(i, j);
+                    tree.addEdge(j, i);
+                    links.add(new int[] {i, j});
+                }
+            }
+        }
+        edges = links.toArray(new int[0][]);
+    }
+
+    @Benchmark
+    public boolean linkFlapIncremental() {
+        int[] edge = edges[cursor++ % edges.length];
+        tree.removeEdge(edge[0], edge[1]);
+        return tree.addEdge(edge[0], edge[1]);
+    }
+
+    @Benchmark
+    public int linkFlapRecompute() {
+        tree.recompute();
+        tree.recompute();
+        return tree.getDistance(nodeCount - 1);
+    }
+}
@@ -0,0 +1,142 @@
+package com.dccn.connect.network.simulation;
+
+import java.util.Arrays;
+
+/**
+ * EventQueue - Min-heap of simulation events ordered by time. Events are stored in parallel
+ * primitive arrays and slots are recycled, so a run with tens of millions of events does not
+ * allocate per event. Heap operations are deterministic, so a given seed always replays the same
+ * order for events that share a timestamp.
+ */
+final class EventQueue {
+
+    static final int ORIGINATE = 0;
+    static final int DELIVER = 1;
+    static final int TOPOLOGY_CHANGE = 2;
+    static final int TIMER = 3;
+    static final int CHECK = 4;
+    static final int DELIVER_CONTROL = 5;
+
+    // Slot storage
+    private long[] times;
+    private int[] types;
+    private int[] nodes;
+    private int[] fromNodes;
+    private int[] messages;
+    private int[] hopCounts;
+    private int[] freeSlots;
+    private int freeCount;
+
+    // Heap of slot indices, with each entry's time kept alongside so sifting stays in one array
+    private int[] heap;
+    private long[] heapTimes;
+    private int size;
+    private int popped = -1;
+
+    EventQueue(int initialCapacity) {
+        int capacity = Math.max(16, initialCapacity);
+        times = new long[capacity];
+        types = new int[capacity];
+        nodes = new int[capacity];
+        fromNodes = new int[capacity];
+        messages = new int[capacity];
+        hopCounts = new int[capacity];
+        freeSlots = new int[capacity];
+        heap = new int[capacity];
+        heapTimes = new long[capacity];
+        for (int i = 0; i < capacity; i++) {
+            freeSlots[i] = capacity - 1 - i;
+        }
+        freeCount = capacity;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void add(long time, int type, int node, int fromNode, int message, int hopCount) {
+        if (freeCount == 0) {
+            grow();
+        }
+        int slot = freeSlots[--freeCount];
+        times[slot] = time;
+        types[slot] = type;
+        nodes[slot] = node;
+        fromNodes[slot] = fromNode;
+        messages[slot] = message;
+        hopCounts[slot] = hopCount;
+
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heapTimes[parent] <= time) {
+                break;
+            }
+            heap[i] = heap[parent];
+            heapTimes[i] = heapTimes[parent];
+            i = parent;
+        }
+        heap[i] = slot;
+        heapTimes[i] = time;
+    }
+
+    /**
+     * Remove the earliest event and make it current; its fields stay readable until the next poll
+     */
+    boolean poll() {
+        if (popped >= 0) {
+            freeSlots[freeCount++] = popped;
+            popped = -1;
+        }
+        if (size == 0) {
+            return false;
+        }
+        popped = heap[0];
+        int last = heap[--size];
+        long lastTime = heapTimes[size];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && heapTimes[right] < heapTimes[child]) {
+                child = right;
+            }
+            if (lastTime <= heapTimes[child]) {
+                break;
+            }
+            heap[i] = heap[child];
+            heapTimes[i] = heapTimes[child];
+            i = child;
+        }
+        if (size > 0) {
+            heap[i] = last;
+            heapTimes[i] = lastTime;
+        }
+        return true;
+    }
+
+    long time() { return times[popped]; }
+    int type() { return types[popped]; }
+    int node() { return nodes[popped]; }
+    int fromNode() { return fromNodes[popped]; }
+    int message() { return messages[popped]; }
+    int hopCount() { return hopCounts[popped]; }
+
+    private void grow() {
+        int oldCapacity = times.length;
+        int capacity = oldCapacity * 2;
+        times = Arrays.copyOf(times, capacity);
+        types = Arrays.copyOf(types, capacity);
+        nodes = Arrays.copyOf(nodes, capacity);
+        fromNodes = Arrays.copyOf(fromNodes, capacity);
+        messages = Arrays.copyOf(messages, capacity);
+        hopCounts = Arrays.copyOf(hopCounts, capacity);
+        heap = Arrays.copyOf(heap, capacity);
+        heapTimes = Arrays.copyOf(heapTimes, capacity);
+        freeSlots = Arrays.copyOf(freeSlots, capacity);
+        for (int slot = capacity - 1; slot >= oldCapacity; slot--) {
+            freeSlots[freeCount++] = slot;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.dccn.connect.network.simulation;
+
+import java.util.Locale;
+
+/**
+ * MembershipReport - Outcome of one {@link MembershipSimulator} run
+ */
+public class MembershipReport {
+
+    int nodeCount;
+    int failCount;
+    long convergedMicros = -1;
+    long detectedMicros = -1;
+    long periodMicros;
+    long framesSent;
+    long bytesSent;
+    double steadyBytesPerNodePerSecond;
+    long refutations;
+    long falseSuspicions;
+    long linkLosses;
+    long events;
+    long simulatedMicros;
+    long wallNanos;
+
+    public int getNodeCount() { return nodeCount; }
+    public int getFailCount() { return failCount; }
+    public long getFramesSent() { return framesSent; }
+    public long getBytesSent() { return bytesSent; }
+    public long getRefutations() { return refutations; }
+    public long getFalseSuspicions() { return falseSuspicions; }
+    public long getLinkLosses() { return linkLosses; }
+    public long getEvents() { return events; }
+    public long getSimulatedMicros() { return simulatedMicros; }
+    public long getWallNanos() { return wallNanos; }
+
+    /**
+     * Time from boot until every node knew everyone it can reach and held none of them dead, or -1 if that never happened
+     */
+    public long getConvergedMicros() { return convergedMicros; }
+
+    /**
+     * Time from the failures until every surviving node declared every failed one dead, or -1
+     */
+    public long getDetectedMicros() { return detectedMicros; }
+
+    /**
+     * Gossip bytes each node sent per second once the roster had converged
+     */
+    public double getSteadyBytesPerNodePerSecond() { return steadyBytesPerNodePerSecond; }
+
+    public double getConvergedRounds() {
+        return convergedMicros < 0 ? -1 : (double) convergedMicros / periodMicros;
+    }
+
+    public double getDetectedRounds() {
+        return detectedMicros < 0 ? -1 : (double) detectedMicros / periodMicros;
+    }
+
+    public double getBytesPerNode() {
+        return nodeCount == 0 ? 0.0 : (double) bytesSent / nodeCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "nodes=%d converged=%.1fs (%.1f rounds) failed=%d detected=%.1fs (%.1f rounds)%n"
+                        + "frames=%d bytesPerNode=%.0f steadyBytesPerNodePerSecond=%.1f refutations=%d falseSuspicions=%d linkLosses=%d%n"
+                        + "events=%d simulated=%.1fs wall=%dms",
+                nodeCount, convergedMicros / 1_000_000.0, getConvergedRounds(),
+                failCount, detectedMicros / 1_000_000.0, getDetectedRounds(),
+                framesSent, getBytesPerNode(), steadyBytesPerNodePerSecond, refutations, falseSuspicions, linkLosses,
+                events, simulatedMicros / 1_000_000.0, wallNanos / 1_000_000);
+    }
+}
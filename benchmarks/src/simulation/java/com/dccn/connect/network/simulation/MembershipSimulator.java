@@ -0,0 +1,389 @@
+package com.dccn.connect.network.simulation;
+
+import com.dccn.connect.models.User;
+import com.dccn.connect.network.Membership;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * MembershipSimulator - Runs one {@link Membership} per node over a {@link Topology} in simulated
+ * time and measures how long the roster takes to converge everywhere, how long silent node failures
+ * take to be declared everywhere, and what the gossip costs each node in bytes. Links behave as in
+ * {@link MeshSimulator}: fixed latency plus uniform jitter, independent per-frame loss.
+ *
+ * Every node boots at time 0 knowing only itself. Failed nodes simply go quiet, leaving their links
+ * up, so only the failure detector can notice them.
+ */
+public class MembershipSimulator {
+
+    // Membership timer tick; must stay under half of Membership.PING_TIMEOUT_MS
+    private static final long TICK_MICROS = 100_000;
+    private static final long PERIOD_MICROS = Membership.PROTOCOL_PERIOD_MS * 1000;
+
+    private final Topology topology;
+    private long linkLatencyMicros = 2_000;
+    private long linkJitterMicros = 1_000;
+    private double lossRate;
+    private long seed = 1;
+    private int failCount;
+    private long failAtMicros = 90_000_000;
+
+    // Run state
+    private Membership[] memberships;
+    private String[] nodeIds;
+    private Map<String, Integer> nodeIndex;
+    private boolean[] alive;
+    private EventQueue events;
+    private SplittableRandom random;
+    private long now;
+    private long linkLosses;
+    // Frames in flight, referenced from DELIVER events by slot
+    private byte[][] frames;
+    private int[] freeFrames;
+    private int freeFrameCount;
+
+    public MembershipSimulator(Topology topology) {
+        this.topology = topology;
+    }
+
+    public void setLinkLatencyMicros(long linkLatencyMicros, long linkJitterMicros) {
+        this.linkLatencyMicros = linkLatencyMicros;
+        this.linkJitterMicros = linkJitterMicros;
+    }
+
+    public void setLossRate(double lossRate) {
+        this.lossRate = lossRate;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Silence {@code failCount} random nodes at {@code failAtMicros}
+     */
+    public void setFailures(int failCount, long failAtMicros) {
+        this.failCount = failCount;
+        this.failAtMicros = failAtMicros;
+    }
+
+    /**
+     * Run for {@code durationMicros} of simulated time
+     */
+    public MembershipReport run(long durationMicros) {
+        int nodeCount = topology.getNodeCount();
+        random = new SplittableRandom(seed);
+        events = new EventQueue(1 << 16);
+        frames = new byte[1024][];
+        freeFrames = new int[1024];
+        freeFrameCount = 0;
+        for (int slot = frames.length - 1; slot >= 0; slot--) {
+            freeFrames[freeFrameCount++] = slot;
+        }
+        linkLosses = 0;
+        now = 0;
+
+        nodeIds = new String[nodeCount];
+        nodeIndex = new HashMap<>(nodeCount * 2);
+        alive = new boolean[nodeCount];
+        memberships = new Membership[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            final int node = i;
+            nodeIds[i] = "node-" + i;
+            nodeIndex.put(nodeIds[i], i);
+            alive[i] = true;
+            User user = new User("user-" + i, User.USER_TYPE_STUDENT, nodeIds[i]);
+            memberships[i] = new Membership(user, (peerId, frame) -> transmit(node, peerId, frame),
+                    new Random(seed * 31 + i));
+        }
+
+        int[][] links = topology.getLinks(0);
+        for (int i = 0; i < nodeCount; i++) {
+            // Timers start at random phases, as devices would
+            events.add(random.nextLong(TICK_MICROS), EventQueue.TIMER, i, -1, -1, 0);
+            for (int j : links[i]) {
+                memberships[i].onPeerConnected(nodeIds[j], 0);
+            }
+        }
+        events.add(TICK_MICROS, EventQueue.CHECK, -1, -1, -1, 0);
+        long nextChange = topology.getNextChangeMicros(0);
+        if (nextChange != Long.MAX_VALUE) {
+            events.add(nextChange, EventQueue.TOPOLOGY_CHANGE, -1, -1, -1, 0);
+        }
+
+        MembershipReport report = new MembershipReport();
+        report.nodeCount = nodeCount;
+        report.failCount = failCount;
+        long bytesAtConvergence = 0;
+        int[] failed = new int[0];
+        long start = System.nanoTime();
+        long processed = 0;
+        while (events.poll() && events.time() <= durationMicros) {
+            now = events.time();
+            processed++;
+            int node = events.node();
+            switch (events.type()) {
+                case EventQueue.DELIVER:
+                    int slot = events.message();
+                    if (alive[node]) {
+                        memberships[node].onFrameReceived(nodeIds[events.fromNode()],
+                                ByteBuffer.wrap(frames[slot]), now / 1000);
+                    }
+                    frames[slot] = null;
+                    freeFrames[freeFrameCount++] = slot;
+                    break;
+                case EventQueue.TIMER:
+                    if (alive[node]) {
+                        memberships[node].onTimer(now / 1000);
+                        events.add(now + TICK_MICROS, EventQueue.TIMER, node, -1, -1, 0);
+                    }
+                    break;
+                case EventQueue.CHECK:
+                    if (failed.length == 0 && failCount > 0 && now >= failAtMicros) {
+                        failed = fail(Math.min(failCount, nodeCount - 1));
+                    }
+                    if (report.convergedMicros < 0 && failed.length == 0 && allKnown(links)) {
+                        report.convergedMicros = now;
+                        bytesAtConvergence = totalBytesSent();
+                    }
+                    if (report.detectedMicros < 0 && failed.length > 0 && allDeclaredDead(failed)) {
+                        report.detectedMicros = now - failAtMicros;
+                    }
+                    events.add(now + TICK_MICROS, EventQueue.CHECK, -1, -1, -1, 0);
+                    break;
+                case EventQueue.TOPOLOGY_CHANGE:
+                    int[][] next = topology.getLinks(now);
+                    relink(links, next);
+                    links = next;
+                    nextChange = topology.getNextChangeMicros(now);
+                    if (nextChange != Long.MAX_VALUE) {
+                        events.add(nextChange, EventQueue.TOPOLOGY_CHANGE, -1, -1, -1, 0);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown event type " + events.type());
+            }
+        }
+
+        report.wallNanos = System.nanoTime() - start;
+        report.events = processed;
+        report.simulatedMicros = durationMicros;
+        report.linkLosses = linkLosses;
+        report.periodMicros = PERIOD_MICROS;
+        for (int i = 0; i < nodeCount; i++) {
+            report.framesSent += memberships[i].getFramesSent();
+            report.bytesSent += memberships[i].getBytesSent();
+            report.refutations += memberships[i].getRefutations();
+        }
+        if (report.convergedMicros >= 0 && durationMicros > report.convergedMicros) {
+            report.steadyBytesPerNodePerSecond = (totalBytesSent() - bytesAtConvergence) * 1_000_000.0
+                    / nodeCount / (durationMicros - report.convergedMicros);
+        }
+        report.falseSuspicions = countFalseSuspicions();
+        return report;
+    }
+
+    private int[] fail(int count) {
+        int[] failed = new int[count];
+        int chosen = 0;
+        while (chosen < count) {
+            int node = random.nextInt(alive.length);
+            if (alive[node]) {
+                alive[node] = false;
+                failed[chosen++] = node;
+            }
+        }
+        return failed;
+    }
+
+    // Every node knows at least everyone else in its connected component and holds none of them dead.
+    // Suspects still count: under loss some probe is always failing somewhere.
+    private boolean allKnown(int[][] links) {
+        int[] componentSizes = componentSizes(links);
+        for (int i = 0; i < memberships.length; i++) {
+            if (alive[i] && memberships[i].getMemberCount(Membership.STATUS_ALIVE)
+                    + memberships[i].getMemberCount(Membership.STATUS_SUSPECT) < componentSizes[i] - 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Size of the connected component each node is in, by breadth-first search
+    private static int[] componentSizes(int[][] links) {
+        int n = links.length;
+        int[] component = new int[n];
+        Arrays.fill(component, -1);
+        int[] sizes = new int[n];
+        int[] queue = new int[n];
+        for (int root = 0; root < n; root++) {
+            if (component[root] >= 0) {
+                continue;
+            }
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = root;
+            component[root] = root;
+            while (head < tail) {
+                for (int next : links[queue[head++]]) {
+                    if (component[next] < 0) {
+                        component[next] = root;
+                        queue[tail++] = next;
+                    }
+                }
+            }
+            sizes[root] = tail;
+        }
+        int[] result = new int[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = sizes[component[i]];
+        }
+        return result;
+    }
+
+    private boolean allDeclaredDead(int[] failed) {
+        for (int i = 0; i < memberships.length; i++) {
+            if (!alive[i]) {
+                continue;
+            }
+            for (int node : failed) {
+                // A node that never heard of the failed one has nothing to correct
+                int status = memberships[i].getStatus(nodeIds[node]);
+                if (status >= 0 && status != Membership.STATUS_DEAD) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // (observer, member) pairs of live nodes where the observer holds the member suspect or dead
+    private long countFalseSuspicions() {
+        long count = 0;
+        for (int i = 0; i < memberships.length; i++) {
+            if (!alive[i]) {
+                continue;
+            }
+            for (int j = 0; j < memberships.length; j++) {
+                if (j != i && alive[j] && memberships[i].getStatus(nodeIds[j]) > Membership.STATUS_ALIVE) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private long totalBytesSent() {
+        long total = 0;
+        for (Membership membership : memberships) {
+            total += membership.getBytesSent();
+        }
+        return total;
+    }
+
+    // The frame is only valid during the call, so it is copied into a slot until delivery
+    private void transmit(int node, String peerId, ByteBuffer frame) {
+        if (lossRate > 0 && random.nextDouble() < lossRate) {
+            linkLosses++;
+            return;
+        }
+        Integer peer = nodeIndex.get(peerId);
+        if (peer == null) {
+            return;
+        }
+        if (freeFrameCount == 0) {
+            int oldCapacity = frames.length;
+            frames = Arrays.copyOf(frames, oldCapacity * 2);
+            freeFrames = Arrays.copyOf(freeFrames, oldCapacity * 2);
+            for (int slot = frames.length - 1; slot >= oldCapacity; slot--) {
+                freeFrames[freeFrameCount++] = slot;
+            }
+        }
+        int slot = freeFrames[--freeFrameCount];
+        byte[] bytes = new byte[frame.remaining()];
+        frame.duplicate().get(bytes);
+        frames[slot] = bytes;
+        long delay = linkLatencyMicros + (linkJitterMicros > 0 ? random.nextLong(linkJitterMicros + 1) : 0);
+        events.add(now + delay, EventQueue.DELIVER, peer, node, slot, 0);
+    }
+
+    // Tell both ends of every link that appeared or disappeared between two epochs
+    private void relink(int[][] before, int[][] after) {
+        long nowMs = now / 1000;
+        for (int i = 0; i < memberships.length; i++) {
+            if (!alive[i]) {
+                continue;
+            }
+            int[] a = before[i];
+            int[] b = after[i];
+            int x = 0;
+            int y = 0;
+            while (x < a.length || y < b.length) {
+                if (y == b.length || (x < a.length && a[x] < b[y])) {
+                    memberships[i].onPeerDisconnected(nodeIds[a[x++]], nowMs);
+                } else if (x == a.length || b[y] < a[x]) {
+                    memberships[i].onPeerConnected(nodeIds[b[y++]], nowMs);
+                } else {
+                    x++;
+                    y++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Command-line entry point, e.g.
+     * {@code ./gradlew :benchmarks:simulateMembership --args='--topology=geometric --nodes=500 --fail=5'}.
+     * Topologies: complete, grid, geometric, waypoint.
+     */
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                System.err.println("Expected --name=value, got " + arg);
+                System.exit(2);
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        int nodes = Integer.parseInt(option(options, "nodes", "500"));
+        double radius = Double.parseDouble(option(options, "radius", "0.1"));
+        long seed = Long.parseLong(option(options, "seed", "1"));
+        long durationMicros = Long.parseLong(option(options, "durationMs", "180000")) * 1000;
+        String kind = option(options, "topology", "geometric");
+
+        Topology topology;
+        if (kind.equals("complete")) {
+            topology = StaticTopology.complete(nodes);
+        } else if (kind.equals("grid")) {
+            int columns = (int) Math.ceil(Math.sqrt(nodes));
+            topology = StaticTopology.grid((nodes + columns - 1) / columns, columns);
+        } else if (kind.equals("geometric")) {
+            topology = StaticTopology.randomGeometric(nodes, radius, seed);
+        } else if (kind.equals("waypoint")) {
+            topology = MobilityTopology.randomWaypoint(nodes, 1.0, 1.0, radius,
+                    Double.parseDouble(option(options, "speed", "0.01")), 1_000_000, durationMicros, seed);
+        } else {
+            System.err.println("Unknown topology " + kind);
+            System.exit(2);
+            return;
+        }
+
+        MembershipSimulator simulator = new MembershipSimulator(topology);
+        simulator.setLossRate(Double.parseDouble(option(options, "loss", "0")));
+        simulator.setSeed(seed);
+        simulator.setFailures(Integer.parseInt(option(options, "fail", "5")),
+                Long.parseLong(option(options, "failAtMs", "90000")) * 1000);
+        System.out.println(simulator.run(durationMicros));
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value != null ? value : defaultValue;
+    }
+}
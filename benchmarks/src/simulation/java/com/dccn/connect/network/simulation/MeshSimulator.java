@@ -0,0 +1,564 @@
+package com.dccn.connect.network.simulation;
+
+import com.dccn.connect.models.Message;
+import com.dccn.connect.network.AodvRouter;
+import com.dccn.connect.network.FloodingRouter;
+import com.dccn.connect.network.FrameCodec;
+import com.dccn.connect.network.MeshRouter;
+import com.dccn.connect.network.OlsrRouter;
+import com.dccn.connect.network.RouterStats;
+import com.dccn.connect.network.SprayAndWaitRouter;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * MeshSimulator - Headless discrete-event simulation of the mesh. Every node runs the same
+ * {@link MeshRouter} that CommunicationService uses; links are modelled as a fixed latency plus
+ * uniform jitter with independent per-transmission loss. Time is simulated in microseconds, so a
+ * run is limited only by event throughput, not by wall-clock delays.
+ *
+ * Traffic is either broadcast chat, or private messages exchanged within a fixed set of
+ * conversations, each between two random nodes, which is where on-demand routing earns its keep,
+ * or emergency alerts from random nodes to whichever of a few rescue-team nodes they reach first.
+ * Routers are ticked every {@link #TIMER_INTERVAL_MICROS} until no message has moved for
+ * {@link #DRAIN_MICROS}, long enough for any route discovery still waiting to give up; periodic
+ * control traffic alone does not keep a run going. A warm-up before the first message lets
+ * proactive routers converge, as they would have long before anyone types on a settled mesh.
+ */
+public class MeshSimulator {
+
+    public interface RouterFactory {
+        MeshRouter create(int node);
+    }
+
+    // Latency histogram resolution
+    private static final long LATENCY_BUCKET_MICROS = 100;
+    // Same tick as the service's timer
+    static final long TIMER_INTERVAL_MICROS = 50_000;
+    static final long DRAIN_MICROS = 10_000_000;
+
+    private final Topology topology;
+    private RouterFactory routerFactory;
+    private long linkLatencyMicros = 2_000;
+    private long linkJitterMicros = 1_000;
+    private double lossRate;
+    private int payloadBytes = 64;
+    private long seed = 1;
+    private int conversations;
+    private long warmupMicros;
+    private long runMicros;
+    private int rescueTeams;
+
+    // Run state
+    private MeshRouter[] routers;
+    private String[] nodeIds;
+    private Map<String, Integer> nodeIndex;
+    private byte[][] encodedMessages;
+    private int[] recipients;
+    private int[][] conversationEnds;
+    private boolean[] rescue;
+    private boolean[] reachedRescue;
+    // Link-local frames in flight, e.g. route control; event message indexes point here
+    private byte[][] controlFrames;
+    private int[] freeControlSlots;
+    private int freeControlCount;
+    private long[] originMicros;
+    private long[] latencyCounts;
+    private EventQueue events;
+    private SplittableRandom random;
+    private ByteBuffer deliveryBuffer;
+    private int currentNode;
+    private long now;
+    private long lastActivity;
+    private long deliveries;
+    private long alertReceipts;
+    private long linkLosses;
+
+    public MeshSimulator(Topology topology) {
+        this.topology = topology;
+        this.routerFactory = node -> new FloodingRouter();
+    }
+
+    public void setRouterFactory(RouterFactory routerFactory) {
+        this.routerFactory = routerFactory;
+    }
+
+    public void setLinkLatencyMicros(long linkLatencyMicros, long linkJitterMicros) {
+        this.linkLatencyMicros = linkLatencyMicros;
+        this.linkJitterMicros = linkJitterMicros;
+    }
+
+    public void setLossRate(double lossRate) {
+        this.lossRate = lossRate;
+    }
+
+    public void setPayloadBytes(int payloadBytes) {
+        this.payloadBytes = payloadBytes;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Send private messages within this many two-party conversations instead of broadcasting;
+     * 0 for broadcast
+     */
+    public void setConversations(int conversations) {
+        this.conversations = conversations;
+    }
+
+    /**
+     * Let routers run this long before the first message; control traffic sent meanwhile is counted
+     */
+    public void setWarmupMicros(long warmupMicros) {
+        this.warmupMicros = warmupMicros;
+    }
+
+    /**
+     * Keep the mesh running, and moving, at least this long, so carried messages have time to arrive
+     */
+    public void setRunMicros(long runMicros) {
+        this.runMicros = runMicros;
+    }
+
+    /**
+     * Make this many random nodes rescue-team devices and send emergency alerts from the others
+     * instead of chat; an alert counts as delivered once any rescue-team device has it, and the
+     * report also says how many of all the other devices saw it. 0 for chat.
+     */
+    public void setRescueTeams(int rescueTeams) {
+        this.rescueTeams = rescueTeams;
+    }
+
+    /**
+     * Whether a node is a rescue-team device in the current run
+     */
+    public boolean isRescueTeam(String nodeId) {
+        Integer node = nodeIndex.get(nodeId);
+        return node != null && rescue[node];
+    }
+
+    /**
+     * The ID node {@code node} goes by, both as a link peer and as a routing address
+     */
+    public static String nodeId(int node) {
+        return "node-" + node;
+    }
+
+    /**
+     * Originate {@code messageCount} chat messages from random nodes (or random conversation ends),
+     * one every {@code intervalMicros}, and run until the mesh goes quiet
+     */
+    public SimulationReport run(int messageCount, long intervalMicros) {
+        int nodeCount = topology.getNodeCount();
+        random = new SplittableRandom(seed);
+        events = new EventQueue(1 << 16);
+        deliveryBuffer = ByteBuffer.allocate(FrameCodec.HEADER_SIZE + 16 + payloadBytes * 4);
+        encodedMessages = new byte[messageCount][];
+        recipients = new int[messageCount];
+        controlFrames = new byte[64][];
+        freeControlSlots = new int[64];
+        freeControlCount = 0;
+        for (int slot = controlFrames.length - 1; slot >= 0; slot--) {
+            freeControlSlots[freeControlCount++] = slot;
+        }
+        originMicros = new long[messageCount];
+        latencyCounts = new long[1024];
+        deliveries = 0;
+        alertReceipts = 0;
+        linkLosses = 0;
+        now = 0;
+        lastActivity = 0;
+
+        nodeIds = new String[nodeCount];
+        nodeIndex = new HashMap<>(nodeCount * 2);
+        for (int i = 0; i < nodeCount; i++) {
+            nodeIds[i] = nodeId(i);
+            nodeIndex.put(nodeIds[i], i);
+        }
+        conversationEnds = new int[conversations][2];
+        for (int[] ends : conversationEnds) {
+            ends[0] = random.nextInt(nodeCount);
+            do {
+                ends[1] = random.nextInt(nodeCount);
+            } while (ends[1] == ends[0] && nodeCount > 1);
+        }
+        rescue = new boolean[nodeCount];
+        for (int placed = 0; placed < Math.min(rescueTeams, nodeCount - 1); ) {
+            int node = random.nextInt(nodeCount);
+            if (!rescue[node]) {
+                rescue[node] = true;
+                placed++;
+            }
+        }
+        reachedRescue = new boolean[messageCount];
+        long memoryPerNode = createRouters(nodeCount);
+
+        int[][] links = topology.getLinks(0);
+        for (int i = 0; i < nodeCount; i++) {
+            for (int j : links[i]) {
+                routers[i].onPeerConnected(nodeIds[j]);
+            }
+        }
+
+        char[] text = new char[payloadBytes];
+        Arrays.fill(text, 'x');
+        String payload = new String(text);
+        // Originations are scheduled one ahead, keeping the queue as small as the traffic in flight
+        if (messageCount > 0) {
+            events.add(warmupMicros, EventQueue.ORIGINATE, random.nextInt(nodeCount), -1, 0, 0);
+        }
+        long nextChange = topology.getNextChangeMicros(0);
+        if (nextChange != Long.MAX_VALUE) {
+            events.add(nextChange, EventQueue.TOPOLOGY_CHANGE, -1, -1, -1, 0);
+        }
+        events.add(TIMER_INTERVAL_MICROS, EventQueue.TIMER, -1, -1, -1, 0);
+
+        long start = System.nanoTime();
+        long processed = 0;
+        int originated = 0;
+        while (events.poll()) {
+            now = events.time();
+            processed++;
+            switch (events.type()) {
+                case EventQueue.ORIGINATE:
+                    lastActivity = now;
+                    originate(events.node(), events.message(), payload);
+                    originated++;
+                    if (originated < messageCount) {
+                        events.add(warmupMicros + originated * intervalMicros, EventQueue.ORIGINATE,
+                                random.nextInt(nodeCount), -1, originated, 0);
+                    }
+                    break;
+                case EventQueue.DELIVER:
+                    lastActivity = now;
+                    deliver(events.node(), events.fromNode(), events.message(), events.hopCount());
+                    break;
+                case EventQueue.DELIVER_CONTROL:
+                    deliverControl(events.node(), events.fromNode(), events.message());
+                    break;
+                case EventQueue.TIMER:
+                    for (int i = 0; i < nodeCount; i++) {
+                        currentNode = i;
+                        routers[i].onTimer(now / 1000);
+                    }
+                    if (originated < messageCount || now - lastActivity < DRAIN_MICROS || now < runMicros) {
+                        events.add(now + TIMER_INTERVAL_MICROS, EventQueue.TIMER, -1, -1, -1, 0);
+                    }
+                    break;
+                case EventQueue.TOPOLOGY_CHANGE:
+                    int[][] next = topology.getLinks(now);
+                    relink(links, next);
+                    links = next;
+                    nextChange = topology.getNextChangeMicros(now);
+                    // Stop moving once traffic is over, or a long trace would keep the run alive
+                    if (nextChange != Long.MAX_VALUE && (originated < messageCount || events.size() > 0)) {
+                        events.add(nextChange, EventQueue.TOPOLOGY_CHANGE, -1, -1, -1, 0);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown event type " + events.type());
+            }
+        }
+
+        SimulationReport report = new SimulationReport();
+        report.wallNanos = System.nanoTime() - start;
+        report.nodeCount = nodeCount;
+        report.messageCount = messageCount;
+        report.unicast = conversations > 0 || rescueTeams > 0;
+        report.possibleDeliveries = report.unicast ? messageCount : (long) messageCount * (nodeCount - 1);
+        report.deliveries = deliveries;
+        if (rescueTeams > 0) {
+            report.alertReceipts = alertReceipts;
+            report.possibleAlertReceipts = (long) messageCount * (nodeCount - 1);
+        }
+        report.linkLosses = linkLosses;
+        report.events = processed;
+        report.simulatedMicros = lastActivity;
+        report.memoryPerNodeBytes = memoryPerNode;
+        for (MeshRouter router : routers) {
+            RouterStats stats = router.getStats();
+            report.transmissions += stats.getTransmissions();
+            report.controlTransmissions += stats.getControlTransmissions();
+            report.duplicatesSuppressed += stats.getDuplicatesSuppressed();
+            report.hopLimitDrops += stats.getHopLimitDrops();
+        }
+        report.latencyP50Micros = latencyPercentile(50);
+        report.latencyP90Micros = latencyPercentile(90);
+        report.latencyP99Micros = latencyPercentile(99);
+        report.latencyMaxMicros = latencyPercentile(100);
+        return report;
+    }
+
+    // Builds the routers and returns the heap they retain per node, measured around a GC
+    private long createRouters(int nodeCount) {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        routers = new MeshRouter[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            final int node = i;
+            MeshRouter router = routerFactory.create(i);
+            router.setFrameSender((peerId, frame) -> transmit(node, peerId, frame));
+            router.setOnFrameDeliveredListener(frame -> onDelivered(node, frame.getMessageId()));
+            routers[i] = router;
+        }
+        System.gc();
+        long after = runtime.totalMemory() - runtime.freeMemory();
+        return Math.max(0, (after - before) / Math.max(1, nodeCount));
+    }
+
+    private void originate(int node, int message, String payload) {
+        if (conversations > 0) {
+            int[] ends = conversationEnds[random.nextInt(conversations)];
+            int side = random.nextInt(2);
+            node = ends[side];
+            recipients[message] = ends[1 - side];
+        }
+        while (rescueTeams > 0 && rescue[node]) {
+            node = random.nextInt(rescue.length);
+        }
+        int type = rescueTeams > 0 ? Message.TYPE_EMERGENCY : Message.TYPE_CHAT;
+        Message m = new Message(message, type, 0, payload, nodeIds[node], now);
+        if (conversations > 0) {
+            m.setRecipient(nodeIds[recipients[message]]);
+        }
+        originMicros[message] = now;
+        currentNode = node;
+        routers[node].send(m);
+    }
+
+    // The event's hop count carries the frame's flags above the low byte
+    private void deliver(int node, int fromNode, int message, int hopCountAndFlags) {
+        byte[] encoded = encodedMessages[message];
+        if (deliveryBuffer.capacity() < encoded.length) {
+            deliveryBuffer = ByteBuffer.allocate(encoded.length * 2);
+        }
+        deliveryBuffer.clear();
+        deliveryBuffer.put(encoded).flip();
+        FrameCodec.setHopCount(deliveryBuffer, 0, hopCountAndFlags & 0xFF);
+        FrameCodec.setFlags(deliveryBuffer, 0, hopCountAndFlags >>> 8);
+        currentNode = node;
+        routers[node].onFrameReceived(nodeIds[fromNode], deliveryBuffer);
+    }
+
+    private void deliverControl(int node, int fromNode, int slot) {
+        byte[] encoded = controlFrames[slot];
+        controlFrames[slot] = null;
+        freeControlSlots[freeControlCount++] = slot;
+        currentNode = node;
+        routers[node].onFrameReceived(nodeIds[fromNode], ByteBuffer.wrap(encoded));
+    }
+
+    // Frame sender of the node currently being stepped; the frame is only valid during the call,
+    // so the event keeps just the message index, hop count and flags. Other kinds are copied whole.
+    private void transmit(int node, String peerId, ByteBuffer frame) {
+        if (lossRate > 0 && random.nextDouble() < lossRate) {
+            linkLosses++;
+            return;
+        }
+        Integer peer = nodeIndex.get(peerId);
+        if (peer == null) {
+            return;
+        }
+        long delay = linkLatencyMicros + (linkJitterMicros > 0 ? random.nextLong(linkJitterMicros + 1) : 0);
+        int offset = frame.position();
+        if (FrameCodec.peekKind(frame, offset) != FrameCodec.KIND_MESSAGE) {
+            byte[] encoded = new byte[frame.remaining()];
+            frame.duplicate().get(encoded);
+            events.add(now + delay, EventQueue.DELIVER_CONTROL, peer, node, storeControlFrame(encoded), 0);
+            return;
+        }
+        int message = (int) FrameCodec.peekMessageId(frame, offset);
+        int hopCount = FrameCodec.peekHopCount(frame, offset);
+        int flags = FrameCodec.peekFlags(frame, offset);
+        if (encodedMessages[message] == null) {
+            // Keep the originator's encoding once; deliveries rebuild the frame from it
+            byte[] encoded = new byte[frame.remaining()];
+            frame.duplicate().get(encoded);
+            encodedMessages[message] = encoded;
+        }
+        events.add(now + delay, EventQueue.DELIVER, peer, node, message, hopCount | flags << 8);
+    }
+
+    private int storeControlFrame(byte[] encoded) {
+        if (freeControlCount == 0) {
+            int oldCapacity = controlFrames.length;
+            controlFrames = Arrays.copyOf(controlFrames, oldCapacity * 2);
+            freeControlSlots = Arrays.copyOf(freeControlSlots, oldCapacity * 2);
+            for (int slot = oldCapacity * 2 - 1; slot >= oldCapacity; slot--) {
+                freeControlSlots[freeControlCount++] = slot;
+            }
+        }
+        int slot = freeControlSlots[--freeControlCount];
+        controlFrames[slot] = encoded;
+        return slot;
+    }
+
+    // With private traffic only the recipient's copy counts, with alerts only the first rescue
+    // team's; flooding hands one to every node
+    private void onDelivered(int node, long messageId) {
+        if (conversations > 0 && node != recipients[(int) messageId]) {
+            return;
+        }
+        if (rescueTeams > 0) {
+            alertReceipts++;
+            if (!rescue[node] || reachedRescue[(int) messageId]) {
+                return;
+            }
+            reachedRescue[(int) messageId] = true;
+        }
+        deliveries++;
+        long latency = now - originMicros[(int) messageId];
+        int bucket = (int) Math.min(Integer.MAX_VALUE - 8, latency / LATENCY_BUCKET_MICROS);
+        if (bucket >= latencyCounts.length) {
+            latencyCounts = Arrays.copyOf(latencyCounts, Math.max(bucket + 1, latencyCounts.length * 2));
+        }
+        latencyCounts[bucket]++;
+    }
+
+    private long latencyPercentile(double percentile) {
+        long total = 0;
+        for (long count : latencyCounts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int bucket = 0; bucket < latencyCounts.length; bucket++) {
+            seen += latencyCounts[bucket];
+            if (seen >= rank) {
+                return (bucket + 1) * LATENCY_BUCKET_MICROS;
+            }
+        }
+        return latencyCounts.length * LATENCY_BUCKET_MICROS;
+    }
+
+    // Tell both ends of every link that appeared or disappeared between two epochs
+    private void relink(int[][] before, int[][] after) {
+        for (int i = 0; i < routers.length; i++) {
+            int[] a = before[i];
+            int[] b = after[i];
+            int x = 0;
+            int y = 0;
+            while (x < a.length || y < b.length) {
+                if (y == b.length || (x < a.length && a[x] < b[y])) {
+                    routers[i].onPeerDisconnected(nodeIds[a[x++]]);
+                } else if (x == a.length || b[y] < a[x]) {
+                    routers[i].onPeerConnected(nodeIds[b[y++]]);
+                } else {
+                    x++;
+                    y++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Command-line entry point, e.g.
+     * {@code ./gradlew :benchmarks:simulateMesh --args='--topology=geometric --nodes=1000 --messages=10000'}.
+     * Topologies: grid, geometric, waypoint, or a trace file path given as {@code trace:<path>}.
+     * Routers: flooding, aodv, olsr, or mixed (olsr on even nodes, aodv on odd, as when devices of one
+     * mesh disagree on the routing mode). {@code --conversations=20} switches to private messages, and
+     * {@code --warmupMicros=30000000} holds traffic back while routes settle. {@code --rescueTeams=5}
+     * sends emergency alerts instead, flooded or with {@code --alerts=spray --copies=8} sprayed, and
+     * {@code --runMicros} keeps the mesh moving long enough for carried alerts to arrive.
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                System.err.println("Expected --name=value, got " + arg);
+                System.exit(2);
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        int nodes = Integer.parseInt(option(options, "nodes", "1000"));
+        int messages = Integer.parseInt(option(options, "messages", "10000"));
+        long interval = Long.parseLong(option(options, "intervalMicros", "10000"));
+        double radius = Double.parseDouble(option(options, "radius", "0.06"));
+        long seed = Long.parseLong(option(options, "seed", "1"));
+        long warmup = Long.parseLong(option(options, "warmupMicros", "0"));
+        long run = Long.parseLong(option(options, "runMicros", "0"));
+        String kind = option(options, "topology", "geometric");
+
+        Topology topology;
+        if (kind.equals("grid")) {
+            int columns = (int) Math.ceil(Math.sqrt(nodes));
+            topology = StaticTopology.grid((nodes + columns - 1) / columns, columns);
+        } else if (kind.equals("geometric")) {
+            topology = StaticTopology.randomGeometric(nodes, radius, seed);
+        } else if (kind.equals("waypoint")) {
+            long duration = Math.max(run, warmup + messages * interval);
+            topology = MobilityTopology.randomWaypoint(nodes, 1.0, 1.0, radius,
+                    Double.parseDouble(option(options, "speed", "0.01")), 1_000_000, duration, seed);
+        } else if (kind.startsWith("trace:")) {
+            try (Reader reader = new FileReader(kind.substring("trace:".length()))) {
+                topology = MobilityTopology.load(reader, nodes, radius);
+            }
+        } else {
+            System.err.println("Unknown topology " + kind);
+            System.exit(2);
+            return;
+        }
+
+        int hopLimit = Integer.parseInt(option(options, "hopLimit", String.valueOf(FrameCodec.DEFAULT_HOP_LIMIT)));
+        MeshSimulator simulator = new MeshSimulator(topology);
+        String router = option(options, "router", "flooding");
+        RouterFactory routers;
+        if (router.equals("flooding")) {
+            routers = node -> new FloodingRouter(hopLimit, FloodingRouter.DEFAULT_SEEN_CACHE_SIZE);
+        } else if (router.equals("aodv")) {
+            routers = node -> new AodvRouter(nodeId(node), hopLimit, FloodingRouter.DEFAULT_SEEN_CACHE_SIZE);
+        } else if (router.equals("olsr")) {
+            routers = node -> new OlsrRouter(nodeId(node), hopLimit, FloodingRouter.DEFAULT_SEEN_CACHE_SIZE);
+        } else if (router.equals("mixed")) {
+            routers = node -> node % 2 == 0
+                    ? new OlsrRouter(nodeId(node), hopLimit, FloodingRouter.DEFAULT_SEEN_CACHE_SIZE)
+                    : new AodvRouter(nodeId(node), hopLimit, FloodingRouter.DEFAULT_SEEN_CACHE_SIZE);
+        } else {
+            System.err.println("Unknown router " + router);
+            System.exit(2);
+            return;
+        }
+        String alerts = option(options, "alerts", "flood");
+        if (alerts.equals("spray")) {
+            int copies = Integer.parseInt(option(options, "copies", String.valueOf(SprayAndWaitRouter.DEFAULT_COPIES)));
+            simulator.setRouterFactory(node -> {
+                SprayAndWaitRouter spray = new SprayAndWaitRouter(nodeId(node), routers.create(node),
+                        simulator.isRescueTeam(nodeId(node)), copies, FloodingRouter.DEFAULT_SEEN_CACHE_SIZE);
+                spray.onRescueTeamsChanged(simulator::isRescueTeam);
+                return spray;
+            });
+        } else if (alerts.equals("flood")) {
+            simulator.setRouterFactory(routers);
+        } else {
+            System.err.println("Unknown alert mode " + alerts);
+            System.exit(2);
+            return;
+        }
+        simulator.setConversations(Integer.parseInt(option(options, "conversations", "0")));
+        simulator.setLossRate(Double.parseDouble(option(options, "loss", "0")));
+        simulator.setSeed(seed);
+        simulator.setWarmupMicros(warmup);
+        simulator.setRunMicros(run);
+        simulator.setRescueTeams(Integer.parseInt(option(options, "rescueTeams", "0")));
+        System.out.println(simulator.run(messages, interval));
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value != null ? value : defaultValue;
+    }
+}
@@ -0,0 +1,175 @@
+package com.dccn.connect.network.simulation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * MobilityTopology - Links derived from node positions that change over time. Positions come
+ * either from a trace or from a random-waypoint model; between samples a node stays where it was
+ * last seen, and two nodes are linked while they are within radio range.
+ */
+public class MobilityTopology implements Topology {
+
+    private final long[] epochMicros;
+    private final int[][][] epochLinks;
+
+    private MobilityTopology(long[] epochMicros, int[][][] epochLinks) {
+        this.epochMicros = epochMicros;
+        this.epochLinks = epochLinks;
+    }
+
+    /**
+     * Read a trace of {@code <seconds> <node> <x> <y>} lines, one position sample per line.
+     * Blank lines and lines starting with '#' are ignored; every node needs a sample at the
+     * earliest time in the trace.
+     */
+    public static MobilityTopology load(Reader trace, int nodeCount, double radius) throws IOException {
+        List<double[]> samples = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(trace);
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if (fields.length != 4) {
+                throw new IOException("Line " + lineNumber + ": expected <seconds> <node> <x> <y>");
+            }
+            try {
+                int node = Integer.parseInt(fields[1]);
+                if (node < 0 || node >= nodeCount) {
+                    throw new IOException("Line " + lineNumber + ": node out of range: " + fields[1]);
+                }
+                samples.add(new double[] {
+                        Double.parseDouble(fields[0]), node,
+                        Double.parseDouble(fields[2]), Double.parseDouble(fields[3])});
+            } catch (NumberFormatException e) {
+                throw new IOException("Line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        if (samples.isEmpty()) {
+            throw new IOException("Empty mobility trace");
+        }
+        samples.sort((a, b) -> Double.compare(a[0], b[0]));
+
+        double[] x = new double[nodeCount];
+        double[] y = new double[nodeCount];
+        boolean[] placed = new boolean[nodeCount];
+        int placedCount = 0;
+        List<Long> times = new ArrayList<>();
+        List<int[][]> links = new ArrayList<>();
+        int i = 0;
+        while (i < samples.size()) {
+            double time = samples.get(i)[0];
+            for (; i < samples.size() && samples.get(i)[0] == time; i++) {
+                double[] sample = samples.get(i);
+                int node = (int) sample[1];
+                x[node] = sample[2];
+                y[node] = sample[3];
+                if (!placed[node]) {
+                    placed[node] = true;
+                    placedCount++;
+                }
+            }
+            if (times.isEmpty() && placedCount < nodeCount) {
+                throw new IOException("Trace does not place all " + nodeCount + " nodes at its first timestamp");
+            }
+            times.add((long) (time * 1_000_000L));
+            links.add(StaticTopology.linksWithinRange(x, y, radius));
+        }
+        return of(times, links);
+    }
+
+    /**
+     * Random-waypoint mobility on a width x height area: each node walks at {@code speed} units
+     * per second towards a random point, then picks another. Positions are sampled every
+     * {@code stepMicros} until {@code durationMicros}.
+     */
+    public static MobilityTopology randomWaypoint(int nodeCount, double width, double height, double radius,
+                                                  double speed, long stepMicros, long durationMicros, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        double[] x = new double[nodeCount];
+        double[] y = new double[nodeCount];
+        double[] targetX = new double[nodeCount];
+        double[] targetY = new double[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            x[i] = random.nextDouble() * width;
+            y[i] = random.nextDouble() * height;
+            targetX[i] = random.nextDouble() * width;
+            targetY[i] = random.nextDouble() * height;
+        }
+        double stepDistance = speed * stepMicros / 1_000_000.0;
+        List<Long> times = new ArrayList<>();
+        List<int[][]> links = new ArrayList<>();
+        for (long t = 0; t <= durationMicros; t += stepMicros) {
+            times.add(t);
+            links.add(StaticTopology.linksWithinRange(x, y, radius));
+            for (int i = 0; i < nodeCount; i++) {
+                double dx = targetX[i] - x[i];
+                double dy = targetY[i] - y[i];
+                double distance = Math.sqrt(dx * dx + dy * dy);
+                if (distance <= stepDistance) {
+                    x[i] = targetX[i];
+                    y[i] = targetY[i];
+                    targetX[i] = random.nextDouble() * width;
+                    targetY[i] = random.nextDouble() * height;
+                } else {
+                    x[i] += dx / distance * stepDistance;
+                    y[i] += dy / distance * stepDistance;
+                }
+            }
+        }
+        return of(times, links);
+    }
+
+    private static MobilityTopology of(List<Long> times, List<int[][]> links) {
+        long[] epochs = new long[times.size()];
+        for (int i = 0; i < epochs.length; i++) {
+            epochs[i] = times.get(i);
+        }
+        return new MobilityTopology(epochs, links.toArray(new int[0][][]));
+    }
+
+    @Override
+    public int getNodeCount() {
+        return epochLinks[0].length;
+    }
+
+    @Override
+    public int[][] getLinks(long timeMicros) {
+        return epochLinks[epochAt(timeMicros)];
+    }
+
+    @Override
+    public long getNextChangeMicros(long timeMicros) {
+        int next = epochAt(timeMicros) + 1;
+        return next < epochMicros.length ? epochMicros[next] : Long.MAX_VALUE;
+    }
+
+    public int getEpochCount() {
+        return epochMicros.length;
+    }
+
+    // Last epoch starting at or before the given time; times before the trace use the first one
+    private int epochAt(long timeMicros) {
+        int i = Arrays.binarySearch(epochMicros, timeMicros);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        return Math.max(0, i);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "MobilityTopology{nodes=%d, epochs=%d}", getNodeCount(), epochMicros.length);
+    }
+}
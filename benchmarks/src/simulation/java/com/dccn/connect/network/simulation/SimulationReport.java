@@ -0,0 +1,84 @@
+package com.dccn.connect.network.simulation;
+
+import java.util.Locale;
+
+/**
+ * SimulationReport - Outcome of one {@link MeshSimulator} run
+ */
+public class SimulationReport {
+
+    int nodeCount;
+    int messageCount;
+    boolean unicast;
+    long possibleDeliveries;
+    long deliveries;
+    long transmissions;
+    long controlTransmissions;
+    long duplicatesSuppressed;
+    long hopLimitDrops;
+    long linkLosses;
+    long events;
+    long simulatedMicros;
+    long wallNanos;
+    long memoryPerNodeBytes;
+    long latencyP50Micros;
+    long latencyP90Micros;
+    long latencyP99Micros;
+    long latencyMaxMicros;
+    long alertReceipts;
+    long possibleAlertReceipts;
+
+    public int getNodeCount() { return nodeCount; }
+    public int getMessageCount() { return messageCount; }
+    public long getDeliveries() { return deliveries; }
+    public long getTransmissions() { return transmissions; }
+    public long getControlTransmissions() { return controlTransmissions; }
+    public boolean isUnicast() { return unicast; }
+    public long getDuplicatesSuppressed() { return duplicatesSuppressed; }
+    public long getHopLimitDrops() { return hopLimitDrops; }
+    public long getLinkLosses() { return linkLosses; }
+    public long getEvents() { return events; }
+    public long getSimulatedMicros() { return simulatedMicros; }
+    public long getWallNanos() { return wallNanos; }
+    public long getMemoryPerNodeBytes() { return memoryPerNodeBytes; }
+    public long getLatencyP50Micros() { return latencyP50Micros; }
+    public long getLatencyP90Micros() { return latencyP90Micros; }
+    public long getLatencyP99Micros() { return latencyP99Micros; }
+    public long getLatencyMaxMicros() { return latencyMaxMicros; }
+    public long getAlertReceipts() { return alertReceipts; }
+
+    /**
+     * With alerts, the fraction of (alert, non-originating node) pairs that saw the alert at all
+     */
+    public double getAlertCoverage() {
+        return possibleAlertReceipts == 0 ? 0.0 : (double) alertReceipts / possibleAlertReceipts;
+    }
+
+    /**
+     * Fraction of (message, non-originating node) pairs that received the message, or with unicast
+     * traffic the fraction of messages that reached their recipient
+     */
+    public double getDeliveryRatio() {
+        return possibleDeliveries == 0 ? 0.0 : (double) deliveries / possibleDeliveries;
+    }
+
+    /**
+     * Radio transmissions spent per delivered copy; 1.0 would be a perfect spanning tree
+     */
+    public double getTransmissionsPerDelivery() {
+        return deliveries == 0 ? 0.0 : (double) transmissions / deliveries;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "nodes=%d messages=%d (%s) deliveryRatio=%.4f latencyMs[p50=%.1f p90=%.1f p99=%.1f max=%.1f]%n"
+                        + "transmissions=%d (%.2f per delivery, %d control) duplicatesSuppressed=%d hopLimitDrops=%d linkLosses=%d%n"
+                        + "memoryPerNode=%dB events=%d simulated=%.1fs wall=%dms",
+                nodeCount, messageCount, unicast ? "unicast" : "broadcast", getDeliveryRatio(),
+                latencyP50Micros / 1000.0, latencyP90Micros / 1000.0, latencyP99Micros / 1000.0, latencyMaxMicros / 1000.0,
+                transmissions, getTransmissionsPerDelivery(), controlTransmissions, duplicatesSuppressed, hopLimitDrops, linkLosses,
+                memoryPerNodeBytes, events, simulatedMicros / 1_000_000.0, wallNanos / 1_000_000)
+                + (possibleAlertReceipts == 0 ? "" : String.format(Locale.US, "%nalertCoverage=%.4f", getAlertCoverage()));
+    }
+}
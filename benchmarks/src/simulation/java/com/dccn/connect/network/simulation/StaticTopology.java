@@ -0,0 +1,147 @@
+package com.dccn.connect.network.simulation;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * StaticTopology - Links that never change: a grid of devices, devices dropped uniformly at
+ * random on a unit square and linked when within radio range (a random geometric graph), or
+ * every device linked to every other.
+ */
+public class StaticTopology implements Topology {
+
+    private final int[][] links;
+
+    public StaticTopology(int[][] links) {
+        this.links = links;
+    }
+
+    /**
+     * Rows x columns lattice, each node linked to its four nearest neighbours
+     */
+    public static StaticTopology grid(int rows, int columns) {
+        int[][] links = new int[rows * columns][];
+        int[] scratch = new int[4];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                int count = 0;
+                if (r > 0) scratch[count++] = (r - 1) * columns + c;
+                if (c > 0) scratch[count++] = r * columns + c - 1;
+                if (c < columns - 1) scratch[count++] = r * columns + c + 1;
+                if (r < rows - 1) scratch[count++] = (r + 1) * columns + c;
+                links[r * columns + c] = Arrays.copyOf(scratch, count);
+            }
+        }
+        return new StaticTopology(links);
+    }
+
+    /**
+     * Every node linked to every other, the setting gossip protocols are usually analysed in
+     */
+    public static StaticTopology complete(int nodeCount) {
+        int[][] links = new int[nodeCount][nodeCount - 1];
+        for (int i = 0; i < nodeCount; i++) {
+            for (int j = 0, k = 0; j < nodeCount; j++) {
+                if (j != i) {
+                    links[i][k++] = j;
+                }
+            }
+        }
+        return new StaticTopology(links);
+    }
+
+    /**
+     * Nodes placed uniformly on the unit square, linked when closer than {@code radius}.
+     * Mean degree is roughly nodeCount * PI * radius^2.
+     */
+    public static StaticTopology randomGeometric(int nodeCount, double radius, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        double[] x = new double[nodeCount];
+        double[] y = new double[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            x[i] = random.nextDouble();
+            y[i] = random.nextDouble();
+        }
+        return new StaticTopology(linksWithinRange(x, y, radius));
+    }
+
+    @Override
+    public int getNodeCount() {
+        return links.length;
+    }
+
+    @Override
+    public int[][] getLinks(long timeMicros) {
+        return links;
+    }
+
+    @Override
+    public long getNextChangeMicros(long timeMicros) {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Unit-disk links between positions, found by bucketing nodes into radius-sized cells so only
+     * the nine surrounding cells are searched per node
+     */
+    static int[][] linksWithinRange(double[] x, double[] y, double radius) {
+        int n = x.length;
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            minX = Math.min(minX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        int cellsX = Math.max(1, Math.min(1024, (int) ((maxX - minX) / radius) + 1));
+        int cellsY = Math.max(1, Math.min(1024, (int) ((maxY - minY) / radius) + 1));
+        double cellW = Math.max(radius, (maxX - minX) / cellsX + 1e-9);
+        double cellH = Math.max(radius, (maxY - minY) / cellsY + 1e-9);
+
+        // Counting sort of nodes by cell
+        int[] cellOf = new int[n];
+        int[] cellStart = new int[cellsX * cellsY + 1];
+        for (int i = 0; i < n; i++) {
+            int cx = Math.min(cellsX - 1, (int) ((x[i] - minX) / cellW));
+            int cy = Math.min(cellsY - 1, (int) ((y[i] - minY) / cellH));
+            cellOf[i] = cy * cellsX + cx;
+            cellStart[cellOf[i] + 1]++;
+        }
+        for (int c = 0; c < cellsX * cellsY; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] sorted = new int[n];
+        int[] fill = Arrays.copyOf(cellStart, cellStart.length);
+        for (int i = 0; i < n; i++) {
+            sorted[fill[cellOf[i]]++] = i;
+        }
+
+        double radiusSquared = radius * radius;
+        int[][] links = new int[n][];
+        int[] scratch = new int[16];
+        for (int i = 0; i < n; i++) {
+            int cx = cellOf[i] % cellsX;
+            int cy = cellOf[i] / cellsX;
+            int count = 0;
+            for (int ny = Math.max(0, cy - 1); ny <= Math.min(cellsY - 1, cy + 1); ny++) {
+                for (int nx = Math.max(0, cx - 1); nx <= Math.min(cellsX - 1, cx + 1); nx++) {
+                    int cell = ny * cellsX + nx;
+                    for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                        int j = sorted[k];
+                        double dx = x[i] - x[j];
+                        double dy = y[i] - y[j];
+                        if (j != i && dx * dx + dy * dy <= radiusSquared) {
+                            if (count == scratch.length) {
+                                scratch = Arrays.copyOf(scratch, count * 2);
+                            }
+                            scratch[count++] = j;
+                        }
+                    }
+                }
+            }
+            links[i] = Arrays.copyOf(scratch, count);
+            Arrays.sort(links[i]);
+        }
+        return links;
+    }
+}
@@ -0,0 +1,20 @@
+package com.dccn.connect.network.simulation;
+
+/**
+ * Topology - Who can hear whom during a simulation run. Node indices run from 0 to
+ * {@link #getNodeCount()} - 1 and links are symmetric.
+ */
+public interface Topology {
+
+    int getNodeCount();
+
+    /**
+     * Neighbour lists in effect at the given simulated time, each sorted ascending
+     */
+    int[][] getLinks(long timeMicros);
+
+    /**
+     * First time after {@code timeMicros} at which the links change, or Long.MAX_VALUE if never
+     */
+    long getNextChangeMicros(long timeMicros);
+}